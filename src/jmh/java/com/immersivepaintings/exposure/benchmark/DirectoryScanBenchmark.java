@@ -0,0 +1,71 @@
+package com.immersivepaintings.exposure.benchmark;
+
+import com.immersivepaintings.exposure.exposure.ExposurePhotoManager;
+import com.immersivepaintings.exposure.exposure.PhotoLibraryIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сканирование директории мира: то, что getPhotosFromDirectory делает после определения пути.
+ * Сам getPhotosFromDirectory требует игрока и клиент, поэтому измеряется его основа - scanDirectory.
+ * Файлы остаются в кэше страниц ОС, так что измеряется "теплое" сканирование.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DirectoryScanBenchmark {
+    
+    private static final int BATCH_SIZE = 256;
+    
+    @Param({"1000", "10000"})
+    public int photoCount;
+    
+    private Path directory;
+    
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Fixtures.createPhotoDirectory(photoCount, 42);
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Fixtures.deleteRecursively(directory);
+    }
+    
+    /**
+     * Перечисление, атрибуты и заголовки файлов
+     */
+    @Benchmark
+    public int scanDirectory(Blackhole blackhole) {
+        return ExposurePhotoManager.getInstance().scanDirectory(directory, BATCH_SIZE, blackhole::consume, () -> false);
+    }
+    
+    /**
+     * Сканирование вместе с построением индекса библиотеки пачками, как при открытии вкладки
+     */
+    @Benchmark
+    public int scanAndIndex() {
+        PhotoLibraryIndex index = new PhotoLibraryIndex();
+        ExposurePhotoManager.getInstance().scanDirectory(directory, BATCH_SIZE, index::addAll, () -> false);
+        return index.size();
+    }
+}
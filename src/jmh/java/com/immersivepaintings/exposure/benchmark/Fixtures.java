@@ -0,0 +1,95 @@
+package com.immersivepaintings.exposure.benchmark;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Синтетические данные для бенчмарков: фотографии и директории в формате Exposure
+ */
+final class Fixtures {
+    
+    private static final String[] PLAYERS = {"Steve", "Alex", "big_bob", "Notch"};
+    private static final String[] SUFFIXES = {"", "_sunset", "_castle", "_portrait"};
+    
+    private Fixtures() {
+    }
+    
+    /**
+     * PNG с плавным градиентом и шумом - сжимается примерно как настоящая фотография
+     */
+    static byte[] createPng(int width, int height, long seed) {
+        Random random = new Random(seed);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = (x * 255 / width + random.nextInt(16)) & 0xFF;
+                int g = (y * 255 / height + random.nextInt(16)) & 0xFF;
+                int b = ((x + y) * 127 / (width + height) + random.nextInt(16)) & 0xFF;
+                image.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            ImageIO.write(image, "png", out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+    
+    /**
+     * Имя файла как у Exposure: [player_name]_[id].png или [player_name]_[id]_[suffix].png
+     */
+    static String photoName(Random random) {
+        return PLAYERS[random.nextInt(PLAYERS.length)] + "_" + (100000 + random.nextInt(900000))
+            + SUFFIXES[random.nextInt(SUFFIXES.length)] + ".png";
+    }
+    
+    /**
+     * Директория мира с заданным количеством фотографий и парой посторонних файлов.
+     * После IEND каждого файла дописан его номер, поэтому у всех фотографий разный хэш содержимого.
+     */
+    static Path createPhotoDirectory(int photoCount, long seed) throws IOException {
+        Path directory = Files.createTempDirectory("exposure-jmh");
+        byte[] png = createPng(64, 48, seed);
+        Random random = new Random(seed);
+        
+        int created = 0;
+        while (created < photoCount) {
+            Path file = directory.resolve(photoName(random));
+            if (!Files.exists(file)) {
+                byte[] content = Arrays.copyOf(png, png.length + 4);
+                content[png.length] = (byte) (created >>> 24);
+                content[png.length + 1] = (byte) (created >>> 16);
+                content[png.length + 2] = (byte) (created >>> 8);
+                content[png.length + 3] = (byte) created;
+                Files.write(file, content);
+                created++;
+            }
+        }
+        Files.writeString(directory.resolve("notes.txt"), "not a photo");
+        Files.createDirectory(directory.resolve("thumbnails"));
+        return directory;
+    }
+    
+    static void deleteRecursively(Path directory) throws IOException {
+        if (directory == null || !Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.immersivepaintings.exposure.benchmark;
+
+import com.immersivepaintings.exposure.exposure.ExposurePhoto;
+import com.immersivepaintings.exposure.exposure.PhotoLibraryIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Поиск по мере ввода и сортировка в {@link PhotoLibraryIndex}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LibraryQueryBenchmark {
+    
+    private static final String TYPED = "castle 5";
+    
+    @Param({"5000", "50000"})
+    public int photoCount;
+    
+    private List<ExposurePhoto> photos;
+    private PhotoLibraryIndex index;
+    private int sortOrder = 0;
+    
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        photos = new ArrayList<>(photoCount);
+        for (int i = 0; i < photoCount; i++) {
+            String name = Fixtures.photoName(random);
+            photos.add(new ExposurePhoto(name, Paths.get("exposures", "world", i + "_" + name), null, null,
+                random.nextInt(1_000_000_000)));
+        }
+        index = new PhotoLibraryIndex();
+        index.addAll(photos);
+    }
+    
+    /**
+     * Ввод запроса по одному символу, как в поле поиска; каждый раз с другой сортировкой,
+     * чтобы не попадать в кэш предыдущего запроса целиком
+     */
+    @Benchmark
+    public void typeQuery(Blackhole blackhole) {
+        PhotoLibraryIndex.SortOrder order = PhotoLibraryIndex.SortOrder.values()[sortOrder++ % 3];
+        for (int length = 1; length <= TYPED.length(); length++) {
+            blackhole.consume(index.query(TYPED.substring(0, length), order));
+        }
+    }
+    
+    /**
+     * Фильтр по фотографу без поиска по имени
+     */
+    @Benchmark
+    public List<ExposurePhoto> photographerFilter() {
+        PhotoLibraryIndex.SortOrder order = PhotoLibraryIndex.SortOrder.values()[sortOrder++ % 3];
+        return index.query("@big", order);
+    }
+    
+    /**
+     * Построение индекса пачками, как при первичном сканировании
+     */
+    @Benchmark
+    public int buildIndex() {
+        PhotoLibraryIndex built = new PhotoLibraryIndex();
+        for (int from = 0; from < photos.size(); from += 256) {
+            built.addAll(photos.subList(from, Math.min(from + 256, photos.size())));
+        }
+        return built.size();
+    }
+}
@@ -0,0 +1,81 @@
+package com.immersivepaintings.exposure.benchmark;
+
+import com.immersivepaintings.exposure.image.ImageResampler;
+import com.immersivepaintings.exposure.image.PaintingConverter;
+import com.immersivepaintings.exposure.image.PaintingImage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Конвертация фотографии в картину: полосы в пуле ForkJoin против одного потока
+ * (обрезка копией и {@link ImageResampler#resample}).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PaintingConverterBenchmark {
+    
+    @Param({"1920x1080", "3840x2160"})
+    public String sourceSize;
+    
+    // Блоки по ширине и высоте x пикселей на блок
+    @Param({"4x4x32", "16x16x64"})
+    public String painting;
+    
+    private int width;
+    private int height;
+    private int[] pixels;
+    private int widthBlocks;
+    private int heightBlocks;
+    private int pixelsPerBlock;
+    
+    @Setup
+    public void setup() {
+        String[] size = sourceSize.split("x");
+        width = Integer.parseInt(size[0]);
+        height = Integer.parseInt(size[1]);
+        String[] target = painting.split("x");
+        widthBlocks = Integer.parseInt(target[0]);
+        heightBlocks = Integer.parseInt(target[1]);
+        pixelsPerBlock = Integer.parseInt(target[2]);
+        
+        Random random = new Random(42);
+        pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt() | 0xFF000000;
+        }
+    }
+    
+    @Benchmark
+    public PaintingImage parallelStrips() {
+        return PaintingConverter.getInstance().convert(PaintingConverter.arraySource(pixels, width), width, height,
+            widthBlocks, heightBlocks, pixelsPerBlock);
+    }
+    
+    @Benchmark
+    public int[] singleThread() {
+        int dstWidth = widthBlocks * pixelsPerBlock;
+        int dstHeight = heightBlocks * pixelsPerBlock;
+        int[] crop = PaintingConverter.cropToAspect(width, height, dstWidth, dstHeight);
+        int[] cropped = new int[crop[2] * crop[3]];
+        for (int y = 0; y < crop[3]; y++) {
+            System.arraycopy(pixels, (crop[1] + y) * width + crop[0], cropped, y * crop[2], crop[2]);
+        }
+        return ImageResampler.resample(cropped, crop[2], crop[3], dstWidth, dstHeight);
+    }
+}
@@ -0,0 +1,84 @@
+package com.immersivepaintings.exposure.benchmark;
+
+import com.immersivepaintings.exposure.image.PaletteQuantizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сведение картины к палитре карт: полосы в пуле конвертера против одного потока, по режимам сглаживания,
+ * и перебор палитры на пиксель без куба для сравнения. Каждый вызов сначала копирует исходные пиксели
+ * в рабочий буфер, копия входит в замер.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PaletteQuantizerBenchmark {
+    
+    // Сторона квадратной картины: 4x4 блока по 32 и 16x16 блоков по 64
+    @Param({"128", "1024"})
+    public int size;
+    
+    @Param({"NONE", "ORDERED", "FLOYD_STEINBERG"})
+    public PaletteQuantizer.Dither dither;
+    
+    private PaletteQuantizer quantizer;
+    private int[] source;
+    private int[] work;
+    
+    @Setup
+    public void setup() {
+        quantizer = PaletteQuantizer.mapColors();
+        Random random = new Random(42);
+        source = new int[size * size];
+        // Плавные градиенты с шумом, как у фотографии, а не случайные цвета
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                int r = Math.min(255, x * 256 / size + random.nextInt(8));
+                int g = Math.min(255, y * 256 / size + random.nextInt(8));
+                int b = Math.min(255, (x + y) * 128 / size + random.nextInt(8));
+                source[y * size + x] = 0xFF000000 | (b << 16) | (g << 8) | r;
+            }
+        }
+        work = new int[source.length];
+    }
+    
+    @Benchmark
+    public int[] parallelStrips() {
+        System.arraycopy(source, 0, work, 0, source.length);
+        quantizer.quantize(work, size, size, dither);
+        return work;
+    }
+    
+    @Benchmark
+    public int[] singleThread() {
+        System.arraycopy(source, 0, work, 0, source.length);
+        quantizer.quantizeRows(work, size, 0, size, dither);
+        return work;
+    }
+    
+    /**
+     * Ближайший цвет перебором палитры на каждый пиксель (режим сглаживания не учитывается)
+     */
+    @Benchmark
+    public int[] bruteForceNearest() {
+        for (int i = 0; i < source.length; i++) {
+            work[i] = quantizer.nearestExact(source[i]);
+        }
+        return work;
+    }
+}
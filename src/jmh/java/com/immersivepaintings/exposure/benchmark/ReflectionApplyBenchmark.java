@@ -0,0 +1,149 @@
+package com.immersivepaintings.exposure.benchmark;
+
+import com.immersivepaintings.exposure.ImmersivePaintingsExposure;
+import com.immersivepaintings.exposure.exposure.ExposurePhoto;
+import com.immersivepaintings.exposure.integration.PaintingIntegration;
+import net.minecraft.resources.ResourceLocation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Передача готового изображения картины экрану через рефлексию (PaintingIntegration.applyViaReflection).
+ * Экран-заглушка похож на экран Immersive Paintings: много посторонних методов и полей
+ * и один подходящий метод {@code setImage(String)}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReflectionApplyBenchmark {
+    
+    private FakePaintingScreen screen;
+    private ExposurePhoto photo;
+    
+    @Setup
+    public void setup() throws ReflectiveOperationException {
+        // Интеграция включается модом при загрузке; здесь мода нет, поэтому выставляем флаги напрямую
+        for (String flag : new String[]{"immersivePaintingsLoaded", "exposureLoaded"}) {
+            Field field = ImmersivePaintingsExposure.class.getDeclaredField(flag);
+            field.setAccessible(true);
+            field.setBoolean(null, true);
+        }
+        
+        screen = new FakePaintingScreen();
+        photo = new ExposurePhoto("Steve_123456.png", Paths.get("exposures", "world", "Steve_123456.png"), null);
+    }
+    
+    /**
+     * Текущий путь: цели найдены один раз на класс экрана, вызов через MethodHandle
+     */
+    @Benchmark
+    public boolean cachedApply() {
+        return PaintingIntegration.getInstance().applyPainting(photo, screen);
+    }
+    
+    /**
+     * Прежний перебор методов и полей при каждом вызове (без логирования успешного вызова)
+     */
+    @Benchmark
+    public boolean legacyReflectiveSearch() {
+        try {
+            for (Method method : screen.getClass().getDeclaredMethods()) {
+                String methodName = method.getName().toLowerCase(Locale.ROOT);
+                if ((methodName.contains("set") && (methodName.contains("image") || methodName.contains("texture") || methodName.contains("painting"))) ||
+                    methodName.contains("apply") || methodName.contains("load")) {
+                    method.setAccessible(true);
+                    Class<?>[] paramTypes = method.getParameterTypes();
+                    if (paramTypes.length == 1 && paramTypes[0] == String.class) {
+                        method.invoke(screen, photo.getFilePath().toString());
+                        return true;
+                    }
+                }
+            }
+            for (Field field : screen.getClass().getDeclaredFields()) {
+                String fieldName = field.getName().toLowerCase(Locale.ROOT);
+                if ((fieldName.contains("image") || fieldName.contains("texture") ||
+                    fieldName.contains("painting") || fieldName.contains("selected")) && field.getType() == String.class) {
+                    field.setAccessible(true);
+                    field.set(screen, photo.getFilePath().toString());
+                    return true;
+                }
+            }
+        } catch (ReflectiveOperationException e) {
+            return false;
+        }
+        return false;
+    }
+    
+    /**
+     * Заглушка экрана редактирования картины
+     */
+    @SuppressWarnings("unused")
+    public static class FakePaintingScreen {
+        private String title = "";
+        private int width;
+        private int height;
+        private boolean dirty;
+        private ResourceLocation previewTexture;
+        private final String paintingName = "painting";
+        private String image;
+        
+        public void init() {
+        }
+        
+        public void tick() {
+            dirty = false;
+        }
+        
+        public void render(int mouseX, int mouseY, float partialTick) {
+        }
+        
+        public boolean mouseClicked(double mouseX, double mouseY, int button) {
+            return false;
+        }
+        
+        public void setTitle(String title) {
+            this.title = title;
+        }
+        
+        public void resize(int width, int height) {
+            this.width = width;
+            this.height = height;
+        }
+        
+        public int getWidth() {
+            return width;
+        }
+        
+        public int getHeight() {
+            return height;
+        }
+        
+        public void loadSettings(int version, boolean reset) {
+        }
+        
+        public void applyChanges() {
+            dirty = true;
+        }
+        
+        public void setImage(String image) {
+            this.image = image;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.immersivepaintings.exposure.benchmark;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Сравнивает результаты JMH (JSON) с базовыми и завершается с ошибкой, если какой-либо бенчмарк
+ * стал медленнее больше чем на допуск. Сравниваются только бенчмарки, которые есть в обоих файлах.
+ * <p>
+ * Аргументы: {@code <baseline.json> <results.json> [допуск в процентах, по умолчанию 10]}
+ */
+public final class RegressionCheck {
+    
+    private RegressionCheck() {
+    }
+    
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: RegressionCheck <baseline.json> <results.json> [tolerancePercent]");
+            System.exit(2);
+        }
+        double tolerance = args.length > 2 ? Double.parseDouble(args[2]) / 100.0 : 0.10;
+        
+        Map<String, Score> baseline = read(Paths.get(args[0]));
+        Map<String, Score> results = read(Paths.get(args[1]));
+        
+        int regressions = 0;
+        for (Map.Entry<String, Score> entry : new TreeMap<>(results).entrySet()) {
+            Score before = baseline.get(entry.getKey());
+            if (before == null) {
+                System.out.printf("NEW        %s: %.3f %s%n", entry.getKey(), entry.getValue().value, entry.getValue().unit);
+                continue;
+            }
+            
+            Score after = entry.getValue();
+            // Для времени меньше - лучше, для пропускной способности - больше
+            double change = after.higherIsBetter
+                ? (before.value - after.value) / before.value
+                : (after.value - before.value) / before.value;
+            boolean regressed = change > tolerance;
+            if (regressed) {
+                regressions++;
+            }
+            System.out.printf("%-10s %s: %.3f -> %.3f %s (%+.1f%%)%n", regressed ? "REGRESSED" : "ok",
+                entry.getKey(), before.value, after.value, after.unit, change * 100.0);
+        }
+        
+        if (regressions > 0) {
+            System.out.printf("%d benchmark(s) regressed by more than %.0f%%%n", regressions, tolerance * 100.0);
+            System.exit(1);
+        }
+    }
+    
+    /**
+     * Результаты по ключу "бенчмарк параметр=значение ..."
+     */
+    private static Map<String, Score> read(Path file) throws IOException {
+        Map<String, Score> scores = new LinkedHashMap<>();
+        try (Reader reader = Files.newBufferedReader(file)) {
+            JsonArray runs = JsonParser.parseReader(reader).getAsJsonArray();
+            for (JsonElement element : runs) {
+                JsonObject run = element.getAsJsonObject();
+                StringBuilder key = new StringBuilder(run.get("benchmark").getAsString());
+                if (run.has("params")) {
+                    JsonObject params = run.getAsJsonObject("params");
+                    for (String name : new TreeSet<>(params.keySet())) {
+                        key.append(' ').append(name).append('=').append(params.get(name).getAsString());
+                    }
+                }
+                
+                JsonObject metric = run.getAsJsonObject("primaryMetric");
+                String mode = run.get("mode").getAsString();
+                scores.put(key.toString(), new Score(metric.get("score").getAsDouble(),
+                    metric.get("scoreUnit").getAsString(), mode.equals("thrpt")));
+            }
+        }
+        return scores;
+    }
+    
+    private static final class Score {
+        private final double value;
+        private final String unit;
+        private final boolean higherIsBetter;
+        
+        private Score(double value, String unit, boolean higherIsBetter) {
+            this.value = value;
+            this.unit = unit;
+            this.higherIsBetter = higherIsBetter;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.immersivepaintings.exposure.benchmark;
+
+import com.immersivepaintings.exposure.image.ImageResampler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сравнение прежнего масштабирования миниатюр (ближайший сосед, вызов на каждый пиксель)
+ * с {@link ImageResampler}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResamplerBenchmark {
+    
+    private static final int THUMBNAIL_SIZE = 128;
+    
+    @Param({"640x480", "1920x1080", "4000x3000"})
+    public String sourceSize;
+    
+    private int width;
+    private int height;
+    private int[] pixels;
+    private OffHeapImage source;
+    private ImageResampler resampler;
+    private int[] output;
+    
+    @Setup
+    public void setup() {
+        String[] parts = sourceSize.split("x");
+        width = Integer.parseInt(parts[0]);
+        height = Integer.parseInt(parts[1]);
+        
+        Random random = new Random(42);
+        pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt() | 0xFF000000;
+        }
+        source = new OffHeapImage(width, height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                source.setPixelRGBA(x, y, pixels[y * width + x]);
+            }
+        }
+        
+        int[] size = ImageResampler.fitWithin(width, height, THUMBNAIL_SIZE);
+        resampler = new ImageResampler(width, height, size[0], size[1]);
+        output = new int[size[0] * size[1]];
+    }
+    
+    /**
+     * Прежний PhotoTextureManager.scaleImage
+     */
+    @Benchmark
+    public OffHeapImage legacyNearestNeighbour() {
+        int newWidth, newHeight;
+        if (width > height) {
+            newWidth = THUMBNAIL_SIZE;
+            newHeight = (int) ((double) height * THUMBNAIL_SIZE / width);
+        } else {
+            newHeight = THUMBNAIL_SIZE;
+            newWidth = (int) ((double) width * THUMBNAIL_SIZE / height);
+        }
+        
+        OffHeapImage scaled = new OffHeapImage(newWidth, newHeight);
+        for (int y = 0; y < newHeight; y++) {
+            for (int x = 0; x < newWidth; x++) {
+                int srcX = x * width / newWidth;
+                int srcY = y * height / newHeight;
+                scaled.setPixelRGBA(x, y, source.getPixelRGBA(srcX, srcY));
+            }
+        }
+        return scaled;
+    }
+    
+    /**
+     * Box-фильтр с новым экземпляром на каждое изображение, как в ThumbnailLoader
+     */
+    @Benchmark
+    public int[] boxResample() {
+        int[] size = ImageResampler.fitWithin(width, height, THUMBNAIL_SIZE);
+        return ImageResampler.resample(pixels, width, height, size[0], size[1]);
+    }
+    
+    /**
+     * Box-фильтр с переиспользованными таблицами и буфером результата
+     */
+    @Benchmark
+    public int[] boxResampleReused() {
+        resampler.begin(output);
+        for (int y = 0; y < height; y++) {
+            resampler.pushRow(pixels, y * width);
+        }
+        return output;
+    }
+    
+    /**
+     * Замена NativeImage без нативных библиотек: пиксели вне кучи Java, доступ по одному
+     * с проверкой границ, как в NativeImage.getPixelRGBA/setPixelRGBA.
+     */
+    public static class OffHeapImage {
+        private final int width;
+        private final int height;
+        private final ByteBuffer buffer;
+        
+        OffHeapImage(int width, int height) {
+            this.width = width;
+            this.height = height;
+            this.buffer = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.nativeOrder());
+        }
+        
+        int getPixelRGBA(int x, int y) {
+            if (x < 0 || x >= width || y < 0 || y >= height) {
+                throw new IllegalArgumentException("(" + x + ", " + y + ") outside of image bounds");
+            }
+            return buffer.getInt((x + y * width) * 4);
+        }
+        
+        void setPixelRGBA(int x, int y, int color) {
+            if (x < 0 || x >= width || y < 0 || y >= height) {
+                throw new IllegalArgumentException("(" + x + ", " + y + ") outside of image bounds");
+            }
+            buffer.putInt((x + y * width) * 4, color);
+        }
+    }
+}
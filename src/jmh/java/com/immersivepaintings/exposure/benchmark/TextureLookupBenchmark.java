@@ -0,0 +1,109 @@
+package com.immersivepaintings.exposure.benchmark;
+
+import com.immersivepaintings.exposure.exposure.ContentHash;
+import com.immersivepaintings.exposure.exposure.FileMetadataCache;
+import com.immersivepaintings.exposure.exposure.PhotoContentIndex;
+import com.immersivepaintings.exposure.gui.ThumbnailCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Поиск уже загруженной миниатюры за кадр - путь попадания в кэш PhotoTextureManager.getOrLoadTexture.
+ * Сам менеджер владеет атласом на GPU и потоками декодирования, поэтому бенчмарк проходит
+ * ту же цепочку через настоящие компоненты: метаданные, хэш содержимого, LRU-кэш.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TextureLookupBenchmark {
+    
+    private static final long SLOT_BYTES = 128 * 128 * 4L;
+    
+    // Сколько миниатюр видно в кадре
+    @Param({"64", "1024"})
+    public int visiblePhotos;
+    
+    private Path directory;
+    private Path[] paths;
+    private ThumbnailCache cache;
+    private final Map<Path, String> contentKeys = new HashMap<>();
+    private final Map<String, Long> legacyTimestamps = new HashMap<>();
+    
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Fixtures.createPhotoDirectory(visiblePhotos, 42);
+        try (Stream<Path> files = Files.list(directory)) {
+            paths = files.filter(file -> file.toString().endsWith(".png")).toArray(Path[]::new);
+        }
+        
+        cache = new ThumbnailCache(Long.MAX_VALUE, (key, region) -> {
+        });
+        for (Path path : paths) {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            FileMetadataCache.getInstance().record(path, attributes);
+            long hash = PhotoContentIndex.getInstance().computeHash(path, attributes);
+            cache.put(ContentHash.toKey(hash), null, attributes.lastModifiedTime().toMillis(), SLOT_BYTES);
+            legacyTimestamps.put(path.toString(), attributes.lastModifiedTime().toMillis());
+        }
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileMetadataCache.getInstance().clear();
+        PhotoContentIndex.getInstance().clear();
+        Fixtures.deleteRecursively(directory);
+    }
+    
+    /**
+     * Текущий путь: без обращения к файловой системе
+     */
+    @Benchmark
+    public void cachedLookup(Blackhole blackhole) {
+        cache.beginFrame();
+        for (Path path : paths) {
+            FileMetadataCache.Metadata metadata = FileMetadataCache.getInstance().get(path);
+            long hash = PhotoContentIndex.getInstance().getKnownHash(path, metadata);
+            if (hash != ContentHash.UNKNOWN) {
+                String key = ContentHash.toKey(hash);
+                blackhole.consume(cache.get(key));
+                contentKeys.put(path, key);
+            }
+        }
+    }
+    
+    /**
+     * Прежний путь: время изменения файла читалось при каждой отрисовке
+     */
+    @Benchmark
+    public void statPerLookup(Blackhole blackhole) throws IOException {
+        for (Path path : paths) {
+            long lastModified = Files.getLastModifiedTime(path).toMillis();
+            Long cached = legacyTimestamps.get(path.toString());
+            blackhole.consume(cached != null && cached == lastModified);
+        }
+    }
+}
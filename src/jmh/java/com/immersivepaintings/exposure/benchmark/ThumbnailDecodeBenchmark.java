@@ -0,0 +1,82 @@
+package com.immersivepaintings.exposure.benchmark;
+
+import com.immersivepaintings.exposure.image.ImageResampler;
+import com.immersivepaintings.exposure.image.StreamingImageDecoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Декодирование фотографии и масштабирование до миниатюры, как в ThumbnailLoader.decodeThumbnail.
+ * NativeImage требует нативных библиотек LWJGL, которых нет в JVM бенчмарка,
+ * поэтому декодирование PNG выполняет ImageIO; масштабирование - тот же {@link ImageResampler}.
+ * {@link #streamingDecode()} - путь, которым миниатюры декодируются теперь.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ThumbnailDecodeBenchmark {
+    
+    private static final int THUMBNAIL_SIZE = 128;
+    
+    @Param({"640x480", "1920x1080", "4000x3000"})
+    public String sourceSize;
+    
+    private byte[] png;
+    // Размеры последнего декодированного изображения
+    private int width;
+    private int height;
+    
+    @Setup
+    public void setup() {
+        String[] parts = sourceSize.split("x");
+        png = Fixtures.createPng(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), 42);
+    }
+    
+    @Benchmark
+    public int[] decode() throws IOException {
+        return decodePixels();
+    }
+    
+    @Benchmark
+    public int[] decodeAndResample() throws IOException {
+        int[] pixels = decodePixels();
+        int[] size = ImageResampler.fitWithin(width, height, THUMBNAIL_SIZE);
+        return ImageResampler.resample(pixels, width, height, size[0], size[1]);
+    }
+    
+    /**
+     * Потоковое декодирование с уменьшением, без полного изображения в памяти
+     */
+    @Benchmark
+    public int[] streamingDecode() throws IOException {
+        return StreamingImageDecoder.decode(new ByteArrayInputStream(png), StreamingImageDecoder.fitWithin(THUMBNAIL_SIZE)).getPixels();
+    }
+    
+    /**
+     * Пиксели одним массивом, как NativeImage.getPixelsRGBA
+     */
+    private int[] decodePixels() throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+        width = image.getWidth();
+        height = image.getHeight();
+        return image.getRGB(0, 0, width, height, null, 0, width);
+    }
+}
@@ -0,0 +1,165 @@
+package com.immersivepaintings.exposure;
+
+import com.immersivepaintings.exposure.image.PaintingConverter;
+import com.immersivepaintings.exposure.image.PaletteQuantizer;
+import net.minecraftforge.common.ForgeConfigSpec;
+import org.apache.commons.lang3.tuple.Pair;
+
+/**
+ * Настройки мода: клиентские (config/immersivepaintings_exposure-client.toml)
+ * и серверные (serverconfig/immersivepaintings_exposure-server.toml в папке мира)
+ */
+public class ExposureConfig {
+    
+    public static final ForgeConfigSpec CLIENT_SPEC;
+    public static final Client CLIENT;
+    public static final ForgeConfigSpec SERVER_SPEC;
+    public static final Server SERVER;
+    
+    static {
+        Pair<Client, ForgeConfigSpec> pair = new ForgeConfigSpec.Builder().configure(Client::new);
+        CLIENT = pair.getLeft();
+        CLIENT_SPEC = pair.getRight();
+        
+        Pair<Server, ForgeConfigSpec> serverPair = new ForgeConfigSpec.Builder().configure(Server::new);
+        SERVER = serverPair.getLeft();
+        SERVER_SPEC = serverPair.getRight();
+    }
+    
+    private ExposureConfig() {
+        // Утилитный класс
+    }
+    
+    public static class Client {
+        public final ForgeConfigSpec.IntValue thumbnailCacheMegabytes;
+        public final ForgeConfigSpec.IntValue gpuUploadMicrosPerFrame;
+        public final ForgeConfigSpec.IntValue gpuUploadKilobytesPerFrame;
+        public final ForgeConfigSpec.BooleanValue showDebugMetrics;
+        public final ForgeConfigSpec.IntValue paintingMaxBlocks;
+        public final ForgeConfigSpec.IntValue paintingPixelsPerBlock;
+        public final ForgeConfigSpec.EnumValue<PaletteQuantizer.Palette> paintingPalette;
+        public final ForgeConfigSpec.EnumValue<PaletteQuantizer.Dither> paintingDither;
+        public final ForgeConfigSpec.IntValue uploadKilobytesPerTick;
+        
+        private Client(ForgeConfigSpec.Builder builder) {
+            builder.comment("Photo thumbnails").push("thumbnails");
+            
+            thumbnailCacheMegabytes = builder
+                .comment("Memory budget for thumbnails kept on the GPU, in megabytes.",
+                         "Least recently drawn thumbnails are evicted when the budget is exceeded.")
+                .defineInRange("cacheBudgetMegabytes", 32, 4, 1024);
+            
+            gpuUploadMicrosPerFrame = builder
+                .comment("Time a frame may spend uploading decoded thumbnails to the GPU, in microseconds.",
+                         "Remaining thumbnails are uploaded in the next frames, visible ones first.")
+                .defineInRange("gpuUploadMicrosPerFrame", 2000, 100, 50000);
+            
+            gpuUploadKilobytesPerFrame = builder
+                .comment("Thumbnail pixels a frame may upload to the GPU, in kilobytes.",
+                         "At least one thumbnail is uploaded per frame regardless of the limits.")
+                .defineInRange("gpuUploadKilobytesPerFrame", 512, 64, 16384);
+            
+            builder.pop();
+            
+            builder.comment("Converting photos to paintings").push("paintings");
+            
+            paintingMaxBlocks = builder
+                .comment("Longer side of the painting made from a photo, in blocks.",
+                         "The shorter side follows the photo's aspect ratio.")
+                .defineInRange("maxBlocks", 4, 1, PaintingConverter.MAX_BLOCKS);
+            
+            paintingPixelsPerBlock = builder
+                .comment("Painting resolution in pixels per block.",
+                         "The photo is cropped to the painting's aspect ratio and resampled to exactly this grid.",
+                         "Lowered automatically when a large painting would not fit the 32 MB conversion budget.")
+                .defineInRange("pixelsPerBlock", 32, 8, PaintingConverter.MAX_PIXELS_PER_BLOCK);
+            
+            paintingPalette = builder
+                .comment("Palette the painting is reduced to: NONE keeps the photo's colors,",
+                         "MAP_COLORS uses the map colors of Exposure frames, GRAYSCALE uses 64 shades of gray.")
+                .defineEnum("palette", PaletteQuantizer.Palette.NONE);
+            
+            paintingDither = builder
+                .comment("Dithering used when a palette is set: NONE, ORDERED (Bayer 8x8) or FLOYD_STEINBERG.")
+                .defineEnum("dither", PaletteQuantizer.Dither.ORDERED);
+            
+            builder.pop();
+            
+            builder.comment("Uploading paintings to a multiplayer server").push("uploads");
+            
+            uploadKilobytesPerTick = builder
+                .comment("How many compressed kilobytes of a painting image may be sent to the server per client tick.",
+                         "Lower values spread the upload over more ticks; the server may throttle further.")
+                .defineInRange("kilobytesPerTick", 24, 1, 256);
+            
+            builder.pop();
+            
+            builder.comment("Diagnostics").push("debug");
+            
+            showDebugMetrics = builder
+                .comment("Show photo pipeline metrics (scan, decode, cache, uploads, apply) in the F3 debug screen.",
+                         "Metrics can also be written to a file with /exposuremetrics dump.")
+                .define("showPipelineMetrics", false);
+            
+            builder.pop();
+        }
+    }
+    
+    public static class Server {
+        public final ForgeConfigSpec.IntValue maxUploadKilobytes;
+        public final ForgeConfigSpec.IntValue uploadKilobytesPerSecond;
+        public final ForgeConfigSpec.IntValue maxUploadsPerPlayer;
+        public final ForgeConfigSpec.IntValue playerUploadQuotaMegabytes;
+        public final ForgeConfigSpec.IntValue totalUploadQuotaMegabytes;
+        
+        private Server(ForgeConfigSpec.Builder builder) {
+            builder.comment("Painting images uploaded by players").push("uploads");
+            
+            maxUploadKilobytes = builder
+                .comment("Largest painting image a player may upload, in kilobytes.")
+                .defineInRange("maxUploadKilobytes", 8192, 64, 65536);
+            
+            uploadKilobytesPerSecond = builder
+                .comment("Upload rate allowed per player, in compressed kilobytes per second.",
+                         "Chunks above the rate are refused and resent by the client later.")
+                .defineInRange("kilobytesPerSecond", 1024, 16, 65536);
+            
+            maxUploadsPerPlayer = builder
+                .comment("How many unfinished uploads a player may have at the same time.")
+                .defineInRange("maxUploadsPerPlayer", 2, 1, 16);
+            
+            playerUploadQuotaMegabytes = builder
+                .comment("Disk space a player's uploads may take, in megabytes.",
+                         "Counts stored images the player uploaded first and the player's unfinished uploads.")
+                .defineInRange("playerQuotaMegabytes", 256, 1, 1048576);
+            
+            totalUploadQuotaMegabytes = builder
+                .comment("Disk space all uploads of the world may take, in megabytes.")
+                .defineInRange("totalQuotaMegabytes", 4096, 1, 1048576);
+            
+            builder.pop();
+        }
+    }
+    
+    /**
+     * Безопасно читает значение: до загрузки конфигурации возвращает значение по умолчанию
+     */
+    public static int get(ForgeConfigSpec.IntValue value) {
+        return CLIENT_SPEC.isLoaded() ? value.get() : value.getDefault();
+    }
+    
+    public static boolean get(ForgeConfigSpec.BooleanValue value) {
+        return CLIENT_SPEC.isLoaded() ? value.get() : value.getDefault();
+    }
+    
+    public static <T extends Enum<T>> T get(ForgeConfigSpec.EnumValue<T> value) {
+        return CLIENT_SPEC.isLoaded() ? value.get() : value.getDefault();
+    }
+    
+    /**
+     * То же для серверных значений: конфигурация сервера загружается при запуске мира
+     */
+    public static int getServer(ForgeConfigSpec.IntValue value) {
+        return SERVER_SPEC.isLoaded() ? value.get() : value.getDefault();
+    }
+}
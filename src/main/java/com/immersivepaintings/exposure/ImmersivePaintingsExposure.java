@@ -1,10 +1,13 @@
 package com.immersivepaintings.exposure;
 
 import com.immersivepaintings.exposure.integration.ModIntegration;
+import com.immersivepaintings.exposure.network.ExposureNetwork;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.eventbus.api.IEventBus;
 import net.minecraftforge.fml.ModList;
+import net.minecraftforge.fml.ModLoadingContext;
 import net.minecraftforge.fml.common.Mod;
+import net.minecraftforge.fml.config.ModConfig;
 import net.minecraftforge.fml.event.lifecycle.FMLCommonSetupEvent;
 import net.minecraftforge.fml.javafmlmod.FMLJavaModLoadingContext;
 import org.apache.logging.log4j.LogManager;
@@ -25,6 +28,11 @@ public class ImmersivePaintingsExposure {
         
         MinecraftForge.EVENT_BUS.register(this);
         
+        ModLoadingContext.get().registerConfig(ModConfig.Type.CLIENT, ExposureConfig.CLIENT_SPEC);
+        ModLoadingContext.get().registerConfig(ModConfig.Type.SERVER, ExposureConfig.SERVER_SPEC);
+        
+        ExposureNetwork.register();
+        
         // Проверяем наличие зависимых модов
         checkModDependencies();
     }
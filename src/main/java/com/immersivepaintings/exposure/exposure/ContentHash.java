@@ -0,0 +1,287 @@
+package com.immersivepaintings.exposure.exposure;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Потоковый XXH64 по содержимому файла.
+ * Файл читается обычным чтением в переиспользуемый прямой буфер потока: отображение в память
+ * на Windows блокирует файл до сборки мусора, и его нельзя переименовать или удалить.
+ * {@link HashingInputStream} считает тот же хэш по потоку, который читает декодер, без второго чтения файла.
+ */
+public final class ContentHash {
+    
+    // 0 зарезервирован под "хэш неизвестен"
+    public static final long UNKNOWN = 0L;
+    
+    // Кратно 32 байтам, чтобы полосы XXH64 не пересекали границу буфера
+    private static final int READ_BUFFER_SIZE = 256 * 1024;
+    private static final ThreadLocal<ByteBuffer> READ_BUFFER =
+        ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(READ_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN));
+    
+    private static final VarHandle LONG_LE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INT_LE = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+    private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME5 = 0x27D4EB2F165667C5L;
+    
+    private ContentHash() {
+    }
+    
+    /**
+     * Хэш содержимого файла. Никогда не возвращает {@link #UNKNOWN}.
+     * Не вызывать в потоке рендера и клиентском потоке: читает файл целиком.
+     */
+    public static long hashFile(Path file) throws IOException {
+        ByteBuffer buffer = READ_BUFFER.get();
+        Hasher hasher = new Hasher();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (true) {
+                buffer.clear();
+                int read = channel.read(buffer);
+                if (read < 0) {
+                    break;
+                }
+                buffer.flip();
+                hasher.update(buffer);
+            }
+        }
+        return hasher.finish();
+    }
+    
+    /**
+     * Хэш массива байт, совпадающий с хэшем файла с тем же содержимым
+     */
+    public static long hashBytes(byte[] data) {
+        return new Hasher().update(data, 0, data.length).finish();
+    }
+    
+    /**
+     * Строковый ключ хэша для кэшей и имен
+     */
+    public static String toKey(long hash) {
+        String hex = Long.toHexString(hash);
+        return "0".repeat(16 - hex.length()) + hex;
+    }
+    
+    private static long normalize(long hash) {
+        return hash == UNKNOWN ? 1L : hash;
+    }
+    
+    /**
+     * Состояние XXH64 между порциями данных. Порции могут быть любой длины:
+     * неполная полоса копируется и дополняется следующей порцией.
+     */
+    public static final class Hasher {
+        private long v1 = PRIME1 + PRIME2;
+        private long v2 = PRIME2;
+        private long v3 = 0;
+        private long v4 = -PRIME1;
+        private long totalLength = 0;
+        // Неполная полоса (меньше 32 байт)
+        private final byte[] memory = new byte[32];
+        private int memorySize = 0;
+        
+        public Hasher update(byte[] data, int offset, int length) {
+            totalLength += length;
+            int end = offset + length;
+            
+            if (memorySize > 0) {
+                int fill = Math.min(32 - memorySize, length);
+                System.arraycopy(data, offset, memory, memorySize, fill);
+                memorySize += fill;
+                offset += fill;
+                if (memorySize < 32) {
+                    return this;
+                }
+                stripe(memory, 0);
+                memorySize = 0;
+            }
+            
+            while (end - offset >= 32) {
+                stripe(data, offset);
+                offset += 32;
+            }
+            
+            if (offset < end) {
+                System.arraycopy(data, offset, memory, 0, end - offset);
+                memorySize = end - offset;
+            }
+            return this;
+        }
+        
+        /**
+         * Поглощает оставшиеся байты буфера с порядком little-endian
+         */
+        private void update(ByteBuffer buffer) {
+            int position = buffer.position();
+            int limit = buffer.limit();
+            totalLength += limit - position;
+            
+            if (memorySize > 0) {
+                int fill = Math.min(32 - memorySize, limit - position);
+                buffer.get(position, memory, memorySize, fill);
+                memorySize += fill;
+                position += fill;
+                if (memorySize < 32) {
+                    buffer.position(limit);
+                    return;
+                }
+                stripe(memory, 0);
+                memorySize = 0;
+            }
+            
+            while (limit - position >= 32) {
+                v1 = round(v1, buffer.getLong(position));
+                v2 = round(v2, buffer.getLong(position + 8));
+                v3 = round(v3, buffer.getLong(position + 16));
+                v4 = round(v4, buffer.getLong(position + 24));
+                position += 32;
+            }
+            
+            if (position < limit) {
+                buffer.get(position, memory, 0, limit - position);
+                memorySize = limit - position;
+            }
+            buffer.position(limit);
+        }
+        
+        private void stripe(byte[] data, int offset) {
+            v1 = round(v1, (long) LONG_LE.get(data, offset));
+            v2 = round(v2, (long) LONG_LE.get(data, offset + 8));
+            v3 = round(v3, (long) LONG_LE.get(data, offset + 16));
+            v4 = round(v4, (long) LONG_LE.get(data, offset + 24));
+        }
+        
+        /**
+         * Хэш всех переданных данных. Никогда не возвращает {@link #UNKNOWN}.
+         */
+        public long finish() {
+            long hash;
+            if (totalLength >= 32) {
+                hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+                hash = mergeRound(hash, v1);
+                hash = mergeRound(hash, v2);
+                hash = mergeRound(hash, v3);
+                hash = mergeRound(hash, v4);
+            } else {
+                hash = PRIME5;
+            }
+            hash += totalLength;
+            
+            int position = 0;
+            while (memorySize - position >= 8) {
+                hash ^= round(0, (long) LONG_LE.get(memory, position));
+                hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+                position += 8;
+            }
+            if (memorySize - position >= 4) {
+                hash ^= ((int) INT_LE.get(memory, position) & 0xFFFFFFFFL) * PRIME1;
+                hash = Long.rotateLeft(hash, 23) * PRIME2 + PRIME3;
+                position += 4;
+            }
+            while (position < memorySize) {
+                hash ^= (memory[position] & 0xFFL) * PRIME5;
+                hash = Long.rotateLeft(hash, 11) * PRIME1;
+                position++;
+            }
+            
+            hash ^= hash >>> 33;
+            hash *= PRIME2;
+            hash ^= hash >>> 29;
+            hash *= PRIME3;
+            hash ^= hash >>> 32;
+            return normalize(hash);
+        }
+        
+        private static long round(long accumulator, long input) {
+            accumulator += input * PRIME2;
+            accumulator = Long.rotateLeft(accumulator, 31);
+            return accumulator * PRIME1;
+        }
+        
+        private static long mergeRound(long accumulator, long value) {
+            accumulator ^= round(0, value);
+            return accumulator * PRIME1 + PRIME4;
+        }
+    }
+    
+    /**
+     * Поток, который хэширует все прочитанные через него байты.
+     * Декодер может не дочитать файл до конца, поэтому {@link #finish()} сначала дочитывает остаток.
+     */
+    public static final class HashingInputStream extends FilterInputStream {
+        private final Hasher hasher = new Hasher();
+        private final byte[] single = new byte[1];
+        
+        public HashingInputStream(InputStream in) {
+            super(in);
+        }
+        
+        @Override
+        public int read() throws IOException {
+            int read = read(single, 0, 1);
+            return read < 0 ? -1 : single[0] & 0xFF;
+        }
+        
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = in.read(buffer, offset, length);
+            if (read > 0) {
+                hasher.update(buffer, offset, read);
+            }
+            return read;
+        }
+        
+        @Override
+        public long skip(long count) throws IOException {
+            // Пропущенные байты тоже входят в хэш
+            byte[] buffer = new byte[(int) Math.min(count, 8192)];
+            long skipped = 0;
+            while (skipped < count) {
+                int read = read(buffer, 0, (int) Math.min(buffer.length, count - skipped));
+                if (read < 0) {
+                    break;
+                }
+                skipped += read;
+            }
+            return skipped;
+        }
+        
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+        
+        @Override
+        public synchronized void mark(int readLimit) {
+        }
+        
+        @Override
+        public synchronized void reset() throws IOException {
+            throw new IOException("mark/reset not supported");
+        }
+        
+        /**
+         * Дочитывает поток до конца и возвращает хэш всего содержимого
+         */
+        public long finish() throws IOException {
+            byte[] buffer = new byte[8192];
+            while (read(buffer, 0, buffer.length) >= 0) {
+                // Только хэшируем
+            }
+            return hasher.finish();
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package com.immersivepaintings.exposure.exposure;
+
+import com.mojang.blaze3d.platform.NativeImage;
+import net.minecraft.world.level.material.MapColor;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Чтение кадров Exposure напрямую из данных мира: {@code <сохранение>/data/exposures/<id>.dat}.
+ * Кадр хранится как сжатый NBT с размерами и массивом индексов палитры карт (MapColor,
+ * цвет * 4 + яркость). Индексы переводятся в пиксели через таблицу на 256 цветов,
+ * поэтому кадры доступны без экспорта в PNG и без декодирования PNG.
+ * <p>
+ * Разбор NBT потоковый: читаются только размеры и пиксели, остальные теги пропускаются.
+ */
+public final class ExposureFrameReader {
+    
+    public static final String EXTENSION = ".dat";
+    
+    // Кадры Exposure не больше нескольких сотен пикселей; ограничение защищает от поврежденных файлов
+    private static final int MAX_SIZE = 4096;
+    
+    private static final int TAG_END = 0;
+    private static final int TAG_BYTE = 1;
+    private static final int TAG_SHORT = 2;
+    private static final int TAG_INT = 3;
+    private static final int TAG_LONG = 4;
+    private static final int TAG_FLOAT = 5;
+    private static final int TAG_DOUBLE = 6;
+    private static final int TAG_BYTE_ARRAY = 7;
+    private static final int TAG_STRING = 8;
+    private static final int TAG_LIST = 9;
+    private static final int TAG_COMPOUND = 10;
+    private static final int TAG_INT_ARRAY = 11;
+    private static final int TAG_LONG_ARRAY = 12;
+    private static final int MAX_DEPTH = 64;
+    
+    private ExposureFrameReader() {
+    }
+    
+    public static boolean isFrameFile(Path file) {
+        return file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(EXTENSION);
+    }
+    
+    public static Frame read(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return read(in);
+        }
+    }
+    
+    /**
+     * Читает кадр из сжатого NBT. Поддерживается и файл SavedData (поля внутри "data"),
+     * и кадр без этой обертки.
+     */
+    public static Frame read(InputStream compressed) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(compressed, 8192), 8192));
+        if (in.readUnsignedByte() != TAG_COMPOUND) {
+            throw new IOException("Frame root is not a compound tag");
+        }
+        in.readUTF();
+        
+        FrameBuilder builder = new FrameBuilder();
+        readCompound(in, builder, true, 0);
+        return builder.build();
+    }
+    
+    /**
+     * Копия таблицы палитры карт: индекс кадра -> ABGR. Неиспользуемые индексы прозрачны (0).
+     */
+    public static int[] paletteColors() {
+        return Palette.COLORS.clone();
+    }
+    
+    /**
+     * Пиксели кадра в формате NativeImage (ABGR в int)
+     */
+    public static int[] toPixels(Frame frame) {
+        int[] palette = Palette.COLORS;
+        byte[] indices = frame.indices;
+        int[] pixels = new int[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            pixels[i] = palette[indices[i] & 0xFF];
+        }
+        return pixels;
+    }
+    
+    /**
+     * Сохраняет кадр в PNG, например для передачи Immersive Paintings
+     */
+    public static void exportPng(Frame frame, Path target) throws IOException {
+        int[] pixels = toPixels(frame);
+        try (NativeImage image = new NativeImage(frame.width, frame.height, false)) {
+            for (int y = 0; y < frame.height; y++) {
+                int row = y * frame.width;
+                for (int x = 0; x < frame.width; x++) {
+                    image.setPixelRGBA(x, y, pixels[row + x]);
+                }
+            }
+            image.writeToFile(target);
+        }
+    }
+    
+    /**
+     * @param frameFields поля кадра лежат в этом составном теге (корень или "data")
+     */
+    private static void readCompound(DataInputStream in, FrameBuilder builder, boolean frameFields, int depth) throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw new IOException("NBT nesting is too deep");
+        }
+        while (true) {
+            int type = in.readUnsignedByte();
+            if (type == TAG_END) {
+                return;
+            }
+            String name = in.readUTF();
+            
+            if (frameFields && type == TAG_INT && (name.equals("width") || name.equals("height"))) {
+                int value = in.readInt();
+                if (value <= 0 || value > MAX_SIZE) {
+                    throw new IOException("Invalid frame " + name + ": " + value);
+                }
+                if (name.equals("width")) {
+                    builder.width = value;
+                } else {
+                    builder.height = value;
+                }
+            } else if (frameFields && type == TAG_BYTE_ARRAY && name.equals("pixels")) {
+                int length = in.readInt();
+                if (length < 0 || length > MAX_SIZE * MAX_SIZE) {
+                    throw new IOException("Invalid frame pixel count: " + length);
+                }
+                builder.indices = new byte[length];
+                in.readFully(builder.indices);
+            } else if (type == TAG_COMPOUND && depth == 0 && name.equals("data")) {
+                readCompound(in, builder, true, depth + 1);
+            } else {
+                skipPayload(in, type, depth + 1);
+            }
+        }
+    }
+    
+    private static void skipPayload(DataInputStream in, int type, int depth) throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw new IOException("NBT nesting is too deep");
+        }
+        switch (type) {
+            case TAG_BYTE:
+                in.skipNBytes(1);
+                break;
+            case TAG_SHORT:
+                in.skipNBytes(2);
+                break;
+            case TAG_INT:
+            case TAG_FLOAT:
+                in.skipNBytes(4);
+                break;
+            case TAG_LONG:
+            case TAG_DOUBLE:
+                in.skipNBytes(8);
+                break;
+            case TAG_BYTE_ARRAY:
+                in.skipNBytes(readLength(in));
+                break;
+            case TAG_STRING:
+                in.skipNBytes(in.readUnsignedShort());
+                break;
+            case TAG_LIST:
+                int elementType = in.readUnsignedByte();
+                int count = readLength(in);
+                for (int i = 0; i < count; i++) {
+                    skipPayload(in, elementType, depth + 1);
+                }
+                break;
+            case TAG_COMPOUND:
+                while (true) {
+                    int fieldType = in.readUnsignedByte();
+                    if (fieldType == TAG_END) {
+                        break;
+                    }
+                    in.skipNBytes(in.readUnsignedShort());
+                    skipPayload(in, fieldType, depth + 1);
+                }
+                break;
+            case TAG_INT_ARRAY:
+                in.skipNBytes(readLength(in) * 4L);
+                break;
+            case TAG_LONG_ARRAY:
+                in.skipNBytes(readLength(in) * 8L);
+                break;
+            case TAG_END:
+                break;
+            default:
+                throw new IOException("Unknown NBT tag type: " + type);
+        }
+    }
+    
+    private static int readLength(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Negative NBT length: " + length);
+        }
+        return length;
+    }
+    
+    /**
+     * Кадр: размеры и индексы палитры карт построчно
+     */
+    public static final class Frame {
+        private final int width;
+        private final int height;
+        private final byte[] indices;
+        
+        private Frame(int width, int height, byte[] indices) {
+            this.width = width;
+            this.height = height;
+            this.indices = indices;
+        }
+        
+        public int getWidth() {
+            return width;
+        }
+        
+        public int getHeight() {
+            return height;
+        }
+    }
+    
+    private static final class FrameBuilder {
+        private int width;
+        private int height;
+        private byte[] indices;
+        
+        private Frame build() throws IOException {
+            if (width == 0 || height == 0 || indices == null) {
+                throw new IOException("Frame is missing width, height or pixels");
+            }
+            if (indices.length != width * height) {
+                throw new IOException("Frame has " + indices.length + " pixels, expected " + width + "x" + height);
+            }
+            return new Frame(width, height, indices);
+        }
+    }
+    
+    /**
+     * Таблица цветов палитры карт: индекс (цвет * 4 + яркость) -> ABGR.
+     * Строится при первом чтении кадра.
+     */
+    private static final class Palette {
+        private static final int[] COLORS = new int[256];
+        
+        static {
+            for (int i = 0; i < COLORS.length; i++) {
+                COLORS[i] = MapColor.getColorFromPackedId(i);
+            }
+        }
+    }
+}
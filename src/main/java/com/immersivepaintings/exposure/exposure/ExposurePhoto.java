@@ -3,6 +3,7 @@ package com.immersivepaintings.exposure.exposure;
 import net.minecraft.resources.ResourceLocation;
 
 import java.nio.file.Path;
+import java.util.Arrays;
 
 /**
  * Представляет фотографию из мода Exposure
@@ -11,11 +12,49 @@ public class ExposurePhoto {
     private final String name;
     private final Path filePath;
     private final ResourceLocation textureLocation;
+    // Размеры из заголовка файла, 0 - неизвестны
+    private final int width;
+    private final int height;
+    private final ImageHeaderProbe.ColorType colorType;
+    // Время изменения файла в миллисекундах, 0 - неизвестно
+    private final long lastModified;
+    private final String photographer;
     
     public ExposurePhoto(String name, Path filePath, ResourceLocation textureLocation) {
+        this(name, filePath, textureLocation, null);
+    }
+    
+    public ExposurePhoto(String name, Path filePath, ResourceLocation textureLocation, ImageHeaderProbe.Header header) {
+        this(name, filePath, textureLocation, header, 0L);
+    }
+    
+    public ExposurePhoto(String name, Path filePath, ResourceLocation textureLocation, ImageHeaderProbe.Header header, long lastModified) {
         this.name = name;
         this.filePath = filePath;
         this.textureLocation = textureLocation;
+        this.width = header != null ? header.getWidth() : 0;
+        this.height = header != null ? header.getHeight() : 0;
+        this.colorType = header != null ? header.getColorType() : ImageHeaderProbe.ColorType.UNKNOWN;
+        this.lastModified = lastModified;
+        this.photographer = parsePhotographer(name);
+    }
+    
+    /**
+     * Имя фотографа из имени файла формата [player_name]_[id].png или [player_name]_[id]_[suffix].png.
+     * Имя игрока само может содержать "_", поэтому фотографом считается все до последней числовой части.
+     *
+     * @return имя фотографа или пустая строка, если имя файла не в этом формате
+     */
+    static String parsePhotographer(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        String[] parts = (dot > 0 ? fileName.substring(0, dot) : fileName).split("_");
+        
+        for (int i = parts.length - 1; i > 0; i--) {
+            if (!parts[i].isEmpty() && parts[i].chars().allMatch(Character::isDigit)) {
+                return String.join("_", Arrays.copyOfRange(parts, 0, i));
+            }
+        }
+        return parts.length > 1 ? parts[0] : "";
     }
     
     public String getName() {
@@ -30,6 +69,37 @@ public class ExposurePhoto {
         return textureLocation;
     }
     
+    public int getWidth() {
+        return width;
+    }
+    
+    public int getHeight() {
+        return height;
+    }
+    
+    public ImageHeaderProbe.ColorType getColorType() {
+        return colorType;
+    }
+    
+    public long getLastModified() {
+        return lastModified;
+    }
+    
+    public String getPhotographer() {
+        return photographer;
+    }
+    
+    public boolean hasDimensions() {
+        return width > 0 && height > 0;
+    }
+    
+    /**
+     * Отношение ширины к высоте, 1 если размеры неизвестны
+     */
+    public float getAspectRatio() {
+        return hasDimensions() ? (float) width / height : 1.0f;
+    }
+    
     @Override
     public String toString() {
         return "ExposurePhoto{name='" + name + "'}";
@@ -1,15 +1,33 @@
 package com.immersivepaintings.exposure.exposure;
 
 import com.immersivepaintings.exposure.ImmersivePaintingsExposure;
+import com.immersivepaintings.exposure.image.PaintingConverter;
+import com.immersivepaintings.exposure.image.PaintingImage;
+import com.immersivepaintings.exposure.image.PaletteQuantizer;
 import net.minecraft.client.Minecraft;
 import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.MinecraftServer;
 import net.minecraft.world.entity.player.Player;
+import net.minecraft.world.level.storage.LevelResource;
 
 import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 
 /**
  * Менеджер для работы с фотографиями из мода Exposure
@@ -18,6 +36,17 @@ public class ExposurePhotoManager {
     
     private static final ExposurePhotoManager INSTANCE = new ExposurePhotoManager();
     
+    // Доступ к storageSource.getLevelName() для класса сервера; null, если такого поля или метода нет
+    private static final ClassValue<MethodHandle> LEVEL_NAME_ACCESS = new ClassValue<>() {
+        @Override
+        protected MethodHandle computeValue(Class<?> serverClass) {
+            return bindLevelNameAccess(serverClass);
+        }
+    };
+    
+    // Путь к фотографиям, найденный в текущей игровой сессии; сбрасывается при смене мира
+    private volatile ResolvedPath resolvedPath;
+    
     public static ExposurePhotoManager getInstance() {
         return INSTANCE;
     }
@@ -48,35 +77,18 @@ public class ExposurePhotoManager {
     private List<ExposurePhoto> getPhotosViaReflection(Player player) throws Exception {
         List<ExposurePhoto> photos = new ArrayList<>();
         
-        // Попытка найти классы Exposure через рефлексию
-        try {
-            Class<?> exposurePhotoClass = Class.forName("com.mortuusars.exposure.item.PhotographItem");
-            Class<?> exposureManagerClass = Class.forName("com.mortuusars.exposure.ExposureClient");
-            
-            // Получаем путь к фотографиям
-            Path photosPath = getExposurePhotosPath(player);
-            
-            if (photosPath != null && photosPath.toFile().exists()) {
-                File[] photoFiles = photosPath.toFile().listFiles((dir, name) -> 
-                    name.toLowerCase().endsWith(".png") || 
-                    name.toLowerCase().endsWith(".jpg") ||
-                    name.toLowerCase().endsWith(".jpeg"));
-                
-                if (photoFiles != null) {
-                    for (File photoFile : photoFiles) {
-                        ExposurePhoto photo = new ExposurePhoto(
-                            photoFile.getName(),
-                            photoFile.toPath(),
-                            new ResourceLocation("exposure", "photos/" + photoFile.getName())
-                        );
-                        photos.add(photo);
-                    }
-                }
-            }
-        } catch (ClassNotFoundException e) {
+        // Классы Exposure ищутся один раз (см. ExposureApi)
+        if (!ExposureApi.AVAILABLE) {
             ImmersivePaintingsExposure.LOGGER.warn("Could not find Exposure classes, trying alternative method");
             // Альтернативный способ - прямое чтение из директории
-            photos = getPhotosFromDirectory(player);
+            return getPhotosFromDirectory(player);
+        }
+        
+        // Получаем путь к фотографиям
+        Path photosPath = resolvePhotosPath(player);
+        
+        if (photosPath != null && photosPath.toFile().exists()) {
+            scanDirectory(photosPath, Integer.MAX_VALUE, photos::addAll, () -> false);
         }
         
         return photos;
@@ -85,7 +97,7 @@ public class ExposurePhotoManager {
     private List<ExposurePhoto> getPhotosFromDirectory(Player player) {
         List<ExposurePhoto> photos = new ArrayList<>();
         
-        Path photosPath = getExposurePhotosPath(player);
+        Path photosPath = resolvePhotosPath(player);
         if (photosPath == null) {
             ImmersivePaintingsExposure.LOGGER.warn("Exposure photos path is null");
             return photos;
@@ -102,40 +114,10 @@ public class ExposurePhotoManager {
             return photos;
         }
         
-        // Фильтр для поиска фотографий: [player_name]_[id].png или просто *.png
-        String playerName = player.getName().getString().toLowerCase();
-        File[] photoFiles = photosDir.listFiles((dir, name) -> {
-            String lowerName = name.toLowerCase();
-            // Проверяем расширение
-            boolean validExtension = lowerName.endsWith(".png") || 
-                                     lowerName.endsWith(".jpg") ||
-                                     lowerName.endsWith(".jpeg") ||
-                                     lowerName.endsWith(".webp");
-            
-            if (!validExtension) {
-                return false;
-            }
-            
-            // Если имя файла начинается с имени игрока, это фотография этого игрока
-            // Формат: [player_name]_[id].png или [player_name]_[id]_[suffix].png
-            return lowerName.startsWith(playerName + "_") || 
-                   lowerName.startsWith(playerName + ".") ||
-                   true; // Также показываем все фотографии в папке мира
-        });
+        scanDirectory(photosPath, Integer.MAX_VALUE, photos::addAll, () -> false);
         
-        if (photoFiles != null && photoFiles.length > 0) {
-            ImmersivePaintingsExposure.LOGGER.info("Found {} Exposure photos in: {}", photoFiles.length, photosPath);
-            for (File photoFile : photoFiles) {
-                if (photoFile.isFile()) {
-                    ExposurePhoto photo = new ExposurePhoto(
-                        photoFile.getName(),
-                        photoFile.toPath(),
-                        new ResourceLocation("exposure", "photos/" + photoFile.getName())
-                    );
-                    photos.add(photo);
-                    ImmersivePaintingsExposure.LOGGER.debug("Added photo: {}", photoFile.getName());
-                }
-            }
+        if (!photos.isEmpty()) {
+            ImmersivePaintingsExposure.LOGGER.info("Found {} Exposure photos in: {}", photos.size(), photosPath);
         } else {
             ImmersivePaintingsExposure.LOGGER.warn("No photo files found in: {}", photosPath);
         }
@@ -143,11 +125,163 @@ public class ExposurePhotoManager {
         return photos;
     }
     
+    /**
+     * Сканирует директорию с фотографиями и отдает найденные фотографии пачками.
+     * Не обращается к состоянию клиента, поэтому может выполняться в фоновом потоке.
+     *
+     * @param batchSize максимальный размер одной пачки
+     * @param batchConsumer получатель пачек (вызывается в потоке сканирования)
+     * @param cancelled проверяется между файлами; {@code true} прерывает сканирование
+     * @return общее количество найденных фотографий
+     */
+    public int scanDirectory(Path photosPath, int batchSize, Consumer<List<ExposurePhoto>> batchConsumer,
+                             BooleanSupplier cancelled) {
+        return scanDirectory(photosPath, null, batchSize, batchConsumer, cancelled);
+    }
+    
+    /**
+     * То же, с кадрами Exposure: файлы {@code .dat} принимаются только из директории кадров
+     *
+     * @param framesPath директория кадров или {@code null}
+     */
+    public int scanDirectory(Path photosPath, Path framesPath, int batchSize, Consumer<List<ExposurePhoto>> batchConsumer,
+                             BooleanSupplier cancelled) {
+        int total = 0;
+        List<ExposurePhoto> batch = new ArrayList<>();
+        
+        // Формат: [player_name]_[id].png или [player_name]_[id]_[suffix].png
+        // Показываем все фотографии в папке мира, а не только фотографии текущего игрока
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(photosPath, file -> isPhotoFile(file, framesPath))) {
+            for (Path photoFile : stream) {
+                if (cancelled.getAsBoolean()) {
+                    return total;
+                }
+                
+                // Атрибуты читаются один раз: и для проверки типа файла, и для сортировки по времени
+                BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(photoFile, BasicFileAttributes.class);
+                } catch (IOException e) {
+                    // Файл удален во время сканирования
+                    continue;
+                }
+                if (!attributes.isRegularFile()) {
+                    continue;
+                }
+                FileMetadataCache.getInstance().record(photoFile, attributes);
+                
+                batch.add(createPhoto(photoFile, attributes));
+                total++;
+                
+                if (batch.size() >= batchSize) {
+                    batchConsumer.accept(batch);
+                    batch = new ArrayList<>();
+                }
+            }
+        } catch (IOException | DirectoryIteratorException e) {
+            ImmersivePaintingsExposure.LOGGER.error("Failed to scan Exposure photos directory: {}", photosPath, e);
+        }
+        
+        if (!batch.isEmpty() && !cancelled.getAsBoolean()) {
+            batchConsumer.accept(batch);
+        }
+        
+        return total;
+    }
+    
+    static ExposurePhoto createPhoto(Path photoFile, BasicFileAttributes attributes) {
+        String fileName = photoFile.getFileName().toString();
+        return new ExposurePhoto(
+            fileName,
+            photoFile,
+            new ResourceLocation("exposure", "photos/" + fileName),
+            // Только заголовок файла: размеры нужны сетке до декодирования пикселей
+            ImageHeaderProbe.probe(photoFile),
+            attributes.lastModifiedTime().toMillis()
+        );
+    }
+    
+    /**
+     * Фотография или кадр Exposure. Файлы {@code .dat} в данных мира бывают не только кадрами,
+     * поэтому они принимаются только непосредственно из директории кадров.
+     *
+     * @param framesPath директория кадров или {@code null}
+     */
+    static boolean isPhotoFile(Path path, Path framesPath) {
+        if (hasPhotoExtension(path)) {
+            return true;
+        }
+        return framesPath != null && ExposureFrameReader.isFrameFile(path) && framesPath.equals(path.getParent());
+    }
+    
+    static boolean hasPhotoExtension(Path path) {
+        String lowerName = path.getFileName().toString().toLowerCase();
+        return lowerName.endsWith(".png") || 
+               lowerName.endsWith(".jpg") ||
+               lowerName.endsWith(".jpeg") ||
+               lowerName.endsWith(".webp");
+    }
+    
+    /**
+     * Получает путь к директории с фотографиями текущего мира.
+     * Путь ищется один раз за сессию в мире (см. {@link #invalidateSession()}).
+     * Обращается к состоянию клиента, поэтому должен вызываться в клиентском потоке.
+     */
+    public Path resolvePhotosPath(Player player) {
+        ResolvedPath resolved = resolvedPath;
+        if (resolved == null || !resolved.playerId.equals(player.getUUID()) || resolved.isStaleFallback()) {
+            resolved = getExposurePhotosPath(player);
+            if (resolved == null) {
+                return null;
+            }
+            resolved.framesPath = findFramesPath();
+            resolvedPath = resolved;
+        }
+        return resolved.path;
+    }
+    
+    /**
+     * Директория с кадрами Exposure в данных мира ({@code <сохранение>/data/exposures}).
+     * Доступна только в одиночной игре, в сетевой игре кадры хранятся на сервере.
+     *
+     * @return директория или {@code null}, если кадры недоступны
+     */
+    public Path resolveFramesPath(Player player) {
+        if (resolvePhotosPath(player) == null) {
+            return null;
+        }
+        ResolvedPath resolved = resolvedPath;
+        return resolved != null ? resolved.framesPath : null;
+    }
+    
+    private Path findFramesPath() {
+        try {
+            Minecraft mc = Minecraft.getInstance();
+            MinecraftServer server = mc != null ? mc.getSingleplayerServer() : null;
+            if (server == null) {
+                return null;
+            }
+            Path framesDir = server.getWorldPath(LevelResource.ROOT).resolve("data").resolve("exposures");
+            return Files.isDirectory(framesDir) ? framesDir.normalize() : null;
+        } catch (Exception e) {
+            ImmersivePaintingsExposure.LOGGER.debug("Could not resolve Exposure frames directory", e);
+            return null;
+        }
+    }
+    
+    /**
+     * Забывает найденный путь: следующий запрос определит мир и директорию заново.
+     * Вызывается при загрузке и выгрузке уровня и при выходе из мира.
+     */
+    public void invalidateSession() {
+        resolvedPath = null;
+    }
+    
     /**
      * Получает путь к директории с фотографиями Exposure
      * Формат пути: [gameDir]/exposures/[world_name]/[player_name]_[id].png
      */
-    private Path getExposurePhotosPath(Player player) {
+    private ResolvedPath getExposurePhotosPath(Player player) {
         try {
             Minecraft mc = Minecraft.getInstance();
             if (mc == null) {
@@ -156,6 +290,7 @@ public class ExposurePhotoManager {
             
             Path gameDir = mc.gameDirectory.toPath();
             String playerName = player.getName().getString();
+            UUID playerUUID = player.getUUID();
             
             // Получаем название текущего мира
             String worldName = getCurrentWorldName(mc);
@@ -169,7 +304,7 @@ public class ExposurePhotoManager {
             if (exposuresDir.toFile().exists()) {
                 ImmersivePaintingsExposure.LOGGER.debug("Found Exposure photos at: {} (world: {}, player: {})", 
                     exposuresDir, worldName, playerName);
-                return exposuresDir;
+                return new ResolvedPath(exposuresDir, exposuresDir, playerUUID);
             }
             
             // Альтернативные пути для проверки
@@ -188,54 +323,45 @@ public class ExposurePhotoManager {
                     for (File worldDir : worldDirs) {
                         if (worldDir.getName().equals(worldName)) {
                             ImmersivePaintingsExposure.LOGGER.debug("Found world directory: {}", worldDir.toPath());
-                            return worldDir.toPath();
+                            return new ResolvedPath(worldDir.toPath(), exposuresDir, playerUUID);
                         }
                     }
                     // Если не нашли, возвращаем первую найденную папку мира
                     ImmersivePaintingsExposure.LOGGER.debug("World '{}' not found, using first available: {}", 
                         worldName, worldDirs[0].toPath());
-                    return worldDirs[0].toPath();
+                    return new ResolvedPath(worldDirs[0].toPath(), exposuresDir, playerUUID);
                 }
             }
             
             // Вариант 3: Старый формат exposure/photos/[uuid]/
-            UUID playerUUID = player.getUUID();
             Path oldFormatPath = gameDir.resolve("exposure").resolve("photos").resolve(playerUUID.toString());
             if (oldFormatPath.toFile().exists()) {
                 ImmersivePaintingsExposure.LOGGER.debug("Found Exposure photos in old format at: {}", oldFormatPath);
-                return oldFormatPath;
+                return new ResolvedPath(oldFormatPath, exposuresDir, playerUUID);
             }
             
             // Вариант 4: Попытка через рефлексию получить путь из Exposure API
-            try {
-                Class<?> exposureClient = Class.forName("com.mortuusars.exposure.ExposureClient");
-                java.lang.reflect.Method getPhotosDir = exposureClient.getDeclaredMethod("getPhotosDirectory");
-                if (getPhotosDir != null) {
-                    getPhotosDir.setAccessible(true);
-                    Object photosDir = getPhotosDir.invoke(null);
+            if (ExposureApi.PHOTOS_DIRECTORY != null) {
+                try {
+                    Object photosDir = ExposureApi.PHOTOS_DIRECTORY.invoke();
                     if (photosDir instanceof Path) {
                         Path exposurePath = ((Path) photosDir).resolve(worldName);
                         if (exposurePath.toFile().exists()) {
                             ImmersivePaintingsExposure.LOGGER.debug("Found Exposure photos via API at: {}", exposurePath);
-                            return exposurePath;
+                            return new ResolvedPath(exposurePath, exposuresDir, playerUUID);
                         }
                     }
+                } catch (Throwable e) {
+                    ImmersivePaintingsExposure.LOGGER.debug("Could not get path via Exposure API", e);
                 }
-            } catch (Exception e) {
-                ImmersivePaintingsExposure.LOGGER.debug("Could not get path via Exposure API", e);
             }
             
-            // Логируем информацию для отладки
-            ImmersivePaintingsExposure.LOGGER.warn("Exposure photos directory not found. Checked paths:");
-            ImmersivePaintingsExposure.LOGGER.warn("  - {}", exposuresDir);
-            ImmersivePaintingsExposure.LOGGER.warn("  - {}", exposuresRoot);
-            ImmersivePaintingsExposure.LOGGER.warn("  - {}", oldFormatPath);
-            ImmersivePaintingsExposure.LOGGER.warn("Game directory: {}", gameDir);
-            ImmersivePaintingsExposure.LOGGER.warn("World name: {}", worldName);
-            ImmersivePaintingsExposure.LOGGER.warn("Player name: {}", playerName);
+            // Логируем информацию для отладки (один раз за сессию - результат запоминается)
+            ImmersivePaintingsExposure.LOGGER.warn("Exposure photos directory not found (world: {}, player: {}). Checked: {}, {}, {}",
+                worldName, playerName, exposuresDir, exposuresRoot, oldFormatPath);
             
             // Возвращаем ожидаемый путь (даже если не существует, для создания)
-            return exposuresDir;
+            return new ResolvedPath(exposuresDir, exposuresDir, playerUUID);
         } catch (Exception e) {
             ImmersivePaintingsExposure.LOGGER.error("Failed to get Exposure photos path", e);
             return null;
@@ -260,26 +386,15 @@ public class ExposurePhotoManager {
                     }
                     
                     // Альтернативный способ - через путь к сохранению
-                    if (mc.level.getServer() != null) {
+                    MinecraftServer server = mc.level.getServer();
+                    MethodHandle levelNameAccess = server != null ? LEVEL_NAME_ACCESS.get(server.getClass()) : null;
+                    if (levelNameAccess != null) {
                         try {
-                            java.lang.reflect.Field levelStorageField = mc.level.getServer().getClass()
-                                .getDeclaredField("storageSource");
-                            if (levelStorageField != null) {
-                                levelStorageField.setAccessible(true);
-                                Object storageSource = levelStorageField.get(mc.level.getServer());
-                                if (storageSource != null) {
-                                    java.lang.reflect.Method getLevelName = storageSource.getClass()
-                                        .getDeclaredMethod("getLevelName");
-                                    if (getLevelName != null) {
-                                        getLevelName.setAccessible(true);
-                                        Object levelName = getLevelName.invoke(storageSource);
-                                        if (levelName instanceof String) {
-                                            return (String) levelName;
-                                        }
-                                    }
-                                }
+                            Object levelName = levelNameAccess.invoke(server);
+                            if (levelName instanceof String) {
+                                return (String) levelName;
                             }
-                        } catch (Exception e) {
+                        } catch (Throwable e) {
                             ImmersivePaintingsExposure.LOGGER.debug("Could not get level name via reflection", e);
                         }
                     }
@@ -306,12 +421,96 @@ public class ExposurePhotoManager {
     }
     
     /**
-     * Конвертирует фотографию Exposure в формат, подходящий для Immersive Paintings
+     * Связывает чтение storageSource.getLevelName() для класса сервера.
+     * Поле объявлено в MinecraftServer, поэтому ищется по всей иерархии.
      */
-    public ResourceLocation convertToPaintingTexture(ExposurePhoto photo) {
-        // Здесь должна быть логика конвертации фотографии в текстуру для картины
-        // Пока возвращаем оригинальный ResourceLocation
-        return photo.getTextureLocation();
+    private static MethodHandle bindLevelNameAccess(Class<?> serverClass) {
+        for (Class<?> type = serverClass; type != null; type = type.getSuperclass()) {
+            try {
+                Field storageField = type.getDeclaredField("storageSource");
+                storageField.setAccessible(true);
+                Method getLevelName = storageField.getType().getDeclaredMethod("getLevelName");
+                getLevelName.setAccessible(true);
+                
+                MethodHandles.Lookup lookup = MethodHandles.lookup();
+                MethodHandle getter = lookup.unreflectGetter(storageField);
+                MethodHandle nameGetter = lookup.unreflect(getLevelName);
+                return MethodHandles.filterReturnValue(getter, nameGetter)
+                    .asType(MethodType.methodType(Object.class, Object.class));
+            } catch (NoSuchFieldException e) {
+                // Поле объявлено в суперклассе
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                ImmersivePaintingsExposure.LOGGER.debug("Could not bind level name access for {}", serverClass.getName(), e);
+                return null;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Конвертирует фотографию Exposure в изображение картины Immersive Paintings:
+     * обрезка до пропорций картины и масштабирование до (блоки * пикселей на блок).
+     * Выполняется в пуле конвертера, клиентский поток не занимает.
+     */
+    public CompletableFuture<PaintingImage> convertToPaintingTexture(ExposurePhoto photo, int widthBlocks, int heightBlocks, int pixelsPerBlock) {
+        return PaintingConverter.getInstance().convertAsync(photo.getFilePath(), widthBlocks, heightBlocks, pixelsPerBlock);
+    }
+    
+    /**
+     * То же, со сведением результата к палитре (например, {@link PaletteQuantizer#mapColors()} - палитре кадров Exposure)
+     */
+    public CompletableFuture<PaintingImage> convertToPaintingTexture(ExposurePhoto photo, int widthBlocks, int heightBlocks, int pixelsPerBlock,
+                                                                     PaletteQuantizer quantizer, PaletteQuantizer.Dither dither) {
+        return PaintingConverter.getInstance().convertAsync(photo.getFilePath(), widthBlocks, heightBlocks, pixelsPerBlock,
+            quantizer, dither);
+    }
+    
+    /**
+     * Путь, найденный для игрока, и ожидаемый путь exposures/[world_name]
+     */
+    private static final class ResolvedPath {
+        private final Path path;
+        private final Path expected;
+        private final UUID playerId;
+        // Заполняется до публикации в volatile-поле resolvedPath
+        private Path framesPath;
+        
+        private ResolvedPath(Path path, Path expected, UUID playerId) {
+            this.path = path;
+            this.expected = expected;
+            this.playerId = playerId;
+        }
+        
+        /**
+         * Выбран запасной путь, а директория текущего мира уже появилась (сделана первая фотография)
+         */
+        private boolean isStaleFallback() {
+            return !path.equals(expected) && Files.isDirectory(expected);
+        }
+    }
+    
+    /**
+     * Методы API Exposure, найденные один раз при первом обращении
+     */
+    private static final class ExposureApi {
+        private static final boolean AVAILABLE;
+        private static final MethodHandle PHOTOS_DIRECTORY;
+        
+        static {
+            Class<?> exposureClient = null;
+            MethodHandle photosDirectory = null;
+            try {
+                exposureClient = Class.forName("com.mortuusars.exposure.ExposureClient");
+                Method getPhotosDir = exposureClient.getDeclaredMethod("getPhotosDirectory");
+                getPhotosDir.setAccessible(true);
+                photosDirectory = MethodHandles.lookup().unreflect(getPhotosDir)
+                    .asType(MethodType.methodType(Object.class));
+            } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+                ImmersivePaintingsExposure.LOGGER.debug("Exposure photos directory API is not available", e);
+            }
+            AVAILABLE = exposureClient != null;
+            PHOTOS_DIRECTORY = photosDirectory;
+        }
     }
 }
 
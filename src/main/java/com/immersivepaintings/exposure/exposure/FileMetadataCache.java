@@ -0,0 +1,174 @@
+package com.immersivepaintings.exposure.exposure;
+
+import com.immersivepaintings.exposure.metrics.PipelineMetrics;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Кэш метаданных файлов фотографий (наличие, время изменения, размер).
+ * Поток рендера только читает кэш: устаревшие записи перепроверяются в фоновом потоке,
+ * а файлы отслеживаемой директории обновляются по событиям {@link PhotoDirectoryWatcher}.
+ */
+public class FileMetadataCache {
+    
+    private static final FileMetadataCache INSTANCE = new FileMetadataCache();
+    // Как часто перепроверять файлы без уведомлений файловой системы
+    private static final long REVALIDATE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+    // Для отслеживаемой директории изменения приходят событиями, проверка - только страховка
+    private static final long WATCHED_REVALIDATE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(60);
+    
+    private final Map<Path, Metadata> entries = new ConcurrentHashMap<>();
+    private final Set<Path> queued = ConcurrentHashMap.newKeySet();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ImmersivePaintingsExposure-FileMetadata");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder skippedRevalidations = new LongAdder();
+    private final LongAdder revalidations = new LongAdder();
+    
+    public static FileMetadataCache getInstance() {
+        return INSTANCE;
+    }
+    
+    private FileMetadataCache() {
+        PipelineMetrics metrics = PipelineMetrics.getInstance();
+        metrics.gauge("metadata.entries", PipelineMetrics.Unit.COUNT, entries::size);
+        metrics.gauge("metadata.lookups", PipelineMetrics.Unit.COUNT, lookups::sum);
+        metrics.gauge("metadata.revalidations", PipelineMetrics.Unit.COUNT, revalidations::sum);
+    }
+    
+    /**
+     * Возвращает известные метаданные файла, не обращаясь к файловой системе.
+     * Если записи нет или она устарела, ставит перепроверку в фоновую очередь.
+     *
+     * @return метаданные или {@code null}, если файл еще ни разу не проверялся
+     */
+    public Metadata get(Path file) {
+        lookups.increment();
+        Metadata metadata = entries.get(file);
+        
+        if (metadata == null || System.nanoTime() - metadata.checkedAt > getRevalidateInterval(file)) {
+            scheduleRevalidation(file);
+        } else {
+            // Свежая запись - перепроверка не нужна
+            skippedRevalidations.increment();
+        }
+        return metadata;
+    }
+    
+    /**
+     * Запоминает атрибуты, уже прочитанные вызывающим кодом
+     */
+    public void record(Path file, BasicFileAttributes attributes) {
+        entries.put(file, new Metadata(true, attributes.lastModifiedTime().toMillis(), attributes.size(), System.nanoTime()));
+    }
+    
+    /**
+     * Запоминает, что файла нет
+     */
+    public void recordMissing(Path file) {
+        entries.put(file, new Metadata(false, 0L, 0L, System.nanoTime()));
+    }
+    
+    public void invalidate(Path file) {
+        entries.remove(file);
+    }
+    
+    public void clear() {
+        entries.clear();
+    }
+    
+    private long getRevalidateInterval(Path file) {
+        Path parent = file.getParent();
+        return parent != null && PhotoDirectoryWatcher.getInstance().isWatching(parent)
+            ? WATCHED_REVALIDATE_INTERVAL_NANOS
+            : REVALIDATE_INTERVAL_NANOS;
+    }
+    
+    private void scheduleRevalidation(Path file) {
+        if (!queued.add(file)) {
+            return;
+        }
+        
+        executor.execute(() -> {
+            revalidations.increment();
+            try {
+                record(file, Files.readAttributes(file, BasicFileAttributes.class));
+            } catch (IOException e) {
+                recordMissing(file);
+            } finally {
+                queued.remove(file);
+            }
+        });
+    }
+    
+    /**
+     * Количество запросов метаданных
+     */
+    public long getLookups() {
+        return lookups.sum();
+    }
+    
+    /**
+     * Количество запросов, на которые кэш ответил без обращения к файловой системе
+     */
+    public long getSkippedRevalidations() {
+        return skippedRevalidations.sum();
+    }
+    
+    /**
+     * Количество фоновых перепроверок файлов
+     */
+    public long getRevalidations() {
+        return revalidations.sum();
+    }
+    
+    public int size() {
+        return entries.size();
+    }
+    
+    /**
+     * Снимок метаданных файла
+     */
+    public static final class Metadata {
+        private final boolean exists;
+        private final long lastModified;
+        private final long size;
+        private final long checkedAt;
+        
+        private Metadata(boolean exists, long lastModified, long size, long checkedAt) {
+            this.exists = exists;
+            this.lastModified = lastModified;
+            this.size = size;
+            this.checkedAt = checkedAt;
+        }
+        
+        public boolean exists() {
+            return exists;
+        }
+        
+        /**
+         * Время изменения в миллисекундах, 0 для отсутствующего файла
+         */
+        public long getLastModified() {
+            return lastModified;
+        }
+        
+        public long getSize() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.immersivepaintings.exposure.exposure;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Определяет размеры и цветовой тип изображения по заголовку файла, не декодируя пиксели.
+ * Читаются только PNG IHDR, маркеры JPEG до SOF и заголовок WebP - обычно несколько сотен байт.
+ */
+public final class ImageHeaderProbe {
+    
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int IHDR = 0x49484452;
+    private static final int RIFF = 0x52494646;
+    private static final int WEBP = 0x57454250;
+    
+    private ImageHeaderProbe() {
+    }
+    
+    /**
+     * Цветовой тип изображения
+     */
+    public enum ColorType {
+        GRAYSCALE(false),
+        GRAYSCALE_ALPHA(true),
+        RGB(false),
+        RGBA(true),
+        PALETTE(false),
+        CMYK(false),
+        UNKNOWN(false);
+        
+        private final boolean alpha;
+        
+        ColorType(boolean alpha) {
+            this.alpha = alpha;
+        }
+        
+        public boolean hasAlpha() {
+            return alpha;
+        }
+    }
+    
+    /**
+     * Результат чтения заголовка
+     */
+    public static final class Header {
+        private final int width;
+        private final int height;
+        private final ColorType colorType;
+        
+        public Header(int width, int height, ColorType colorType) {
+            this.width = width;
+            this.height = height;
+            this.colorType = colorType;
+        }
+        
+        public int getWidth() {
+            return width;
+        }
+        
+        public int getHeight() {
+            return height;
+        }
+        
+        public ColorType getColorType() {
+            return colorType;
+        }
+    }
+    
+    /**
+     * Читает заголовок файла
+     *
+     * @return заголовок или {@code null}, если формат не распознан или файл поврежден
+     */
+    public static Header probe(Path file) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 512))) {
+            return probe(in);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+    
+    static Header probe(DataInputStream in) throws IOException {
+        in.mark(16);
+        int first = in.readInt();
+        in.reset();
+        
+        if (first == 0x89504E47) {
+            return probePng(in);
+        }
+        if ((first >>> 16) == 0xFFD8) {
+            return probeJpeg(in);
+        }
+        if (first == RIFF) {
+            return probeWebp(in);
+        }
+        return null;
+    }
+    
+    private static Header probePng(DataInputStream in) throws IOException {
+        byte[] signature = new byte[PNG_SIGNATURE.length];
+        in.readFully(signature);
+        for (int i = 0; i < signature.length; i++) {
+            if (signature[i] != PNG_SIGNATURE[i]) {
+                return null;
+            }
+        }
+        
+        // IHDR всегда идет первым блоком
+        in.readInt();
+        if (in.readInt() != IHDR) {
+            return null;
+        }
+        int width = in.readInt();
+        int height = in.readInt();
+        in.readUnsignedByte();
+        int colorType = in.readUnsignedByte();
+        
+        ColorType type = switch (colorType) {
+            case 0 -> ColorType.GRAYSCALE;
+            case 2 -> ColorType.RGB;
+            case 3 -> ColorType.PALETTE;
+            case 4 -> ColorType.GRAYSCALE_ALPHA;
+            case 6 -> ColorType.RGBA;
+            default -> ColorType.UNKNOWN;
+        };
+        return valid(width, height) ? new Header(width, height, type) : null;
+    }
+    
+    private static Header probeJpeg(DataInputStream in) throws IOException {
+        in.readUnsignedShort();
+        
+        while (true) {
+            int marker = in.readUnsignedByte();
+            if (marker != 0xFF) {
+                return null;
+            }
+            // Заполняющие байты 0xFF перед маркером
+            do {
+                marker = in.readUnsignedByte();
+            } while (marker == 0xFF);
+            
+            if (marker == 0xD9 || marker == 0xDA) {
+                // Конец изображения или начало данных скана без SOF
+                return null;
+            }
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                // Маркеры без длины
+                continue;
+            }
+            
+            int length = in.readUnsignedShort();
+            if (length < 2) {
+                return null;
+            }
+            
+            // SOF0..SOF15, кроме DHT (C4), JPG (C8) и DAC (CC)
+            if (marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC) {
+                in.readUnsignedByte();
+                int height = in.readUnsignedShort();
+                int width = in.readUnsignedShort();
+                int components = in.readUnsignedByte();
+                
+                ColorType type = switch (components) {
+                    case 1 -> ColorType.GRAYSCALE;
+                    case 3 -> ColorType.RGB;
+                    case 4 -> ColorType.CMYK;
+                    default -> ColorType.UNKNOWN;
+                };
+                return valid(width, height) ? new Header(width, height, type) : null;
+            }
+            
+            skipFully(in, length - 2);
+        }
+    }
+    
+    private static Header probeWebp(DataInputStream in) throws IOException {
+        in.readInt();
+        in.readInt();
+        if (in.readInt() != WEBP) {
+            return null;
+        }
+        
+        int chunk = in.readInt();
+        in.readInt();
+        
+        switch (chunk) {
+            case 0x56503858 -> { // VP8X: размеры холста 24-битными числами
+                int flags = in.readUnsignedByte();
+                skipFully(in, 3);
+                int width = readUInt24LE(in) + 1;
+                int height = readUInt24LE(in) + 1;
+                ColorType type = (flags & 0x10) != 0 ? ColorType.RGBA : ColorType.RGB;
+                return valid(width, height) ? new Header(width, height, type) : null;
+            }
+            case 0x5650384C -> { // VP8L: 14-битные размеры после сигнатуры 0x2F
+                if (in.readUnsignedByte() != 0x2F) {
+                    return null;
+                }
+                int bits = Integer.reverseBytes(in.readInt());
+                int width = (bits & 0x3FFF) + 1;
+                int height = ((bits >>> 14) & 0x3FFF) + 1;
+                ColorType type = ((bits >>> 28) & 1) != 0 ? ColorType.RGBA : ColorType.RGB;
+                return new Header(width, height, type);
+            }
+            case 0x56503820 -> { // VP8: размеры в заголовке ключевого кадра
+                skipFully(in, 6);
+                int width = Short.reverseBytes(in.readShort()) & 0x3FFF;
+                int height = Short.reverseBytes(in.readShort()) & 0x3FFF;
+                return valid(width, height) ? new Header(width, height, ColorType.RGB) : null;
+            }
+            default -> {
+                return null;
+            }
+        }
+    }
+    
+    private static int readUInt24LE(DataInputStream in) throws IOException {
+        int b0 = in.readUnsignedByte();
+        int b1 = in.readUnsignedByte();
+        int b2 = in.readUnsignedByte();
+        return b0 | (b1 << 8) | (b2 << 16);
+    }
+    
+    private static void skipFully(InputStream in, long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+    
+    private static boolean valid(int width, int height) {
+        return width > 0 && height > 0;
+    }
+}
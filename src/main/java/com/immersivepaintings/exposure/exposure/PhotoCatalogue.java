@@ -0,0 +1,239 @@
+package com.immersivepaintings.exposure.exposure;
+
+import com.immersivepaintings.exposure.ImmersivePaintingsExposure;
+import net.minecraft.client.Minecraft;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Каталог фотографий директории текущего мира, который хранится между открытиями вкладки.
+ * После первичного сканирования каталог поддерживается в актуальном состоянии
+ * изменениями из {@link PhotoDirectoryWatcher}, поэтому повторное открытие вкладки
+ * не перечитывает директорию.
+ */
+public class PhotoCatalogue {
+    
+    private static final PhotoCatalogue INSTANCE = new PhotoCatalogue();
+    
+    private final Map<Path, Entry> photos = new ConcurrentHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private volatile Path directory;
+    // Кадры Exposure из данных мира; сверяются вместе с директорией фотографий
+    private volatile Path framesDirectory;
+    private volatile boolean indexed = false;
+    
+    public static PhotoCatalogue getInstance() {
+        return INSTANCE;
+    }
+    
+    private PhotoCatalogue() {
+    }
+    
+    /**
+     * Получатель изменений каталога. Вызывается в клиентском потоке.
+     */
+    public interface Listener {
+        void onCatalogueChanged(List<ExposurePhoto> added, List<ExposurePhoto> updated, List<Path> removed);
+    }
+    
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+    
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+    
+    /**
+     * Начинает новый каталог для директории. Вызывается перед первичным сканированием.
+     *
+     * @param newFramesDirectory директория кадров Exposure или {@code null}
+     */
+    synchronized void reset(Path newDirectory, Path newFramesDirectory) {
+        photos.clear();
+        directory = newDirectory;
+        framesDirectory = newFramesDirectory;
+        indexed = false;
+    }
+    
+    synchronized void addIndexed(List<ExposurePhoto> batch) {
+        for (ExposurePhoto photo : batch) {
+            photos.put(photo.getFilePath(), new Entry(photo, photo.getLastModified()));
+        }
+    }
+    
+    /**
+     * Отмечает завершение первичного сканирования: дальше каталог обновляется изменениями
+     */
+    synchronized void markIndexed(Path indexedDirectory) {
+        if (indexedDirectory.equals(directory)) {
+            indexed = true;
+        }
+    }
+    
+    public boolean isIndexed(Path photosDirectory) {
+        return indexed && photosDirectory.equals(directory);
+    }
+    
+    public Path getDirectory() {
+        return directory;
+    }
+    
+    public int size() {
+        return photos.size();
+    }
+    
+    /**
+     * Копия текущего списка фотографий
+     */
+    public List<ExposurePhoto> snapshot() {
+        List<ExposurePhoto> result = new ArrayList<>(photos.size());
+        for (Entry entry : photos.values()) {
+            result.add(entry.photo);
+        }
+        return result;
+    }
+    
+    /**
+     * Применяет изменения отдельных файлов, полученные от WatchService
+     */
+    void applyChanges(Path changedDirectory, Collection<Path> changedFiles) {
+        List<ExposurePhoto> added = new ArrayList<>();
+        List<ExposurePhoto> updated = new ArrayList<>();
+        List<Path> removed = new ArrayList<>();
+        
+        synchronized (this) {
+            if (!indexed || !changedDirectory.equals(directory)) {
+                return;
+            }
+            for (Path file : changedFiles) {
+                applyChange(file, added, updated, removed);
+            }
+        }
+        
+        publish(added, updated, removed);
+    }
+    
+    /**
+     * Полная сверка с содержимым директории. Используется как запасной путь,
+     * если WatchService пропустил события или недоступен.
+     */
+    void rescan(Path scannedDirectory) {
+        List<ExposurePhoto> added = new ArrayList<>();
+        List<ExposurePhoto> updated = new ArrayList<>();
+        List<Path> removed = new ArrayList<>();
+        
+        Set<Path> present = new HashSet<>();
+        Path frames = framesDirectory;
+        if (!listPhotos(scannedDirectory, frames, present) || (frames != null && !listPhotos(frames, frames, present))) {
+            return;
+        }
+        
+        synchronized (this) {
+            if (!indexed || !scannedDirectory.equals(directory)) {
+                return;
+            }
+            for (Path file : present) {
+                applyChange(file, added, updated, removed);
+            }
+            for (Path known : new ArrayList<>(photos.keySet())) {
+                if (!present.contains(known)) {
+                    FileMetadataCache.getInstance().recordMissing(known);
+                    photos.remove(known);
+                    removed.add(known);
+                }
+            }
+        }
+        
+        publish(added, updated, removed);
+    }
+    
+    private static boolean listPhotos(Path scannedDirectory, Path frames, Set<Path> present) {
+        if (!Files.isDirectory(scannedDirectory)) {
+            // Директории фотографий еще нет - в ней нечего сверять
+            return true;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(scannedDirectory,
+                file -> ExposurePhotoManager.isPhotoFile(file, frames))) {
+            for (Path file : stream) {
+                present.add(file);
+            }
+            return true;
+        } catch (IOException | DirectoryIteratorException e) {
+            ImmersivePaintingsExposure.LOGGER.debug("Failed to rescan Exposure photos directory: {}", scannedDirectory, e);
+            return false;
+        }
+    }
+    
+    private void applyChange(Path file, List<ExposurePhoto> added, List<ExposurePhoto> updated, List<Path> removed) {
+        Entry known = photos.get(file);
+        
+        BasicFileAttributes attributes;
+        long lastModified;
+        try {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            if (!attributes.isRegularFile() || !ExposurePhotoManager.isPhotoFile(file, framesDirectory)) {
+                throw new NoSuchFileException(file.toString());
+            }
+            lastModified = attributes.lastModifiedTime().toMillis();
+            FileMetadataCache.getInstance().record(file, attributes);
+        } catch (IOException e) {
+            // Файл удален или недоступен
+            FileMetadataCache.getInstance().recordMissing(file);
+            if (known != null) {
+                photos.remove(file);
+                removed.add(file);
+            }
+            return;
+        }
+        
+        if (known == null) {
+            ExposurePhoto photo = ExposurePhotoManager.createPhoto(file, attributes);
+            photos.put(file, new Entry(photo, lastModified));
+            added.add(photo);
+        } else if (known.lastModified != lastModified) {
+            ExposurePhoto photo = ExposurePhotoManager.createPhoto(file, attributes);
+            photos.put(file, new Entry(photo, lastModified));
+            updated.add(photo);
+        }
+    }
+    
+    private void publish(List<ExposurePhoto> added, List<ExposurePhoto> updated, List<Path> removed) {
+        if (added.isEmpty() && updated.isEmpty() && removed.isEmpty()) {
+            return;
+        }
+        
+        ImmersivePaintingsExposure.LOGGER.debug("Exposure photo catalogue changed: +{} ~{} -{}",
+            added.size(), updated.size(), removed.size());
+        
+        Minecraft.getInstance().execute(() -> {
+            for (Listener listener : listeners) {
+                listener.onCatalogueChanged(added, updated, removed);
+            }
+        });
+    }
+    
+    private static class Entry {
+        private final ExposurePhoto photo;
+        private final long lastModified;
+        
+        private Entry(ExposurePhoto photo, long lastModified) {
+            this.photo = photo;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.immersivepaintings.exposure.exposure;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Хэши содержимого фотографий ({@link ContentHash}).
+ * Хэш привязан к пути и остается действительным, пока не изменились размер и время изменения файла.
+ * Одинаковые фотографии из разных директорий получают одинаковый хэш, а разные фотографии
+ * с одинаковым именем файла - разные.
+ */
+public class PhotoContentIndex {
+    
+    private static final PhotoContentIndex INSTANCE = new PhotoContentIndex();
+    
+    private final Map<Path, Entry> hashes = new ConcurrentHashMap<>();
+    
+    public static PhotoContentIndex getInstance() {
+        return INSTANCE;
+    }
+    
+    private PhotoContentIndex() {
+    }
+    
+    /**
+     * Уже известный хэш файла, без обращения к файловой системе. Безопасен для потока рендера.
+     *
+     * @return хэш или {@link ContentHash#UNKNOWN}, если файл еще не хэшировался или изменился
+     */
+    public long getKnownHash(Path file, FileMetadataCache.Metadata metadata) {
+        if (metadata == null || !metadata.exists()) {
+            return ContentHash.UNKNOWN;
+        }
+        return getKnownHash(file, metadata.getSize(), metadata.getLastModified());
+    }
+    
+    public long getKnownHash(Path file, long size, long lastModified) {
+        Entry entry = hashes.get(file);
+        if (entry != null && entry.size == size && entry.lastModified == lastModified) {
+            return entry.hash;
+        }
+        return ContentHash.UNKNOWN;
+    }
+    
+    /**
+     * Хэш файла; при необходимости читает файл. Вызывается из фоновых потоков.
+     */
+    public long computeHash(Path file, BasicFileAttributes attributes) throws IOException {
+        long size = attributes.size();
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        
+        long known = getKnownHash(file, size, lastModified);
+        if (known != ContentHash.UNKNOWN) {
+            return known;
+        }
+        
+        long hash = ContentHash.hashFile(file);
+        remember(file, size, lastModified, hash);
+        return hash;
+    }
+    
+    public long computeHash(Path file) throws IOException {
+        return computeHash(file, Files.readAttributes(file, BasicFileAttributes.class));
+    }
+    
+    /**
+     * Запоминает хэш, полученный другим путем (например, из дискового кэша миниатюр)
+     */
+    public void remember(Path file, long size, long lastModified, long hash) {
+        if (hash != ContentHash.UNKNOWN) {
+            hashes.put(file, new Entry(size, lastModified, hash));
+        }
+    }
+    
+    public void clear() {
+        hashes.clear();
+    }
+    
+    private static class Entry {
+        private final long size;
+        private final long lastModified;
+        private final long hash;
+        
+        private Entry(long size, long lastModified, long hash) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+    }
+}
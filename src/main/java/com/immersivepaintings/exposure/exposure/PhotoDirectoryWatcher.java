@@ -0,0 +1,187 @@
+package com.immersivepaintings.exposure.exposure;
+
+import com.immersivepaintings.exposure.ImmersivePaintingsExposure;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Следит за директорией с фотографиями и директорией кадров Exposure через WatchService
+ * и передает изменения в {@link PhotoCatalogue}.
+ * Если событий нет дольше {@link #RESCAN_INTERVAL_SECONDS}, каталог сверяется с директорией целиком:
+ * это страхует от потерянных событий и файловых систем без уведомлений.
+ */
+public class PhotoDirectoryWatcher {
+    
+    private static final PhotoDirectoryWatcher INSTANCE = new PhotoDirectoryWatcher();
+    private static final long RESCAN_INTERVAL_SECONDS = 60L;
+    // Пауза для объединения пачки событий (запись файла дает несколько MODIFY подряд)
+    private static final long COALESCE_MILLIS = 100L;
+    
+    private WatchService watchService;
+    private volatile WatchKey watchKey;
+    private volatile WatchKey framesWatchKey;
+    private volatile Path watchedDirectory;
+    // Директория кадров Exposure; ее изменения применяются к каталогу директории фотографий
+    private volatile Path watchedFramesDirectory;
+    private Thread thread;
+    
+    public static PhotoDirectoryWatcher getInstance() {
+        return INSTANCE;
+    }
+    
+    private PhotoDirectoryWatcher() {
+    }
+    
+    /**
+     * Начинает наблюдение за директорией фотографий и директорией кадров Exposure.
+     * Предыдущие директории перестают отслеживаться.
+     *
+     * @param framesDirectory директория кадров или {@code null}
+     */
+    public synchronized void watch(Path directory, Path framesDirectory) {
+        if (directory.equals(watchedDirectory) && Objects.equals(framesDirectory, watchedFramesDirectory)) {
+            return;
+        }
+        
+        if (watchKey != null) {
+            watchKey.cancel();
+            watchKey = null;
+        }
+        if (framesWatchKey != null) {
+            framesWatchKey.cancel();
+            framesWatchKey = null;
+        }
+        watchedDirectory = directory;
+        watchedFramesDirectory = framesDirectory;
+        
+        // Директории фотографий может еще не быть, если в мире есть только кадры
+        if (Files.isDirectory(directory)) {
+            watchKey = register(directory);
+        }
+        if (framesDirectory != null) {
+            framesWatchKey = register(framesDirectory);
+        }
+        
+        if (thread == null) {
+            thread = new Thread(this::run, "ImmersivePaintingsExposure-PhotoWatcher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+    
+    private WatchKey register(Path directory) {
+        try {
+            if (watchService == null) {
+                watchService = FileSystems.getDefault().newWatchService();
+            }
+            WatchKey key = directory.register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE);
+            ImmersivePaintingsExposure.LOGGER.debug("Watching Exposure photos directory: {}", directory);
+            return key;
+        } catch (IOException | UnsupportedOperationException e) {
+            // Остается только периодическая сверка
+            ImmersivePaintingsExposure.LOGGER.warn("Cannot watch Exposure photos directory {}, falling back to periodic rescans",
+                directory, e);
+            return null;
+        }
+    }
+    
+    private void run() {
+        while (true) {
+            try {
+                WatchKey key = pollKey();
+                Path directory = getWatchedDirectory();
+                
+                if (key == null) {
+                    // Событий не было - периодическая сверка
+                    if (directory != null) {
+                        PhotoCatalogue.getInstance().rescan(directory);
+                    }
+                    continue;
+                }
+                
+                // Собираем события за короткое окно, чтобы применить их одной пачкой
+                Thread.sleep(COALESCE_MILLIS);
+                Set<Path> changed = new LinkedHashSet<>();
+                boolean overflow = collectEvents(key, changed);
+                WatchKey next;
+                while ((next = watchService.poll()) != null) {
+                    overflow |= collectEvents(next, changed);
+                }
+                
+                if (directory == null) {
+                    continue;
+                }
+                if (overflow) {
+                    PhotoCatalogue.getInstance().rescan(directory);
+                } else if (!changed.isEmpty()) {
+                    PhotoCatalogue.getInstance().applyChanges(directory, changed);
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            } catch (Exception e) {
+                ImmersivePaintingsExposure.LOGGER.error("Exposure photo watcher failed", e);
+            }
+        }
+    }
+    
+    private WatchKey pollKey() throws InterruptedException {
+        WatchService service;
+        synchronized (this) {
+            service = watchService;
+            if (service == null) {
+                // WatchService недоступен - просто ждем следующей сверки
+                wait(TimeUnit.SECONDS.toMillis(RESCAN_INTERVAL_SECONDS));
+                return null;
+            }
+        }
+        return service.poll(RESCAN_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+    
+    private boolean collectEvents(WatchKey key, Set<Path> changed) {
+        boolean overflow = false;
+        Path keyDirectory = (Path) key.watchable();
+        boolean current = isCurrent(keyDirectory);
+        
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                overflow = true;
+            } else if (current && event.context() instanceof Path relative) {
+                changed.add(keyDirectory.resolve(relative));
+            }
+        }
+        
+        key.reset();
+        return overflow && current;
+    }
+    
+    private synchronized Path getWatchedDirectory() {
+        return watchedDirectory;
+    }
+    
+    private synchronized boolean isCurrent(Path directory) {
+        return directory.equals(watchedDirectory) || directory.equals(watchedFramesDirectory);
+    }
+    
+    /**
+     * Приходят ли для директории уведомления об изменениях
+     */
+    public boolean isWatching(Path directory) {
+        return (watchKey != null && directory.equals(watchedDirectory))
+            || (framesWatchKey != null && directory.equals(watchedFramesDirectory));
+    }
+}
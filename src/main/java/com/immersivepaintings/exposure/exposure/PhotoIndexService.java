@@ -0,0 +1,205 @@
+package com.immersivepaintings.exposure.exposure;
+
+import com.immersivepaintings.exposure.ImmersivePaintingsExposure;
+import com.immersivepaintings.exposure.metrics.PipelineMetrics;
+import net.minecraft.client.Minecraft;
+import net.minecraft.world.entity.player.Player;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Фоновая индексация фотографий Exposure.
+ * Сканирование директории выполняется вне клиентского потока, а найденные фотографии
+ * передаются экрану пачками через очередь задач Minecraft.
+ */
+public class PhotoIndexService {
+    
+    private static final PhotoIndexService INSTANCE = new PhotoIndexService();
+    private static final int BATCH_SIZE = 256;
+    private static final PipelineMetrics.Histogram SCAN_DURATION =
+        PipelineMetrics.getInstance().histogram("scan.duration", PipelineMetrics.Unit.NANOSECONDS);
+    private static final PipelineMetrics.Counter PHOTOS_INDEXED =
+        PipelineMetrics.getInstance().counter("scan.photos", PipelineMetrics.Unit.COUNT);
+    
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ImmersivePaintingsExposure-PhotoIndex");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    public static PhotoIndexService getInstance() {
+        return INSTANCE;
+    }
+    
+    private PhotoIndexService() {
+    }
+    
+    /**
+     * Получатель результатов индексации. Все методы вызываются в клиентском потоке.
+     */
+    public interface BatchListener {
+        void onBatch(List<ExposurePhoto> batch);
+        
+        default void onComplete(int total) {
+        }
+    }
+    
+    /**
+     * Запускает индексацию фотографий текущего мира.
+     * Должен вызываться в клиентском потоке: путь к директории определяется сразу,
+     * а чтение директории уходит в фоновый поток.
+     */
+    public IndexTask indexAsync(Player player, BatchListener listener) {
+        IndexTask task = new IndexTask(listener);
+        
+        if (!ImmersivePaintingsExposure.isExposureLoaded()) {
+            task.complete(0);
+            return task;
+        }
+        
+        Path photosPath = ExposurePhotoManager.getInstance().resolvePhotosPath(player);
+        if (photosPath == null) {
+            task.complete(0);
+            return task;
+        }
+        // Кадры из данных мира, в том числе не экспортированные в PNG (только в одиночной игре)
+        Path framesPath = ExposurePhotoManager.getInstance().resolveFramesPath(player);
+        
+        PhotoCatalogue catalogue = PhotoCatalogue.getInstance();
+        executor.execute(() -> {
+            if (task.isCancelled()) {
+                return;
+            }
+            
+            // Каталог уже поддерживается наблюдателем - директорию не перечитываем
+            if (catalogue.isIndexed(photosPath)) {
+                List<ExposurePhoto> photos = catalogue.snapshot();
+                for (int from = 0; from < photos.size() && !task.isCancelled(); from += BATCH_SIZE) {
+                    task.deliver(new ArrayList<>(photos.subList(from, Math.min(from + BATCH_SIZE, photos.size()))));
+                }
+                task.complete(photos.size());
+                return;
+            }
+            
+            long start = System.nanoTime();
+            int total = 0;
+            try {
+                boolean hasPhotos = Files.isDirectory(photosPath);
+                if (hasPhotos || framesPath != null) {
+                    catalogue.reset(photosPath, framesPath);
+                    Consumer<List<ExposurePhoto>> consumer = batch -> {
+                        catalogue.addIndexed(batch);
+                        task.deliver(batch);
+                    };
+                    if (hasPhotos) {
+                        total += ExposurePhotoManager.getInstance().scanDirectory(photosPath, framesPath, BATCH_SIZE, consumer,
+                            task::isCancelled);
+                    }
+                    if (framesPath != null && !task.isCancelled()) {
+                        total += ExposurePhotoManager.getInstance().scanDirectory(framesPath, framesPath, BATCH_SIZE, consumer,
+                            task::isCancelled);
+                    }
+                    
+                    if (!task.isCancelled()) {
+                        catalogue.markIndexed(photosPath);
+                        PhotoDirectoryWatcher.getInstance().watch(photosPath, framesPath);
+                        SCAN_DURATION.record(System.nanoTime() - start);
+                        PHOTOS_INDEXED.add(total);
+                    }
+                } else {
+                    ImmersivePaintingsExposure.LOGGER.warn("Exposure photos directory does not exist: {}", photosPath);
+                }
+            } catch (Exception e) {
+                ImmersivePaintingsExposure.LOGGER.error("Failed to index Exposure photos", e);
+            }
+            
+            ImmersivePaintingsExposure.LOGGER.debug("Indexed {} Exposure photos in {} ms",
+                total, (System.nanoTime() - start) / 1_000_000L);
+            task.complete(total);
+        });
+        
+        return task;
+    }
+    
+    /**
+     * Запрашивает сверку каталога с директорией текущего мира.
+     * Изменения приходят слушателям {@link PhotoCatalogue}.
+     *
+     * @return {@code false}, если каталог для этой директории еще не построен и нужна полная индексация
+     */
+    public boolean refreshAsync(Player player) {
+        if (!ImmersivePaintingsExposure.isExposureLoaded()) {
+            return false;
+        }
+        
+        Path photosPath = ExposurePhotoManager.getInstance().resolvePhotosPath(player);
+        if (photosPath == null || !PhotoCatalogue.getInstance().isIndexed(photosPath)) {
+            return false;
+        }
+        
+        executor.execute(() -> PhotoCatalogue.getInstance().rescan(photosPath));
+        return true;
+    }
+    
+    /**
+     * Выполняющаяся индексация. Отмена прекращает сканирование и доставку пачек.
+     */
+    public static class IndexTask {
+        private final BatchListener listener;
+        private final CompletableFuture<List<ExposurePhoto>> future = new CompletableFuture<>();
+        private final List<ExposurePhoto> photos = Collections.synchronizedList(new ArrayList<>());
+        private volatile boolean cancelled = false;
+        
+        private IndexTask(BatchListener listener) {
+            this.listener = listener;
+        }
+        
+        private void deliver(List<ExposurePhoto> batch) {
+            photos.addAll(batch);
+            Minecraft.getInstance().execute(() -> {
+                if (!cancelled) {
+                    listener.onBatch(batch);
+                }
+            });
+        }
+        
+        private void complete(int total) {
+            Minecraft.getInstance().execute(() -> {
+                if (!cancelled) {
+                    listener.onComplete(total);
+                }
+            });
+            synchronized (photos) {
+                future.complete(List.copyOf(photos));
+            }
+        }
+        
+        public void cancel() {
+            cancelled = true;
+            future.cancel(false);
+        }
+        
+        public boolean isCancelled() {
+            return cancelled;
+        }
+        
+        public boolean isDone() {
+            return future.isDone();
+        }
+        
+        /**
+         * Будущий полный список проиндексированных фотографий
+         */
+        public CompletableFuture<List<ExposurePhoto>> getFuture() {
+            return future;
+        }
+    }
+}
@@ -0,0 +1,515 @@
+package com.immersivepaintings.exposure.exposure;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Индекс библиотеки фотографий для поиска по мере ввода и сортировки.
+ * Порядки по времени и по имени поддерживаются отсортированными массивами и обновляются слиянием,
+ * поэтому запрос только фильтрует готовый порядок и ничего не сортирует.
+ * Поиск по имени - по префиксам слов через отсортированный массив слов,
+ * фильтр по фотографу - через разбиение по фотографам.
+ * Не потокобезопасен: используется из клиентского потока.
+ */
+public class PhotoLibraryIndex {
+    
+    /**
+     * Порядок вывода результатов
+     */
+    public enum SortOrder {
+        NEWEST,
+        OLDEST,
+        NAME;
+        
+        public SortOrder next() {
+            SortOrder[] values = values();
+            return values[(ordinal() + 1) % values.length];
+        }
+    }
+    
+    // Фотографии по номерам слотов; номера освободившихся слотов переиспользуются
+    private ExposurePhoto[] photos = new ExposurePhoto[64];
+    // Ключи сортировки рядом друг с другом, чтобы сравнения не обращались к объектам фотографий
+    private long[] times = new long[64];
+    private String[] sortNames = new String[64];
+    private final Map<Path, Integer> slots = new HashMap<>();
+    private int[] freeSlots = new int[16];
+    private int freeCount = 0;
+    private int slotLimit = 0;
+    
+    // Номера слотов: от новых к старым и по имени
+    private int[] byTime = new int[64];
+    private int[] byName = new int[64];
+    private int size = 0;
+    
+    // Слова имен, отсортированные по алфавиту (одинаковые - по номеру слота), и слоты, которым они принадлежат
+    private String[] words = new String[64];
+    private int[] wordSlots = new int[64];
+    private int wordCount = 0;
+    
+    // Удаление меньше 1/32 библиотеки выполняется точечно, больше - одним проходом
+    private static final int TARGETED_REMOVAL_RATIO = 32;
+    
+    // Слоты фотографий каждого фотографа (ключ в нижнем регистре)
+    private final Map<String, BitSet> byPhotographer = new HashMap<>();
+    
+    // Последний результат: повторный запрос без изменений библиотеки отдается из него
+    private int version = 0;
+    private int cachedVersion = -1;
+    private String cachedQuery;
+    private SortOrder cachedOrder;
+    private List<ExposurePhoto> cachedResult;
+    // Слоты последнего результата в порядке вывода: дописывание символов к запросу только сужает его
+    private int[] cachedSlots = new int[0];
+    private int cachedSlotCount = 0;
+    
+    private final SlotComparator timeOrder = (a, b) -> {
+        int result = Long.compare(times[b], times[a]);
+        return result != 0 ? result : compareNames(a, b);
+    };
+    private final SlotComparator nameOrder = this::compareNames;
+    
+    public int size() {
+        return size;
+    }
+    
+    public boolean isEmpty() {
+        return size == 0;
+    }
+    
+    public boolean contains(Path path) {
+        return slots.containsKey(path);
+    }
+    
+    public void clear() {
+        Arrays.fill(photos, 0, slotLimit, null);
+        Arrays.fill(sortNames, 0, slotLimit, null);
+        Arrays.fill(words, 0, wordCount, null);
+        slots.clear();
+        byPhotographer.clear();
+        freeCount = 0;
+        slotLimit = 0;
+        size = 0;
+        wordCount = 0;
+        version++;
+    }
+    
+    /**
+     * Добавляет фотографии. Фотографии с уже известным путем заменяются новыми версиями.
+     */
+    public void addAll(Collection<ExposurePhoto> added) {
+        if (added.isEmpty()) {
+            return;
+        }
+        
+        List<Path> replaced = new ArrayList<>();
+        for (ExposurePhoto photo : added) {
+            if (slots.containsKey(photo.getFilePath())) {
+                replaced.add(photo.getFilePath());
+            }
+        }
+        removeAll(replaced);
+        
+        int[] newSlots = new int[added.size()];
+        int newCount = 0;
+        List<String> newWords = new ArrayList<>();
+        List<Integer> newWordSlots = new ArrayList<>();
+        
+        for (ExposurePhoto photo : added) {
+            if (slots.containsKey(photo.getFilePath())) {
+                // Один и тот же путь дважды в одной пачке
+                continue;
+            }
+            int slot = allocateSlot();
+            photos[slot] = photo;
+            times[slot] = photo.getLastModified();
+            sortNames[slot] = photo.getName().toLowerCase(Locale.ROOT);
+            slots.put(photo.getFilePath(), slot);
+            newSlots[newCount++] = slot;
+            
+            for (String word : tokenize(photo.getName(), true)) {
+                newWords.add(word);
+                newWordSlots.add(slot);
+            }
+            if (!photo.getPhotographer().isEmpty()) {
+                byPhotographer.computeIfAbsent(photo.getPhotographer().toLowerCase(Locale.ROOT), key -> new BitSet()).set(slot);
+            }
+        }
+        
+        byTime = mergeSlots(byTime, size, newSlots, newCount, timeOrder);
+        byName = mergeSlots(byName, size, newSlots, newCount, nameOrder);
+        size += newCount;
+        mergeWords(newWords, newWordSlots);
+        version++;
+    }
+    
+    /**
+     * Убирает фотографии за один проход по массивам
+     */
+    public void removeAll(Collection<Path> removed) {
+        BitSet removedSlots = new BitSet();
+        for (Path path : removed) {
+            Integer slot = slots.remove(path);
+            if (slot != null) {
+                removedSlots.set(slot);
+            }
+        }
+        if (removedSlots.isEmpty()) {
+            return;
+        }
+        
+        int removedCount = removedSlots.cardinality();
+        if (removedCount * TARGETED_REMOVAL_RATIO < size) {
+            // Немного фотографий: позиции находятся двоичным поиском, без прохода по всем массивам
+            for (int slot = removedSlots.nextSetBit(0); slot >= 0; slot = removedSlots.nextSetBit(slot + 1)) {
+                removeSlot(byTime, size, slot, timeOrder);
+                removeSlot(byName, size, slot, nameOrder);
+                size--;
+                for (String word : tokenize(photos[slot].getName(), true)) {
+                    removeWord(word, slot);
+                }
+            }
+        } else {
+            int oldSize = size;
+            size = compactSlots(byTime, oldSize, removedSlots);
+            compactSlots(byName, oldSize, removedSlots);
+            
+            int kept = 0;
+            for (int i = 0; i < wordCount; i++) {
+                if (!removedSlots.get(wordSlots[i])) {
+                    words[kept] = words[i];
+                    wordSlots[kept] = wordSlots[i];
+                    kept++;
+                }
+            }
+            Arrays.fill(words, kept, wordCount, null);
+            wordCount = kept;
+        }
+        
+        byPhotographer.values().removeIf(photographerSlots -> {
+            photographerSlots.andNot(removedSlots);
+            return photographerSlots.isEmpty();
+        });
+        
+        for (int slot = removedSlots.nextSetBit(0); slot >= 0; slot = removedSlots.nextSetBit(slot + 1)) {
+            photos[slot] = null;
+            sortNames[slot] = null;
+            releaseSlot(slot);
+        }
+        version++;
+    }
+    
+    /**
+     * Все фотографии библиотеки в порядке от новых к старым
+     */
+    public List<ExposurePhoto> getAll() {
+        return query("", SortOrder.NEWEST);
+    }
+    
+    /**
+     * Фотографии, подходящие под строку поиска, в заданном порядке.
+     * Каждое слово запроса должно быть началом какого-либо слова имени фотографии;
+     * слово с префиксом {@code @} фильтрует по началу имени фотографа.
+     */
+    public List<ExposurePhoto> query(String text, SortOrder order) {
+        String normalized = text.trim().toLowerCase(Locale.ROOT);
+        if (cachedVersion == version && order == cachedOrder && normalized.equals(cachedQuery)) {
+            return cachedResult;
+        }
+        
+        BitSet matches = null;
+        for (String term : normalized.split("\\s+")) {
+            if (term.isEmpty()) {
+                continue;
+            }
+            if (term.charAt(0) == '@') {
+                matches = intersect(matches, matchPhotographers(term.substring(1)));
+                continue;
+            }
+            for (String prefix : tokenize(term, false)) {
+                matches = intersect(matches, matchWordPrefix(prefix));
+            }
+        }
+        
+        // При вводе по символу фильтруется предыдущий результат, а не вся библиотека
+        int[] candidates;
+        int candidateCount;
+        boolean refining = cachedVersion == version && order == cachedOrder && normalized.startsWith(cachedQuery);
+        if (refining) {
+            candidates = cachedSlots;
+            candidateCount = cachedSlotCount;
+        } else {
+            candidates = order == SortOrder.NAME ? byName : byTime;
+            candidateCount = size;
+        }
+        boolean reverse = order == SortOrder.OLDEST && !refining;
+        
+        int[] resultSlots = new int[matches == null ? candidateCount : Math.min(candidateCount, matches.cardinality())];
+        int resultCount = 0;
+        for (int i = 0; i < candidateCount && resultCount < resultSlots.length; i++) {
+            int slot = candidates[reverse ? candidateCount - 1 - i : i];
+            if (matches == null || matches.get(slot)) {
+                resultSlots[resultCount++] = slot;
+            }
+        }
+        
+        List<ExposurePhoto> result = new ArrayList<>(resultCount);
+        for (int i = 0; i < resultCount; i++) {
+            result.add(photos[resultSlots[i]]);
+        }
+        
+        cachedVersion = version;
+        cachedQuery = normalized;
+        cachedOrder = order;
+        cachedSlots = resultSlots;
+        cachedSlotCount = resultCount;
+        cachedResult = Collections.unmodifiableList(result);
+        return cachedResult;
+    }
+    
+    private BitSet matchWordPrefix(String prefix) {
+        BitSet result = new BitSet(slotLimit);
+        // Слова с данным префиксом лежат в массиве подряд
+        int from = lowerBound(prefix);
+        int to = lowerBound(prefix + Character.MAX_VALUE);
+        for (int i = from; i < to; i++) {
+            result.set(wordSlots[i]);
+        }
+        return result;
+    }
+    
+    private BitSet matchPhotographers(String prefix) {
+        BitSet result = new BitSet(slotLimit);
+        for (Map.Entry<String, BitSet> entry : byPhotographer.entrySet()) {
+            if (entry.getKey().startsWith(prefix)) {
+                result.or(entry.getValue());
+            }
+        }
+        return result;
+    }
+    
+    private static BitSet intersect(BitSet current, BitSet next) {
+        if (current == null) {
+            return next;
+        }
+        current.and(next);
+        return current;
+    }
+    
+    private int lowerBound(String word) {
+        int low = 0;
+        int high = wordCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (words[mid].compareTo(word) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+    
+    /**
+     * Слова имени: разделители - все, кроме букв и цифр
+     *
+     * @param stripExtension отбросить расширение файла
+     */
+    static List<String> tokenize(String name, boolean stripExtension) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        int dot = lower.lastIndexOf('.');
+        if (stripExtension && dot > 0) {
+            lower = lower.substring(0, dot);
+        }
+        
+        List<String> result = new ArrayList<>(4);
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean wordChar = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                String word = lower.substring(start, i);
+                if (!result.contains(word)) {
+                    result.add(word);
+                }
+                start = -1;
+            }
+        }
+        return result;
+    }
+    
+    private int compareNames(int a, int b) {
+        int result = sortNames[a].compareTo(sortNames[b]);
+        return result != 0 ? result : photos[a].getFilePath().compareTo(photos[b].getFilePath());
+    }
+    
+    private int allocateSlot() {
+        if (freeCount > 0) {
+            return freeSlots[--freeCount];
+        }
+        if (slotLimit == photos.length) {
+            photos = Arrays.copyOf(photos, slotLimit * 2);
+            times = Arrays.copyOf(times, slotLimit * 2);
+            sortNames = Arrays.copyOf(sortNames, slotLimit * 2);
+        }
+        return slotLimit++;
+    }
+    
+    private void releaseSlot(int slot) {
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+        freeSlots[freeCount++] = slot;
+    }
+    
+    /**
+     * Вставляет отсортированную пачку новых слотов в упорядоченный массив, сливая с конца на месте.
+     * Место каждого нового слота ищется двоичным поиском, а участки между ними сдвигаются целиком,
+     * поэтому на пачку приходится O(k log n) сравнений и один проход копирования.
+     */
+    private static int[] mergeSlots(int[] ordered, int length, int[] added, int addedCount, SlotComparator comparator) {
+        Integer[] sortedAdded = new Integer[addedCount];
+        for (int i = 0; i < addedCount; i++) {
+            sortedAdded[i] = added[i];
+        }
+        Arrays.sort(sortedAdded, comparator::compare);
+        
+        int capacity = length + addedCount;
+        if (ordered.length < capacity) {
+            ordered = Arrays.copyOf(ordered, capacity + capacity / 2);
+        }
+        
+        int end = length;
+        int write = capacity;
+        for (int j = addedCount - 1; j >= 0; j--) {
+            int slot = sortedAdded[j];
+            int low = 0;
+            int high = end;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (comparator.compare(ordered[mid], slot) <= 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            write -= end - low;
+            System.arraycopy(ordered, low, ordered, write, end - low);
+            ordered[--write] = slot;
+            end = low;
+        }
+        return ordered;
+    }
+    
+    /**
+     * То же для слов: новые слова вставляются в отсортированный массив слов
+     */
+    private void mergeWords(List<String> newWords, List<Integer> newWordSlots) {
+        int addedCount = newWords.size();
+        Integer[] order = new Integer[addedCount];
+        for (int i = 0; i < addedCount; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> compareWords(newWords.get(a), newWordSlots.get(a), newWords.get(b), newWordSlots.get(b)));
+        
+        int capacity = wordCount + addedCount;
+        if (words.length < capacity) {
+            words = Arrays.copyOf(words, capacity + capacity / 2);
+            wordSlots = Arrays.copyOf(wordSlots, words.length);
+        }
+        
+        int end = wordCount;
+        int write = capacity;
+        for (int j = addedCount - 1; j >= 0; j--) {
+            String word = newWords.get(order[j]);
+            int slot = newWordSlots.get(order[j]);
+            int position = findWord(word, slot, end);
+            write -= end - position;
+            System.arraycopy(words, position, words, write, end - position);
+            System.arraycopy(wordSlots, position, wordSlots, write, end - position);
+            write--;
+            words[write] = word;
+            wordSlots[write] = slot;
+            end = position;
+        }
+        wordCount = capacity;
+    }
+    
+    /**
+     * Позиция пары (слово, слот) среди первых {@code end} слов
+     */
+    private int findWord(String word, int slot, int end) {
+        int low = 0;
+        int high = end;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareWords(words[mid], wordSlots[mid], word, slot) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+    
+    /**
+     * Убирает один слот из упорядоченного массива; слоты в порядке уникальны
+     */
+    private static void removeSlot(int[] ordered, int length, int slot, SlotComparator comparator) {
+        int low = 0;
+        int high = length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (comparator.compare(ordered[mid], slot) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        if (low < length && ordered[low] == slot) {
+            System.arraycopy(ordered, low + 1, ordered, low, length - low - 1);
+        }
+    }
+    
+    private void removeWord(String word, int slot) {
+        int i = findWord(word, slot, wordCount);
+        if (i < wordCount && wordSlots[i] == slot && words[i].equals(word)) {
+            System.arraycopy(words, i + 1, words, i, wordCount - i - 1);
+            System.arraycopy(wordSlots, i + 1, wordSlots, i, wordCount - i - 1);
+            words[--wordCount] = null;
+        }
+    }
+    
+    private static int compareWords(String word, int slot, String otherWord, int otherSlot) {
+        int result = word.compareTo(otherWord);
+        return result != 0 ? result : Integer.compare(slot, otherSlot);
+    }
+    
+    /**
+     * Убирает удаленные слоты с сохранением порядка
+     *
+     * @return новая длина
+     */
+    private static int compactSlots(int[] ordered, int length, BitSet removed) {
+        int kept = 0;
+        for (int i = 0; i < length; i++) {
+            if (!removed.get(ordered[i])) {
+                ordered[kept++] = ordered[i];
+            }
+        }
+        return kept;
+    }
+    
+    private interface SlotComparator {
+        int compare(int a, int b);
+    }
+}
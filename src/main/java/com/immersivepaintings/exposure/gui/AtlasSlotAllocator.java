@@ -0,0 +1,115 @@
+package com.immersivepaintings.exposure.gui;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Распределитель ячеек атласа миниатюр.
+ * Каждая страница атласа - квадрат {@code pageSize} с сеткой одинаковых ячеек {@code slotSize}.
+ * Номер ячейки кодирует страницу и позицию: {@code page * slotsPerPage + index}.
+ * Освобожденные ячейки используются повторно, новая страница появляется только когда
+ * заняты все существующие. Класс не обращается к OpenGL.
+ */
+public class AtlasSlotAllocator {
+    private final int slotSize;
+    private final int slotsPerRow;
+    private final int slotsPerPage;
+    private final List<BitSet> pages = new ArrayList<>();
+    private final List<Integer> usedCounts = new ArrayList<>();
+    private int usedSlots = 0;
+    
+    public AtlasSlotAllocator(int pageSize, int slotSize) {
+        if (slotSize <= 0 || pageSize < slotSize) {
+            throw new IllegalArgumentException("Invalid atlas geometry: page " + pageSize + ", slot " + slotSize);
+        }
+        this.slotSize = slotSize;
+        this.slotsPerRow = pageSize / slotSize;
+        this.slotsPerPage = this.slotsPerRow * this.slotsPerRow;
+    }
+    
+    /**
+     * Занимает свободную ячейку с наименьшим номером
+     */
+    public int allocate() {
+        for (int page = 0; page < pages.size(); page++) {
+            if (usedCounts.get(page) < slotsPerPage) {
+                return take(page);
+            }
+        }
+        
+        pages.add(new BitSet(slotsPerPage));
+        usedCounts.add(0);
+        return take(pages.size() - 1);
+    }
+    
+    private int take(int page) {
+        BitSet used = pages.get(page);
+        int index = used.nextClearBit(0);
+        used.set(index);
+        usedCounts.set(page, usedCounts.get(page) + 1);
+        usedSlots++;
+        return page * slotsPerPage + index;
+    }
+    
+    /**
+     * Освобождает ячейку
+     *
+     * @return {@code true}, если после этого страница стала пустой
+     */
+    public boolean free(int slot) {
+        int page = getPage(slot);
+        if (page < 0 || page >= pages.size()) {
+            throw new IllegalArgumentException("Slot " + slot + " does not belong to the atlas");
+        }
+        
+        BitSet used = pages.get(page);
+        int index = slot % slotsPerPage;
+        if (!used.get(index)) {
+            throw new IllegalStateException("Slot " + slot + " is already free");
+        }
+        
+        used.clear(index);
+        int remaining = usedCounts.get(page) - 1;
+        usedCounts.set(page, remaining);
+        usedSlots--;
+        return remaining == 0;
+    }
+    
+    public boolean isUsed(int slot) {
+        int page = getPage(slot);
+        return page >= 0 && page < pages.size() && pages.get(page).get(slot % slotsPerPage);
+    }
+    
+    public int getPage(int slot) {
+        return slot / slotsPerPage;
+    }
+    
+    public int getSlotX(int slot) {
+        return (slot % slotsPerPage) % slotsPerRow * slotSize;
+    }
+    
+    public int getSlotY(int slot) {
+        return (slot % slotsPerPage) / slotsPerRow * slotSize;
+    }
+    
+    public int getSlotSize() {
+        return slotSize;
+    }
+    
+    public int getSlotsPerPage() {
+        return slotsPerPage;
+    }
+    
+    public int getPageCount() {
+        return pages.size();
+    }
+    
+    public int getUsedSlots(int page) {
+        return page < usedCounts.size() ? usedCounts.get(page) : 0;
+    }
+    
+    public int getUsedSlots() {
+        return usedSlots;
+    }
+}
@@ -7,14 +7,26 @@ import net.minecraft.network.chat.Component;
 import net.minecraftforge.client.event.ScreenEvent;
 import net.minecraftforge.eventbus.api.SubscribeEvent;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 
 /**
  * Обработчик событий для интеграции вкладки Exposure
  */
 public class ExposureTabEventHandler {
     
+    // Решение "экран Immersive Paintings или нет" и найденные поля с кнопками для каждого класса экрана
+    private static final ClassValue<ScreenProfile> SCREEN_PROFILES = new ClassValue<>() {
+        @Override
+        protected ScreenProfile computeValue(Class<?> type) {
+            return isImmersivePaintingsScreen(type.getName()) ? new ScreenProfile(true) : ScreenProfile.NOT_PAINTING_SCREEN;
+        }
+    };
+    
     @SubscribeEvent
     public void onScreenInit(ScreenEvent.Init.Post event) {
         if (!ImmersivePaintingsExposure.isIntegrationEnabled()) {
@@ -26,28 +38,27 @@ public class ExposureTabEventHandler {
             return;
         }
         
-        String screenClassName = screen.getClass().getName();
-        
-        // Проверяем, является ли это GUI Immersive Paintings
-        if (isImmersivePaintingsScreen(screenClassName)) {
-            ImmersivePaintingsExposure.LOGGER.debug("Detected Immersive Paintings GUI: {}", screenClassName);
+        // Проверяем, является ли это GUI Immersive Paintings (решение кэшируется для класса)
+        ScreenProfile profile = SCREEN_PROFILES.get(screen.getClass());
+        if (profile.paintingScreen) {
+            ImmersivePaintingsExposure.LOGGER.debug("Detected Immersive Paintings GUI: {}", screen.getClass().getName());
             
             try {
-                addExposureTab(screen, event);
+                addExposureTab(screen, event, profile);
             } catch (Exception e) {
                 ImmersivePaintingsExposure.LOGGER.error("Failed to add Exposure tab to GUI", e);
             }
         }
     }
     
-    private boolean isImmersivePaintingsScreen(String className) {
+    private static boolean isImmersivePaintingsScreen(String className) {
         return className.contains("immersive_paintings") || 
                className.contains("immersivepaintings") ||
                (className.contains("PaintingEditScreen") || 
                 className.contains("PaintingEditGui"));
     }
     
-    private void addExposureTab(Screen screen, ScreenEvent.Init.Post event) {
+    private void addExposureTab(Screen screen, ScreenEvent.Init.Post event, ScreenProfile profile) {
         try {
             // Ищем стрелки страниц (pagination buttons) внизу экрана
             Button rightArrowButton = findPaginationButton(screen, true);
@@ -74,7 +85,6 @@ public class ExposureTabEventHandler {
             }
             
             // Если не нашли стрелки, пробуем найти кнопки вкладок
-            Field[] fields = screen.getClass().getDeclaredFields();
             java.util.List<Button> tabButtons = new java.util.ArrayList<>();
             
             // Также проверяем все виджеты экрана
@@ -84,26 +94,15 @@ public class ExposureTabEventHandler {
                 }
             }
             
-            for (Field field : fields) {
+            // Поля, в которых могут лежать кнопки вкладок, ищутся перебором только при первом открытии экрана
+            // этого класса; значения читаются заново при каждом открытии
+            if (profile.tabButtonFields == null) {
+                profile.tabButtonFields = resolveTabButtonFields(screen.getClass());
+            }
+            for (MethodHandle getter : profile.tabButtonFields) {
                 try {
-                    field.setAccessible(true);
-                    Object value = field.get(screen);
-                    
-                    if (value instanceof Button button) {
-                        // Проверяем, является ли это кнопкой вкладки
-                        if (isTabButton(button) && !tabButtons.contains(button)) {
-                            tabButtons.add(button);
-                        }
-                    } else if (value instanceof java.util.List) {
-                        @SuppressWarnings("unchecked")
-                        java.util.List<Object> list = (java.util.List<Object>) value;
-                        for (Object item : list) {
-                            if (item instanceof Button button && isTabButton(button) && !tabButtons.contains(button)) {
-                                tabButtons.add(button);
-                            }
-                        }
-                    }
-                } catch (Exception e) {
+                    collectTabButtons(getter.invokeExact((Object) screen), tabButtons);
+                } catch (Throwable e) {
                     // Игнорируем ошибки доступа к полям
                 }
             }
@@ -145,6 +144,55 @@ public class ExposureTabEventHandler {
         }
     }
     
+    /**
+     * Находит поля класса экрана, в которых по типу может лежать кнопка или список кнопок,
+     * и возвращает их геттеры с сигнатурой (Object)Object. Значения полей не читаются:
+     * при первой инициализации экрана кнопки могут быть еще не созданы.
+     */
+    private static java.util.List<MethodHandle> resolveTabButtonFields(Class<?> screenClass) {
+        java.util.List<MethodHandle> getters = new java.util.ArrayList<>();
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        
+        for (Field field : screenClass.getDeclaredFields()) {
+            Class<?> type = field.getType();
+            // Кнопка или список могут лежать только в поле совместимого типа
+            boolean mayHoldButton = type.isAssignableFrom(Button.class) || Button.class.isAssignableFrom(type);
+            boolean mayHoldList = type.isAssignableFrom(java.util.List.class) || java.util.List.class.isAssignableFrom(type);
+            if (!mayHoldButton && !mayHoldList) {
+                continue;
+            }
+            
+            try {
+                field.setAccessible(true);
+                MethodHandle getter = lookup.unreflectGetter(field);
+                if (Modifier.isStatic(field.getModifiers())) {
+                    getter = MethodHandles.dropArguments(getter, 0, Object.class);
+                }
+                getters.add(getter.asType(MethodType.methodType(Object.class, Object.class)));
+            } catch (Exception e) {
+                // Игнорируем ошибки доступа к полям
+            }
+        }
+        
+        ImmersivePaintingsExposure.LOGGER.debug("Found {} candidate tab button fields in {}", getters.size(), screenClass.getName());
+        return java.util.List.copyOf(getters);
+    }
+    
+    private static void collectTabButtons(Object value, java.util.List<Button> tabButtons) {
+        if (value instanceof Button button) {
+            // Проверяем, является ли это кнопкой вкладки
+            if (isTabButton(button) && !tabButtons.contains(button)) {
+                tabButtons.add(button);
+            }
+        } else if (value instanceof java.util.List<?> list) {
+            for (Object item : list) {
+                if (item instanceof Button button && isTabButton(button) && !tabButtons.contains(button)) {
+                    tabButtons.add(button);
+                }
+            }
+        }
+    }
+    
     /**
      * Ищет кнопку пагинации (стрелку вправо или влево)
      */
@@ -196,7 +244,7 @@ public class ExposureTabEventHandler {
         return closestButton;
     }
     
-    private boolean isTabButton(Button button) {
+    private static boolean isTabButton(Button button) {
         // Проверяем текст кнопки на наличие типичных названий вкладок
         String buttonText = button.getMessage().getString().toLowerCase();
         return buttonText.contains("yours") || 
@@ -264,51 +312,46 @@ public class ExposureTabEventHandler {
         com.immersivepaintings.exposure.integration.PaintingIntegration integration = 
             com.immersivepaintings.exposure.integration.PaintingIntegration.getInstance();
         
-        boolean success = integration.applyPhotoToPainting(photo, parentScreen);
-        
-        if (success) {
-            ImmersivePaintingsExposure.LOGGER.info("Successfully applied Exposure photo to painting: {}", photo.getName());
-            net.minecraft.client.Minecraft.getInstance().player.displayClientMessage(
-                net.minecraft.network.chat.Component.translatable(
-                    "gui.immersivepaintings_exposure.photo_selected",
-                    photo.getName()
-                ),
-                false
-            );
-        } else {
-            ImmersivePaintingsExposure.LOGGER.warn("Failed to apply Exposure photo to painting: {}", photo.getName());
-            net.minecraft.client.Minecraft.getInstance().player.displayClientMessage(
-                net.minecraft.network.chat.Component.translatable(
-                    "gui.immersivepaintings_exposure.error.applying"
-                ),
-                true
-            );
-        }
+        // Конвертация идет в фоне, результат приходит в клиентском потоке
+        integration.applyPhotoToPainting(photo, parentScreen).thenAccept(success -> {
+            net.minecraft.client.player.LocalPlayer player = net.minecraft.client.Minecraft.getInstance().player;
+            if (success) {
+                ImmersivePaintingsExposure.LOGGER.info("Successfully applied Exposure photo to painting: {}", photo.getName());
+                if (player != null) {
+                    player.displayClientMessage(
+                        net.minecraft.network.chat.Component.translatable(
+                            "gui.immersivepaintings_exposure.photo_selected",
+                            photo.getName()
+                        ),
+                        false
+                    );
+                }
+            } else {
+                ImmersivePaintingsExposure.LOGGER.warn("Failed to apply Exposure photo to painting: {}", photo.getName());
+                if (player != null) {
+                    player.displayClientMessage(
+                        net.minecraft.network.chat.Component.translatable(
+                            "gui.immersivepaintings_exposure.error.applying"
+                        ),
+                        true
+                    );
+                }
+            }
+        });
     }
     
-    private void applyPhotoToPainting(com.immersivepaintings.exposure.exposure.ExposurePhoto photo, Screen parentScreen) {
-        com.immersivepaintings.exposure.integration.PaintingIntegration integration = 
-            com.immersivepaintings.exposure.integration.PaintingIntegration.getInstance();
+    /**
+     * Кэшированные сведения о классе экрана. Используется только в потоке рендера.
+     */
+    private static class ScreenProfile {
+        private static final ScreenProfile NOT_PAINTING_SCREEN = new ScreenProfile(false);
         
-        boolean success = integration.applyPhotoToPainting(photo, parentScreen);
+        private final boolean paintingScreen;
+        // Геттеры полей, совместимых по типу с кнопкой или списком; null - еще не искали
+        private java.util.List<MethodHandle> tabButtonFields;
         
-        if (success) {
-            ImmersivePaintingsExposure.LOGGER.info("Successfully applied Exposure photo to painting: {}", photo.getName());
-            net.minecraft.client.Minecraft.getInstance().player.displayClientMessage(
-                net.minecraft.network.chat.Component.translatable(
-                    "gui.immersivepaintings_exposure.photo_selected",
-                    photo.getName()
-                ),
-                false
-            );
-        } else {
-            ImmersivePaintingsExposure.LOGGER.warn("Failed to apply Exposure photo to painting: {}", photo.getName());
-            net.minecraft.client.Minecraft.getInstance().player.displayClientMessage(
-                net.minecraft.network.chat.Component.translatable(
-                    "gui.immersivepaintings_exposure.error.applying"
-                ),
-                true
-            );
+        private ScreenProfile(boolean paintingScreen) {
+            this.paintingScreen = paintingScreen;
         }
     }
 }
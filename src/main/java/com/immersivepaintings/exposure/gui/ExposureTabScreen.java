@@ -2,19 +2,24 @@ package com.immersivepaintings.exposure.gui;
 
 import com.immersivepaintings.exposure.ImmersivePaintingsExposure;
 import com.immersivepaintings.exposure.exposure.ExposurePhoto;
-import com.immersivepaintings.exposure.exposure.ExposurePhotoManager;
+import com.immersivepaintings.exposure.exposure.PhotoCatalogue;
+import com.immersivepaintings.exposure.exposure.PhotoIndexService;
+import com.immersivepaintings.exposure.exposure.PhotoLibraryIndex;
 import com.mojang.blaze3d.systems.RenderSystem;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.gui.GuiGraphics;
 import net.minecraft.client.gui.components.Button;
+import net.minecraft.client.gui.components.EditBox;
 import net.minecraft.client.gui.components.ImageButton;
 import net.minecraft.client.gui.screens.Screen;
 import net.minecraft.network.chat.Component;
 import net.minecraft.resources.ResourceLocation;
 import net.minecraft.world.entity.player.Player;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 
 /**
  * Экран вкладки Exposure для выбора фотографий
@@ -30,6 +35,17 @@ public class ExposureTabScreen extends Screen {
     private PhotoListWidget photoList;
     private int scrollOffset = 0;
     
+    // Поиск и сортировка сохраняются при изменении размера окна
+    private EditBox searchBox;
+    private String searchText = "";
+    private PhotoLibraryIndex.SortOrder sortOrder = PhotoLibraryIndex.SortOrder.NEWEST;
+    
+    // Фоновая индексация фотографий
+    private PhotoIndexService.IndexTask indexTask;
+    private boolean loading = false;
+    // Изменения директории, пришедшие от наблюдателя
+    private final PhotoCatalogue.Listener catalogueListener = this::onCatalogueChanged;
+    
     // Callback для выбора фотографии
     private PhotoSelectionCallback selectionCallback;
     
@@ -49,8 +65,10 @@ public class ExposureTabScreen extends Screen {
     protected void init() {
         super.init();
         
-        // Загружаем доступные фотографии
-        loadAvailablePhotos();
+        // При изменении размера окна список переносится в новый виджет
+        if (this.photoList != null) {
+            this.availablePhotos = this.photoList.getPhotos();
+        }
         
         // Создаем список фотографий
         int listWidth = this.width - 40;
@@ -69,9 +87,40 @@ public class ExposureTabScreen extends Screen {
             this.availablePhotos,
             this
         );
+        this.photoList.setLoading(this.loading);
+        this.photoList.setSortOrder(this.sortOrder);
+        this.photoList.setQuery(this.searchText);
         
         this.addWidget(this.photoList);
         
+        // Поиск по мере ввода: каждое слово - начало слова в имени, @имя - фотограф
+        this.searchBox = new EditBox(this.font, listX, 36, listWidth - 106, 18,
+            Component.translatable("gui.immersivepaintings_exposure.search"));
+        this.searchBox.setMaxLength(64);
+        this.searchBox.setHint(Component.translatable("gui.immersivepaintings_exposure.search.hint"));
+        this.searchBox.setValue(this.searchText);
+        this.searchBox.setResponder(text -> {
+            this.searchText = text;
+            this.photoList.setQuery(text);
+        });
+        this.addRenderableWidget(this.searchBox);
+        
+        // Переключение сортировки
+        this.addRenderableWidget(Button.builder(
+            getSortLabel(this.sortOrder),
+            (button) -> {
+                this.sortOrder = this.sortOrder.next();
+                this.photoList.setSortOrder(this.sortOrder);
+                button.setMessage(getSortLabel(this.sortOrder));
+            }
+        ).bounds(listX + listWidth - 100, 35, 100, 20).build());
+        
+        // Загружаем доступные фотографии в фоне (init вызывается и при изменении размера окна)
+        if (this.indexTask == null) {
+            PhotoCatalogue.getInstance().addListener(this.catalogueListener);
+            loadAvailablePhotos();
+        }
+        
         // Кнопка "Назад"
         this.addRenderableWidget(Button.builder(
             Component.translatable("gui.back"),
@@ -81,17 +130,73 @@ public class ExposureTabScreen extends Screen {
         // Кнопка "Обновить"
         this.addRenderableWidget(Button.builder(
             Component.translatable("gui.immersivepaintings_exposure.refresh"),
-            (button) -> {
-                loadAvailablePhotos();
-                this.photoList.updatePhotos(this.availablePhotos);
-            }
+            (button) -> refreshPhotos()
         ).bounds(this.width / 2 + 120, this.height - 30, 80, 20).build());
     }
     
+    private static Component getSortLabel(PhotoLibraryIndex.SortOrder order) {
+        return Component.translatable("gui.immersivepaintings_exposure.sort." + order.name().toLowerCase(Locale.ROOT));
+    }
+    
+    @Override
+    public void tick() {
+        super.tick();
+        if (this.searchBox != null) {
+            this.searchBox.tick();
+        }
+    }
+    
     private void loadAvailablePhotos() {
-        ExposurePhotoManager manager = ExposurePhotoManager.getInstance();
-        this.availablePhotos = manager.getAvailablePhotos(this.player);
-        ImmersivePaintingsExposure.LOGGER.debug("Loaded {} Exposure photos", this.availablePhotos.size());
+        if (this.indexTask != null) {
+            this.indexTask.cancel();
+        }
+        
+        this.availablePhotos = new ArrayList<>();
+        this.loading = true;
+        this.photoList.updatePhotos(this.availablePhotos);
+        this.photoList.setLoading(true);
+        
+        this.indexTask = PhotoIndexService.getInstance().indexAsync(this.player, new PhotoIndexService.BatchListener() {
+            @Override
+            public void onBatch(List<ExposurePhoto> batch) {
+                photoList.appendPhotos(batch);
+            }
+            
+            @Override
+            public void onComplete(int total) {
+                loading = false;
+                photoList.setLoading(false);
+                ImmersivePaintingsExposure.LOGGER.debug("Loaded {} Exposure photos", total);
+            }
+        });
+    }
+    
+    private void refreshPhotos() {
+        // Если каталог уже построен, достаточно сверки - изменения придут слушателю
+        if (this.loading || !PhotoIndexService.getInstance().refreshAsync(this.player)) {
+            loadAvailablePhotos();
+        }
+    }
+    
+    private void onCatalogueChanged(List<ExposurePhoto> added, List<ExposurePhoto> updated, List<Path> removed) {
+        if (this.photoList == null) {
+            return;
+        }
+        this.photoList.removePhotos(removed);
+        this.photoList.replacePhotos(updated);
+        this.photoList.appendPhotos(added);
+    }
+    
+    @Override
+    public void removed() {
+        // Экран закрыт - прекращаем индексацию и декодирование миниатюр
+        if (this.indexTask != null) {
+            this.indexTask.cancel();
+            this.indexTask = null;
+        }
+        PhotoCatalogue.getInstance().removeListener(this.catalogueListener);
+        PhotoTextureManager.getInstance().cancelPendingLoads();
+        super.removed();
     }
     
     @Override
@@ -115,9 +220,11 @@ public class ExposureTabScreen extends Screen {
         }
         
         // Информация о количестве фотографий
-        String photoCountText = Component.translatable(
-            "gui.immersivepaintings_exposure.photo_count",
-            this.availablePhotos.size()
+        int shown = this.photoList != null ? this.photoList.getPhotoCount() : 0;
+        int total = this.photoList != null ? this.photoList.getTotalPhotoCount() : 0;
+        String photoCountText = (shown == total
+            ? Component.translatable("gui.immersivepaintings_exposure.photo_count", total)
+            : Component.translatable("gui.immersivepaintings_exposure.photo_count.filtered", shown, total)
         ).getString();
         guiGraphics.drawString(
             this.font,
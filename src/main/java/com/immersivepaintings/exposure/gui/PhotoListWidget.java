@@ -1,14 +1,14 @@
 package com.immersivepaintings.exposure.gui;
 
 import com.immersivepaintings.exposure.exposure.ExposurePhoto;
-import com.mojang.blaze3d.systems.RenderSystem;
+import com.immersivepaintings.exposure.exposure.PhotoLibraryIndex;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.gui.GuiGraphics;
 import net.minecraft.client.gui.components.AbstractWidget;
 import net.minecraft.client.gui.narration.NarrationElementOutput;
 import net.minecraft.client.renderer.RenderType;
-import net.minecraft.resources.ResourceLocation;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -20,36 +20,165 @@ public class PhotoListWidget extends AbstractWidget {
     private final Minecraft minecraft;
     private final int itemHeight;
     private final int itemWidth;
-    private List<ExposurePhoto> photos;
-    private int scrollAmount = 0;
+    // Вся библиотека и ее видимая часть - результат текущего поиска
+    private final PhotoLibraryIndex library = new PhotoLibraryIndex();
+    private List<ExposurePhoto> photos = List.of();
+    private String query = "";
+    private PhotoLibraryIndex.SortOrder sortOrder = PhotoLibraryIndex.SortOrder.NEWEST;
+    // Прокрутка в пикселях: текущая (отображаемая) и целевая, к которой она плавно стремится
+    private double scrollAmount = 0;
+    private double targetScroll = 0;
+    // Сглаженная скорость прокрутки, пикселей в секунду (положительная - вниз)
+    private double scrollVelocity = 0;
+    private long lastFrameNanos = 0;
     private ExposurePhoto selectedPhoto = null;
     private final ExposureTabScreen parentScreen;
+    private boolean loading = false;
+    private final ThumbnailBatch thumbnailBatch = new ThumbnailBatch();
     
     // Параметры сетки
     private static final int PHOTOS_PER_ROW = 4;
     private static final int PHOTO_PADDING = 10;
+    // Предзагрузка: минимум рядов с каждой стороны и максимум в сторону движения
+    private static final int PREFETCH_ROWS = 2;
+    private static final int MAX_PREFETCH_ROWS = 12;
+    // На сколько секунд вперед предзагружать ряды при текущей скорости
+    private static final double PREFETCH_LOOKAHEAD_SECONDS = 0.5;
+    // Прокрутка колесом - половина ряда за щелчок
+    private static final double SCROLL_STEP_FRACTION = 0.5;
+    // Доля оставшегося пути, проходимая за 1/60 секунды
+    private static final double SCROLL_SMOOTHING = 0.35;
+    // Вес нового измерения в сглаженной скорости
+    private static final double VELOCITY_SMOOTHING = 0.25;
     
     public PhotoListWidget(Minecraft minecraft, int width, int height, int y0, int y1, int itemHeight, int x, List<ExposurePhoto> photos, ExposureTabScreen parentScreen) {
         super(x, y0, width, height - y0, net.minecraft.network.chat.Component.empty());
         this.minecraft = minecraft;
         this.itemHeight = itemHeight;
         this.itemWidth = (width - (PHOTOS_PER_ROW + 1) * PHOTO_PADDING) / PHOTOS_PER_ROW;
-        this.photos = new ArrayList<>(photos);
+        this.library.addAll(photos);
         this.parentScreen = parentScreen;
+        refreshQuery();
     }
     
     public void updatePhotos(List<ExposurePhoto> newPhotos) {
-        this.photos = new ArrayList<>(newPhotos);
+        this.library.clear();
+        this.library.addAll(newPhotos);
+        refreshQuery();
         this.scrollAmount = 0;
+        this.targetScroll = 0;
+        this.scrollVelocity = 0;
         this.selectedPhoto = null;
     }
     
+    /**
+     * Добавляет фотографии без сброса прокрутки и выбора.
+     * Фотографии, которые уже есть в списке, пропускаются.
+     */
+    public void appendPhotos(List<ExposurePhoto> morePhotos) {
+        List<ExposurePhoto> newPhotos = new ArrayList<>(morePhotos.size());
+        for (ExposurePhoto photo : morePhotos) {
+            if (!this.library.contains(photo.getFilePath())) {
+                newPhotos.add(photo);
+            }
+        }
+        this.library.addAll(newPhotos);
+        refreshQuery();
+    }
+    
+    /**
+     * Заменяет измененные фотографии на их новые версии
+     */
+    public void replacePhotos(List<ExposurePhoto> updated) {
+        for (ExposurePhoto photo : updated) {
+            if (this.selectedPhoto != null && this.selectedPhoto.getFilePath().equals(photo.getFilePath())) {
+                this.selectedPhoto = photo;
+            }
+        }
+        this.library.addAll(updated);
+        refreshQuery();
+    }
+    
+    /**
+     * Убирает из списка удаленные фотографии
+     */
+    public void removePhotos(List<Path> removed) {
+        this.library.removeAll(removed);
+        if (this.selectedPhoto != null && removed.contains(this.selectedPhoto.getFilePath())) {
+            this.selectedPhoto = null;
+        }
+        refreshQuery();
+    }
+    
+    /**
+     * Все фотографии библиотеки, без учета поиска
+     */
+    public List<ExposurePhoto> getPhotos() {
+        return new ArrayList<>(this.library.getAll());
+    }
+    
+    /**
+     * Количество показанных фотографий
+     */
+    public int getPhotoCount() {
+        return this.photos.size();
+    }
+    
+    public int getTotalPhotoCount() {
+        return this.library.size();
+    }
+    
+    /**
+     * Фильтрует список по строке поиска; прокрутка возвращается в начало
+     */
+    public void setQuery(String query) {
+        if (!query.equals(this.query)) {
+            this.query = query;
+            refreshQuery();
+            this.targetScroll = 0;
+            this.scrollAmount = 0;
+        }
+    }
+    
+    public void setSortOrder(PhotoLibraryIndex.SortOrder sortOrder) {
+        if (sortOrder != this.sortOrder) {
+            this.sortOrder = sortOrder;
+            refreshQuery();
+            this.targetScroll = 0;
+            this.scrollAmount = 0;
+        }
+    }
+    
+    public PhotoLibraryIndex.SortOrder getSortOrder() {
+        return this.sortOrder;
+    }
+    
+    private void refreshQuery() {
+        this.photos = this.library.query(this.query, this.sortOrder);
+    }
+    
+    public void setLoading(boolean loading) {
+        this.loading = loading;
+    }
+    
     @Override
     protected void renderWidget(GuiGraphics guiGraphics, int mouseX, int mouseY, float partialTick) {
+        PhotoTextureManager textureManager = PhotoTextureManager.getInstance();
+        textureManager.beginFrame();
+        try {
+            renderPhotos(guiGraphics, mouseX, mouseY);
+        } finally {
+            // Загрузки фотографий, не запрошенных в этом кадре, отменяются
+            textureManager.endFrame();
+        }
+    }
+    
+    private void renderPhotos(GuiGraphics guiGraphics, int mouseX, int mouseY) {
         if (this.photos.isEmpty()) {
-            String noPhotosText = net.minecraft.network.chat.Component.translatable(
-                "gui.immersivepaintings_exposure.no_photos"
-            ).getString();
+            String key = this.loading ? "gui.immersivepaintings_exposure.loading"
+                : this.library.isEmpty() ? "gui.immersivepaintings_exposure.no_photos"
+                : "gui.immersivepaintings_exposure.no_matches";
+            String noPhotosText = net.minecraft.network.chat.Component.translatable(key).getString();
             guiGraphics.drawString(
                 this.minecraft.font,
                 noPhotosText,
@@ -61,15 +190,18 @@ public class PhotoListWidget extends AbstractWidget {
             return;
         }
         
-        int rows = (this.photos.size() + PHOTOS_PER_ROW - 1) / PHOTOS_PER_ROW;
-        int maxVisibleRows = this.height / (this.itemHeight + PHOTO_PADDING);
-        int maxScroll = Math.max(0, rows - maxVisibleRows);
+        updateScroll();
         
-        this.scrollAmount = Math.max(0, Math.min(this.scrollAmount, maxScroll));
-        
-        int startRow = this.scrollAmount;
-        int endRow = Math.min(startRow + maxVisibleRows, rows);
+        // Раскладываются и рисуются только ряды, пересекающие видимую область
+        int rowHeight = getRowHeight();
+        int rows = getRowCount();
+        int scroll = (int) this.scrollAmount;
+        int startRow = Math.max(0, (scroll - PHOTO_PADDING) / rowHeight);
+        int endRow = Math.min(rows, (scroll + this.height) / rowHeight + 1);
+        ExposurePhoto hoveredPhoto = null;
+        boolean mouseInside = this.isMouseOver(mouseX, mouseY);
         
+        guiGraphics.enableScissor(this.getX(), this.getY(), this.getX() + this.width, this.getY() + this.height);
         for (int row = startRow; row < endRow; row++) {
             for (int col = 0; col < PHOTOS_PER_ROW; col++) {
                 int index = row * PHOTOS_PER_ROW + col;
@@ -79,14 +211,71 @@ public class PhotoListWidget extends AbstractWidget {
                 
                 ExposurePhoto photo = this.photos.get(index);
                 int photoX = this.getX() + col * (this.itemWidth + PHOTO_PADDING) + PHOTO_PADDING;
-                int photoY = this.getY() + (row - startRow) * (this.itemHeight + PHOTO_PADDING) + PHOTO_PADDING;
+                int photoY = this.getY() + row * rowHeight - scroll + PHOTO_PADDING;
                 
-                renderPhoto(guiGraphics, photo, photoX, photoY, mouseX, mouseY);
+                // Частично видимые ряды не перехватывают наведение за пределами виджета
+                if (renderPhoto(guiGraphics, photo, photoX, photoY, mouseX, mouseY) && mouseInside) {
+                    hoveredPhoto = photo;
+                }
+            }
+        }
+        
+        prefetchAround(startRow, endRow);
+        
+        // Все миниатюры рисуются одним вызовом на страницу атласа
+        this.thumbnailBatch.flush(guiGraphics);
+        guiGraphics.disableScissor();
+        
+        // Подсказка при наведении - поверх миниатюр
+        if (hoveredPhoto != null) {
+            guiGraphics.renderTooltip(
+                this.minecraft.font,
+                net.minecraft.network.chat.Component.literal(hoveredPhoto.getName()),
+                mouseX,
+                mouseY
+            );
+        }
+    }
+    
+    /**
+     * Предзагружает ряды вокруг видимой области. В сторону прокрутки глубина растет со скоростью,
+     * чтобы миниатюры успели декодироваться до появления на экране; чем дальше ряд, тем ниже приоритет.
+     */
+    private void prefetchAround(int startRow, int endRow) {
+        int velocityRows = (int) Math.ceil(Math.abs(this.scrollVelocity) * PREFETCH_LOOKAHEAD_SECONDS / getRowHeight());
+        int ahead = Math.min(MAX_PREFETCH_ROWS, PREFETCH_ROWS + velocityRows);
+        int below = this.scrollVelocity >= 0 ? ahead : PREFETCH_ROWS;
+        int above = this.scrollVelocity < 0 ? ahead : PREFETCH_ROWS;
+        
+        for (int distance = 1; distance <= Math.max(below, above); distance++) {
+            if (distance <= below) {
+                prefetchRow(endRow - 1 + distance, distance);
+            }
+            if (distance <= above) {
+                prefetchRow(startRow - distance, distance);
             }
         }
     }
     
-    private void renderPhoto(GuiGraphics guiGraphics, ExposurePhoto photo, int x, int y, int mouseX, int mouseY) {
+    private void prefetchRow(int row, int distance) {
+        int first = row * PHOTOS_PER_ROW;
+        if (row < 0 || first >= this.photos.size()) {
+            return;
+        }
+        
+        int last = Math.min(first + PHOTOS_PER_ROW, this.photos.size());
+        for (int index = first; index < last; index++) {
+            PhotoTextureManager.getInstance().prefetchTexture(this.photos.get(index).getFilePath(),
+                ThumbnailLoader.PRIORITY_VISIBLE + distance);
+        }
+    }
+    
+    /**
+     * Рисует фон ячейки и ставит миниатюру в пакет отрисовки
+     *
+     * @return {@code true}, если курсор находится над фотографией
+     */
+    private boolean renderPhoto(GuiGraphics guiGraphics, ExposurePhoto photo, int x, int y, int mouseX, int mouseY) {
         boolean isHovered = mouseX >= x && mouseX < x + this.itemWidth &&
                            mouseY >= y && mouseY < y + this.itemHeight;
         boolean isSelected = photo.equals(this.selectedPhoto);
@@ -97,33 +286,29 @@ public class PhotoListWidget extends AbstractWidget {
         
         // Попытка загрузить и отобразить текстуру фотографии
         try {
-            ResourceLocation textureLoc = PhotoTextureManager.getInstance()
+            ThumbnailAtlas.Region texture = PhotoTextureManager.getInstance()
                 .getOrLoadTexture(photo.getFilePath(), photo.getName());
             
-            if (textureLoc != null) {
-                // Отображаем текстуру фотографии
-                RenderSystem.setShaderTexture(0, textureLoc);
-                RenderSystem.enableBlend();
-                RenderSystem.defaultBlendFunc();
-                
-                // Вычисляем размеры для отображения с сохранением пропорций
-                int imageWidth = this.itemWidth - 4;
-                int imageHeight = this.itemHeight - 4;
-                
-                guiGraphics.blit(
-                    textureLoc,
-                    x + 2,
-                    y + 2,
-                    0,
-                    0,
-                    imageWidth,
-                    imageHeight,
-                    imageWidth,
-                    imageHeight
-                );
-                
-                RenderSystem.disableBlend();
+            // Пропорции известны из заголовка файла еще до загрузки миниатюры
+            float aspectRatio = photo.hasDimensions() || texture == null
+                ? photo.getAspectRatio()
+                : (float) texture.getWidth() / texture.getHeight();
+            int areaWidth = this.itemWidth - 4;
+            int areaHeight = this.itemHeight - 4;
+            int imageWidth = Math.min(areaWidth, Math.max(1, Math.round(areaHeight * aspectRatio)));
+            int imageHeight = Math.min(areaHeight, Math.max(1, Math.round(areaWidth / aspectRatio)));
+            int imageX = x + 2 + (areaWidth - imageWidth) / 2;
+            int imageY = y + 2 + (areaHeight - imageHeight) / 2;
+            
+            if (texture != null) {
+                // Отображаем миниатюру фотографии
+                this.thumbnailBatch.add(texture, imageX, imageY, imageWidth, imageHeight);
             } else {
+                // Место под миниатюру с ее будущими пропорциями
+                if (photo.hasDimensions()) {
+                    guiGraphics.fill(imageX, imageY, imageX + imageWidth, imageY + imageHeight, 0xFF222222);
+                }
+                
                 // Если текстура не загружена, отображаем имя фотографии
                 String displayName = photo.getName();
                 if (displayName.length() > 15) {
@@ -154,15 +339,7 @@ public class PhotoListWidget extends AbstractWidget {
             );
         }
         
-        // Подсказка при наведении
-        if (isHovered) {
-            guiGraphics.renderTooltip(
-                this.minecraft.font,
-                net.minecraft.network.chat.Component.literal(photo.getName()),
-                mouseX,
-                mouseY
-            );
-        }
+        return isHovered;
     }
     
     @Override
@@ -172,12 +349,9 @@ public class PhotoListWidget extends AbstractWidget {
         }
         
         if (button == 0) { // Левая кнопка мыши
-            int rows = (this.photos.size() + PHOTOS_PER_ROW - 1) / PHOTOS_PER_ROW;
-            int maxVisibleRows = this.height / (this.itemHeight + PHOTO_PADDING);
-            int startRow = this.scrollAmount;
-            
-            int relativeY = (int) (mouseY - this.getY());
-            int row = (relativeY / (this.itemHeight + PHOTO_PADDING)) + startRow;
+            int rows = getRowCount();
+            int contentY = (int) (mouseY - this.getY() + (int) this.scrollAmount) - PHOTO_PADDING;
+            int row = Math.floorDiv(contentY, getRowHeight());
             int col = (int) ((mouseX - this.getX() - PHOTO_PADDING) / (this.itemWidth + PHOTO_PADDING));
             
             if (row >= 0 && row < rows && col >= 0 && col < PHOTOS_PER_ROW) {
@@ -200,16 +374,53 @@ public class PhotoListWidget extends AbstractWidget {
     @Override
     public boolean mouseScrolled(double mouseX, double mouseY, double delta) {
         if (this.isMouseOver(mouseX, mouseY)) {
-            int rows = (this.photos.size() + PHOTOS_PER_ROW - 1) / PHOTOS_PER_ROW;
-            int maxVisibleRows = this.height / (this.itemHeight + PHOTO_PADDING);
-            int maxScroll = Math.max(0, rows - maxVisibleRows);
-            
-            this.scrollAmount = (int) Math.max(0, Math.min(this.scrollAmount - delta, maxScroll));
+            double step = getRowHeight() * SCROLL_STEP_FRACTION;
+            this.targetScroll = Math.max(0, Math.min(this.targetScroll - delta * step, getMaxScroll()));
             return true;
         }
         return false;
     }
     
+    private int getRowHeight() {
+        return this.itemHeight + PHOTO_PADDING;
+    }
+    
+    private int getRowCount() {
+        return (this.photos.size() + PHOTOS_PER_ROW - 1) / PHOTOS_PER_ROW;
+    }
+    
+    private double getMaxScroll() {
+        return Math.max(0, getRowCount() * getRowHeight() + PHOTO_PADDING - this.height);
+    }
+    
+    /**
+     * Сдвигает прокрутку к целевой позиции с учетом времени кадра и обновляет оценку скорости
+     */
+    private void updateScroll() {
+        long now = System.nanoTime();
+        double elapsed = this.lastFrameNanos == 0 ? 0 : Math.min(0.25, (now - this.lastFrameNanos) / 1.0e9);
+        this.lastFrameNanos = now;
+        
+        // Список мог сократиться - цель не должна выходить за конец
+        double maxScroll = getMaxScroll();
+        this.targetScroll = Math.max(0, Math.min(this.targetScroll, maxScroll));
+        
+        double previous = this.scrollAmount;
+        double remaining = this.targetScroll - this.scrollAmount;
+        if (Math.abs(remaining) < 0.5) {
+            this.scrollAmount = this.targetScroll;
+        } else {
+            double progress = 1.0 - Math.pow(1.0 - SCROLL_SMOOTHING, elapsed * 60.0);
+            this.scrollAmount += remaining * progress;
+        }
+        this.scrollAmount = Math.max(0, Math.min(this.scrollAmount, maxScroll));
+        
+        if (elapsed > 0) {
+            double velocity = (this.scrollAmount - previous) / elapsed;
+            this.scrollVelocity += (velocity - this.scrollVelocity) * VELOCITY_SMOOTHING;
+        }
+    }
+    
     @Override
     protected void updateWidgetNarration(NarrationElementOutput narrationElementOutput) {
         narrationElementOutput.add(net.minecraft.client.gui.narration.NarratedElementType.TITLE, 
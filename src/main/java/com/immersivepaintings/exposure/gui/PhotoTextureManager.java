@@ -1,17 +1,17 @@
 package com.immersivepaintings.exposure.gui;
 
+import com.immersivepaintings.exposure.ExposureConfig;
 import com.immersivepaintings.exposure.ImmersivePaintingsExposure;
-import com.mojang.blaze3d.platform.NativeImage;
-import net.minecraft.client.Minecraft;
-import net.minecraft.client.renderer.texture.DynamicTexture;
-import net.minecraft.resources.ResourceLocation;
+import com.immersivepaintings.exposure.exposure.ContentHash;
+import com.immersivepaintings.exposure.exposure.FileMetadataCache;
+import com.immersivepaintings.exposure.exposure.PhotoContentIndex;
+import com.immersivepaintings.exposure.metrics.PipelineMetrics;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
 import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Менеджер для загрузки и кэширования текстур фотографий
@@ -19,128 +19,205 @@ import java.util.Map;
 public class PhotoTextureManager {
     
     private static final PhotoTextureManager INSTANCE = new PhotoTextureManager();
-    private final Map<String, ResourceLocation> textureCache = new HashMap<>();
-    private final Map<String, Long> textureTimestamps = new HashMap<>();
+    private static final int THUMBNAIL_SIZE = 128; // Максимальный размер миниатюры
+    // Каждая миниатюра занимает в атласе целую ячейку, независимо от своих размеров
+    private static final long SLOT_BYTES = THUMBNAIL_SIZE * THUMBNAIL_SIZE * 4L;
+    private final ThumbnailAtlas atlas = new ThumbnailAtlas(THUMBNAIL_SIZE);
+    // Ключи кэша - хэши содержимого: одинаковые фотографии делят одну миниатюру
+    private final ThumbnailCache textureCache = new ThumbnailCache(getConfiguredBudgetBytes(), this::onEvicted);
+    // Ключи содержимого, миниатюры которых сейчас в атласе; читается фоновыми потоками
+    private final Set<String> residentContent = ConcurrentHashMap.newKeySet();
+    // Какое содержимое последний раз показывалось для пути - до перепроверки показываем его
+    private final Map<Path, String> contentKeys = new HashMap<>();
+    private final Map<Path, Long> failedTimestamps = new HashMap<>();
+    private final ThumbnailLoader loader = new ThumbnailLoader(THUMBNAIL_SIZE, residentContent::contains);
+    // Декодированные миниатюры ждут загрузки на GPU в пределах бюджета кадра
+    private final ThumbnailUploadQueue uploadQueue = new ThumbnailUploadQueue();
     
     public static PhotoTextureManager getInstance() {
         return INSTANCE;
     }
     
     private PhotoTextureManager() {
+        PipelineMetrics metrics = PipelineMetrics.getInstance();
+        metrics.gauge("cache.hits", PipelineMetrics.Unit.COUNT, textureCache::getHits);
+        metrics.gauge("cache.misses", PipelineMetrics.Unit.COUNT, textureCache::getMisses);
+        metrics.gauge("cache.evictions", PipelineMetrics.Unit.COUNT, textureCache::getEvictions);
+        metrics.gauge("cache.resident", PipelineMetrics.Unit.BYTES, textureCache::getResidentBytes);
+        metrics.gauge("thumbnail.pending", PipelineMetrics.Unit.COUNT, loader::getPendingCount);
+        metrics.gauge("gpu.upload_queue", PipelineMetrics.Unit.COUNT, uploadQueue::size);
     }
     
     /**
-     * Загружает текстуру из файла фотографии
+     * Возвращает область атласа с миниатюрой фотографии.
+     * Если миниатюры еще нет, ставит ее декодирование в очередь и возвращает {@code null}.
+     *
+     * @param priority приоритет декодирования, {@link ThumbnailLoader#PRIORITY_VISIBLE} для видимых фотографий
      */
-    public ResourceLocation getOrLoadTexture(Path photoPath, String photoName) {
-        String cacheKey = photoPath.toString();
+    public ThumbnailAtlas.Region getOrLoadTexture(Path photoPath, String photoName, int priority) {
+        // Метаданные берутся из кэша и обновляются в фоне - без обращения к файловой системе
+        FileMetadataCache.Metadata metadata = FileMetadataCache.getInstance().get(photoPath);
+        long contentHash = PhotoContentIndex.getInstance().getKnownHash(photoPath, metadata);
         
-        // Проверяем кэш
-        if (textureCache.containsKey(cacheKey)) {
-            // Проверяем, не изменился ли файл
-            File file = photoPath.toFile();
-            if (file.exists()) {
-                Long cachedTime = textureTimestamps.get(cacheKey);
-                if (cachedTime != null && cachedTime == file.lastModified()) {
-                    return textureCache.get(cacheKey);
-                }
+        // Хэш известен для текущих размера и времени изменения файла - миниатюра актуальна
+        String contentKey = contentKeys.get(photoPath);
+        if (contentHash != ContentHash.UNKNOWN) {
+            String currentKey = ContentHash.toKey(contentHash);
+            ThumbnailCache.Entry entry = textureCache.get(currentKey);
+            if (entry != null) {
+                contentKeys.put(photoPath, currentKey);
+                return entry.getRegion();
             }
-        }
-        
-        try {
-            // Загружаем изображение
-            ResourceLocation texture = loadTextureFromFile(photoPath, photoName);
-            if (texture != null) {
-                textureCache.put(cacheKey, texture);
-                File file = photoPath.toFile();
-                if (file.exists()) {
-                    textureTimestamps.put(cacheKey, file.lastModified());
-                }
-                return texture;
+        } else if (metadata == null && contentKey != null) {
+            // Файл еще не перепроверялся - считаем показанную миниатюру актуальной
+            ThumbnailCache.Entry entry = textureCache.get(contentKey);
+            if (entry != null) {
+                return entry.getRegion();
             }
-        } catch (Exception e) {
-            ImmersivePaintingsExposure.LOGGER.error("Failed to load texture for photo: {}", photoName, e);
         }
         
-        return null;
+        // Загружаем изображение в фоне, до готовности показываем старую миниатюру
+        requestLoad(photoPath, metadata, priority);
+        
+        ThumbnailCache.Entry stale = contentKey != null ? textureCache.get(contentKey) : null;
+        return stale != null ? stale.getRegion() : null;
+    }
+    
+    public ThumbnailAtlas.Region getOrLoadTexture(Path photoPath, String photoName) {
+        return getOrLoadTexture(photoPath, photoName, ThumbnailLoader.PRIORITY_VISIBLE);
     }
     
-    private ResourceLocation loadTextureFromFile(Path photoPath, String photoName) throws IOException {
-        File file = photoPath.toFile();
-        if (!file.exists() || !file.isFile()) {
-            return null;
+    /**
+     * Ставит миниатюру в очередь предзагрузки, не возвращая ее
+     */
+    public void prefetchTexture(Path photoPath, int priority) {
+        FileMetadataCache.Metadata metadata = FileMetadataCache.getInstance().get(photoPath);
+        long contentHash = PhotoContentIndex.getInstance().getKnownHash(photoPath, metadata);
+        if (contentHash != ContentHash.UNKNOWN && textureCache.contains(ContentHash.toKey(contentHash))) {
+            return;
         }
-        
-        try (FileInputStream fis = new FileInputStream(file)) {
-            // Загружаем изображение через NativeImage
-            NativeImage image = NativeImage.read(fis);
-            
-            // Масштабируем до миниатюры (если нужно)
-            int maxSize = 128; // Максимальный размер миниатюры
-            if (image.getWidth() > maxSize || image.getHeight() > maxSize) {
-                NativeImage scaled = scaleImage(image, maxSize);
-                image.close();
-                image = scaled;
+        requestLoad(photoPath, metadata, priority);
+    }
+    
+    /**
+     * Декодирует миниатюру, если она еще не декодирована и не ждет загрузки на GPU.
+     * Приоритет запроса определяет и порядок загрузки на GPU в следующем кадре.
+     */
+    private void requestLoad(Path photoPath, FileMetadataCache.Metadata metadata, int priority) {
+        uploadQueue.request(photoPath, priority);
+        if (!uploadQueue.contains(photoPath) && !isFailed(photoPath, metadata)) {
+            if (loader.request(photoPath.toString(), photoPath, priority)) {
+                textureCache.recordMiss();
             }
-            
-            // Создаем динамическую текстуру
-            DynamicTexture dynamicTexture = new DynamicTexture(image);
-            ResourceLocation textureLocation = new ResourceLocation(
-                ImmersivePaintingsExposure.MOD_ID,
-                "exposure_photo_" + photoName.hashCode()
-            );
-            
-            // Регистрируем текстуру
-            Minecraft.getInstance().getTextureManager().register(textureLocation, dynamicTexture);
-            
-            return textureLocation;
         }
     }
     
+    private boolean isFailed(Path photoPath, FileMetadataCache.Metadata metadata) {
+        Long failedTime = failedTimestamps.get(photoPath);
+        if (failedTime == null) {
+            return false;
+        }
+        // Повторяем попытку только если файл изменился
+        return metadata == null || failedTime == metadata.getLastModified();
+    }
+    
     /**
-     * Масштабирует изображение с сохранением пропорций
+     * Начало кадра: принимает декодированные миниатюры и загружает на GPU столько,
+     * сколько позволяет бюджет кадра. Вызывается в потоке рендера.
      */
-    private NativeImage scaleImage(NativeImage source, int maxSize) {
-        int width = source.getWidth();
-        int height = source.getHeight();
+    public void beginFrame() {
+        loader.beginFrame();
+        textureCache.beginFrame();
+        textureCache.setBudgetBytes(getConfiguredBudgetBytes());
         
-        // Вычисляем новые размеры с сохранением пропорций
-        int newWidth, newHeight;
-        if (width > height) {
-            newWidth = maxSize;
-            newHeight = (int) ((double) height * maxSize / width);
-        } else {
-            newHeight = maxSize;
-            newWidth = (int) ((double) width * maxSize / height);
+        ThumbnailLoader.Result result;
+        while ((result = loader.pollCompleted()) != null) {
+            Path photoPath = result.getPhotoPath();
+            if (result.isFailed()) {
+                failedTimestamps.put(photoPath, result.getLastModified());
+                continue;
+            }
+            
+            String contentKey = ContentHash.toKey(result.getContentHash());
+            failedTimestamps.remove(photoPath);
+            if (textureCache.contains(contentKey)) {
+                // То же содержимое уже в атласе - второй копии не нужно
+                contentKeys.put(photoPath, contentKey);
+                continue;
+            }
+            if (result.getThumbnail() == null) {
+                // Миниатюра была вытеснена, пока шла проверка - загрузим заново в следующем кадре
+                continue;
+            }
+            uploadQueue.add(result);
         }
         
-        NativeImage scaled = new NativeImage(newWidth, newHeight, false);
-        
-        // Простое масштабирование (ближайший сосед)
-        for (int y = 0; y < newHeight; y++) {
-            for (int x = 0; x < newWidth; x++) {
-                int srcX = x * width / newWidth;
-                int srcY = y * height / newHeight;
-                int color = source.getPixelRGBA(srcX, srcY);
-                scaled.setPixelRGBA(x, y, color);
-            }
+        uploadQueue.drain(ExposureConfig.get(ExposureConfig.CLIENT.gpuUploadMicrosPerFrame) * 1000L,
+            ExposureConfig.get(ExposureConfig.CLIENT.gpuUploadKilobytesPerFrame) * 1024L, this::upload);
+    }
+    
+    private boolean upload(ThumbnailLoader.Result result) {
+        Path photoPath = result.getPhotoPath();
+        String contentKey = ContentHash.toKey(result.getContentHash());
+        if (textureCache.contains(contentKey)) {
+            // Пока миниатюра ждала в очереди, то же содержимое загрузилось по другому пути
+            contentKeys.put(photoPath, contentKey);
+            return false;
         }
         
-        return scaled;
+        try {
+            ThumbnailAtlas.Region texture = atlas.upload(result.getThumbnail());
+            // Вытесненные миниатюры освобождаются кэшем
+            textureCache.put(contentKey, texture, result.getLastModified(), SLOT_BYTES);
+            residentContent.add(contentKey);
+            contentKeys.put(photoPath, contentKey);
+            return true;
+        } catch (Exception e) {
+            ImmersivePaintingsExposure.LOGGER.error("Failed to upload thumbnail: {}", photoPath, e);
+            failedTimestamps.put(photoPath, result.getLastModified());
+            return false;
+        }
+    }
+    
+    private void onEvicted(String contentKey, ThumbnailAtlas.Region region) {
+        residentContent.remove(contentKey);
+        atlas.release(region);
+    }
+    
+    /**
+     * Конец кадра: отменяет декодирование фотографий, которые больше не видны
+     */
+    public void endFrame() {
+        loader.cancelStale();
+    }
+    
+    /**
+     * Отменяет все ожидающие загрузки (экран закрыт)
+     */
+    public void cancelPendingLoads() {
+        loader.cancelAll();
+        uploadQueue.clear();
     }
     
     /**
      * Очищает кэш текстур
      */
     public void clearCache() {
-        Minecraft mc = Minecraft.getInstance();
-        if (mc != null && mc.getTextureManager() != null) {
-            for (ResourceLocation texture : textureCache.values()) {
-                mc.getTextureManager().release(texture);
-            }
-        }
         textureCache.clear();
-        textureTimestamps.clear();
+        uploadQueue.clear();
+        contentKeys.clear();
+        failedTimestamps.clear();
+    }
+    
+    /**
+     * Кэш миниатюр: объем и счетчики попаданий, промахов и вытеснений
+     */
+    public ThumbnailCache getTextureCache() {
+        return textureCache;
+    }
+    
+    private static long getConfiguredBudgetBytes() {
+        return ExposureConfig.get(ExposureConfig.CLIENT.thumbnailCacheMegabytes) * 1024L * 1024L;
     }
 }
 
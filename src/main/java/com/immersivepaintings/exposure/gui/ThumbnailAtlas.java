@@ -0,0 +1,176 @@
+package com.immersivepaintings.exposure.gui;
+
+import com.immersivepaintings.exposure.ImmersivePaintingsExposure;
+import com.mojang.blaze3d.platform.NativeImage;
+import com.mojang.blaze3d.platform.TextureUtil;
+import com.mojang.blaze3d.systems.RenderSystem;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.renderer.texture.AbstractTexture;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.packs.resources.ResourceManager;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Атлас миниатюр: все миниатюры хранятся в нескольких общих текстурах-страницах
+ * вместо отдельной текстуры на каждую фотографию.
+ * Все методы вызываются в потоке рендера.
+ */
+public class ThumbnailAtlas {
+    
+    public static final int PAGE_SIZE = 1024;
+    
+    private final AtlasSlotAllocator allocator;
+    private final List<ResourceLocation> pageLocations = new ArrayList<>();
+    private final List<AtlasPageTexture> pageTextures = new ArrayList<>();
+    
+    public ThumbnailAtlas(int slotSize) {
+        this.allocator = new AtlasSlotAllocator(PAGE_SIZE, slotSize);
+    }
+    
+    /**
+     * Размещает миниатюру в свободной ячейке и загружает ее пиксели на GPU
+     */
+    public Region upload(ThumbnailImage thumbnail) {
+        RenderSystem.assertOnRenderThread();
+        
+        int slotSize = allocator.getSlotSize();
+        if (thumbnail.getWidth() > slotSize || thumbnail.getHeight() > slotSize) {
+            throw new IllegalArgumentException("Thumbnail " + thumbnail.getWidth() + "x" + thumbnail.getHeight()
+                + " does not fit into atlas slot " + slotSize);
+        }
+        
+        int slot = allocator.allocate();
+        int page = allocator.getPage(slot);
+        AtlasPageTexture texture = getOrCreatePage(page);
+        
+        int x = allocator.getSlotX(slot);
+        int y = allocator.getSlotY(slot);
+        try (NativeImage image = thumbnail.toNativeImage()) {
+            texture.bind();
+            image.upload(0, x, y, false);
+        }
+        
+        return new Region(slot, pageLocations.get(page), x, y, thumbnail.getWidth(), thumbnail.getHeight());
+    }
+    
+    /**
+     * Освобождает ячейку миниатюры. Опустевшая страница удаляется из TextureManager.
+     */
+    public void release(Region region) {
+        if (!allocator.isUsed(region.slot)) {
+            return;
+        }
+        
+        if (allocator.free(region.slot)) {
+            int page = allocator.getPage(region.slot);
+            if (pageTextures.get(page) != null) {
+                Minecraft.getInstance().getTextureManager().release(pageLocations.get(page));
+                pageTextures.set(page, null);
+                ImmersivePaintingsExposure.LOGGER.debug("Released empty thumbnail atlas page {}", page);
+            }
+        }
+    }
+    
+    private AtlasPageTexture getOrCreatePage(int page) {
+        while (pageTextures.size() <= page) {
+            pageTextures.add(null);
+            pageLocations.add(new ResourceLocation(ImmersivePaintingsExposure.MOD_ID,
+                "thumbnail_atlas/page_" + pageLocations.size()));
+        }
+        
+        AtlasPageTexture texture = pageTextures.get(page);
+        if (texture == null) {
+            texture = new AtlasPageTexture(PAGE_SIZE);
+            Minecraft.getInstance().getTextureManager().register(pageLocations.get(page), texture);
+            pageTextures.set(page, texture);
+            ImmersivePaintingsExposure.LOGGER.debug("Created thumbnail atlas page {}", page);
+        }
+        return texture;
+    }
+    
+    /**
+     * Количество страниц, для которых сейчас существует текстура
+     */
+    public int getLivePageCount() {
+        int count = 0;
+        for (AtlasPageTexture texture : pageTextures) {
+            if (texture != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    public int getUsedSlots() {
+        return allocator.getUsedSlots();
+    }
+    
+    /**
+     * Область атласа, занятая одной миниатюрой
+     */
+    public static class Region {
+        private final int slot;
+        private final ResourceLocation page;
+        private final int width;
+        private final int height;
+        private final float u0;
+        private final float v0;
+        private final float u1;
+        private final float v1;
+        
+        private Region(int slot, ResourceLocation page, int x, int y, int width, int height) {
+            this.slot = slot;
+            this.page = page;
+            this.width = width;
+            this.height = height;
+            this.u0 = (float) x / PAGE_SIZE;
+            this.v0 = (float) y / PAGE_SIZE;
+            this.u1 = (float) (x + width) / PAGE_SIZE;
+            this.v1 = (float) (y + height) / PAGE_SIZE;
+        }
+        
+        public ResourceLocation getPage() {
+            return page;
+        }
+        
+        public int getWidth() {
+            return width;
+        }
+        
+        public int getHeight() {
+            return height;
+        }
+        
+        public float getU0() {
+            return u0;
+        }
+        
+        public float getV0() {
+            return v0;
+        }
+        
+        public float getU1() {
+            return u1;
+        }
+        
+        public float getV1() {
+            return v1;
+        }
+    }
+    
+    /**
+     * Текстура страницы атласа. Содержимое заполняется по ячейкам через glTexSubImage2D.
+     */
+    private static class AtlasPageTexture extends AbstractTexture {
+        private AtlasPageTexture(int size) {
+            TextureUtil.prepareImage(this.getId(), size, size);
+        }
+        
+        @Override
+        public void load(ResourceManager resourceManager) {
+            // Содержимое загружается по ячейкам
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.immersivepaintings.exposure.gui;
+
+import com.mojang.blaze3d.systems.RenderSystem;
+import com.mojang.blaze3d.vertex.BufferBuilder;
+import com.mojang.blaze3d.vertex.BufferUploader;
+import com.mojang.blaze3d.vertex.DefaultVertexFormat;
+import com.mojang.blaze3d.vertex.Tesselator;
+import com.mojang.blaze3d.vertex.VertexFormat;
+import net.minecraft.client.gui.GuiGraphics;
+import net.minecraft.client.renderer.GameRenderer;
+import net.minecraft.resources.ResourceLocation;
+import org.joml.Matrix4f;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Пакетная отрисовка миниатюр из атласа.
+ * Прямоугольники накапливаются за кадр и рисуются одним вызовом на страницу атласа.
+ * Буферы переиспользуются между кадрами.
+ */
+public class ThumbnailBatch {
+    
+    // x0, y0, x1, y1, u0, v0, u1, v1
+    private static final int FLOATS_PER_QUAD = 8;
+    
+    private final List<ResourceLocation> pages = new ArrayList<>();
+    private final List<float[]> quads = new ArrayList<>();
+    private int[] counts = new int[4];
+    
+    public void add(ThumbnailAtlas.Region region, int x, int y, int width, int height) {
+        int page = pages.indexOf(region.getPage());
+        if (page < 0) {
+            page = pages.size();
+            pages.add(region.getPage());
+            if (quads.size() <= page) {
+                quads.add(new float[FLOATS_PER_QUAD * 32]);
+            }
+            if (counts.length <= page) {
+                counts = Arrays.copyOf(counts, page * 2);
+            }
+            counts[page] = 0;
+        }
+        
+        float[] data = quads.get(page);
+        int offset = counts[page] * FLOATS_PER_QUAD;
+        if (offset + FLOATS_PER_QUAD > data.length) {
+            data = Arrays.copyOf(data, data.length * 2);
+            quads.set(page, data);
+        }
+        
+        data[offset] = x;
+        data[offset + 1] = y;
+        data[offset + 2] = x + width;
+        data[offset + 3] = y + height;
+        data[offset + 4] = region.getU0();
+        data[offset + 5] = region.getV0();
+        data[offset + 6] = region.getU1();
+        data[offset + 7] = region.getV1();
+        counts[page]++;
+    }
+    
+    /**
+     * Рисует накопленные миниатюры и очищает пакет
+     */
+    public void flush(GuiGraphics guiGraphics) {
+        if (pages.isEmpty()) {
+            return;
+        }
+        
+        Matrix4f matrix = guiGraphics.pose().last().pose();
+        RenderSystem.setShader(GameRenderer::getPositionTexShader);
+        
+        for (int page = 0; page < pages.size(); page++) {
+            RenderSystem.setShaderTexture(0, pages.get(page));
+            
+            float[] data = quads.get(page);
+            BufferBuilder buffer = Tesselator.getInstance().getBuilder();
+            buffer.begin(VertexFormat.Mode.QUADS, DefaultVertexFormat.POSITION_TEX);
+            for (int i = 0, offset = 0; i < counts[page]; i++, offset += FLOATS_PER_QUAD) {
+                float x0 = data[offset];
+                float y0 = data[offset + 1];
+                float x1 = data[offset + 2];
+                float y1 = data[offset + 3];
+                float u0 = data[offset + 4];
+                float v0 = data[offset + 5];
+                float u1 = data[offset + 6];
+                float v1 = data[offset + 7];
+                buffer.vertex(matrix, x0, y0, 0).uv(u0, v0).endVertex();
+                buffer.vertex(matrix, x0, y1, 0).uv(u0, v1).endVertex();
+                buffer.vertex(matrix, x1, y1, 0).uv(u1, v1).endVertex();
+                buffer.vertex(matrix, x1, y0, 0).uv(u1, v0).endVertex();
+            }
+            BufferUploader.drawWithShader(buffer.end());
+        }
+        
+        pages.clear();
+    }
+}
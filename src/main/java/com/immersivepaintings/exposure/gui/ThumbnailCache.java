@@ -0,0 +1,160 @@
+package com.immersivepaintings.exposure.gui;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * LRU-кэш миниатюр в атласе с ограничением по объему.
+ * Порядок записей - порядок последней отрисовки. При превышении бюджета вытесняются
+ * давно не отрисованные миниатюры; миниатюры, нарисованные в текущем или предыдущем кадре, не вытесняются,
+ * даже если видимая область сама по себе больше бюджета. Предыдущий кадр защищен потому, что
+ * загрузки нового кадра идут до его отрисовки, когда видимые миниатюры еще помечены прошлым кадром.
+ * Все методы вызываются в потоке рендера.
+ */
+public class ThumbnailCache {
+    
+    private final Map<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final BiConsumer<String, ThumbnailAtlas.Region> evictionListener;
+    private long budgetBytes;
+    private long residentBytes = 0;
+    private long frame = 0;
+    
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    
+    public ThumbnailCache(long budgetBytes, BiConsumer<String, ThumbnailAtlas.Region> evictionListener) {
+        this.budgetBytes = budgetBytes;
+        this.evictionListener = evictionListener;
+    }
+    
+    public void beginFrame() {
+        frame++;
+    }
+    
+    /**
+     * Возвращает запись и отмечает ее как отрисованную в текущем кадре
+     */
+    public Entry get(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            entry.lastDrawnFrame = frame;
+            hits++;
+        }
+        return entry;
+    }
+    
+    /**
+     * Учитывает промах: миниатюры нет и ее загрузка запрошена.
+     * Вызывается один раз на запрос загрузки, а не на каждую проверку ячейки.
+     */
+    public void recordMiss() {
+        misses++;
+    }
+    
+    /**
+     * Проверяет наличие записи, не меняя порядок вытеснения и счетчики
+     */
+    public boolean contains(String key) {
+        return entries.containsKey(key);
+    }
+    
+    /**
+     * Добавляет миниатюру. Предыдущая миниатюра с тем же ключом освобождается.
+     *
+     * @param bytes объем, который миниатюра занимает на GPU
+     */
+    public void put(String key, ThumbnailAtlas.Region region, long lastModified, long bytes) {
+        Entry entry = new Entry(region, lastModified, bytes);
+        entry.lastDrawnFrame = frame;
+        
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            residentBytes -= previous.bytes;
+            evictionListener.accept(key, previous.region);
+        }
+        residentBytes += bytes;
+        
+        trimToBudget();
+    }
+    
+    public void setBudgetBytes(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+        trimToBudget();
+    }
+    
+    private void trimToBudget() {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (residentBytes > budgetBytes && iterator.hasNext()) {
+            Map.Entry<String, Entry> eldestEntry = iterator.next();
+            Entry eldest = eldestEntry.getValue();
+            if (eldest.lastDrawnFrame >= frame - 1) {
+                // Дальше только миниатюры текущего и предыдущего кадров
+                break;
+            }
+            
+            iterator.remove();
+            residentBytes -= eldest.bytes;
+            evictions++;
+            evictionListener.accept(eldestEntry.getKey(), eldest.region);
+        }
+    }
+    
+    /**
+     * Удаляет все записи, освобождая их миниатюры
+     */
+    public void clear() {
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            evictionListener.accept(entry.getKey(), entry.getValue().region);
+        }
+        entries.clear();
+        residentBytes = 0;
+    }
+    
+    public int size() {
+        return entries.size();
+    }
+    
+    public long getResidentBytes() {
+        return residentBytes;
+    }
+    
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+    
+    public long getHits() {
+        return hits;
+    }
+    
+    public long getMisses() {
+        return misses;
+    }
+    
+    public long getEvictions() {
+        return evictions;
+    }
+    
+    public static class Entry {
+        private final ThumbnailAtlas.Region region;
+        private final long lastModified;
+        private final long bytes;
+        private long lastDrawnFrame;
+        
+        private Entry(ThumbnailAtlas.Region region, long lastModified, long bytes) {
+            this.region = region;
+            this.lastModified = lastModified;
+            this.bytes = bytes;
+        }
+        
+        public ThumbnailAtlas.Region getRegion() {
+            return region;
+        }
+        
+        public long getLastModified() {
+            return lastModified;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package com.immersivepaintings.exposure.gui;
+
+import com.immersivepaintings.exposure.ImmersivePaintingsExposure;
+import net.minecraft.client.Minecraft;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Постоянный кэш миниатюр на диске.
+ * Хранит уже уменьшенные пиксели в [gameDir]/immersivepaintings_exposure/thumbnails,
+ * чтобы после перезапуска игры не декодировать исходные PNG заново.
+ *
+ * Имя файла кэша зависит от пути к фотографии и размера миниатюры, а размер и время
+ * изменения исходного файла хранятся в заголовке: устаревшая запись перезаписывается
+ * новой, а не копится рядом с ней. Вместе с миниатюрой хранится хэш содержимого фотографии,
+ * чтобы при попадании в кэш не читать исходный файл.
+ */
+public class ThumbnailDiskCache {
+    
+    private static final ThumbnailDiskCache INSTANCE = new ThumbnailDiskCache();
+    
+    private static final int MAGIC = 0x49505854; // "IPXT"
+    private static final int VERSION = 2;
+    private static final int FLAG_OPAQUE = 1;
+    private static final String EXTENSION = ".thumb";
+    
+    private volatile Path cacheDir;
+    
+    public static ThumbnailDiskCache getInstance() {
+        return INSTANCE;
+    }
+    
+    private ThumbnailDiskCache() {
+    }
+    
+    /**
+     * Кэш в заданной директории (для тестов)
+     */
+    ThumbnailDiskCache(Path cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+    
+    /**
+     * Загружает миниатюру из кэша.
+     *
+     * @return запись или {@code null}, если записи нет или она устарела. Поврежденная запись удаляется,
+     *         чтобы ее заменила новая.
+     */
+    public Entry load(Path photoPath, long fileSize, long lastModified, int maxSize) {
+        Path entry = getEntryPath(photoPath, maxSize);
+        if (entry == null || !Files.isRegularFile(entry)) {
+            return null;
+        }
+        
+        try {
+            byte[] data = Files.readAllBytes(entry);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            if (in.readLong() != fileSize || in.readLong() != lastModified || in.readInt() != maxSize) {
+                return null;
+            }
+            long contentHash = in.readLong();
+            
+            int width = in.readInt();
+            int height = in.readInt();
+            int flags = in.readInt();
+            int compressedLength = in.readInt();
+            boolean opaque = (flags & FLAG_OPAQUE) != 0;
+            int channels = opaque ? 3 : 4;
+            
+            if (width <= 0 || height <= 0 || width > maxSize || height > maxSize
+                || compressedLength < 0 || compressedLength > in.available()) {
+                discard(entry);
+                return null;
+            }
+            
+            byte[] raw = new byte[width * height * channels];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(data, data.length - in.available(), compressedLength);
+                int read = inflater.inflate(raw);
+                if (read != raw.length || !inflater.finished()) {
+                    discard(entry);
+                    return null;
+                }
+            } finally {
+                inflater.end();
+            }
+            
+            int[] pixels = new int[width * height];
+            for (int i = 0, p = 0; i < pixels.length; i++, p += channels) {
+                int alpha = opaque ? 0xFF : raw[p + 3] & 0xFF;
+                pixels[i] = (alpha << 24) | ((raw[p + 2] & 0xFF) << 16) | ((raw[p + 1] & 0xFF) << 8) | (raw[p] & 0xFF);
+            }
+            return new Entry(new ThumbnailImage(width, height, pixels), contentHash);
+        } catch (IOException | DataFormatException e) {
+            ImmersivePaintingsExposure.LOGGER.debug("Discarding unreadable thumbnail cache entry: {}", entry, e);
+            discard(entry);
+            return null;
+        }
+    }
+    
+    private static void discard(Path entry) {
+        try {
+            Files.deleteIfExists(entry);
+        } catch (IOException e) {
+            ImmersivePaintingsExposure.LOGGER.debug("Failed to delete thumbnail cache entry: {}", entry, e);
+        }
+    }
+    
+    /**
+     * Сохраняет миниатюру в кэш. Ошибки записи не критичны и только логируются.
+     */
+    public void store(Path photoPath, long fileSize, long lastModified, int maxSize, long contentHash, ThumbnailImage thumbnail) {
+        Path entry = getEntryPath(photoPath, maxSize);
+        if (entry == null) {
+            return;
+        }
+        
+        int[] pixels = thumbnail.getPixels();
+        boolean opaque = true;
+        for (int pixel : pixels) {
+            if ((pixel >>> 24) != 0xFF) {
+                opaque = false;
+                break;
+            }
+        }
+        
+        // Непрозрачные фотографии хранятся без альфа-канала
+        int channels = opaque ? 3 : 4;
+        byte[] raw = new byte[pixels.length * channels];
+        for (int i = 0, p = 0; i < pixels.length; i++, p += channels) {
+            int pixel = pixels[i];
+            raw[p] = (byte) pixel;
+            raw[p + 1] = (byte) (pixel >> 8);
+            raw[p + 2] = (byte) (pixel >> 16);
+            if (!opaque) {
+                raw[p + 3] = (byte) (pixel >>> 24);
+            }
+        }
+        
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        byte[] compressed = new byte[raw.length + 64];
+        int compressedLength;
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            compressedLength = deflater.deflate(compressed);
+            if (!deflater.finished()) {
+                // Несжимаемые данные - такая запись бесполезна
+                return;
+            }
+        } finally {
+            deflater.end();
+        }
+        
+        try {
+            Files.createDirectories(entry.getParent());
+            
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(compressedLength + 56);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(fileSize);
+            out.writeLong(lastModified);
+            out.writeInt(maxSize);
+            out.writeLong(contentHash);
+            out.writeInt(thumbnail.getWidth());
+            out.writeInt(thumbnail.getHeight());
+            out.writeInt(opaque ? FLAG_OPAQUE : 0);
+            out.writeInt(compressedLength);
+            out.write(compressed, 0, compressedLength);
+            
+            // Пишем во временный файл и переносим, чтобы не оставить обрезанную запись
+            Path temp = Files.createTempFile(entry.getParent(), "thumb", ".tmp");
+            try {
+                Files.write(temp, bytes.toByteArray());
+                try {
+                    Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            ImmersivePaintingsExposure.LOGGER.debug("Failed to write thumbnail cache entry: {}", entry, e);
+        }
+    }
+    
+    private Path getEntryPath(Path photoPath, int maxSize) {
+        Path dir = getCacheDir();
+        if (dir == null) {
+            return null;
+        }
+        
+        String key = photoPath.toAbsolutePath().normalize() + "|" + maxSize;
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            return dir.resolve(HexFormat.of().formatHex(digest) + EXTENSION);
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+    
+    private Path getCacheDir() {
+        Path dir = this.cacheDir;
+        if (dir == null) {
+            Minecraft mc = Minecraft.getInstance();
+            if (mc == null || mc.gameDirectory == null) {
+                return null;
+            }
+            dir = mc.gameDirectory.toPath().resolve(ImmersivePaintingsExposure.MOD_ID).resolve("thumbnails");
+            this.cacheDir = dir;
+        }
+        return dir;
+    }
+    
+    /**
+     * Миниатюра из кэша и хэш содержимого фотографии, из которой она получена
+     */
+    public static class Entry {
+        private final ThumbnailImage thumbnail;
+        private final long contentHash;
+        
+        private Entry(ThumbnailImage thumbnail, long contentHash) {
+            this.thumbnail = thumbnail;
+            this.contentHash = contentHash;
+        }
+        
+        public ThumbnailImage getThumbnail() {
+            return thumbnail;
+        }
+        
+        public long getContentHash() {
+            return contentHash;
+        }
+    }
+}
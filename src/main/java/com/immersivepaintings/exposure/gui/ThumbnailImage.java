@@ -0,0 +1,60 @@
+package com.immersivepaintings.exposure.gui;
+
+import com.mojang.blaze3d.platform.NativeImage;
+
+/**
+ * Пиксели миниатюры в памяти Java.
+ * Формат пикселей совпадает с {@link NativeImage#getPixelRGBA(int, int)} (ABGR в int),
+ * поэтому миниатюру можно без преобразований загрузить обратно в NativeImage.
+ */
+public class ThumbnailImage {
+    private final int width;
+    private final int height;
+    private final int[] pixels;
+    
+    public ThumbnailImage(int width, int height, int[] pixels) {
+        if (pixels.length != width * height) {
+            throw new IllegalArgumentException("Pixel count " + pixels.length + " does not match " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+    }
+    
+    public static ThumbnailImage fromNativeImage(NativeImage image) {
+        return new ThumbnailImage(image.getWidth(), image.getHeight(), image.getPixelsRGBA());
+    }
+    
+    /**
+     * Создает NativeImage с пикселями миниатюры. Вызывающий отвечает за закрытие изображения.
+     */
+    public NativeImage toNativeImage() {
+        NativeImage image = new NativeImage(this.width, this.height, false);
+        for (int y = 0; y < this.height; y++) {
+            int row = y * this.width;
+            for (int x = 0; x < this.width; x++) {
+                image.setPixelRGBA(x, y, this.pixels[row + x]);
+            }
+        }
+        return image;
+    }
+    
+    public int getWidth() {
+        return width;
+    }
+    
+    public int getHeight() {
+        return height;
+    }
+    
+    public int[] getPixels() {
+        return pixels;
+    }
+    
+    /**
+     * Размер пикселей в байтах (RGBA)
+     */
+    public int getByteSize() {
+        return width * height * 4;
+    }
+}
@@ -0,0 +1,328 @@
+package com.immersivepaintings.exposure.gui;
+
+import com.immersivepaintings.exposure.ImmersivePaintingsExposure;
+import com.immersivepaintings.exposure.exposure.ContentHash;
+import com.immersivepaintings.exposure.exposure.ExposureFrameReader;
+import com.immersivepaintings.exposure.exposure.FileMetadataCache;
+import com.immersivepaintings.exposure.exposure.PhotoContentIndex;
+import com.immersivepaintings.exposure.image.ImageResampler;
+import com.immersivepaintings.exposure.image.StreamingImageDecoder;
+import com.immersivepaintings.exposure.metrics.PipelineMetrics;
+import com.mojang.blaze3d.platform.NativeImage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Фоновое декодирование миниатюр.
+ * Задачи выполняются ограниченным пулом потоков в порядке приоритета: сначала
+ * видимые фотографии, затем ряды предзагрузки. Задачи, которые не запрашивались
+ * в последнем кадре, отменяются. Готовые пиксели забирает поток рендера.
+ */
+public class ThumbnailLoader {
+    
+    public static final int PRIORITY_VISIBLE = 0;
+    
+    private static final PipelineMetrics.Histogram DECODE_LATENCY =
+        PipelineMetrics.getInstance().histogram("thumbnail.decode", PipelineMetrics.Unit.NANOSECONDS);
+    private static final PipelineMetrics.Counter DISK_CACHE_HITS =
+        PipelineMetrics.getInstance().counter("thumbnail.disk_cache_hits", PipelineMetrics.Unit.COUNT);
+    
+    private final int thumbnailSize;
+    private final Predicate<String> residentContent;
+    private final ThreadPoolExecutor executor;
+    private final Map<String, DecodeTask> pending = new ConcurrentHashMap<>();
+    private final Queue<Result> completed = new ConcurrentLinkedQueue<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private long frame = 0;
+    
+    /**
+     * @param residentContent проверяет, загружена ли уже миниатюра с таким ключом содержимого;
+     *                        вызывается из фоновых потоков
+     */
+    public ThumbnailLoader(int thumbnailSize, Predicate<String> residentContent) {
+        this.thumbnailSize = thumbnailSize;
+        this.residentContent = residentContent;
+        
+        int threads = Math.max(1, Math.min(3, Runtime.getRuntime().availableProcessors() - 1));
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 30L, TimeUnit.SECONDS,
+            new PriorityBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "ImmersivePaintingsExposure-Thumbnail-" + threadIndex.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+    
+    /**
+     * Начинает новый кадр. Запросы, не повторенные до {@link #cancelStale()}, будут отменены.
+     */
+    public void beginFrame() {
+        frame++;
+    }
+    
+    /**
+     * Запрашивает декодирование миниатюры. Повторный запрос того же ключа только
+     * продлевает задачу и при необходимости повышает ее приоритет.
+     * Вызывается в потоке рендера.
+     *
+     * @param priority меньшее значение - выше приоритет
+     * @return {@code true}, если декодирование запрошено впервые, а не продлено
+     */
+    public boolean request(String key, Path photoPath, int priority) {
+        DecodeTask task = pending.get(key);
+        if (task != null) {
+            task.lastRequestedFrame = frame;
+            if (priority >= task.priority || task.started) {
+                return false;
+            }
+            // Очередь с приоритетом не пересортировывает элементы - пересоздаем задачу
+            if (executor.remove(task)) {
+                pending.remove(key, task);
+            } else {
+                return false;
+            }
+        }
+        
+        DecodeTask newTask = new DecodeTask(key, photoPath, priority, sequence.getAndIncrement());
+        newTask.lastRequestedFrame = frame;
+        pending.put(key, newTask);
+        executor.execute(newTask);
+        return task == null;
+    }
+    
+    /**
+     * Отменяет задачи, которые не запрашивались в текущем кадре (фотография ушла из вида)
+     */
+    public void cancelStale() {
+        Iterator<DecodeTask> iterator = pending.values().iterator();
+        while (iterator.hasNext()) {
+            DecodeTask task = iterator.next();
+            if (task.lastRequestedFrame != frame && !task.started) {
+                task.cancelled = true;
+                executor.remove(task);
+                iterator.remove();
+            }
+        }
+    }
+    
+    /**
+     * Отменяет все ожидающие задачи (например, при закрытии экрана)
+     */
+    public void cancelAll() {
+        for (DecodeTask task : pending.values()) {
+            task.cancelled = true;
+            executor.remove(task);
+        }
+        pending.clear();
+        completed.clear();
+    }
+    
+    /**
+     * Возвращает следующий готовый результат или {@code null}. Вызывается в потоке рендера.
+     */
+    public Result pollCompleted() {
+        return completed.poll();
+    }
+    
+    public boolean isPending(String key) {
+        return pending.containsKey(key);
+    }
+    
+    public int getPendingCount() {
+        return pending.size();
+    }
+    
+    /**
+     * Получает миниатюру: из дискового кэша, а при промахе - декодированием исходного файла.
+     * Если миниатюра с тем же содержимым уже загружена на GPU, пиксели не декодируются.
+     * Безопасен для вызова из любого потока.
+     */
+    public Result loadThumbnail(String key, Path photoPath, BasicFileAttributes attributes) throws IOException {
+        long fileSize = attributes.size();
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        PhotoContentIndex contentIndex = PhotoContentIndex.getInstance();
+        
+        // Та же фотография (например, копия из другой директории) уже в атласе
+        long contentHash = contentIndex.getKnownHash(photoPath, fileSize, lastModified);
+        if (contentHash != ContentHash.UNKNOWN && residentContent.test(ContentHash.toKey(contentHash))) {
+            return new Result(key, photoPath, contentHash, null, lastModified);
+        }
+        
+        ThumbnailDiskCache diskCache = ThumbnailDiskCache.getInstance();
+        ThumbnailDiskCache.Entry cached = diskCache.load(photoPath, fileSize, lastModified, thumbnailSize);
+        if (cached != null && cached.getContentHash() != ContentHash.UNKNOWN) {
+            contentIndex.remember(photoPath, fileSize, lastModified, cached.getContentHash());
+            DISK_CACHE_HITS.increment();
+            return new Result(key, photoPath, cached.getContentHash(), cached.getThumbnail(), lastModified);
+        }
+        
+        // Хэш считается по тому же потоку, который читает декодер: файл читается один раз
+        long start = System.nanoTime();
+        ThumbnailImage thumbnail;
+        try (ContentHash.HashingInputStream in = new ContentHash.HashingInputStream(Files.newInputStream(photoPath))) {
+            thumbnail = decodeThumbnail(photoPath, in);
+            contentHash = in.finish();
+        }
+        DECODE_LATENCY.record(System.nanoTime() - start);
+        contentIndex.remember(photoPath, fileSize, lastModified, contentHash);
+        diskCache.store(photoPath, fileSize, lastModified, thumbnailSize, contentHash, thumbnail);
+        
+        // Копия уже загруженной фотографии - на GPU ничего не загружаем
+        if (residentContent.test(ContentHash.toKey(contentHash))) {
+            return new Result(key, photoPath, contentHash, null, lastModified);
+        }
+        return new Result(key, photoPath, contentHash, thumbnail, lastModified);
+    }
+    
+    /**
+     * Декодирует миниатюру из потока файла. Поток не закрывается и может быть прочитан не до конца.
+     */
+    private ThumbnailImage decodeThumbnail(Path photoPath, InputStream source) throws IOException {
+        int width;
+        int height;
+        int[] pixels;
+        if (ExposureFrameReader.isFrameFile(photoPath)) {
+            // Кадр Exposure: индексы палитры переводятся в пиксели таблицей, без декодера изображений
+            ExposureFrameReader.Frame frame = ExposureFrameReader.read(source);
+            width = frame.getWidth();
+            height = frame.getHeight();
+            pixels = ExposureFrameReader.toPixels(frame);
+        } else {
+            // PNG и JPEG уменьшаются прямо при декодировании, исходное изображение целиком в память не попадает
+            StreamingImageDecoder.Decoded decoded = StreamingImageDecoder.decode(source, StreamingImageDecoder.fitWithin(thumbnailSize));
+            if (decoded != null) {
+                return new ThumbnailImage(decoded.getWidth(), decoded.getHeight(), decoded.getPixels());
+            }
+            // Формат, который потоковый декодер не поддерживает (редко): поток уже прочитан, открываем файл заново
+            try (InputStream in = Files.newInputStream(photoPath);
+                 NativeImage image = NativeImage.read(NativeImage.Format.RGBA, in)) {
+                // Загружаем изображение через NativeImage и забираем пиксели одним массивом
+                width = image.getWidth();
+                height = image.getHeight();
+                pixels = image.getPixelsRGBA();
+            }
+        }
+        
+        // Масштабируем до миниатюры (если нужно) с сохранением пропорций
+        int[] size = ImageResampler.fitWithin(width, height, thumbnailSize);
+        if (size[0] != width || size[1] != height) {
+            pixels = ImageResampler.resample(pixels, width, height, size[0], size[1]);
+        }
+        return new ThumbnailImage(size[0], size[1], pixels);
+    }
+    
+    /**
+     * Результат загрузки миниатюры.
+     * {@code contentHash == UNKNOWN} означает ошибку загрузки, а {@code thumbnail == null}
+     * при известном хэше - что миниатюра с этим содержимым уже загружена.
+     */
+    public static class Result {
+        private final String key;
+        private final Path photoPath;
+        private final long contentHash;
+        private final ThumbnailImage thumbnail;
+        private final long lastModified;
+        
+        private Result(String key, Path photoPath, long contentHash, ThumbnailImage thumbnail, long lastModified) {
+            this.key = key;
+            this.photoPath = photoPath;
+            this.contentHash = contentHash;
+            this.thumbnail = thumbnail;
+            this.lastModified = lastModified;
+        }
+        
+        public String getKey() {
+            return key;
+        }
+        
+        public Path getPhotoPath() {
+            return photoPath;
+        }
+        
+        public long getContentHash() {
+            return contentHash;
+        }
+        
+        public boolean isFailed() {
+            return contentHash == ContentHash.UNKNOWN;
+        }
+        
+        public ThumbnailImage getThumbnail() {
+            return thumbnail;
+        }
+        
+        public long getLastModified() {
+            return lastModified;
+        }
+    }
+    
+    private class DecodeTask implements Runnable, Comparable<DecodeTask> {
+        private final String key;
+        private final Path photoPath;
+        private final int priority;
+        private final long order;
+        private volatile long lastRequestedFrame;
+        private volatile boolean started = false;
+        private volatile boolean cancelled = false;
+        
+        private DecodeTask(String key, Path photoPath, int priority, long order) {
+            this.key = key;
+            this.photoPath = photoPath;
+            this.priority = priority;
+            this.order = order;
+        }
+        
+        @Override
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+            started = true;
+            
+            Result result = null;
+            long lastModified = 0L;
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(photoPath, BasicFileAttributes.class);
+                lastModified = attributes.lastModifiedTime().toMillis();
+                FileMetadataCache.getInstance().record(photoPath, attributes);
+                if (attributes.isRegularFile()) {
+                    result = loadThumbnail(key, photoPath, attributes);
+                }
+            } catch (NoSuchFileException e) {
+                FileMetadataCache.getInstance().recordMissing(photoPath);
+                ImmersivePaintingsExposure.LOGGER.debug("Photo disappeared before its thumbnail was loaded: {}", photoPath);
+            } catch (Exception e) {
+                ImmersivePaintingsExposure.LOGGER.error("Failed to load thumbnail for photo: {}", photoPath, e);
+            }
+            
+            pending.remove(key, this);
+            if (!cancelled) {
+                completed.add(result != null ? result : new Result(key, photoPath, ContentHash.UNKNOWN, null, lastModified));
+            }
+        }
+        
+        @Override
+        public int compareTo(DecodeTask other) {
+            int byPriority = Integer.compare(this.priority, other.priority);
+            return byPriority != 0 ? byPriority : Long.compare(this.order, other.order);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.immersivepaintings.exposure.gui;
+
+import com.immersivepaintings.exposure.metrics.PipelineMetrics;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Очередь загрузки декодированных миниатюр на GPU. Разбирается в потоке рендера в начале кадра
+ * с ограничением по времени и объему, поэтому быстрая прокрутка растягивает загрузки на несколько кадров,
+ * а не собирает их в один.
+ * <p>
+ * Порядок - по приоритету, с которым миниатюра запрашивалась в только что нарисованном кадре:
+ * видимые раньше рядов предзагрузки, незапрошенные последними. За кадр загружается хотя бы одна
+ * миниатюра, поэтому верхняя граница кадра - бюджет плюс одна миниатюра (не больше ячейки атласа).
+ * Все методы вызываются в потоке рендера.
+ */
+public class ThumbnailUploadQueue {
+    
+    private static final PipelineMetrics.Histogram UPLOAD_BYTES =
+        PipelineMetrics.getInstance().histogram("gpu.upload_per_frame", PipelineMetrics.Unit.BYTES);
+    private static final PipelineMetrics.Histogram UPLOAD_TIME =
+        PipelineMetrics.getInstance().histogram("gpu.upload_time", PipelineMetrics.Unit.NANOSECONDS);
+    // Кадры, в которых бюджет закончился раньше очереди
+    private static final PipelineMetrics.Counter DEFERRED_FRAMES =
+        PipelineMetrics.getInstance().counter("gpu.upload_deferred", PipelineMetrics.Unit.COUNT);
+    private static final PipelineMetrics.Counter DROPPED =
+        PipelineMetrics.getInstance().counter("gpu.upload_dropped", PipelineMetrics.Unit.COUNT);
+    
+    private static final int NOT_REQUESTED = Integer.MAX_VALUE;
+    // Миниатюры, которые долго не запрашивались или не поместились в очередь, выбрасываются:
+    // при следующем запросе они быстро вернутся из дискового кэша
+    private static final int STALE_FRAMES = 120;
+    private static final int MAX_PENDING = 256;
+    private static final Comparator<Entry> ORDER = Comparator.<Entry>comparingInt(entry -> entry.priority)
+        .thenComparingLong(entry -> entry.sequence);
+    
+    private final Map<Path, Entry> entries = new HashMap<>();
+    private final List<Entry> order = new ArrayList<>();
+    // Приоритеты запросов текущего кадра и предыдущего; карты меняются местами в начале кадра
+    private Map<Path, Integer> requested = new HashMap<>();
+    private Map<Path, Integer> lastFrameRequests = new HashMap<>();
+    private long frame;
+    private long sequence;
+    
+    /**
+     * Загружает миниатюру на GPU
+     */
+    @FunctionalInterface
+    public interface Uploader {
+        /**
+         * @return {@code false}, если загрузка не понадобилась (то же содержимое уже в атласе) или не удалась
+         */
+        boolean upload(ThumbnailLoader.Result result);
+    }
+    
+    /**
+     * Запоминает, что миниатюра нужна в этом кадре. Из нескольких запросов побеждает высший приоритет.
+     *
+     * @param priority меньшее значение - выше приоритет
+     */
+    public void request(Path photoPath, int priority) {
+        requested.merge(photoPath, priority, Math::min);
+    }
+    
+    /**
+     * Добавляет декодированную миниатюру. Более новый результат для того же пути заменяет прежний.
+     */
+    public void add(ThumbnailLoader.Result result) {
+        Entry entry = new Entry(result, sequence++, frame);
+        Entry previous = entries.put(result.getPhotoPath(), entry);
+        if (previous != null) {
+            order.remove(previous);
+        }
+        order.add(entry);
+    }
+    
+    /**
+     * Ждет ли миниатюра загрузки на GPU (декодировать ее заново не нужно)
+     */
+    public boolean contains(Path photoPath) {
+        return entries.containsKey(photoPath);
+    }
+    
+    public int size() {
+        return entries.size();
+    }
+    
+    /**
+     * Загружает миниатюры в порядке приоритета, пока не исчерпан бюджет кадра
+     *
+     * @return загружено байт
+     */
+    public long drain(long budgetNanos, long budgetBytes, Uploader uploader) {
+        Map<Path, Integer> swap = lastFrameRequests;
+        lastFrameRequests = requested;
+        requested = swap;
+        requested.clear();
+        frame++;
+        
+        if (order.isEmpty()) {
+            return 0L;
+        }
+        
+        Iterator<Entry> iterator = order.iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            Integer priority = lastFrameRequests.get(entry.result.getPhotoPath());
+            if (priority != null) {
+                entry.lastRequestedFrame = frame;
+            }
+            entry.priority = priority != null ? priority : NOT_REQUESTED;
+            if (frame - entry.lastRequestedFrame > STALE_FRAMES) {
+                iterator.remove();
+                entries.remove(entry.result.getPhotoPath());
+                DROPPED.increment();
+            }
+        }
+        order.sort(ORDER);
+        while (order.size() > MAX_PENDING) {
+            Entry dropped = order.remove(order.size() - 1);
+            entries.remove(dropped.result.getPhotoPath());
+            DROPPED.increment();
+        }
+        
+        long start = System.nanoTime();
+        long uploadedBytes = 0L;
+        int uploaded = 0;
+        int processed = 0;
+        for (Entry entry : order) {
+            if (uploaded > 0 && (uploadedBytes + entry.bytes > budgetBytes || System.nanoTime() - start >= budgetNanos)) {
+                break;
+            }
+            entries.remove(entry.result.getPhotoPath());
+            processed++;
+            if (uploader.upload(entry.result)) {
+                uploadedBytes += entry.bytes;
+                uploaded++;
+            }
+        }
+        order.subList(0, processed).clear();
+        
+        if (uploaded > 0) {
+            UPLOAD_TIME.record(System.nanoTime() - start);
+            UPLOAD_BYTES.record(uploadedBytes);
+        }
+        if (!order.isEmpty()) {
+            DEFERRED_FRAMES.increment();
+        }
+        return uploadedBytes;
+    }
+    
+    public void clear() {
+        entries.clear();
+        order.clear();
+        requested.clear();
+        lastFrameRequests.clear();
+    }
+    
+    private static final class Entry {
+        private final ThumbnailLoader.Result result;
+        private final long sequence;
+        private final long bytes;
+        private long lastRequestedFrame;
+        private int priority;
+        
+        private Entry(ThumbnailLoader.Result result, long sequence, long frame) {
+            this.result = result;
+            this.sequence = sequence;
+            this.bytes = result.getThumbnail().getWidth() * result.getThumbnail().getHeight() * 4L;
+            this.lastRequestedFrame = frame;
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package com.immersivepaintings.exposure.image;
+
+import java.util.Arrays;
+
+/**
+ * Уменьшение изображения усреднением по площади (box-фильтр).
+ * Веса пикселей по каждой оси вычисляются один раз в конструкторе, строки исходного
+ * изображения подаются по одной через {@link #pushRow(int[], int)}, поэтому все изображение
+ * целиком в памяти держать не обязательно.
+ * Пиксели - int в формате ABGR, как в NativeImage; каналы усредняются независимо.
+ * Потоковый режим ({@link #begin}, {@link #pushRow}) не потокобезопасен: каждому потоку нужен
+ * свой экземпляр. {@link #resampleStrip} использует только таблицы весов, поэтому полосы одного
+ * изображения можно считать на одном экземпляре из нескольких потоков.
+ */
+public class ImageResampler {
+    
+    // Веса по каждой оси в фиксированной точке, сумма весов одного выходного пикселя равна ONE.
+    // Сумма канала по строке (не больше 255 * ONE) должна помещаться в 32 бита.
+    private static final int WEIGHT_BITS = 12;
+    private static final int ONE = 1 << WEIGHT_BITS;
+    private static final int TOTAL_SHIFT = WEIGHT_BITS * 2;
+    private static final long ROUNDING = 1L << (TOTAL_SHIFT - 1);
+    
+    private final int srcWidth;
+    private final int srcHeight;
+    private final int dstWidth;
+    private final int dstHeight;
+    
+    // По горизонтали: для выходного столбца - первый исходный столбец, их число и смещение в xWeights
+    private final int[] xStart;
+    private final int[] xCount;
+    private final int[] xOffset;
+    private final int[] xWeights;
+    
+    // По вертикали: исходная строка y делится между выходными строками yRow[y] и yRow[y] + 1
+    private final int[] yRow;
+    private final int[] yWeight;
+    private final int[] yNextWeight;
+    
+    // Суммы каналов двух выходных строк, в которые может попасть текущая исходная строка
+    private long[] current;
+    private long[] next;
+    private int currentRow;
+    private int srcRow;
+    private int[] output;
+    
+    public ImageResampler(int srcWidth, int srcHeight, int dstWidth, int dstHeight) {
+        if (dstWidth <= 0 || dstHeight <= 0 || dstWidth > srcWidth || dstHeight > srcHeight) {
+            throw new IllegalArgumentException("Cannot downscale " + srcWidth + "x" + srcHeight
+                + " to " + dstWidth + "x" + dstHeight);
+        }
+        this.srcWidth = srcWidth;
+        this.srcHeight = srcHeight;
+        this.dstWidth = dstWidth;
+        this.dstHeight = dstHeight;
+        
+        this.xStart = new int[dstWidth];
+        this.xCount = new int[dstWidth];
+        this.xOffset = new int[dstWidth];
+        this.xWeights = new int[srcWidth + dstWidth];
+        buildHorizontalTables();
+        
+        this.yRow = new int[srcHeight];
+        this.yWeight = new int[srcHeight];
+        this.yNextWeight = new int[srcHeight];
+        buildVerticalTables();
+        
+        this.current = new long[dstWidth * 4];
+        this.next = new long[dstWidth * 4];
+    }
+    
+    /**
+     * Размеры, в которые изображение вписывается с сохранением пропорций.
+     * Изображения, которые уже меньше {@code maxSize}, не увеличиваются.
+     *
+     * @return {ширина, высота}
+     */
+    public static int[] fitWithin(int width, int height, int maxSize) {
+        if (width <= maxSize && height <= maxSize) {
+            return new int[]{width, height};
+        }
+        if (width >= height) {
+            return new int[]{maxSize, Math.max(1, (int) ((long) height * maxSize / width))};
+        }
+        return new int[]{Math.max(1, (int) ((long) width * maxSize / height)), maxSize};
+    }
+    
+    /**
+     * Уменьшает изображение целиком
+     */
+    public static int[] resample(int[] src, int srcWidth, int srcHeight, int dstWidth, int dstHeight) {
+        int[] dst = new int[dstWidth * dstHeight];
+        ImageResampler resampler = new ImageResampler(srcWidth, srcHeight, dstWidth, dstHeight);
+        resampler.begin(dst);
+        for (int y = 0; y < srcHeight; y++) {
+            resampler.pushRow(src, y * srcWidth);
+        }
+        return dst;
+    }
+    
+    /**
+     * Начинает новое изображение. Таблицы весов переиспользуются.
+     *
+     * @param dst массив для результата, не меньше {@code dstWidth * dstHeight}
+     */
+    public void begin(int[] dst) {
+        if (dst.length < dstWidth * dstHeight) {
+            throw new IllegalArgumentException("Output buffer is too small: " + dst.length);
+        }
+        this.output = dst;
+        this.srcRow = 0;
+        this.currentRow = 0;
+        Arrays.fill(this.current, 0L);
+        Arrays.fill(this.next, 0L);
+    }
+    
+    /**
+     * Добавляет следующую строку исходного изображения
+     *
+     * @param row    массив с пикселями строки
+     * @param offset индекс первого пикселя строки в массиве
+     */
+    public void pushRow(int[] row, int offset) {
+        if (srcRow >= srcHeight) {
+            throw new IllegalStateException("All " + srcHeight + " source rows have already been pushed");
+        }
+        
+        int y = srcRow++;
+        int target = yRow[y];
+        while (currentRow < target) {
+            finishRow();
+        }
+        
+        accumulate(row, offset, yWeight[y], yNextWeight[y], current, next);
+        
+        if (srcRow == srcHeight) {
+            // Последняя строка закрывает оставшиеся выходные строки
+            while (currentRow < dstHeight) {
+                finishRow();
+            }
+        }
+    }
+    
+    /**
+     * Считает выходные строки [fromRow, toRow), читая из источника только нужные исходные строки.
+     * Результат совпадает с потоковым режимом. Память - одна исходная строка и две выходные строки сумм.
+     *
+     * @param srcX    левый край области источника (например, обрезки)
+     * @param srcY    верхний край области источника
+     * @param dst     результат всего изображения, заполняются только строки полосы
+     */
+    public void resampleStrip(RowSource source, int srcX, int srcY, int[] dst, int fromRow, int toRow) {
+        if (fromRow < 0 || toRow > dstHeight || fromRow >= toRow) {
+            throw new IllegalArgumentException("Invalid strip rows " + fromRow + ".." + toRow + " of " + dstHeight);
+        }
+        int[] row = new int[srcWidth];
+        long[] acc = new long[dstWidth * 4];
+        long[] accNext = new long[dstWidth * 4];
+        int outRow = fromRow;
+        
+        // Первая исходная строка, попадающая в fromRow; она может начинаться еще в предыдущей строке
+        for (int y = (int) ((long) fromRow * srcHeight / dstHeight); y < srcHeight; y++) {
+            int target = yRow[y];
+            if (target >= toRow) {
+                break;
+            }
+            while (outRow < target) {
+                writeRow(acc, dst, outRow++ * dstWidth);
+                long[] swap = acc;
+                acc = accNext;
+                accNext = swap;
+                Arrays.fill(accNext, 0L);
+            }
+            
+            source.readRow(srcY + y, srcX, srcWidth, row);
+            if (target == outRow) {
+                accumulate(row, 0, yWeight[y], yNextWeight[y], acc, accNext);
+            } else {
+                // Строка принадлежит предыдущей полосе, сюда попадает только ее хвост
+                accumulate(row, 0, yNextWeight[y], 0, acc, null);
+            }
+        }
+        while (outRow < toRow) {
+            writeRow(acc, dst, outRow++ * dstWidth);
+            long[] swap = acc;
+            acc = accNext;
+            accNext = swap;
+            Arrays.fill(accNext, 0L);
+        }
+    }
+    
+    public int getSrcWidth() {
+        return srcWidth;
+    }
+    
+    public int getSrcHeight() {
+        return srcHeight;
+    }
+    
+    public int getDstWidth() {
+        return dstWidth;
+    }
+    
+    public int getDstHeight() {
+        return dstHeight;
+    }
+    
+    /**
+     * Добавляет исходную строку в суммы выходной строки {@code acc} с весом {@code weight}
+     * и следующей {@code accNext} с весом {@code nextWeight}
+     */
+    private void accumulate(int[] row, int offset, long weight, long nextWeight, long[] acc, long[] accNext) {
+        for (int x = 0; x < dstWidth; x++) {
+            int src = offset + xStart[x];
+            int w = xOffset[x];
+            int end = w + xCount[x];
+            
+            // Каналы попарно в 32-битных половинах long: R и B, G и A - два умножения на пиксель
+            long rb = 0;
+            long ga = 0;
+            for (; w < end; w++, src++) {
+                long pixel = row[src] & 0xFFFFFFFFL;
+                long pw = xWeights[w];
+                rb += ((pixel & 0xFFL) | ((pixel & 0xFF0000L) << 16)) * pw;
+                ga += (((pixel >>> 8) & 0xFFL) | ((pixel & 0xFF000000L) << 8)) * pw;
+            }
+            long c0 = rb & 0xFFFFFFFFL;
+            long c1 = ga & 0xFFFFFFFFL;
+            long c2 = rb >>> 32;
+            long c3 = ga >>> 32;
+            
+            int i = x * 4;
+            acc[i] += c0 * weight;
+            acc[i + 1] += c1 * weight;
+            acc[i + 2] += c2 * weight;
+            acc[i + 3] += c3 * weight;
+            if (nextWeight != 0) {
+                accNext[i] += c0 * nextWeight;
+                accNext[i + 1] += c1 * nextWeight;
+                accNext[i + 2] += c2 * nextWeight;
+                accNext[i + 3] += c3 * nextWeight;
+            }
+        }
+    }
+    
+    private void finishRow() {
+        long[] acc = current;
+        writeRow(acc, output, currentRow * dstWidth);
+        
+        // Следующая строка становится текущей, освободившийся буфер обнуляется
+        current = next;
+        next = acc;
+        Arrays.fill(next, 0L);
+        currentRow++;
+    }
+    
+    private void writeRow(long[] acc, int[] out, int base) {
+        for (int x = 0; x < dstWidth; x++) {
+            int i = x * 4;
+            int c0 = (int) ((acc[i] + ROUNDING) >>> TOTAL_SHIFT);
+            int c1 = (int) ((acc[i + 1] + ROUNDING) >>> TOTAL_SHIFT);
+            int c2 = (int) ((acc[i + 2] + ROUNDING) >>> TOTAL_SHIFT);
+            int c3 = (int) ((acc[i + 3] + ROUNDING) >>> TOTAL_SHIFT);
+            out[base + x] = c0 | (c1 << 8) | (c2 << 16) | (c3 << 24);
+        }
+    }
+    
+    /**
+     * Выходной столбец x покрывает отрезок [x * srcWidth, (x + 1) * srcWidth) в единицах 1/dstWidth
+     * исходного пикселя; вес исходного пикселя пропорционален длине его пересечения с этим отрезком.
+     */
+    private void buildHorizontalTables() {
+        int offset = 0;
+        for (int x = 0; x < dstWidth; x++) {
+            long from = (long) x * srcWidth;
+            long to = from + srcWidth;
+            int first = (int) (from / dstWidth);
+            int last = (int) ((to - 1) / dstWidth);
+            
+            xStart[x] = first;
+            xCount[x] = last - first + 1;
+            xOffset[x] = offset;
+            
+            int sum = 0;
+            for (int s = first; s <= last; s++) {
+                long overlap = Math.min(to, (long) (s + 1) * dstWidth) - Math.max(from, (long) s * dstWidth);
+                int weight = (int) ((overlap * ONE + srcWidth / 2) / srcWidth);
+                xWeights[offset++] = weight;
+                sum += weight;
+            }
+            // Ошибка округления уходит в самый большой вес, чтобы сумма была точно ONE
+            xWeights[largestWeight(xOffset[x], xCount[x])] += ONE - sum;
+        }
+    }
+    
+    private void buildVerticalTables() {
+        for (int y = 0; y < srcHeight; y++) {
+            long from = (long) y * dstHeight;
+            long to = from + dstHeight;
+            int row = (int) (from / srcHeight);
+            long rowEnd = (long) (row + 1) * srcHeight;
+            
+            yRow[y] = row;
+            if (to <= rowEnd) {
+                yWeight[y] = (int) (((long) dstHeight * ONE + srcHeight / 2) / srcHeight);
+                yNextWeight[y] = 0;
+            } else {
+                long overlap = rowEnd - from;
+                yWeight[y] = (int) ((overlap * ONE + srcHeight / 2) / srcHeight);
+                yNextWeight[y] = (int) (((to - rowEnd) * ONE + srcHeight / 2) / srcHeight);
+            }
+        }
+        
+        // Выравниваем суммы весов каждой выходной строки до ONE
+        int[] sums = new int[dstHeight];
+        int[] largest = new int[dstHeight];
+        int[] largestNext = new int[dstHeight];
+        Arrays.fill(largest, -1);
+        Arrays.fill(largestNext, -1);
+        for (int y = 0; y < srcHeight; y++) {
+            int row = yRow[y];
+            sums[row] += yWeight[y];
+            if (largest[row] < 0 || yWeight[y] > yWeight[largest[row]]) {
+                largest[row] = y;
+            }
+            if (yNextWeight[y] != 0) {
+                sums[row + 1] += yNextWeight[y];
+                largestNext[row + 1] = y;
+            }
+        }
+        for (int row = 0; row < dstHeight; row++) {
+            if (largest[row] >= 0) {
+                yWeight[largest[row]] += ONE - sums[row];
+            } else {
+                yNextWeight[largestNext[row]] += ONE - sums[row];
+            }
+        }
+    }
+    
+    private int largestWeight(int offset, int count) {
+        int best = offset;
+        for (int i = offset + 1; i < offset + count; i++) {
+            if (xWeights[i] > xWeights[best]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+    
+    /**
+     * Построчный доступ к исходному изображению. Чтение должно быть безопасным из нескольких потоков.
+     */
+    public interface RowSource {
+        /**
+         * Копирует {@code width} пикселей строки {@code y}, начиная со столбца {@code x}, в начало {@code target}
+         */
+        void readRow(int y, int x, int width, int[] target);
+    }
+}
@@ -0,0 +1,310 @@
+package com.immersivepaintings.exposure.image;
+
+import com.immersivepaintings.exposure.exposure.ExposureFrameReader;
+import com.immersivepaintings.exposure.exposure.ImageHeaderProbe;
+import com.immersivepaintings.exposure.metrics.PipelineMetrics;
+import com.mojang.blaze3d.platform.NativeImage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Конвертация фотографии в изображение картины: обрезка по центру до пропорций картины
+ * и масштабирование точно до сетки (блоки * пикселей на блок).
+ * <p>
+ * Выходные строки делятся на полосы, которые считаются в отдельном пуле ForkJoin. Полоса читает
+ * только свои исходные строки и держит одну строку источника и две строки сумм, поэтому рабочая
+ * память ограничена {@link #MEMORY_BUDGET_BYTES} и не зависит от размера фотографии:
+ * при нехватке бюджета полос становится меньше. Фотография, которая сама не помещается в бюджет,
+ * уменьшается прямо при декодировании ({@link StreamingImageDecoder}).
+ */
+public class PaintingConverter {
+    
+    private static final PaintingConverter INSTANCE = new PaintingConverter();
+    private static final PipelineMetrics.Histogram CONVERT_DURATION =
+        PipelineMetrics.getInstance().histogram("convert.duration", PipelineMetrics.Unit.NANOSECONDS);
+    
+    /** Рабочая память одной конвертации: результат и буферы одновременно считаемых полос */
+    public static final long MEMORY_BUDGET_BYTES = 32L * 1024 * 1024;
+    public static final int MAX_BLOCKS = 32;
+    public static final int MAX_PIXELS_PER_BLOCK = 256;
+    // Полоса короче этого не окупает накладные расходы задачи
+    private static final int MIN_STRIP_ROWS = 8;
+    // Полос больше, чем потоков, чтобы потоки не простаивали на неравных полосах
+    private static final int STRIPS_PER_THREAD = 4;
+    
+    private final ForkJoinPool pool;
+    
+    public static PaintingConverter getInstance() {
+        return INSTANCE;
+    }
+    
+    private PaintingConverter() {
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.pool = new ForkJoinPool(threads, pool -> {
+            ForkJoinWorkerThread thread = new ForkJoinWorkerThread(pool) {
+            };
+            thread.setName("ImmersivePaintingsExposure-Convert-" + threadIndex.incrementAndGet());
+            return thread;
+        }, null, false);
+    }
+    
+    /**
+     * Конвертация в пуле конвертера, не занимая вызывающий (например, клиентский) поток
+     */
+    public CompletableFuture<PaintingImage> convertAsync(Path photo, int widthBlocks, int heightBlocks, int pixelsPerBlock) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return convert(photo, widthBlocks, heightBlocks, pixelsPerBlock);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, pool);
+    }
+    
+    /**
+     * Читает фотографию (или кадр Exposure) и конвертирует ее в изображение картины
+     */
+    public PaintingImage convert(Path photo, int widthBlocks, int heightBlocks, int pixelsPerBlock) throws IOException {
+        if (ExposureFrameReader.isFrameFile(photo)) {
+            ExposureFrameReader.Frame frame = ExposureFrameReader.read(photo);
+            int[] pixels = ExposureFrameReader.toPixels(frame);
+            return convert(arraySource(pixels, frame.getWidth()), frame.getWidth(), frame.getHeight(),
+                widthBlocks, heightBlocks, pixelsPerBlock);
+        }
+        
+        PaintingImage streamed = convertStreaming(photo, widthBlocks, heightBlocks, pixelsPerBlock);
+        if (streamed != null) {
+            return streamed;
+        }
+        
+        try (InputStream in = Files.newInputStream(photo);
+             NativeImage image = NativeImage.read(NativeImage.Format.RGBA, in)) {
+            // Строки читаются прямо из NativeImage, без копии всего изображения в память Java
+            ImageResampler.RowSource source = (y, x, width, target) -> {
+                for (int i = 0; i < width; i++) {
+                    target[i] = image.getPixelRGBA(x + i, y);
+                }
+            };
+            return convert(source, image.getWidth(), image.getHeight(), widthBlocks, heightBlocks, pixelsPerBlock);
+        }
+    }
+    
+    /**
+     * Фотография, которая целиком не помещается в бюджет памяти, декодируется потоком
+     * с уменьшением на лету - в одном потоке, но без полного изображения в памяти.
+     *
+     * @return {@code null}, если фотография помещается в бюджет, меньше картины или ее формат не читается потоком
+     */
+    private PaintingImage convertStreaming(Path photo, int widthBlocks, int heightBlocks, int pixelsPerBlock) throws IOException {
+        checkPaintingSize(widthBlocks, heightBlocks, pixelsPerBlock);
+        int dstWidth = widthBlocks * pixelsPerBlock;
+        int dstHeight = heightBlocks * pixelsPerBlock;
+        ImageHeaderProbe.Header header = ImageHeaderProbe.probe(photo);
+        if (header == null || (long) header.getWidth() * header.getHeight() * 4 <= MEMORY_BUDGET_BYTES) {
+            return null;
+        }
+        int[] crop = cropToAspect(header.getWidth(), header.getHeight(), dstWidth, dstHeight);
+        if (crop[2] < dstWidth || crop[3] < dstHeight) {
+            return null;
+        }
+        
+        long start = System.nanoTime();
+        StreamingImageDecoder.Decoded decoded = StreamingImageDecoder.decode(photo, (width, height) -> {
+            int[] region = cropToAspect(width, height, dstWidth, dstHeight);
+            return new int[]{region[0], region[1], region[2], region[3], dstWidth, dstHeight};
+        });
+        if (decoded == null) {
+            return null;
+        }
+        CONVERT_DURATION.record(System.nanoTime() - start);
+        return new PaintingImage(dstWidth, dstHeight, decoded.getPixels());
+    }
+    
+    /**
+     * Конвертирует изображение из источника строк
+     */
+    public PaintingImage convert(ImageResampler.RowSource source, int srcWidth, int srcHeight,
+                                 int widthBlocks, int heightBlocks, int pixelsPerBlock) {
+        checkPaintingSize(widthBlocks, heightBlocks, pixelsPerBlock);
+        int dstWidth = widthBlocks * pixelsPerBlock;
+        int dstHeight = heightBlocks * pixelsPerBlock;
+        long outputBytes = (long) dstWidth * dstHeight * 4;
+        
+        long start = System.nanoTime();
+        int[] crop = cropToAspect(srcWidth, srcHeight, dstWidth, dstHeight);
+        int[] output = new int[dstWidth * dstHeight];
+        Strips strips;
+        long stripBytes;
+        if (dstWidth <= crop[2] && dstHeight <= crop[3]) {
+            ImageResampler resampler = new ImageResampler(crop[2], crop[3], dstWidth, dstHeight);
+            strips = (from, to) -> resampler.resampleStrip(source, crop[0], crop[1], output, from, to);
+            // Исходная строка и две строки сумм (4 канала по long)
+            stripBytes = crop[2] * 4L + dstWidth * 64L;
+        } else {
+            // Фотография меньше картины (например, кадр Exposure на большой картине): пиксели повторяются
+            int[] columns = nearestColumns(crop[2], dstWidth);
+            strips = (from, to) -> nearestStrip(source, crop, columns, output, dstWidth, dstHeight, from, to);
+            stripBytes = crop[2] * 4L;
+        }
+        
+        int maxStrips = (int) Math.max(1L, Math.min(Integer.MAX_VALUE, (MEMORY_BUDGET_BYTES - outputBytes) / stripBytes));
+        runStrips(strips, dstHeight, maxStrips);
+        
+        CONVERT_DURATION.record(System.nanoTime() - start);
+        return new PaintingImage(dstWidth, dstHeight, output);
+    }
+    
+    /**
+     * Конвертация и сведение к палитре одной задачей в пуле конвертера
+     */
+    public CompletableFuture<PaintingImage> convertAsync(Path photo, int widthBlocks, int heightBlocks, int pixelsPerBlock,
+                                                         PaletteQuantizer quantizer, PaletteQuantizer.Dither dither) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return quantizer.quantize(convert(photo, widthBlocks, heightBlocks, pixelsPerBlock), dither);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, pool);
+    }
+    
+    /**
+     * Считает строки [0, rows) полосами в пуле конвертера и ждет их завершения.
+     * Из потока пула полосы добавляются к текущей задаче, а не ставятся в очередь заново.
+     */
+    void runStrips(Strips strips, int rows, int maxStrips) {
+        int stripCount = Math.min(Math.min(pool.getParallelism() * STRIPS_PER_THREAD, maxStrips),
+            Math.max(1, rows / MIN_STRIP_ROWS));
+        StripTask task = new StripTask(strips, rows, stripCount, 0, stripCount);
+        if (ForkJoinTask.getPool() == pool) {
+            task.invoke();
+        } else {
+            pool.invoke(task);
+        }
+    }
+    
+    private static void checkPaintingSize(int widthBlocks, int heightBlocks, int pixelsPerBlock) {
+        if (widthBlocks <= 0 || heightBlocks <= 0 || widthBlocks > MAX_BLOCKS || heightBlocks > MAX_BLOCKS
+            || pixelsPerBlock <= 0 || pixelsPerBlock > MAX_PIXELS_PER_BLOCK) {
+            throw new IllegalArgumentException("Unsupported painting size " + widthBlocks + "x" + heightBlocks
+                + " blocks at " + pixelsPerBlock + " pixels per block");
+        }
+        long outputBytes = (long) widthBlocks * pixelsPerBlock * heightBlocks * pixelsPerBlock * 4;
+        if (outputBytes > MEMORY_BUDGET_BYTES) {
+            throw new IllegalArgumentException("Painting " + widthBlocks * pixelsPerBlock + "x" + heightBlocks * pixelsPerBlock
+                + " does not fit the conversion memory budget");
+        }
+    }
+    
+    /**
+     * Область источника с пропорциями результата, по центру
+     *
+     * @return {x, y, ширина, высота}
+     */
+    public static int[] cropToAspect(int srcWidth, int srcHeight, int dstWidth, int dstHeight) {
+        if ((long) srcWidth * dstHeight > (long) srcHeight * dstWidth) {
+            int width = (int) Math.max(1L, Math.round((double) srcHeight * dstWidth / dstHeight));
+            return new int[]{(srcWidth - width) / 2, 0, width, srcHeight};
+        }
+        int height = (int) Math.max(1L, Math.round((double) srcWidth * dstHeight / dstWidth));
+        return new int[]{0, (srcHeight - height) / 2, srcWidth, height};
+    }
+    
+    /**
+     * Размер картины для фотографии: длинная сторона - maxBlocks, короткая по пропорциям фотографии
+     * (кадр обрежет {@link #cropToAspect}). Разрешение уменьшается вдвое, пока картина не помещается
+     * в {@link #MEMORY_BUDGET_BYTES}.
+     *
+     * @return {ширина в блоках, высота в блоках, пикселей на блок}
+     */
+    public static int[] fitPainting(float aspectRatio, int maxBlocks, int pixelsPerBlock) {
+        int shortSide = Math.max(1, Math.min(maxBlocks, Math.round(maxBlocks / Math.max(aspectRatio, 1.0f / aspectRatio))));
+        int widthBlocks = aspectRatio >= 1.0f ? maxBlocks : shortSide;
+        int heightBlocks = aspectRatio >= 1.0f ? shortSide : maxBlocks;
+        while (pixelsPerBlock > 1 && (long) widthBlocks * heightBlocks * pixelsPerBlock * pixelsPerBlock * 4 > MEMORY_BUDGET_BYTES) {
+            pixelsPerBlock /= 2;
+        }
+        return new int[]{widthBlocks, heightBlocks, pixelsPerBlock};
+    }
+    
+    public static ImageResampler.RowSource arraySource(int[] pixels, int width) {
+        return (y, x, length, target) -> System.arraycopy(pixels, y * width + x, target, 0, length);
+    }
+    
+    /**
+     * Для каждого выходного столбца - исходный столбец под центром выходного пикселя
+     */
+    private static int[] nearestColumns(int srcWidth, int dstWidth) {
+        int[] columns = new int[dstWidth];
+        for (int x = 0; x < dstWidth; x++) {
+            columns[x] = (int) ((2L * x + 1) * srcWidth / (2L * dstWidth));
+        }
+        return columns;
+    }
+    
+    private static void nearestStrip(ImageResampler.RowSource source, int[] crop, int[] columns, int[] output,
+                                     int dstWidth, int dstHeight, int from, int to) {
+        int[] row = new int[crop[2]];
+        int previous = -1;
+        for (int y = from; y < to; y++) {
+            int srcY = (int) ((2L * y + 1) * crop[3] / (2L * dstHeight));
+            int base = y * dstWidth;
+            if (srcY == previous) {
+                // Та же исходная строка, что у предыдущей выходной
+                System.arraycopy(output, base - dstWidth, output, base, dstWidth);
+                continue;
+            }
+            source.readRow(crop[1] + srcY, crop[0], crop[2], row);
+            for (int x = 0; x < dstWidth; x++) {
+                output[base + x] = row[columns[x]];
+            }
+            previous = srcY;
+        }
+    }
+    
+    @FunctionalInterface
+    interface Strips {
+        void compute(int fromRow, int toRow);
+    }
+    
+    /**
+     * Делит полосы [first, last) пополам, пока не останется одна
+     */
+    private static final class StripTask extends RecursiveAction {
+        private final Strips strips;
+        private final int rows;
+        private final int stripCount;
+        private final int first;
+        private final int last;
+        
+        private StripTask(Strips strips, int rows, int stripCount, int first, int last) {
+            this.strips = strips;
+            this.rows = rows;
+            this.stripCount = stripCount;
+            this.first = first;
+            this.last = last;
+        }
+        
+        @Override
+        protected void compute() {
+            if (last - first == 1) {
+                strips.compute((int) ((long) first * rows / stripCount), (int) ((long) last * rows / stripCount));
+                return;
+            }
+            int middle = (first + last) >>> 1;
+            invokeAll(new StripTask(strips, rows, stripCount, first, middle),
+                new StripTask(strips, rows, stripCount, middle, last));
+        }
+    }
+}
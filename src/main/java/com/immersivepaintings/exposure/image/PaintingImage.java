@@ -0,0 +1,59 @@
+package com.immersivepaintings.exposure.image;
+
+import com.mojang.blaze3d.platform.NativeImage;
+
+import java.io.IOException;
+
+/**
+ * Готовое изображение картины: ровно (блоки * пикселей на блок) по каждой стороне.
+ * Пиксели в формате NativeImage (ABGR в int), построчно.
+ */
+public final class PaintingImage {
+    private final int width;
+    private final int height;
+    private final int[] pixels;
+    
+    public PaintingImage(int width, int height, int[] pixels) {
+        if (pixels.length != width * height) {
+            throw new IllegalArgumentException("Pixel count " + pixels.length + " does not match " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+    }
+    
+    /**
+     * Создает NativeImage для загрузки в текстуру. Вызывающий отвечает за закрытие изображения.
+     */
+    public NativeImage toNativeImage() {
+        NativeImage image = new NativeImage(width, height, false);
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                image.setPixelRGBA(x, y, pixels[row + x]);
+            }
+        }
+        return image;
+    }
+    
+    /**
+     * Кодирует изображение в PNG
+     */
+    public byte[] encodePng() throws IOException {
+        try (NativeImage image = toNativeImage()) {
+            return image.asByteArray();
+        }
+    }
+    
+    public int getWidth() {
+        return width;
+    }
+    
+    public int getHeight() {
+        return height;
+    }
+    
+    public int[] getPixels() {
+        return pixels;
+    }
+}
@@ -0,0 +1,444 @@
+package com.immersivepaintings.exposure.image;
+
+import com.immersivepaintings.exposure.exposure.ExposureFrameReader;
+import com.immersivepaintings.exposure.metrics.PipelineMetrics;
+
+import java.util.Arrays;
+
+/**
+ * Сведение изображения картины к ограниченной палитре (палитра карт, как у пленки Exposure,
+ * оттенки серого или своя).
+ * <p>
+ * Ближайший цвет ищется через куб 32x32x32 (5 бит на канал), который строится один раз для палитры:
+ * для каждой ячейки хранятся только цвета, которые могут оказаться ближайшими хотя бы для одной ее точки.
+ * Единственный кандидат берется без вычислений, иначе точно сравниваются несколько кандидатов вместо всей
+ * палитры (у палитры карт обычно два-три). Результат всегда совпадает с {@link #nearestExact(int)},
+ * в том числе для плотных палитр (оттенки серого с уровнями чаще ячейки).
+ * Все режимы работают на месте в int[] ABGR и не создают объектов на пиксель. Без сглаживания
+ * и с упорядоченным сглаживанием пиксели независимы и считаются полосами в пуле {@link PaintingConverter};
+ * диффузия ошибки зависит от предыдущей строки и идет в одном потоке.
+ * <p>
+ * Альфа пикселя сохраняется, полностью прозрачные пиксели не меняются. Экземпляр неизменяем и потокобезопасен.
+ */
+public final class PaletteQuantizer {
+    
+    private static final PipelineMetrics.Histogram QUANTIZE_DURATION =
+        PipelineMetrics.getInstance().histogram("quantize.duration", PipelineMetrics.Unit.NANOSECONDS);
+    
+    public static final int MAX_COLORS = 256;
+    public static final int GRAYSCALE_LEVELS = 64;
+    private static final int CUBE_BITS = 5;
+    private static final int CUBE_SIZE = 1 << CUBE_BITS;
+    private static final int CUBE_SHIFT = 8 - CUBE_BITS;
+    // Веса каналов в расстоянии между цветами: глаз чувствительнее всего к зеленому
+    private static final int WEIGHT_RED = 2;
+    private static final int WEIGHT_GREEN = 4;
+    private static final int WEIGHT_BLUE = 3;
+    // Разброс упорядоченного сглаживания - среднее расстояние до ближайшего соседа в палитре, в этих пределах
+    private static final int MIN_SPREAD = 4;
+    private static final int MAX_SPREAD = 255;
+    private static final int[] BAYER_8 = {
+        0, 32, 8, 40, 2, 34, 10, 42,
+        48, 16, 56, 24, 50, 18, 58, 26,
+        12, 44, 4, 36, 14, 46, 6, 38,
+        60, 28, 52, 20, 62, 30, 54, 22,
+        3, 35, 11, 43, 1, 33, 9, 41,
+        51, 19, 59, 27, 49, 17, 57, 25,
+        15, 47, 7, 39, 13, 45, 5, 37,
+        63, 31, 55, 23, 61, 29, 53, 21
+    };
+    
+    public enum Dither {
+        /** Ближайший цвет */
+        NONE,
+        /** Матрица Байера 8x8 */
+        ORDERED,
+        /** Флойд-Стейнберг, змейкой */
+        FLOYD_STEINBERG
+    }
+    
+    /**
+     * Палитра картины в настройках клиента
+     */
+    public enum Palette {
+        /** Цвета фотографии без изменений */
+        NONE,
+        /** {@link #mapColors()} - как у кадров Exposure */
+        MAP_COLORS,
+        /** {@link #grayscale(int)} с {@link #GRAYSCALE_LEVELS} уровнями */
+        GRAYSCALE;
+        
+        /**
+         * @return палитра или null, если цвета не сводятся
+         */
+        public PaletteQuantizer getQuantizer() {
+            switch (this) {
+                case MAP_COLORS:
+                    return mapColors();
+                case GRAYSCALE:
+                    return Grayscale.INSTANCE;
+                default:
+                    return null;
+            }
+        }
+    }
+    
+    // Цвета палитры без альфы и их каналы
+    private final int[] colors;
+    private final int[] red;
+    private final int[] green;
+    private final int[] blue;
+    // Ячейка (r >> 3) << 10 | (g >> 3) << 5 | (b >> 3) -> индекс цвета, если кандидат один,
+    // иначе ~начало списка в candidates
+    private final int[] cells;
+    // Списки кандидатов: длина, затем цвета индекс << 24 | b << 16 | g << 8 | r по возрастанию индекса
+    private final int[] candidates;
+    // Смещение канала для позиции в матрице Байера
+    private final int[] orderedOffsets;
+    
+    /**
+     * @param palette цвета ABGR (альфа не учитывается), от 1 до {@link #MAX_COLORS}
+     */
+    public PaletteQuantizer(int[] palette) {
+        if (palette.length == 0 || palette.length > MAX_COLORS) {
+            throw new IllegalArgumentException("Palette must have 1 to " + MAX_COLORS + " colors, got " + palette.length);
+        }
+        int count = palette.length;
+        this.colors = new int[count];
+        this.red = new int[count];
+        this.green = new int[count];
+        this.blue = new int[count];
+        for (int i = 0; i < count; i++) {
+            colors[i] = palette[i] & 0xFFFFFF;
+            red[i] = palette[i] & 0xFF;
+            green[i] = (palette[i] >>> 8) & 0xFF;
+            blue[i] = (palette[i] >>> 16) & 0xFF;
+        }
+        
+        this.cells = new int[CUBE_SIZE * CUBE_SIZE * CUBE_SIZE];
+        this.candidates = buildCells(cells);
+        
+        int spread = averageNeighbourDistance();
+        this.orderedOffsets = new int[BAYER_8.length];
+        for (int i = 0; i < BAYER_8.length; i++) {
+            orderedOffsets[i] = (2 * BAYER_8[i] + 1 - BAYER_8.length) * spread / (2 * BAYER_8.length);
+        }
+    }
+    
+    /**
+     * Палитра карт без прозрачного цвета - те же цвета, что у кадров Exposure
+     */
+    public static PaletteQuantizer mapColors() {
+        return MapColors.INSTANCE;
+    }
+    
+    /**
+     * Равномерные оттенки серого от черного до белого (черно-белая пленка)
+     */
+    public static PaletteQuantizer grayscale(int levels) {
+        if (levels < 2 || levels > MAX_COLORS) {
+            throw new IllegalArgumentException("Grayscale levels must be 2 to " + MAX_COLORS + ", got " + levels);
+        }
+        int[] palette = new int[levels];
+        for (int i = 0; i < levels; i++) {
+            int value = i * 255 / (levels - 1);
+            palette[i] = 0xFF000000 | (value << 16) | (value << 8) | value;
+        }
+        return new PaletteQuantizer(palette);
+    }
+    
+    public int getColorCount() {
+        return colors.length;
+    }
+    
+    /**
+     * Ближайший цвет палитры по кубу, альфа пикселя сохраняется
+     */
+    public int nearest(int abgr) {
+        return (abgr & 0xFF000000) | colors[lookup(abgr & 0xFF, (abgr >>> 8) & 0xFF, (abgr >>> 16) & 0xFF)];
+    }
+    
+    /**
+     * Точный ближайший цвет перебором палитры, без куба. Для проверок и сравнения.
+     */
+    public int nearestExact(int abgr) {
+        return (abgr & 0xFF000000) | colors[nearestIndex(abgr & 0xFF, (abgr >>> 8) & 0xFF, (abgr >>> 16) & 0xFF)];
+    }
+    
+    public PaintingImage quantize(PaintingImage image, Dither dither) {
+        quantize(image.getPixels(), image.getWidth(), image.getHeight(), dither);
+        return image;
+    }
+    
+    /**
+     * Сводит изображение к палитре на месте. Независимые режимы считаются полосами в пуле конвертера.
+     */
+    public void quantize(int[] pixels, int width, int height, Dither dither) {
+        if (width <= 0 || height <= 0 || pixels.length != width * height) {
+            throw new IllegalArgumentException("Pixel count " + pixels.length + " does not match " + width + "x" + height);
+        }
+        long start = System.nanoTime();
+        if (dither == Dither.FLOYD_STEINBERG) {
+            diffuse(pixels, width, 0, height);
+        } else {
+            boolean ordered = dither == Dither.ORDERED;
+            PaintingConverter.getInstance().runStrips((from, to) -> mapRows(pixels, width, from, to, ordered),
+                height, Integer.MAX_VALUE);
+        }
+        QUANTIZE_DURATION.record(System.nanoTime() - start);
+    }
+    
+    /**
+     * Сводит строки [fromRow, toRow) в текущем потоке. Для диффузии ошибки диапазон
+     * обрабатывается как отдельное изображение: ошибка не приходит из строк выше.
+     */
+    public void quantizeRows(int[] pixels, int width, int fromRow, int toRow, Dither dither) {
+        if (dither == Dither.FLOYD_STEINBERG) {
+            diffuse(pixels, width, fromRow, toRow);
+        } else {
+            mapRows(pixels, width, fromRow, toRow, dither == Dither.ORDERED);
+        }
+    }
+    
+    private void mapRows(int[] pixels, int width, int fromRow, int toRow, boolean ordered) {
+        int[] colors = this.colors;
+        for (int y = fromRow; y < toRow; y++) {
+            int base = y * width;
+            int offsetRow = (y & 7) << 3;
+            for (int x = 0; x < width; x++) {
+                int pixel = pixels[base + x];
+                if ((pixel & 0xFF000000) == 0) {
+                    continue;
+                }
+                int r = pixel & 0xFF;
+                int g = (pixel >>> 8) & 0xFF;
+                int b = (pixel >>> 16) & 0xFF;
+                if (ordered) {
+                    int offset = orderedOffsets[offsetRow | (x & 7)];
+                    r = clamp(r + offset);
+                    g = clamp(g + offset);
+                    b = clamp(b + offset);
+                }
+                pixels[base + x] = (pixel & 0xFF000000) | colors[lookup(r, g, b)];
+            }
+        }
+    }
+    
+    /**
+     * Флойд-Стейнберг змейкой. Ошибки хранятся в шестнадцатых долях в двух строках с полем по краям,
+     * чтобы края не требовали проверок.
+     */
+    private void diffuse(int[] pixels, int width, int fromRow, int toRow) {
+        int[] current = new int[(width + 2) * 3];
+        int[] next = new int[(width + 2) * 3];
+        for (int y = fromRow; y < toRow; y++) {
+            int base = y * width;
+            boolean reverse = ((y - fromRow) & 1) == 1;
+            int dx = reverse ? -1 : 1;
+            int step = dx * 3;
+            int x = reverse ? width - 1 : 0;
+            for (int n = 0; n < width; n++, x += dx) {
+                int pixel = pixels[base + x];
+                if ((pixel & 0xFF000000) == 0) {
+                    continue;
+                }
+                int e = (x + 1) * 3;
+                int r = clamp((pixel & 0xFF) + ((current[e] + 8) >> 4));
+                int g = clamp(((pixel >>> 8) & 0xFF) + ((current[e + 1] + 8) >> 4));
+                int b = clamp(((pixel >>> 16) & 0xFF) + ((current[e + 2] + 8) >> 4));
+                int index = lookup(r, g, b);
+                pixels[base + x] = (pixel & 0xFF000000) | colors[index];
+                
+                int ahead = e + step;
+                int behind = e - step;
+                int error = r - red[index];
+                current[ahead] += error * 7;
+                next[behind] += error * 3;
+                next[e] += error * 5;
+                next[ahead] += error;
+                error = g - green[index];
+                current[ahead + 1] += error * 7;
+                next[behind + 1] += error * 3;
+                next[e + 1] += error * 5;
+                next[ahead + 1] += error;
+                error = b - blue[index];
+                current[ahead + 2] += error * 7;
+                next[behind + 2] += error * 3;
+                next[e + 2] += error * 5;
+                next[ahead + 2] += error;
+            }
+            int[] swap = current;
+            current = next;
+            next = swap;
+            Arrays.fill(next, 0);
+        }
+    }
+    
+    /**
+     * Индекс ближайшего цвета: единственный кандидат ячейки или точное сравнение кандидатов.
+     * При равных расстояниях побеждает меньший индекс, как в {@link #nearestIndex(int, int, int)}.
+     */
+    private int lookup(int r, int g, int b) {
+        int cell = cells[cubeIndex(r, g, b)];
+        if (cell >= 0) {
+            return cell;
+        }
+        int[] candidates = this.candidates;
+        int from = ~cell + 1;
+        int to = from + candidates[~cell];
+        // Расстояние и индекс в одном ключе: минимум без ветвлений, при равенстве - меньший индекс
+        int best = Integer.MAX_VALUE;
+        for (int i = from; i < to; i++) {
+            int candidate = candidates[i];
+            int dr = r - (candidate & 0xFF);
+            int dg = g - ((candidate >>> 8) & 0xFF);
+            int db = b - ((candidate >>> 16) & 0xFF);
+            int distance = WEIGHT_RED * dr * dr + WEIGHT_GREEN * dg * dg + WEIGHT_BLUE * db * db;
+            best = Math.min(best, (distance << 8) | (candidate >>> 24));
+        }
+        return best & 0xFF;
+    }
+    
+    /**
+     * Строит списки кандидатов ячеек. Опорный цвет ячейки - ближайший к ее центру. Разность расстояний
+     * от точки до цвета и до опорного цвета линейна по точке, поэтому ее минимум по ячейке достигается
+     * в углу; цвет, который проигрывает опорному во всех углах, не может быть ближайшим ни в одной точке.
+     *
+     * @param cells заполняется единственным кандидатом или ~началом списка
+     */
+    private int[] buildCells(int[] cells) {
+        int count = colors.length;
+        int[] norms = new int[count];
+        for (int i = 0; i < count; i++) {
+            norms[i] = WEIGHT_RED * red[i] * red[i] + WEIGHT_GREEN * green[i] * green[i] + WEIGHT_BLUE * blue[i] * blue[i];
+        }
+        int[] list = new int[count];
+        int[] candidates = new int[1024];
+        int length = 0;
+        int cellWidth = 1 << CUBE_SHIFT;
+        int half = cellWidth >> 1;
+        
+        for (int cell = 0; cell < cells.length; cell++) {
+            int rLow = (cell >>> (2 * CUBE_BITS)) << CUBE_SHIFT;
+            int gLow = ((cell >>> CUBE_BITS) & (CUBE_SIZE - 1)) << CUBE_SHIFT;
+            int bLow = (cell & (CUBE_SIZE - 1)) << CUBE_SHIFT;
+            int rHigh = rLow + cellWidth - 1;
+            int gHigh = gLow + cellWidth - 1;
+            int bHigh = bLow + cellWidth - 1;
+            int reference = nearestIndex(rLow + half, gLow + half, bLow + half);
+            
+            int listLength = 0;
+            for (int i = 0; i < count; i++) {
+                if (i == reference || minAdvantage(i, reference, norms, rLow, gLow, bLow, rHigh, gHigh, bHigh) <= 0) {
+                    list[listLength++] = i;
+                }
+            }
+            
+            // Отбрасываем кандидатов, которые проигрывают другому кандидату во всей ячейке. Отношение транзитивно,
+            // поэтому порядок отбрасывания не важен
+            if (listLength > 2) {
+                int kept = 0;
+                for (int n = 0; n < listLength; n++) {
+                    int i = list[n];
+                    boolean dominated = false;
+                    for (int m = 0; m < listLength && !dominated; m++) {
+                        int j = list[m];
+                        dominated = j != i && minAdvantage(i, j, norms, rLow, gLow, bLow, rHigh, gHigh, bHigh) > 0;
+                    }
+                    if (!dominated) {
+                        list[kept++] = i;
+                    }
+                }
+                listLength = kept;
+            }
+            
+            if (listLength == 1) {
+                cells[cell] = list[0];
+                continue;
+            }
+            if (length + listLength + 1 > candidates.length) {
+                candidates = Arrays.copyOf(candidates, Math.max(candidates.length * 2, length + listLength + 1));
+            }
+            cells[cell] = ~length;
+            candidates[length++] = listLength;
+            for (int n = 0; n < listLength; n++) {
+                int i = list[n];
+                candidates[length++] = (i << 24) | (blue[i] << 16) | (green[i] << 8) | red[i];
+            }
+        }
+        return Arrays.copyOf(candidates, length);
+    }
+    
+    /**
+     * Наименьшая по ячейке разность взвешенных квадратов расстояний от точки до цветов i и j.
+     * d(p, i) - d(p, j) = (|i|^2 - |j|^2) - 2 * sum(w * p * (i - j)) линейна по p, минимум - в углу ячейки.
+     * Больше нуля - цвет j ближе цвета i во всей ячейке.
+     */
+    private int minAdvantage(int i, int j, int[] norms, int rLow, int gLow, int bLow, int rHigh, int gHigh, int bHigh) {
+        int dr = WEIGHT_RED * (red[i] - red[j]);
+        int dg = WEIGHT_GREEN * (green[i] - green[j]);
+        int db = WEIGHT_BLUE * (blue[i] - blue[j]);
+        return norms[i] - norms[j]
+            - 2 * (dr * (dr > 0 ? rHigh : rLow) + dg * (dg > 0 ? gHigh : gLow) + db * (db > 0 ? bHigh : bLow));
+    }
+    
+    private static int cubeIndex(int r, int g, int b) {
+        return ((r >>> CUBE_SHIFT) << (2 * CUBE_BITS)) | ((g >>> CUBE_SHIFT) << CUBE_BITS) | (b >>> CUBE_SHIFT);
+    }
+    
+    private static int clamp(int value) {
+        return value < 0 ? 0 : Math.min(value, 255);
+    }
+    
+    private int nearestIndex(int r, int g, int b) {
+        int best = 0;
+        int bestDistance = Integer.MAX_VALUE;
+        for (int i = 0; i < colors.length; i++) {
+            int dr = r - red[i];
+            int dg = g - green[i];
+            int db = b - blue[i];
+            int distance = WEIGHT_RED * dr * dr + WEIGHT_GREEN * dg * dg + WEIGHT_BLUE * db * db;
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = i;
+            }
+        }
+        return best;
+    }
+    
+    private int averageNeighbourDistance() {
+        if (colors.length == 1) {
+            return MAX_SPREAD;
+        }
+        double total = 0.0;
+        for (int i = 0; i < colors.length; i++) {
+            int nearest = Integer.MAX_VALUE;
+            for (int j = 0; j < colors.length; j++) {
+                int dr = red[i] - red[j];
+                int dg = green[i] - green[j];
+                int db = blue[i] - blue[j];
+                int distance = dr * dr + dg * dg + db * db;
+                if (j != i && distance > 0) {
+                    nearest = Math.min(nearest, distance);
+                }
+            }
+            total += nearest == Integer.MAX_VALUE ? MAX_SPREAD : Math.sqrt(nearest);
+        }
+        return (int) Math.max(MIN_SPREAD, Math.min(MAX_SPREAD, Math.round(total / colors.length)));
+    }
+    
+    /**
+     * Палитра карт строится при первом обращении
+     */
+    private static final class MapColors {
+        private static final PaletteQuantizer INSTANCE = new PaletteQuantizer(opaqueColors(ExposureFrameReader.paletteColors()));
+        
+        private static int[] opaqueColors(int[] table) {
+            return Arrays.stream(table).filter(color -> (color >>> 24) != 0).distinct().toArray();
+        }
+    }
+    
+    private static final class Grayscale {
+        private static final PaletteQuantizer INSTANCE = grayscale(GRAYSCALE_LEVELS);
+    }
+}
@@ -0,0 +1,509 @@
+package com.immersivepaintings.exposure.image;
+
+import com.immersivepaintings.exposure.ImmersivePaintingsExposure;
+import com.immersivepaintings.exposure.metrics.PipelineMetrics;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Декодирование с уменьшением на лету, без всего исходного изображения в памяти.
+ * <p>
+ * PNG разбирается здесь же: данные IDAT распаковываются построчно, строка снимается с фильтра,
+ * переводится в ABGR и сразу уходит в {@link ImageResampler#pushRow}. В памяти две сырые строки,
+ * одна строка пикселей, суммы выходных строк и результат; строки ниже нужной области не распаковываются.
+ * <p>
+ * JPEG читает ImageIO с прореживанием в 2, 4 или 8 раз: декодер идет по строкам MCU и сохраняет
+ * только каждый n-й пиксель, поэтому в памяти изображение меньше исходного в n^2 раз.
+ * Остаток уменьшения делает тот же box-фильтр.
+ * <p>
+ * Чересстрочные PNG, JPEG, которые не читает ImageIO (например, CMYK), и прочие форматы не поддерживаются:
+ * {@link #decode} возвращает {@code null}, и вызывающий декодирует изображение целиком.
+ */
+public final class StreamingImageDecoder {
+    
+    private static final PipelineMetrics.Counter FALLBACKS =
+        PipelineMetrics.getInstance().counter("decode.fallback", PipelineMetrics.Unit.COUNT);
+    
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int IHDR = 0x49484452;
+    private static final int PLTE = 0x504C5445;
+    private static final int TRNS = 0x74524E53;
+    private static final int IDAT = 0x49444154;
+    private static final int IEND = 0x49454E44;
+    // Защита от поврежденных заголовков: строки и таблицы весов растут со стороной изображения
+    private static final int MAX_SIDE = 1 << 16;
+    // JPEG прореживается, пока на выходной пиксель остается не меньше стольких исходных по каждой оси
+    private static final int MIN_SUBSAMPLED_RATIO = 2;
+    private static final int MAX_SUBSAMPLING = 8;
+    
+    private StreamingImageDecoder() {
+    }
+    
+    /**
+     * Выбирает по размерам источника его область и размер результата
+     */
+    @FunctionalInterface
+    public interface Layout {
+        /**
+         * @return {x, y, ширина, высота области источника, ширина результата, высота результата};
+         *         результат не больше области
+         */
+        int[] apply(int srcWidth, int srcHeight);
+    }
+    
+    /**
+     * Все изображение, вписанное в квадрат {@code maxSize} с сохранением пропорций, как у миниатюр
+     */
+    public static Layout fitWithin(int maxSize) {
+        return (width, height) -> {
+            int[] size = ImageResampler.fitWithin(width, height, maxSize);
+            return new int[]{0, 0, width, height, size[0], size[1]};
+        };
+    }
+    
+    /**
+     * @return уменьшенное изображение или {@code null}, если формат не поддерживается
+     */
+    public static Decoded decode(Path file, Layout layout) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file), 16384)) {
+            return decode(in, layout);
+        }
+    }
+    
+    /**
+     * Декодирует изображение из потока. Поток не закрывается.
+     *
+     * @return уменьшенное изображение или {@code null}, если формат не поддерживается
+     */
+    public static Decoded decode(InputStream in, Layout layout) throws IOException {
+        InputStream input = in.markSupported() ? in : new BufferedInputStream(in, 16384);
+        input.mark(PNG_SIGNATURE.length);
+        byte[] signature = input.readNBytes(PNG_SIGNATURE.length);
+        input.reset();
+        
+        Decoded decoded = null;
+        if (Arrays.equals(signature, PNG_SIGNATURE)) {
+            decoded = decodePng(new DataInputStream(input), layout);
+        } else if (signature.length >= 2 && (signature[0] & 0xFF) == 0xFF && (signature[1] & 0xFF) == 0xD8) {
+            decoded = decodeJpeg(input, layout);
+        }
+        if (decoded == null) {
+            FALLBACKS.increment();
+        }
+        return decoded;
+    }
+    
+    private static Decoded decodePng(DataInputStream in, Layout layout) throws IOException {
+        in.skipNBytes(PNG_SIGNATURE.length);
+        if (in.readInt() != 13 || in.readInt() != IHDR) {
+            throw new IOException("PNG does not start with IHDR");
+        }
+        int width = in.readInt();
+        int height = in.readInt();
+        int bitDepth = in.readUnsignedByte();
+        int colorType = in.readUnsignedByte();
+        in.readUnsignedByte();
+        in.readUnsignedByte();
+        int interlace = in.readUnsignedByte();
+        in.readInt();
+        if (width <= 0 || height <= 0 || width > MAX_SIDE || height > MAX_SIDE) {
+            throw new IOException("Unsupported PNG size " + width + "x" + height);
+        }
+        int channels = switch (colorType) {
+            case 0, 3 -> 1;
+            case 2 -> 3;
+            case 4 -> 2;
+            case 6 -> 4;
+            default -> throw new IOException("Invalid PNG color type " + colorType);
+        };
+        boolean validDepth = bitDepth == 8 || (bitDepth == 16 && colorType != 3)
+            || ((bitDepth == 1 || bitDepth == 2 || bitDepth == 4) && (colorType == 0 || colorType == 3));
+        if (!validDepth) {
+            throw new IOException("Invalid PNG bit depth " + bitDepth + " for color type " + colorType);
+        }
+        if (interlace != 0) {
+            // Проходы Adam7 перемешивают строки, построчно их не уменьшить
+            return null;
+        }
+        
+        // Блоки до первого IDAT: палитра и прозрачность
+        int[] palette = null;
+        long transparentKey = -1L;
+        int length;
+        while (true) {
+            length = in.readInt();
+            int type = in.readInt();
+            if (length < 0) {
+                throw new IOException("Invalid PNG chunk length " + length);
+            }
+            if (type == IDAT) {
+                break;
+            }
+            if (type == IEND) {
+                throw new IOException("PNG has no image data");
+            }
+            if (type == PLTE && length % 3 == 0 && length / 3 <= 256) {
+                palette = new int[length / 3];
+                for (int i = 0; i < palette.length; i++) {
+                    int r = in.readUnsignedByte();
+                    int g = in.readUnsignedByte();
+                    int b = in.readUnsignedByte();
+                    palette[i] = 0xFF000000 | (b << 16) | (g << 8) | r;
+                }
+            } else if (type == TRNS && colorType == 3 && palette != null) {
+                int count = Math.min(length, palette.length);
+                for (int i = 0; i < count; i++) {
+                    palette[i] = (palette[i] & 0xFFFFFF) | (in.readUnsignedByte() << 24);
+                }
+                in.skipNBytes(length - count);
+            } else if (type == TRNS && colorType == 0 && length == 2) {
+                transparentKey = in.readUnsignedShort();
+            } else if (type == TRNS && colorType == 2 && length == 6) {
+                transparentKey = ((long) in.readUnsignedShort() << 32) | ((long) in.readUnsignedShort() << 16) | in.readUnsignedShort();
+            } else {
+                in.skipNBytes(length);
+            }
+            in.readInt();
+        }
+        if (colorType == 3 && palette == null) {
+            throw new IOException("Indexed PNG has no palette");
+        }
+        
+        int bitsPerPixel = channels * bitDepth;
+        int rowBytes = (int) (((long) width * bitsPerPixel + 7) / 8);
+        int filterStep = Math.max(1, bitsPerPixel / 8);
+        Target target = new Target(checkLayout(layout.apply(width, height), width, height));
+        
+        Inflater inflater = new Inflater();
+        try {
+            DataInputStream data = new DataInputStream(new InflaterInputStream(new IdatStream(in, length), inflater, 16384));
+            byte[] previous = new byte[rowBytes];
+            byte[] current = new byte[rowBytes];
+            int[] row = new int[width];
+            for (int y = 0; y < height && !target.isComplete(); y++) {
+                int filter = data.readUnsignedByte();
+                data.readFully(current);
+                unfilter(filter, current, previous, filterStep);
+                if (target.needs(y)) {
+                    toPixels(current, row, width, colorType, bitDepth, palette, transparentKey);
+                    target.push(row);
+                }
+                byte[] swap = previous;
+                previous = current;
+                current = swap;
+            }
+        } finally {
+            inflater.end();
+        }
+        return target.finish();
+    }
+    
+    private static void unfilter(int filter, byte[] current, byte[] previous, int step) throws IOException {
+        int length = current.length;
+        switch (filter) {
+            case 0 -> {
+            }
+            case 1 -> {
+                for (int i = step; i < length; i++) {
+                    current[i] += current[i - step];
+                }
+            }
+            case 2 -> {
+                for (int i = 0; i < length; i++) {
+                    current[i] += previous[i];
+                }
+            }
+            case 3 -> {
+                for (int i = 0; i < length; i++) {
+                    int left = i >= step ? current[i - step] & 0xFF : 0;
+                    current[i] += (left + (previous[i] & 0xFF)) >>> 1;
+                }
+            }
+            case 4 -> {
+                for (int i = 0; i < length; i++) {
+                    int left = i >= step ? current[i - step] & 0xFF : 0;
+                    int up = previous[i] & 0xFF;
+                    int upLeft = i >= step ? previous[i - step] & 0xFF : 0;
+                    int estimate = left + up - upLeft;
+                    int distanceLeft = Math.abs(estimate - left);
+                    int distanceUp = Math.abs(estimate - up);
+                    int distanceUpLeft = Math.abs(estimate - upLeft);
+                    int predictor = distanceLeft <= distanceUp && distanceLeft <= distanceUpLeft ? left
+                        : distanceUp <= distanceUpLeft ? up : upLeft;
+                    current[i] += predictor;
+                }
+            }
+            default -> throw new IOException("Invalid PNG filter type " + filter);
+        }
+    }
+    
+    /**
+     * Сырая строка PNG -> ABGR. Из 16-битных каналов берется старший байт, прозрачный цвет tRNS
+     * сравнивается с полными значениями.
+     */
+    private static void toPixels(byte[] raw, int[] row, int width, int colorType, int bitDepth, int[] palette, long transparentKey) {
+        switch (colorType) {
+            case 0 -> {
+                int mask = (1 << bitDepth) - 1;
+                for (int x = 0; x < width; x++) {
+                    int sample;
+                    int value;
+                    if (bitDepth == 16) {
+                        sample = ((raw[2 * x] & 0xFF) << 8) | (raw[2 * x + 1] & 0xFF);
+                        value = sample >>> 8;
+                    } else {
+                        int bit = x * bitDepth;
+                        sample = ((raw[bit >>> 3] & 0xFF) >>> (8 - bitDepth - (bit & 7))) & mask;
+                        value = sample * 255 / mask;
+                    }
+                    int alpha = sample == transparentKey ? 0 : 0xFF000000;
+                    row[x] = alpha | (value << 16) | (value << 8) | value;
+                }
+            }
+            case 2 -> {
+                for (int x = 0; x < width; x++) {
+                    int r;
+                    int g;
+                    int b;
+                    long sample;
+                    if (bitDepth == 16) {
+                        int i = 6 * x;
+                        r = raw[i] & 0xFF;
+                        g = raw[i + 2] & 0xFF;
+                        b = raw[i + 4] & 0xFF;
+                        sample = ((long) ((r << 8) | (raw[i + 1] & 0xFF)) << 32)
+                            | ((long) ((g << 8) | (raw[i + 3] & 0xFF)) << 16) | ((b << 8) | (raw[i + 5] & 0xFF));
+                    } else {
+                        int i = 3 * x;
+                        r = raw[i] & 0xFF;
+                        g = raw[i + 1] & 0xFF;
+                        b = raw[i + 2] & 0xFF;
+                        sample = ((long) r << 32) | ((long) g << 16) | b;
+                    }
+                    int alpha = sample == transparentKey ? 0 : 0xFF000000;
+                    row[x] = alpha | (b << 16) | (g << 8) | r;
+                }
+            }
+            case 3 -> {
+                int mask = (1 << bitDepth) - 1;
+                for (int x = 0; x < width; x++) {
+                    int bit = x * bitDepth;
+                    int index = ((raw[bit >>> 3] & 0xFF) >>> (8 - bitDepth - (bit & 7))) & mask;
+                    row[x] = index < palette.length ? palette[index] : 0xFF000000;
+                }
+            }
+            case 4 -> {
+                int stride = bitDepth / 4;
+                for (int x = 0; x < width; x++) {
+                    int i = stride * x;
+                    int value = raw[i] & 0xFF;
+                    int alpha = raw[i + stride / 2] & 0xFF;
+                    row[x] = (alpha << 24) | (value << 16) | (value << 8) | value;
+                }
+            }
+            default -> {
+                int stride = bitDepth / 2;
+                int channel = stride / 4;
+                for (int x = 0; x < width; x++) {
+                    int i = stride * x;
+                    int r = raw[i] & 0xFF;
+                    int g = raw[i + channel] & 0xFF;
+                    int b = raw[i + 2 * channel] & 0xFF;
+                    int alpha = raw[i + 3 * channel] & 0xFF;
+                    row[x] = (alpha << 24) | (b << 16) | (g << 8) | r;
+                }
+            }
+        }
+    }
+    
+    private static Decoded decodeJpeg(InputStream in, Layout layout) throws IOException {
+        Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName("jpeg");
+        if (!readers.hasNext()) {
+            return null;
+        }
+        ImageReader reader = readers.next();
+        // Кэш в памяти вместо временного файла; при чтении только вперед прочитанное отбрасывается
+        try (ImageInputStream stream = new MemoryCacheImageInputStream(in)) {
+            reader.setInput(stream, true, true);
+            int width = reader.getWidth(0);
+            int height = reader.getHeight(0);
+            int[] region = checkLayout(layout.apply(width, height), width, height);
+            
+            int step = 1;
+            while (step < MAX_SUBSAMPLING
+                && region[2] / (step * 2) >= region[4] * MIN_SUBSAMPLED_RATIO
+                && region[3] / (step * 2) >= region[5] * MIN_SUBSAMPLED_RATIO) {
+                step *= 2;
+            }
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceRegion(new Rectangle(region[0], region[1], region[2], region[3]));
+            param.setSourceSubsampling(step, step, 0, 0);
+            BufferedImage image = reader.read(0, param);
+            
+            int imageWidth = image.getWidth();
+            Target target = new Target(new int[]{0, 0, imageWidth, image.getHeight(), region[4], region[5]});
+            int[] row = new int[imageWidth];
+            for (int y = 0; y < image.getHeight(); y++) {
+                image.getRGB(0, y, imageWidth, 1, row, 0, imageWidth);
+                for (int x = 0; x < imageWidth; x++) {
+                    int argb = row[x];
+                    row[x] = (argb & 0xFF00FF00) | ((argb >>> 16) & 0xFF) | ((argb & 0xFF) << 16);
+                }
+                target.push(row);
+            }
+            return target.finish();
+        } catch (IIOException e) {
+            ImmersivePaintingsExposure.LOGGER.debug("ImageIO cannot decode JPEG, falling back to a full decode", e);
+            return null;
+        } finally {
+            reader.dispose();
+        }
+    }
+    
+    private static int[] checkLayout(int[] layout, int srcWidth, int srcHeight) {
+        if (layout.length != 6 || layout[0] < 0 || layout[1] < 0 || layout[2] <= 0 || layout[3] <= 0
+            || layout[0] + layout[2] > srcWidth || layout[1] + layout[3] > srcHeight
+            || layout[4] <= 0 || layout[5] <= 0 || layout[4] > layout[2] || layout[5] > layout[3]) {
+            throw new IllegalArgumentException("Invalid layout " + Arrays.toString(layout) + " for " + srcWidth + "x" + srcHeight);
+        }
+        return layout;
+    }
+    
+    /**
+     * Результат декодирования: пиксели ABGR построчно
+     */
+    public static final class Decoded {
+        private final int width;
+        private final int height;
+        private final int[] pixels;
+        
+        private Decoded(int width, int height, int[] pixels) {
+            this.width = width;
+            this.height = height;
+            this.pixels = pixels;
+        }
+        
+        public int getWidth() {
+            return width;
+        }
+        
+        public int getHeight() {
+            return height;
+        }
+        
+        public int[] getPixels() {
+            return pixels;
+        }
+    }
+    
+    /**
+     * Принимает строки источника по порядку и передает в уменьшение только строки области
+     */
+    private static final class Target {
+        private final int[] layout;
+        private final ImageResampler resampler;
+        private final int[] output;
+        private int pushed;
+        
+        private Target(int[] layout) {
+            this.layout = layout;
+            this.resampler = new ImageResampler(layout[2], layout[3], layout[4], layout[5]);
+            this.output = new int[layout[4] * layout[5]];
+            resampler.begin(output);
+        }
+        
+        private boolean needs(int y) {
+            return y >= layout[1] && y < layout[1] + layout[3];
+        }
+        
+        private void push(int[] row) {
+            resampler.pushRow(row, layout[0]);
+            pushed++;
+        }
+        
+        private boolean isComplete() {
+            return pushed == layout[3];
+        }
+        
+        private Decoded finish() throws IOException {
+            if (!isComplete()) {
+                throw new EOFException("Image ended after " + pushed + " of " + layout[3] + " rows");
+            }
+            return new Decoded(layout[4], layout[5], output);
+        }
+    }
+    
+    /**
+     * Данные всех блоков IDAT подряд, как один поток
+     */
+    private static final class IdatStream extends InputStream {
+        private final DataInputStream in;
+        private int remaining;
+        private boolean finished;
+        
+        private IdatStream(DataInputStream in, int firstLength) {
+            this.in = in;
+            this.remaining = firstLength;
+        }
+        
+        @Override
+        public int read() throws IOException {
+            if (!advance()) {
+                return -1;
+            }
+            remaining--;
+            return in.readUnsignedByte();
+        }
+        
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!advance()) {
+                return -1;
+            }
+            int read = in.read(buffer, offset, Math.min(length, remaining));
+            if (read < 0) {
+                throw new EOFException("PNG image data is truncated");
+            }
+            remaining -= read;
+            return read;
+        }
+        
+        private boolean advance() throws IOException {
+            while (remaining == 0) {
+                if (finished) {
+                    return false;
+                }
+                // CRC предыдущего блока, затем заголовок следующего
+                in.readInt();
+                int length = in.readInt();
+                if (in.readInt() != IDAT || length < 0) {
+                    finished = true;
+                    return false;
+                }
+                remaining = length;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.immersivepaintings.exposure.integration;
+
+import com.immersivepaintings.exposure.exposure.ExposurePhotoManager;
+import net.minecraftforge.client.event.ClientPlayerNetworkEvent;
+import net.minecraftforge.event.level.LevelEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+
+/**
+ * Сбрасывает запомненный на сессию путь к фотографиям при смене мира
+ */
+public class ClientSessionHandler {
+    
+    @SubscribeEvent
+    public void onLevelLoad(LevelEvent.Load event) {
+        if (event.getLevel().isClientSide()) {
+            ExposurePhotoManager.getInstance().invalidateSession();
+        }
+    }
+    
+    @SubscribeEvent
+    public void onLevelUnload(LevelEvent.Unload event) {
+        if (event.getLevel().isClientSide()) {
+            ExposurePhotoManager.getInstance().invalidateSession();
+        }
+    }
+    
+    @SubscribeEvent
+    public void onLoggingOut(ClientPlayerNetworkEvent.LoggingOut event) {
+        ExposurePhotoManager.getInstance().invalidateSession();
+    }
+}
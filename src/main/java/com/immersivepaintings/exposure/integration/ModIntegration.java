@@ -2,6 +2,9 @@ package com.immersivepaintings.exposure.integration;
 
 import com.immersivepaintings.exposure.ImmersivePaintingsExposure;
 import com.immersivepaintings.exposure.gui.ExposureTabIntegration;
+import com.immersivepaintings.exposure.metrics.MetricsDebugHandler;
+import com.immersivepaintings.exposure.network.PhotoUploadClient;
+import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.eventbus.api.SubscribeEvent;
 import net.minecraftforge.fml.common.Mod;
 import net.minecraftforge.fml.event.lifecycle.FMLClientSetupEvent;
@@ -23,6 +26,9 @@ public class ModIntegration {
             event.enqueueWork(() -> {
                 ImmersivePaintingsExposure.LOGGER.info("Registering Exposure tab integration...");
                 ExposureTabIntegration.register();
+                MinecraftForge.EVENT_BUS.register(new MetricsDebugHandler());
+                MinecraftForge.EVENT_BUS.register(new ClientSessionHandler());
+                MinecraftForge.EVENT_BUS.register(PhotoUploadClient.getInstance());
             });
         }
     }
@@ -1,17 +1,36 @@
 package com.immersivepaintings.exposure.integration;
 
+import com.immersivepaintings.exposure.ExposureConfig;
 import com.immersivepaintings.exposure.ImmersivePaintingsExposure;
+import com.immersivepaintings.exposure.exposure.ContentHash;
 import com.immersivepaintings.exposure.exposure.ExposurePhoto;
+import com.immersivepaintings.exposure.exposure.ExposurePhotoManager;
+import com.immersivepaintings.exposure.exposure.FileMetadataCache;
+import com.immersivepaintings.exposure.exposure.ImageHeaderProbe;
+import com.immersivepaintings.exposure.exposure.PhotoContentIndex;
+import com.immersivepaintings.exposure.image.PaintingConverter;
+import com.immersivepaintings.exposure.image.PaintingImage;
+import com.immersivepaintings.exposure.image.PaletteQuantizer;
+import com.immersivepaintings.exposure.metrics.PipelineMetrics;
+import com.immersivepaintings.exposure.network.PhotoUploadClient;
 import net.minecraft.client.Minecraft;
 import net.minecraft.resources.ResourceLocation;
 
-import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Интеграция для применения фотографий Exposure к картинам Immersive Paintings
@@ -19,6 +38,16 @@ import java.nio.file.StandardCopyOption;
 public class PaintingIntegration {
     
     private static final PaintingIntegration INSTANCE = new PaintingIntegration();
+    private static final PipelineMetrics.Histogram APPLY_LATENCY =
+        PipelineMetrics.getInstance().histogram("apply.latency", PipelineMetrics.Unit.NANOSECONDS);
+    
+    // Найденные цели рефлексии для каждого класса экрана, включая пустой результат
+    private static final ClassValue<ReflectionTargets> REFLECTION_TARGETS = new ClassValue<>() {
+        @Override
+        protected ReflectionTargets computeValue(Class<?> type) {
+            return resolveReflectionTargets(type);
+        }
+    };
     
     public static PaintingIntegration getInstance() {
         return INSTANCE;
@@ -28,27 +57,77 @@ public class PaintingIntegration {
     }
     
     /**
-     * Применяет фотографию Exposure к картине Immersive Paintings
+     * Применяет фотографию Exposure к картине Immersive Paintings. Фотография (или кадр Exposure)
+     * конвертируется в изображение картины в пуле конвертера (со сведением к палитре из настроек, если она задана)
+     * и сохраняется в PNG ([gameDir]/immersivepaintings_exposure/paintings/[hash].png); применяется оно в клиентском потоке.
+     * Серверу передается это же изображение картины и только после успешного применения.
+     *
+     * @return результат применения, завершается в клиентском потоке
      */
-    public boolean applyPhotoToPainting(ExposurePhoto photo, Object paintingEditScreen) {
+    public CompletableFuture<Boolean> applyPhotoToPainting(ExposurePhoto photo, Object paintingEditScreen) {
         if (!ImmersivePaintingsExposure.isIntegrationEnabled()) {
             ImmersivePaintingsExposure.LOGGER.warn("Cannot apply photo - integration not enabled");
-            return false;
+            return CompletableFuture.completedFuture(false);
         }
+        Minecraft mc = Minecraft.getInstance();
+        if (mc == null || mc.gameDirectory == null) {
+            ImmersivePaintingsExposure.LOGGER.warn("Cannot apply photo - game directory is not available");
+            return CompletableFuture.completedFuture(false);
+        }
+        
+        long start = System.nanoTime();
+        Path paintingsDir = mc.gameDirectory.toPath().resolve(ImmersivePaintingsExposure.MOD_ID).resolve("paintings");
+        int[] size = PaintingConverter.fitPainting(photo.getAspectRatio(),
+            ExposureConfig.get(ExposureConfig.CLIENT.paintingMaxBlocks), ExposureConfig.get(ExposureConfig.CLIENT.paintingPixelsPerBlock));
+        int widthBlocks = size[0];
+        int heightBlocks = size[1];
+        int pixelsPerBlock = size[2];
         
+        // Палитра из настроек: без нее цвета фотографии не меняются
+        PaletteQuantizer quantizer = ExposureConfig.get(ExposureConfig.CLIENT.paintingPalette).getQuantizer();
+        ExposurePhotoManager manager = ExposurePhotoManager.getInstance();
+        CompletableFuture<PaintingImage> conversion = quantizer == null
+            ? manager.convertToPaintingTexture(photo, widthBlocks, heightBlocks, pixelsPerBlock)
+            : manager.convertToPaintingTexture(photo, widthBlocks, heightBlocks, pixelsPerBlock,
+                quantizer, ExposureConfig.get(ExposureConfig.CLIENT.paintingDither));
+        
+        return conversion
+            .thenApply(image -> storePainting(photo, image, paintingsDir))
+            .handleAsync((painting, error) -> {
+                try {
+                    if (error != null) {
+                        ImmersivePaintingsExposure.LOGGER.error("Failed to convert photo {} to a painting", photo.getName(), error);
+                        return false;
+                    }
+                    if (!applyPainting(painting, paintingEditScreen)) {
+                        return false;
+                    }
+                    // На удаленном сервере локальных файлов нет - изображение картины передается ему в фоне
+                    PhotoUploadClient.getInstance().upload(painting.getFilePath(), painting.getName());
+                    return true;
+                } finally {
+                    APPLY_LATENCY.record(System.nanoTime() - start);
+                }
+            }, mc);
+    }
+    
+    /**
+     * Применяет готовое изображение картины. Вызывается в клиентском потоке.
+     */
+    public boolean applyPainting(ExposurePhoto painting, Object paintingEditScreen) {
         try {
             // Метод 1: Попытка через рефлексию найти метод установки текстуры
-            if (applyViaReflection(photo, paintingEditScreen)) {
+            if (applyViaReflection(painting, paintingEditScreen)) {
                 return true;
             }
             
-            // Метод 2: Копирование файла фотографии в директорию Immersive Paintings
-            if (applyViaFileCopy(photo)) {
+            // Метод 2: Копирование файла картины в директорию Immersive Paintings
+            if (applyViaFileCopy(painting)) {
                 return true;
             }
             
             // Метод 3: Через сохранение выбранной фотографии в статическое поле
-            return applyViaStorage(photo, paintingEditScreen);
+            return applyViaStorage(painting, paintingEditScreen);
             
         } catch (Exception e) {
             ImmersivePaintingsExposure.LOGGER.error("Failed to apply photo to painting", e);
@@ -56,79 +135,139 @@ public class PaintingIntegration {
         }
     }
     
-    private boolean applyViaReflection(ExposurePhoto photo, Object paintingEditScreen) {
+    /**
+     * Кодирует изображение картины в PNG и сохраняет по хэшу содержимого (одинаковые картины - один файл).
+     * Хэш запоминается, поэтому ни применение, ни передача файл заново не читают. Выполняется в пуле конвертера.
+     */
+    private ExposurePhoto storePainting(ExposurePhoto photo, PaintingImage image, Path directory) {
         try {
-            Class<?> screenClass = paintingEditScreen.getClass();
+            // Через временный файл: готовый файл может быть жесткой ссылкой из user_paintings,
+            // а одну фотографию могут применять одновременно
+            Path target = PhotoContentStore.getInstance().storeBytes(image.encodePng(), directory, "png");
+            BasicFileAttributes attributes = Files.readAttributes(target, BasicFileAttributes.class);
+            long lastModified = attributes.lastModifiedTime().toMillis();
+            FileMetadataCache.getInstance().record(target, attributes);
             
+            // Имя фотографии с расширением PNG: под ним картина копируется и передается серверу
+            String fileName = photo.getName();
+            int dot = fileName.lastIndexOf('.');
+            String name = (dot > 0 ? fileName.substring(0, dot) : fileName) + ".png";
+            ImageHeaderProbe.Header header = new ImageHeaderProbe.Header(image.getWidth(), image.getHeight(), ImageHeaderProbe.ColorType.RGBA);
+            return new ExposurePhoto(name, target, photo.getTextureLocation(), header, lastModified);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    private boolean applyViaReflection(ExposurePhoto photo, Object paintingEditScreen) {
+        // Кандидаты ищутся один раз на класс экрана
+        ReflectionTargets targets = REFLECTION_TARGETS.get(paintingEditScreen.getClass());
+        if (targets.isEmpty()) {
+            return false;
+        }
+        
+        // Сначала цель, которая уже сработала для этого класса
+        ReflectionTarget working = targets.working;
+        if (working != null && invokeTarget(working, photo, paintingEditScreen)) {
+            return true;
+        }
+        
+        for (ReflectionTarget target : targets.candidates) {
+            if (target == working) {
+                continue;
+            }
+            if (invokeTarget(target, photo, paintingEditScreen)) {
+                targets.working = target;
+                ImmersivePaintingsExposure.LOGGER.info("Applied photo via {}", target.description);
+                return true;
+            }
+        }
+        
+        // Ни один кандидат не сработал. Класс не исключается: отказ может зависеть от состояния экрана
+        // (например, картина еще не выбрана), поэтому следующее применение переберет кандидатов снова
+        ImmersivePaintingsExposure.LOGGER.debug("No working reflection target in {}", paintingEditScreen.getClass().getName());
+        return false;
+    }
+    
+    private boolean invokeTarget(ReflectionTarget target, ExposurePhoto photo, Object paintingEditScreen) {
+        try {
+            Object argument = target.pathArgument
+                ? photo.getFilePath().toString()
+                : convertPhotoToTexture(photo);
+            target.handle.invokeExact(paintingEditScreen, argument);
+            return true;
+        } catch (Throwable e) {
+            ImmersivePaintingsExposure.LOGGER.debug("Could not apply photo via {}", target.description, e);
+            return false;
+        }
+    }
+    
+    /**
+     * Находит методы и поля класса экрана, через которые можно передать фотографию.
+     * Порядок тот же, что при прежнем переборе: сначала методы, затем поля.
+     */
+    private static ReflectionTargets resolveReflectionTargets(Class<?> screenClass) {
+        List<ReflectionTarget> candidates = new ArrayList<>();
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        
+        try {
             // Поиск методов для установки текстуры/изображения
-            Method[] methods = screenClass.getDeclaredMethods();
-            for (Method method : methods) {
-                String methodName = method.getName().toLowerCase();
-                if ((methodName.contains("set") && (methodName.contains("image") || methodName.contains("texture") || methodName.contains("painting"))) ||
-                    methodName.contains("apply") || methodName.contains("load")) {
-                    
-                    try {
-                        method.setAccessible(true);
-                        Class<?>[] paramTypes = method.getParameterTypes();
-                        
-                        // Попытка вызова с ResourceLocation
-                        if (paramTypes.length == 1 && paramTypes[0] == ResourceLocation.class) {
-                            ResourceLocation textureLoc = convertPhotoToTexture(photo);
-                            method.invoke(paintingEditScreen, textureLoc);
-                            ImmersivePaintingsExposure.LOGGER.info("Applied photo via method: {}", method.getName());
-                            return true;
-                        }
-                        
-                        // Попытка вызова с String (путь к файлу)
-                        if (paramTypes.length == 1 && paramTypes[0] == String.class) {
-                            String filePath = photo.getFilePath().toString();
-                            method.invoke(paintingEditScreen, filePath);
-                            ImmersivePaintingsExposure.LOGGER.info("Applied photo via method (String): {}", method.getName());
-                            return true;
-                        }
-                        
-                    } catch (Exception e) {
-                        ImmersivePaintingsExposure.LOGGER.debug("Could not invoke method {}", method.getName(), e);
+            for (Method method : screenClass.getDeclaredMethods()) {
+                String methodName = method.getName().toLowerCase(Locale.ROOT);
+                if (!((methodName.contains("set") && (methodName.contains("image") || methodName.contains("texture") || methodName.contains("painting"))) ||
+                    methodName.contains("apply") || methodName.contains("load"))) {
+                    continue;
+                }
+                
+                Class<?>[] paramTypes = method.getParameterTypes();
+                if (paramTypes.length != 1 || (paramTypes[0] != ResourceLocation.class && paramTypes[0] != String.class)) {
+                    continue;
+                }
+                
+                try {
+                    method.setAccessible(true);
+                    MethodHandle handle = lookup.unreflect(method);
+                    if (Modifier.isStatic(method.getModifiers())) {
+                        handle = MethodHandles.dropArguments(handle, 0, Object.class);
                     }
+                    candidates.add(new ReflectionTarget(handle, paramTypes[0] == String.class,
+                        "method " + method.getName()));
+                } catch (Exception e) {
+                    ImmersivePaintingsExposure.LOGGER.debug("Could not access method {}", method.getName(), e);
                 }
             }
             
             // Поиск полей для установки текстуры
-            Field[] fields = screenClass.getDeclaredFields();
-            for (Field field : fields) {
-                String fieldName = field.getName().toLowerCase();
-                if (fieldName.contains("image") || fieldName.contains("texture") || 
-                    fieldName.contains("painting") || fieldName.contains("selected")) {
-                    
-                    try {
-                        field.setAccessible(true);
-                        Class<?> fieldType = field.getType();
-                        
-                        if (fieldType == ResourceLocation.class) {
-                            ResourceLocation textureLoc = convertPhotoToTexture(photo);
-                            field.set(paintingEditScreen, textureLoc);
-                            ImmersivePaintingsExposure.LOGGER.info("Applied photo via field: {}", field.getName());
-                            return true;
-                        }
-                        
-                        if (fieldType == String.class) {
-                            String filePath = photo.getFilePath().toString();
-                            field.set(paintingEditScreen, filePath);
-                            ImmersivePaintingsExposure.LOGGER.info("Applied photo via field (String): {}", field.getName());
-                            return true;
-                        }
-                        
-                    } catch (Exception e) {
-                        ImmersivePaintingsExposure.LOGGER.debug("Could not set field {}", field.getName(), e);
+            for (Field field : screenClass.getDeclaredFields()) {
+                String fieldName = field.getName().toLowerCase(Locale.ROOT);
+                if (!(fieldName.contains("image") || fieldName.contains("texture") ||
+                    fieldName.contains("painting") || fieldName.contains("selected"))) {
+                    continue;
+                }
+                
+                Class<?> fieldType = field.getType();
+                if ((fieldType != ResourceLocation.class && fieldType != String.class) || Modifier.isFinal(field.getModifiers())) {
+                    continue;
+                }
+                
+                try {
+                    field.setAccessible(true);
+                    MethodHandle handle = lookup.unreflectSetter(field);
+                    if (Modifier.isStatic(field.getModifiers())) {
+                        handle = MethodHandles.dropArguments(handle, 0, Object.class);
                     }
+                    candidates.add(new ReflectionTarget(handle, fieldType == String.class,
+                        "field " + field.getName()));
+                } catch (Exception e) {
+                    ImmersivePaintingsExposure.LOGGER.debug("Could not access field {}", field.getName(), e);
                 }
             }
-            
-        } catch (Exception e) {
-            ImmersivePaintingsExposure.LOGGER.debug("Reflection method failed", e);
+        } catch (Exception | LinkageError e) {
+            ImmersivePaintingsExposure.LOGGER.debug("Reflection lookup failed for {}", screenClass.getName(), e);
         }
         
-        return false;
+        ImmersivePaintingsExposure.LOGGER.debug("Resolved {} reflection targets in {}", candidates.size(), screenClass.getName());
+        return new ReflectionTargets(candidates);
     }
     
     private boolean applyViaFileCopy(ExposurePhoto photo) {
@@ -144,9 +283,9 @@ public class PaintingIntegration {
                 }
             }
             
-            // Копируем фотографию в директорию Immersive Paintings
-            Path targetPath = immersivePaintingsDir.resolve(photo.getName());
-            Files.copy(photo.getFilePath(), targetPath, StandardCopyOption.REPLACE_EXISTING);
+            // Копируем фотографию в директорию Immersive Paintings (без записи, если такая копия уже есть)
+            Path targetPath = PhotoContentStore.getInstance().store(
+                photo.getFilePath(), immersivePaintingsDir, photo.getName());
             
             ImmersivePaintingsExposure.LOGGER.info("Copied Exposure photo to Immersive Paintings directory: {}", targetPath);
             return true;
@@ -174,9 +313,20 @@ public class PaintingIntegration {
     }
     
     private ResourceLocation convertPhotoToTexture(ExposurePhoto photo) {
-        // Создаем ResourceLocation для фотографии
-        // Формат: immersivepaintings_exposure:exposure_photos/[filename]
-        String texturePath = "exposure_photos/" + photo.getName().replaceAll("[^a-zA-Z0-9._-]", "_");
+        // Создаем ResourceLocation для фотографии по хэшу содержимого:
+        // одинаковые имена из разных миров не совпадают, а одинаковые фотографии делят текстуру
+        // Формат: immersivepaintings_exposure:exposure_photos/[hash]
+        // Вызывается в клиентском потоке, поэтому файл не читается: берем хэш, запомненный при сохранении картины
+        // или загрузчиком миниатюр, а если его нет - имя файла
+        String texturePath;
+        Path file = photo.getFilePath();
+        long contentHash = PhotoContentIndex.getInstance().getKnownHash(file, FileMetadataCache.getInstance().get(file));
+        if (contentHash != ContentHash.UNKNOWN) {
+            texturePath = "exposure_photos/" + ContentHash.toKey(contentHash);
+        } else {
+            ImmersivePaintingsExposure.LOGGER.debug("Photo {} is not hashed yet, using its name", file);
+            texturePath = "exposure_photos/" + photo.getName().toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9._-]", "_");
+        }
         return new ResourceLocation(
             ImmersivePaintingsExposure.MOD_ID,
             texturePath
@@ -202,6 +352,37 @@ public class PaintingIntegration {
         }
     }
     
+    /**
+     * Метод или поле, принимающее фотографию. Дескриптор приведен к виду (Object, Object)void.
+     */
+    private static class ReflectionTarget {
+        private final MethodHandle handle;
+        private final boolean pathArgument;
+        private final String description;
+        
+        private ReflectionTarget(MethodHandle handle, boolean pathArgument, String description) {
+            this.handle = handle.asType(MethodType.methodType(void.class, Object.class, Object.class));
+            this.pathArgument = pathArgument;
+            this.description = description;
+        }
+    }
+    
+    private static class ReflectionTargets {
+        private final List<ReflectionTarget> candidates;
+        private volatile ReflectionTarget working;
+        
+        private ReflectionTargets(List<ReflectionTarget> candidates) {
+            this.candidates = List.copyOf(candidates);
+        }
+        
+        /**
+         * В классе нет подходящих методов и полей - рефлексию для него можно не пробовать
+         */
+        private boolean isEmpty() {
+            return candidates.isEmpty();
+        }
+    }
+    
     /**
      * Статическое хранилище для выбранной фотографии
      */
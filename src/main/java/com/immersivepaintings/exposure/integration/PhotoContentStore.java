@@ -0,0 +1,158 @@
+package com.immersivepaintings.exposure.integration;
+
+import com.immersivepaintings.exposure.ImmersivePaintingsExposure;
+import com.immersivepaintings.exposure.exposure.ContentHash;
+import com.immersivepaintings.exposure.exposure.PhotoContentIndex;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Хранилище копий фотографий, адресуемое содержимым.
+ * Имя копии содержит хэш содержимого ({@link ContentHash}), поэтому одинаковые фотографии
+ * не копируются повторно, а разные фотографии с одинаковым именем не перезаписывают друг друга.
+ * Копия создается жесткой ссылкой, а если это невозможно - потоковым копированием через transferTo.
+ */
+public class PhotoContentStore {
+    
+    private static final PhotoContentStore INSTANCE = new PhotoContentStore();
+    
+    // Хэши уже прочитанных файлов, в том числе копий, действительны пока не изменились размер и время изменения
+    private final PhotoContentIndex contentIndex = PhotoContentIndex.getInstance();
+    
+    public static PhotoContentStore getInstance() {
+        return INSTANCE;
+    }
+    
+    private PhotoContentStore() {
+    }
+    
+    /**
+     * Помещает копию фотографии в директорию
+     *
+     * @param fileName исходное имя, к которому добавляется хэш содержимого
+     * @return путь к копии
+     */
+    public Path store(Path source, Path directory, String fileName) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(source, BasicFileAttributes.class);
+        long hash = contentIndex.computeHash(source, attributes);
+        Path target = directory.resolve(contentName(fileName, ContentHash.toKey(hash)));
+        
+        // То же содержимое уже лежит в директории - ничего не пишем.
+        // Хэш копии тоже берется из кэша, поэтому повторная проверка стоит только двух stat.
+        // Он нужен, потому что жесткая ссылка меняется вместе с исходным файлом.
+        if (Files.isRegularFile(target)) {
+            BasicFileAttributes targetAttributes = Files.readAttributes(target, BasicFileAttributes.class);
+            if (targetAttributes.size() == attributes.size() && hash == contentIndex.computeHash(target, targetAttributes)) {
+                ImmersivePaintingsExposure.LOGGER.debug("Photo content already stored: {}", target);
+                return target;
+            }
+        }
+        
+        Files.createDirectories(directory);
+        if (tryLink(source, target)) {
+            ImmersivePaintingsExposure.LOGGER.debug("Linked photo {} to {}", source, target);
+        } else {
+            copy(source, target);
+            ImmersivePaintingsExposure.LOGGER.debug("Copied photo {} to {}", source, target);
+        }
+        
+        BasicFileAttributes targetAttributes = Files.readAttributes(target, BasicFileAttributes.class);
+        contentIndex.remember(target, targetAttributes.size(), targetAttributes.lastModifiedTime().toMillis(), hash);
+        return target;
+    }
+    
+    /**
+     * Сохраняет данные под именем {@code <хэш>.<расширение>}, если такого файла еще нет.
+     * Файл пишется только через временный и атомарное переименование: на него могут указывать
+     * жесткие ссылки из {@link #store}, и читатель не должен увидеть его наполовину записанным.
+     *
+     * @return путь к файлу, его хэш запомнен в индексе содержимого
+     */
+    public Path storeBytes(byte[] data, Path directory, String extension) throws IOException {
+        long hash = ContentHash.hashBytes(data);
+        Path target = directory.resolve(ContentHash.toKey(hash) + "." + extension);
+        if (!Files.isRegularFile(target) || Files.size(target) != data.length) {
+            Files.createDirectories(directory);
+            Path temp = Files.createTempFile(directory, ".store", ".tmp");
+            try {
+                Files.write(temp, data);
+                moveIntoPlace(temp, target);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+        
+        BasicFileAttributes attributes = Files.readAttributes(target, BasicFileAttributes.class);
+        contentIndex.remember(target, attributes.size(), attributes.lastModifiedTime().toMillis(), hash);
+        return target;
+    }
+    
+    /**
+     * Имя копии: {@code <имя>_<хэш>.<расширение>}
+     */
+    static String contentName(String fileName, String hash) {
+        int dot = fileName.lastIndexOf('.');
+        if (dot <= 0) {
+            return fileName + "_" + hash;
+        }
+        return fileName.substring(0, dot) + "_" + hash + fileName.substring(dot);
+    }
+    
+    /**
+     * Жесткая ссылка вместо копии: без записи данных, если файлы на одном разделе
+     */
+    private static boolean tryLink(Path source, Path target) {
+        try {
+            Files.createLink(target, source);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            // Под этим именем лежит другое содержимое - заменяем его копией
+            return false;
+        } catch (IOException | UnsupportedOperationException | SecurityException e) {
+            ImmersivePaintingsExposure.LOGGER.debug("Cannot hard link {} to {}, falling back to copy", source, target, e);
+            return false;
+        }
+    }
+    
+    /**
+     * Копирует через transferTo во временный файл и атомарно переименовывает его,
+     * чтобы неполная копия никогда не оказалась под итоговым именем
+     */
+    private static void copy(Path source, Path target) throws IOException {
+        Path temp = Files.createTempFile(target.getParent(), ".copy", ".tmp");
+        try {
+            try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                long size = in.size();
+                long position = 0;
+                while (position < size) {
+                    long transferred = in.transferTo(position, size - position, out);
+                    if (transferred <= 0) {
+                        break;
+                    }
+                    position += transferred;
+                }
+            }
+            
+            moveIntoPlace(temp, target);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+    
+    private static void moveIntoPlace(Path temp, Path target) throws IOException {
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
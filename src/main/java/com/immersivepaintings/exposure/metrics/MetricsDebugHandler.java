@@ -0,0 +1,72 @@
+package com.immersivepaintings.exposure.metrics;
+
+import com.immersivepaintings.exposure.ExposureConfig;
+import com.immersivepaintings.exposure.ImmersivePaintingsExposure;
+import com.mojang.brigadier.Command;
+import net.minecraft.client.Minecraft;
+import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.commands.Commands;
+import net.minecraft.network.chat.Component;
+import net.minecraftforge.client.event.CustomizeGuiOverlayEvent;
+import net.minecraftforge.client.event.RegisterClientCommandsEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+/**
+ * Показывает метрики конвейера в отладочном экране F3 (если включено в настройках)
+ * и регистрирует клиентскую команду {@code /exposuremetrics dump|reset}
+ */
+public class MetricsDebugHandler {
+    
+    private static final DateTimeFormatter FILE_TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+    
+    @SubscribeEvent
+    public void onDebugText(CustomizeGuiOverlayEvent.DebugText event) {
+        Minecraft minecraft = Minecraft.getInstance();
+        if (!minecraft.options.renderDebug || !ExposureConfig.get(ExposureConfig.CLIENT.showDebugMetrics)) {
+            return;
+        }
+        
+        List<String> right = event.getRight();
+        right.add("");
+        right.add("[Exposure pipeline]");
+        right.addAll(PipelineMetrics.getInstance().summaryLines());
+    }
+    
+    @SubscribeEvent
+    public void onRegisterClientCommands(RegisterClientCommandsEvent event) {
+        event.getDispatcher().register(Commands.literal("exposuremetrics")
+            .then(Commands.literal("dump").executes(context -> dump(context.getSource())))
+            .then(Commands.literal("reset").executes(context -> {
+                PipelineMetrics.getInstance().reset();
+                context.getSource().sendSuccess(() -> Component.translatable("commands.immersivepaintings_exposure.metrics.reset"), false);
+                return Command.SINGLE_SUCCESS;
+            })));
+    }
+    
+    private static int dump(CommandSourceStack source) {
+        Path file = Minecraft.getInstance().gameDirectory.toPath().resolve("logs")
+            .resolve(ImmersivePaintingsExposure.MOD_ID + "-metrics-" + LocalDateTime.now().format(FILE_TIMESTAMP) + ".txt");
+        try {
+            Files.createDirectories(file.getParent());
+            try (Writer writer = Files.newBufferedWriter(file)) {
+                PipelineMetrics.getInstance().dump(writer);
+            }
+        } catch (IOException e) {
+            ImmersivePaintingsExposure.LOGGER.error("Failed to write pipeline metrics to {}", file, e);
+            source.sendFailure(Component.translatable("commands.immersivepaintings_exposure.metrics.dump.failed", e.getMessage()));
+            return 0;
+        }
+        
+        ImmersivePaintingsExposure.LOGGER.info("Pipeline metrics written to {}", file);
+        source.sendSuccess(() -> Component.translatable("commands.immersivepaintings_exposure.metrics.dump", file.getFileName().toString()), false);
+        return Command.SINGLE_SUCCESS;
+    }
+}
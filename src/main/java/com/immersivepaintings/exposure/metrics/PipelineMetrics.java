@@ -0,0 +1,279 @@
+package com.immersivepaintings.exposure.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Реестр метрик конвейера фотографий: счетчики, показатели и гистограммы задержек.
+ * Метрики регистрируются по имени один раз (обычно в статическом поле) и обновляются
+ * из любых потоков без блокировок. Показываются в отладочном экране F3 и выгружаются командой.
+ */
+public class PipelineMetrics {
+    
+    private static final PipelineMetrics INSTANCE = new PipelineMetrics();
+    
+    // Имена вида "группа.метрика" - сортировка держит группы вместе
+    private final Map<String, Metric> metrics = new ConcurrentSkipListMap<>();
+    
+    public static PipelineMetrics getInstance() {
+        return INSTANCE;
+    }
+    
+    private PipelineMetrics() {
+    }
+    
+    public Counter counter(String name, Unit unit) {
+        return register(name, new Counter(name, unit), Counter.class);
+    }
+    
+    public Histogram histogram(String name, Unit unit) {
+        return register(name, new Histogram(name, unit), Histogram.class);
+    }
+    
+    /**
+     * Показатель, значение которого читается при отображении (например, объем кэша)
+     */
+    public void gauge(String name, Unit unit, LongSupplier supplier) {
+        metrics.put(name, new Gauge(name, unit, supplier));
+    }
+    
+    private <T extends Metric> T register(String name, T metric, Class<T> type) {
+        Metric existing = metrics.putIfAbsent(name, metric);
+        if (existing == null) {
+            return metric;
+        }
+        if (!type.isInstance(existing)) {
+            throw new IllegalStateException("Metric " + name + " is already registered as " + existing.getClass().getSimpleName());
+        }
+        return type.cast(existing);
+    }
+    
+    /**
+     * Короткие строки для отладочного экрана, по одной на метрику
+     */
+    public List<String> summaryLines() {
+        List<String> lines = new ArrayList<>(metrics.size());
+        for (Metric metric : metrics.values()) {
+            lines.add(metric.getName() + ": " + metric.summary());
+        }
+        return lines;
+    }
+    
+    /**
+     * Подробная выгрузка: сводка и распределение гистограмм по корзинам
+     */
+    public void dump(Writer writer) throws IOException {
+        for (Metric metric : metrics.values()) {
+            writer.write(metric.getName() + ": " + metric.summary() + System.lineSeparator());
+            metric.dumpDetails(writer);
+        }
+    }
+    
+    /**
+     * Обнуляет счетчики и гистограммы. Показатели отражают текущее состояние и не сбрасываются.
+     */
+    public void reset() {
+        for (Metric metric : metrics.values()) {
+            metric.reset();
+        }
+    }
+    
+    public enum Unit {
+        COUNT,
+        BYTES,
+        NANOSECONDS;
+        
+        public String format(long value) {
+            switch (this) {
+                case BYTES:
+                    if (value >= 1024L * 1024L) {
+                        return String.format(Locale.ROOT, "%.1f MB", value / (1024.0 * 1024.0));
+                    }
+                    return value >= 1024L ? String.format(Locale.ROOT, "%.1f KB", value / 1024.0) : value + " B";
+                case NANOSECONDS:
+                    if (value >= 1_000_000L) {
+                        return String.format(Locale.ROOT, "%.1f ms", value / 1_000_000.0);
+                    }
+                    return String.format(Locale.ROOT, "%d us", value / 1_000L);
+                default:
+                    return Long.toString(value);
+            }
+        }
+    }
+    
+    public abstract static class Metric {
+        private final String name;
+        protected final Unit unit;
+        
+        private Metric(String name, Unit unit) {
+            this.name = name;
+            this.unit = unit;
+        }
+        
+        public String getName() {
+            return name;
+        }
+        
+        abstract String summary();
+        
+        void dumpDetails(Writer writer) throws IOException {
+        }
+        
+        void reset() {
+        }
+    }
+    
+    public static final class Counter extends Metric {
+        private final LongAdder value = new LongAdder();
+        
+        private Counter(String name, Unit unit) {
+            super(name, unit);
+        }
+        
+        public void add(long amount) {
+            value.add(amount);
+        }
+        
+        public void increment() {
+            value.increment();
+        }
+        
+        public long get() {
+            return value.sum();
+        }
+        
+        @Override
+        String summary() {
+            return unit.format(value.sum());
+        }
+        
+        @Override
+        void reset() {
+            value.reset();
+        }
+    }
+    
+    private static final class Gauge extends Metric {
+        private final LongSupplier supplier;
+        
+        private Gauge(String name, Unit unit, LongSupplier supplier) {
+            super(name, unit);
+            this.supplier = supplier;
+        }
+        
+        @Override
+        String summary() {
+            return unit.format(supplier.getAsLong());
+        }
+    }
+    
+    /**
+     * Гистограмма с корзинами по степеням двойки: корзина {@code i} содержит значения
+     * от 2^(i-1) до 2^i - 1. Перцентили получаются с точностью до корзины, чего достаточно,
+     * чтобы отличить 2 мс от 20 мс.
+     */
+    public static final class Histogram extends Metric {
+        private static final int BUCKETS = 64;
+        
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+        private final AtomicLong last = new AtomicLong();
+        
+        private Histogram(String name, Unit unit) {
+            super(name, unit);
+        }
+        
+        public void record(long value) {
+            long clamped = Math.max(0L, value);
+            buckets.incrementAndGet(bucketOf(clamped));
+            count.increment();
+            sum.add(clamped);
+            last.set(clamped);
+            max.accumulateAndGet(clamped, Math::max);
+        }
+        
+        private static int bucketOf(long value) {
+            return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+        }
+        
+        private static long upperBound(int bucket) {
+            return bucket >= 63 ? Long.MAX_VALUE : (1L << bucket) - 1L;
+        }
+        
+        public long getCount() {
+            return count.sum();
+        }
+        
+        public long getMax() {
+            return max.get();
+        }
+        
+        /**
+         * Верхняя граница корзины, в которую попадает перцентиль, но не больше максимума
+         *
+         * @param fraction доля от 0 до 1, например 0.95
+         */
+        public long percentile(double fraction) {
+            long total = count.sum();
+            if (total == 0L) {
+                return 0L;
+            }
+            long rank = Math.max(1L, (long) Math.ceil(total * fraction));
+            long seen = 0L;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), max.get());
+                }
+            }
+            return max.get();
+        }
+        
+        @Override
+        String summary() {
+            long total = count.sum();
+            if (total == 0L) {
+                return "-";
+            }
+            return String.format(Locale.ROOT, "n=%d last=%s p50=%s p95=%s max=%s", total, unit.format(last.get()),
+                unit.format(percentile(0.50)), unit.format(percentile(0.95)), unit.format(max.get()));
+        }
+        
+        @Override
+        void dumpDetails(Writer writer) throws IOException {
+            long total = count.sum();
+            if (total == 0L) {
+                return;
+            }
+            writer.write(String.format(Locale.ROOT, "    mean=%s%n", unit.format(sum.sum() / total)));
+            for (int i = 0; i < BUCKETS; i++) {
+                long inBucket = buckets.get(i);
+                if (inBucket > 0L) {
+                    writer.write(String.format(Locale.ROOT, "    <= %s: %d%n", unit.format(upperBound(i)), inBucket));
+                }
+            }
+        }
+        
+        @Override
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets.set(i, 0L);
+            }
+            count.reset();
+            sum.reset();
+            max.set(0L);
+            last.set(0L);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.immersivepaintings.exposure.network;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Сжатие частей передачи. Deflater и Inflater переиспользуются в пределах потока.
+ */
+public final class ChunkCodec {
+    
+    /** Несжатый размер части */
+    public static final int CHUNK_SIZE = 16 * 1024;
+    /**
+     * Предел данных в одном сообщении. Пакет клиента к серверу ограничен 32767 байтами,
+     * а несжимаемая часть передается как есть, поэтому запас над CHUNK_SIZE небольшой.
+     */
+    public static final int MAX_PAYLOAD = CHUNK_SIZE + 1024;
+    
+    // PNG и JPEG уже сжаты: быстрый уровень дает почти тот же размер за меньшее время
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+    private static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[MAX_PAYLOAD]);
+    
+    private ChunkCodec() {
+    }
+    
+    /**
+     * Сжимает часть. Если сжатые данные не меньше исходных, возвращает копию исходных
+     * с признаком {@code compressed = false}.
+     */
+    public static UploadChunkMessage encode(long contentHash, int offset, byte[] raw, int length) {
+        Deflater deflater = DEFLATER.get();
+        byte[] buffer = BUFFER.get();
+        deflater.reset();
+        deflater.setInput(raw, 0, length);
+        deflater.finish();
+        int compressedLength = 0;
+        while (!deflater.finished() && compressedLength < length) {
+            compressedLength += deflater.deflate(buffer, compressedLength, buffer.length - compressedLength);
+        }
+        
+        if (deflater.finished() && compressedLength < length) {
+            return new UploadChunkMessage(contentHash, offset, length, true, Arrays.copyOf(buffer, compressedLength));
+        }
+        return new UploadChunkMessage(contentHash, offset, length, false, Arrays.copyOf(raw, length));
+    }
+    
+    /**
+     * Распаковывает часть в {@code target}. Распаковка не выходит за заявленный размер,
+     * поэтому сильно сжимаемые данные не могут занять больше памяти, чем одна часть.
+     *
+     * @return false, если данные повреждены или не совпадают с заявленным размером
+     */
+    public static boolean decode(UploadChunkMessage chunk, byte[] target) {
+        int rawLength = chunk.getRawLength();
+        if (rawLength <= 0 || rawLength > CHUNK_SIZE || rawLength > target.length) {
+            return false;
+        }
+        byte[] data = chunk.getData();
+        if (!chunk.isCompressed()) {
+            if (data.length != rawLength) {
+                return false;
+            }
+            System.arraycopy(data, 0, target, 0, rawLength);
+            return true;
+        }
+        
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(data);
+        try {
+            int length = 0;
+            while (length < rawLength && !inflater.finished()) {
+                int read = inflater.inflate(target, length, rawLength - length);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    return false;
+                }
+                length += read;
+            }
+            return length == rawLength && inflater.finished() && inflater.getRemaining() == 0;
+        } catch (DataFormatException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.immersivepaintings.exposure.network;
+
+import com.immersivepaintings.exposure.ExposureConfig;
+import com.immersivepaintings.exposure.ImmersivePaintingsExposure;
+import net.minecraft.network.Connection;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.level.storage.LevelResource;
+import net.minecraftforge.common.MinecraftForge;
+import net.minecraftforge.event.entity.player.PlayerEvent;
+import net.minecraftforge.event.server.ServerStartedEvent;
+import net.minecraftforge.event.server.ServerStoppedEvent;
+import net.minecraftforge.network.NetworkDirection;
+import net.minecraftforge.network.NetworkEvent;
+import net.minecraftforge.network.NetworkRegistry;
+import net.minecraftforge.network.PacketDistributor;
+import net.minecraftforge.network.simple.SimpleChannel;
+
+import java.nio.file.Path;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Канал передачи изображений картин на сервер.
+ * <p>
+ * Канал необязателен с обеих сторон: клиент без мода может зайти на сервер с модом и наоборот,
+ * а передача включается только если канал есть у сервера.
+ * Сообщения клиента разбираются в сетевом потоке и сразу уходят в поток приемника,
+ * минуя поток сервера; ответы клиенту обрабатываются в клиентском потоке.
+ */
+public final class ExposureNetwork {
+    
+    private static final String PROTOCOL_VERSION = "1";
+    
+    public static final SimpleChannel CHANNEL = NetworkRegistry.newSimpleChannel(
+        new ResourceLocation(ImmersivePaintingsExposure.MOD_ID, "uploads"),
+        () -> PROTOCOL_VERSION,
+        NetworkRegistry.acceptMissingOr(PROTOCOL_VERSION),
+        NetworkRegistry.acceptMissingOr(PROTOCOL_VERSION)
+    );
+    
+    private static volatile UploadReceiver receiver;
+    
+    private ExposureNetwork() {
+        // Утилитный класс
+    }
+    
+    /**
+     * Регистрирует сообщения и серверные события. Вызывается при создании мода.
+     */
+    public static void register() {
+        int id = 0;
+        CHANNEL.messageBuilder(UploadStartMessage.class, id++, NetworkDirection.PLAY_TO_SERVER)
+            .encoder(UploadStartMessage::encode)
+            .decoder(UploadStartMessage::decode)
+            .consumerNetworkThread(ExposureNetwork::handleStart)
+            .add();
+        CHANNEL.messageBuilder(UploadChunkMessage.class, id++, NetworkDirection.PLAY_TO_SERVER)
+            .encoder(UploadChunkMessage::encode)
+            .decoder(UploadChunkMessage::decode)
+            .consumerNetworkThread(ExposureNetwork::handleChunk)
+            .add();
+        CHANNEL.messageBuilder(UploadStatusMessage.class, id++, NetworkDirection.PLAY_TO_CLIENT)
+            .encoder(UploadStatusMessage::encode)
+            .decoder(UploadStatusMessage::decode)
+            .consumerMainThread((message, context) -> PhotoUploadClient.getInstance().onStatus(message))
+            .add();
+        
+        MinecraftForge.EVENT_BUS.addListener(ExposureNetwork::onServerStarted);
+        MinecraftForge.EVENT_BUS.addListener(ExposureNetwork::onServerStopped);
+        MinecraftForge.EVENT_BUS.addListener(ExposureNetwork::onPlayerLoggedOut);
+    }
+    
+    /**
+     * Есть ли канал у другой стороны соединения
+     */
+    public static boolean isRemotePresent(Connection connection) {
+        return CHANNEL.isRemotePresent(connection);
+    }
+    
+    /**
+     * Директория принятых изображений: [мир]/immersivepaintings_exposure/uploads
+     */
+    public static Path getUploadDirectory(MinecraftServer server) {
+        return server.getWorldPath(LevelResource.ROOT).resolve(ImmersivePaintingsExposure.MOD_ID).resolve("uploads");
+    }
+    
+    private static void onServerStarted(ServerStartedEvent event) {
+        UploadReceiver.Limits limits = new UploadReceiver.Limits(
+            ExposureConfig.getServer(ExposureConfig.SERVER.maxUploadKilobytes) * 1024,
+            ExposureConfig.getServer(ExposureConfig.SERVER.uploadKilobytesPerSecond) * 1024L,
+            ExposureConfig.getServer(ExposureConfig.SERVER.maxUploadsPerPlayer),
+            ExposureConfig.getServer(ExposureConfig.SERVER.playerUploadQuotaMegabytes) * 1024L * 1024L,
+            ExposureConfig.getServer(ExposureConfig.SERVER.totalUploadQuotaMegabytes) * 1024L * 1024L);
+        receiver = UploadReceiver.create(getUploadDirectory(event.getServer()), limits);
+    }
+    
+    private static void onServerStopped(ServerStoppedEvent event) {
+        UploadReceiver current = receiver;
+        receiver = null;
+        if (current != null) {
+            current.close();
+        }
+    }
+    
+    private static void onPlayerLoggedOut(PlayerEvent.PlayerLoggedOutEvent event) {
+        UploadReceiver current = receiver;
+        if (current != null) {
+            current.playerLeft(event.getEntity().getUUID());
+        }
+    }
+    
+    private static void handleStart(UploadStartMessage message, Supplier<NetworkEvent.Context> context) {
+        ServerPlayer player = context.get().getSender();
+        UploadReceiver current = receiver;
+        if (player != null && current != null) {
+            current.submitStart(player.getUUID(), message, replyTo(player));
+        }
+        context.get().setPacketHandled(true);
+    }
+    
+    private static void handleChunk(UploadChunkMessage message, Supplier<NetworkEvent.Context> context) {
+        ServerPlayer player = context.get().getSender();
+        UploadReceiver current = receiver;
+        if (player != null && current != null) {
+            current.submitChunk(player.getUUID(), message, replyTo(player));
+        }
+        context.get().setPacketHandled(true);
+    }
+    
+    /**
+     * Ответ игроку из потока приемника: отправка пакета потокобезопасна
+     */
+    private static Consumer<UploadStatusMessage> replyTo(ServerPlayer player) {
+        return status -> CHANNEL.send(PacketDistributor.PLAYER.with(() -> player), status);
+    }
+}
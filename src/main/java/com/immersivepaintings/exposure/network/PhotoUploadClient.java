@@ -0,0 +1,167 @@
+package com.immersivepaintings.exposure.network;
+
+import com.immersivepaintings.exposure.ExposureConfig;
+import com.immersivepaintings.exposure.ImmersivePaintingsExposure;
+import com.immersivepaintings.exposure.exposure.PhotoContentIndex;
+import com.immersivepaintings.exposure.metrics.PipelineMetrics;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.multiplayer.ClientPacketListener;
+import net.minecraftforge.client.event.ClientPlayerNetworkEvent;
+import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Очередь передачи изображений картин на сервер. Файлы передаются по одному;
+ * хэширование, чтение и сжатие идут в фоновом потоке, а тик клиента только отправляет готовые части
+ * в пределах бюджета из настроек.
+ */
+public class PhotoUploadClient {
+    
+    private static final PhotoUploadClient INSTANCE = new PhotoUploadClient();
+    private static final PipelineMetrics.Histogram TICK_TIME =
+        PipelineMetrics.getInstance().histogram("upload.tick", PipelineMetrics.Unit.NANOSECONDS);
+    private static final PipelineMetrics.Counter BYTES_SENT =
+        PipelineMetrics.getInstance().counter("upload.bytes_sent", PipelineMetrics.Unit.BYTES);
+    
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ImmersivePaintingsExposure-Upload");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Доступны только из клиентского потока
+    private final ArrayDeque<UploadSender> queue = new ArrayDeque<>();
+    private UploadSender active;
+    
+    private final UploadSender.Transport transport = new UploadSender.Transport() {
+        @Override
+        public void send(UploadStartMessage message) {
+            ExposureNetwork.CHANNEL.sendToServer(message);
+        }
+        
+        @Override
+        public void send(UploadChunkMessage message) {
+            ExposureNetwork.CHANNEL.sendToServer(message);
+        }
+    };
+    
+    public static PhotoUploadClient getInstance() {
+        return INSTANCE;
+    }
+    
+    private PhotoUploadClient() {
+    }
+    
+    /**
+     * Можно ли передавать: подключены к удаленному серверу, на котором есть канал мода.
+     * В одиночной игре сервер читает те же файлы, передача не нужна.
+     */
+    public boolean isServerReady() {
+        Minecraft mc = Minecraft.getInstance();
+        if (mc == null || mc.getSingleplayerServer() != null) {
+            return false;
+        }
+        ClientPacketListener connection = mc.getConnection();
+        return connection != null && ExposureNetwork.isRemotePresent(connection.getConnection());
+    }
+    
+    /**
+     * Ставит файл в очередь передачи. Вызывается в клиентском потоке.
+     *
+     * @return false, если сервер не принимает изображения
+     */
+    public boolean upload(Path file, String fileName) {
+        if (!isServerReady()) {
+            return false;
+        }
+        
+        Minecraft mc = Minecraft.getInstance();
+        executor.execute(() -> {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                if (attributes.size() <= 0 || attributes.size() > Integer.MAX_VALUE) {
+                    ImmersivePaintingsExposure.LOGGER.warn("Cannot upload {}: unsupported size {}", file, attributes.size());
+                    return;
+                }
+                long hash = PhotoContentIndex.getInstance().computeHash(file, attributes);
+                UploadSender sender = new UploadSender(file, hash, (int) attributes.size(), fileName, executor);
+                mc.execute(() -> enqueue(sender));
+            } catch (IOException e) {
+                ImmersivePaintingsExposure.LOGGER.error("Failed to prepare upload of {}", file, e);
+            }
+        });
+        return true;
+    }
+    
+    public void onStatus(UploadStatusMessage status) {
+        UploadSender sender = active;
+        if (sender == null || sender.getContentHash() != status.getContentHash()) {
+            return;
+        }
+        sender.onStatus(status);
+        if (sender.isDone()) {
+            finish(sender);
+        }
+    }
+    
+    @SubscribeEvent
+    public void onClientTick(TickEvent.ClientTickEvent event) {
+        if (event.phase != TickEvent.Phase.END || (active == null && queue.isEmpty())) {
+            return;
+        }
+        
+        long start = System.nanoTime();
+        if (active == null) {
+            active = queue.poll();
+        }
+        UploadSender sender = active;
+        long sentBefore = sender.getBytesSent();
+        sender.tick(transport, ExposureConfig.get(ExposureConfig.CLIENT.uploadKilobytesPerTick) * 1024);
+        BYTES_SENT.add(sender.getBytesSent() - sentBefore);
+        if (sender.isDone()) {
+            finish(sender);
+        }
+        TICK_TIME.record(System.nanoTime() - start);
+    }
+    
+    @SubscribeEvent
+    public void onLoggingOut(ClientPlayerNetworkEvent.LoggingOut event) {
+        // Незавершенная передача продолжится с места остановки при следующей передаче этого файла
+        if (active != null) {
+            active.cancel();
+            active = null;
+        }
+        queue.forEach(UploadSender::cancel);
+        queue.clear();
+    }
+    
+    private void enqueue(UploadSender sender) {
+        if (!isServerReady()) {
+            return;
+        }
+        if ((active != null && active.getContentHash() == sender.getContentHash())
+            || queue.stream().anyMatch(queued -> queued.getContentHash() == sender.getContentHash())) {
+            return;
+        }
+        queue.add(sender);
+    }
+    
+    private void finish(UploadSender sender) {
+        if (sender.getState() == UploadSender.State.COMPLETE) {
+            ImmersivePaintingsExposure.LOGGER.info("Uploaded {} to the server ({} bytes, {} sent)",
+                sender.getFileName(), sender.getSize(), sender.getBytesSent());
+        } else {
+            ImmersivePaintingsExposure.LOGGER.warn("Upload of {} to the server failed", sender.getFileName());
+        }
+        if (active == sender) {
+            active = null;
+        }
+    }
+}
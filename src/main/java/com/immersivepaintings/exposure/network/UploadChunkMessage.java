@@ -0,0 +1,69 @@
+package com.immersivepaintings.exposure.network;
+
+import net.minecraft.network.FriendlyByteBuf;
+
+/**
+ * Клиент -> сервер: часть файла начиная с {@code offset}.
+ * Каждая часть сжимается отдельно, поэтому любую из них можно отправить повторно;
+ * если сжатие не уменьшает размер, данные передаются как есть.
+ */
+public final class UploadChunkMessage {
+    
+    private final long contentHash;
+    private final int offset;
+    private final int rawLength;
+    private final boolean compressed;
+    private final byte[] data;
+    
+    public UploadChunkMessage(long contentHash, int offset, int rawLength, boolean compressed, byte[] data) {
+        this.contentHash = contentHash;
+        this.offset = offset;
+        this.rawLength = rawLength;
+        this.compressed = compressed;
+        this.data = data;
+    }
+    
+    public static UploadChunkMessage decode(FriendlyByteBuf buffer) {
+        long contentHash = buffer.readLong();
+        int offset = buffer.readVarInt();
+        int rawLength = buffer.readVarInt();
+        boolean compressed = buffer.readBoolean();
+        byte[] data = buffer.readByteArray(ChunkCodec.MAX_PAYLOAD);
+        return new UploadChunkMessage(contentHash, offset, rawLength, compressed, data);
+    }
+    
+    public void encode(FriendlyByteBuf buffer) {
+        buffer.writeLong(contentHash);
+        buffer.writeVarInt(offset);
+        buffer.writeVarInt(rawLength);
+        buffer.writeBoolean(compressed);
+        buffer.writeByteArray(data);
+    }
+    
+    public long getContentHash() {
+        return contentHash;
+    }
+    
+    public int getOffset() {
+        return offset;
+    }
+    
+    public int getRawLength() {
+        return rawLength;
+    }
+    
+    public boolean isCompressed() {
+        return compressed;
+    }
+    
+    public byte[] getData() {
+        return data;
+    }
+    
+    /**
+     * Размер данных на проводе - по нему считаются бюджеты и ограничение скорости
+     */
+    public int getWireSize() {
+        return data.length;
+    }
+}
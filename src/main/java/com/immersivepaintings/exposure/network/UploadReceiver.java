@@ -0,0 +1,626 @@
+package com.immersivepaintings.exposure.network;
+
+import com.immersivepaintings.exposure.ImmersivePaintingsExposure;
+import com.immersivepaintings.exposure.exposure.ContentHash;
+import com.immersivepaintings.exposure.metrics.PipelineMetrics;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Серверная сборка переданных изображений.
+ * <p>
+ * Части пишутся по порядку в {@code <hash>-<player>.part}; часть с другим смещением не записывается,
+ * а клиент получает фактическое смещение и продолжает с него. Незавершенный файл остается на диске,
+ * поэтому передача продолжается и после переподключения.
+ * <p>
+ * Заявленный клиентом XXH64 - только ключ передачи и проверка ее целостности: коллизию XXH64 можно подобрать,
+ * поэтому готовый файл называется по SHA-256, который сервер считает сам по мере записи частей
+ * (при продолжении - сначала по уже записанной части файла): {@code <sha256>.<ext>}. Уже существующий готовый
+ * файл никогда не заменяется. Передача пропускается без пересылки, только если этот же игрок уже передал
+ * файл с тем же XXH64 - чужая передача с подобранным хэшем на его файлы не влияет.
+ * <p>
+ * Объем на диске ограничен для каждого игрока (готовые файлы, которые он передал первым, и его незавершенные)
+ * и для всей директории. Объем игроков хранится в {@value #USAGE_FILE}, общий считается при запуске.
+ * <p>
+ * Вся работа с файлами идет в отдельном потоке, а не в потоке сервера, поэтому запись
+ * не влияет на время тика. Очередь этого потока ограничена: сообщения сверх нее отбрасываются,
+ * клиент не получает ответа и по тайм-ауту продолжает передачу с подтвержденного смещения.
+ * Состояние передач доступно только из этого потока.
+ */
+public class UploadReceiver implements AutoCloseable {
+    
+    private static final String PART_SUFFIX = ".part";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String USAGE_FILE = "player-usage.dat";
+    private static final int USAGE_VERSION = 1;
+    // Сообщений в очереди потока приемника: около 4 МБ частей
+    private static final int QUEUE_CAPACITY = 256;
+    // Передач, пропускаемых без пересылки, на игрока
+    private static final int MAX_VERIFIED_PER_PLAYER = 1024;
+    // Незавершенные передачи без активности закрываются (файл остается для продолжения)
+    private static final long IDLE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(60);
+    // Брошенные незавершенные файлы удаляются при запуске
+    private static final long STALE_PART_MILLIS = TimeUnit.DAYS.toMillis(1);
+    
+    private static final PipelineMetrics.Counter BYTES_RECEIVED =
+        PipelineMetrics.getInstance().counter("upload.bytes_received", PipelineMetrics.Unit.BYTES);
+    private static final PipelineMetrics.Counter UPLOADS_COMPLETED =
+        PipelineMetrics.getInstance().counter("upload.completed", PipelineMetrics.Unit.COUNT);
+    private static final PipelineMetrics.Counter CHUNKS_THROTTLED =
+        PipelineMetrics.getInstance().counter("upload.throttled", PipelineMetrics.Unit.COUNT);
+    private static final PipelineMetrics.Counter MESSAGES_DROPPED =
+        PipelineMetrics.getInstance().counter("upload.dropped", PipelineMetrics.Unit.COUNT);
+    private static final PipelineMetrics.Histogram CHUNK_WRITE =
+        PipelineMetrics.getInstance().histogram("upload.chunk_write", PipelineMetrics.Unit.NANOSECONDS);
+    
+    private final Path directory;
+    private final Limits limits;
+    private final Executor executor;
+    private final ExecutorService ownedExecutor;
+    private final LongSupplier clock;
+    private final Map<UUID, PlayerUploads> players = new HashMap<>();
+    // Проверенные передачи игрока: XXH64 -> готовый файл
+    private final Map<UUID, Map<Long, Path>> verified = new HashMap<>();
+    // Готовые файлы, которые игрок передал первым (сохраняются), и его незавершенные файлы
+    private final Map<UUID, Long> storedBytes = new HashMap<>();
+    private final Map<UUID, Long> partBytes = new HashMap<>();
+    private long totalBytes;
+    private final byte[] chunkBuffer = new byte[ChunkCodec.CHUNK_SIZE];
+    
+    /**
+     * Приемник с собственным потоком и системными часами
+     */
+    public static UploadReceiver create(Path directory, Limits limits) {
+        // Без ограничения очереди части от быстрых клиентов копились бы в памяти до всякого ограничения скорости
+        ExecutorService executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(QUEUE_CAPACITY), runnable -> {
+                Thread thread = new Thread(runnable, "ImmersivePaintingsExposure-Uploads");
+                thread.setDaemon(true);
+                return thread;
+            });
+        return new UploadReceiver(directory, limits, executor, System::nanoTime, executor);
+    }
+    
+    /**
+     * Первой задачей исполнителя директория просматривается: брошенные незавершенные файлы удаляются,
+     * считается занятый объем.
+     *
+     * @param executor однопоточный исполнитель (или прямой вызов), в котором обрабатываются сообщения;
+     *                 может отклонять задачи при переполнении
+     * @param clock    источник времени в наносекундах для ограничения скорости и тайм-аутов
+     */
+    public UploadReceiver(Path directory, Limits limits, Executor executor, LongSupplier clock) {
+        this(directory, limits, executor, clock, null);
+    }
+    
+    private UploadReceiver(Path directory, Limits limits, Executor executor, LongSupplier clock, ExecutorService ownedExecutor) {
+        this.directory = directory;
+        this.limits = limits;
+        this.executor = executor;
+        this.clock = clock;
+        this.ownedExecutor = ownedExecutor;
+        submit(this::scanDirectory);
+    }
+    
+    public Path getDirectory() {
+        return directory;
+    }
+    
+    public void submitStart(UUID player, UploadStartMessage message, Consumer<UploadStatusMessage> reply) {
+        submit(() -> handleStart(player, message, reply));
+    }
+    
+    public void submitChunk(UUID player, UploadChunkMessage message, Consumer<UploadStatusMessage> reply) {
+        submit(() -> handleChunk(player, message, reply));
+    }
+    
+    /**
+     * Закрывает передачи игрока. Незавершенные файлы остаются для продолжения.
+     * Если очередь переполнена, передачи закроются по тайм-ауту.
+     */
+    public void playerLeft(UUID player) {
+        submit(() -> {
+            verified.remove(player);
+            PlayerUploads uploads = players.remove(player);
+            if (uploads != null) {
+                uploads.sessions.values().forEach(Session::close);
+            }
+        });
+    }
+    
+    @Override
+    public void close() {
+        submit(() -> {
+            players.values().forEach(uploads -> uploads.sessions.values().forEach(Session::close));
+            players.clear();
+        });
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+        }
+    }
+    
+    private void submit(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // Очередь переполнена или приемник закрыт
+            MESSAGES_DROPPED.increment();
+        }
+    }
+    
+    private void handleStart(UUID player, UploadStartMessage message, Consumer<UploadStatusMessage> reply) {
+        long hash = message.getContentHash();
+        int size = message.getSize();
+        if (size <= 0 || size > limits.maxFileBytes) {
+            ImmersivePaintingsExposure.LOGGER.warn("Rejected upload {} from {}: {} bytes, limit {}",
+                ContentHash.toKey(hash), player, size, limits.maxFileBytes);
+            reply.accept(new UploadStatusMessage(hash, UploadStatusMessage.State.REJECTED, 0));
+            return;
+        }
+        
+        long now = clock.getAsLong();
+        expireIdle(now);
+        
+        try {
+            Path known = verified.getOrDefault(player, Map.of()).get(hash);
+            if (known != null && Files.isRegularFile(known) && Files.size(known) == size) {
+                reply.accept(new UploadStatusMessage(hash, UploadStatusMessage.State.COMPLETE, size));
+                return;
+            }
+            
+            PlayerUploads uploads = players.computeIfAbsent(player, id -> new PlayerUploads(limits, now));
+            Session session = uploads.sessions.get(hash);
+            if (session == null) {
+                if (uploads.sessions.size() >= limits.maxTransfers) {
+                    reply.accept(new UploadStatusMessage(hash, UploadStatusMessage.State.REJECTED, 0));
+                    return;
+                }
+                Path part = directory.resolve(ContentHash.toKey(hash) + "-" + player + PART_SUFFIX);
+                long existing = Files.isRegularFile(part) ? Files.size(part) : 0L;
+                // Уже записанная часть учтена в объеме, более длинная будет обрезана
+                long needed = existing <= size ? size - existing : size;
+                if (!fitsQuota(player, needed)) {
+                    ImmersivePaintingsExposure.LOGGER.warn("Rejected upload {} from {}: {} bytes do not fit the upload quota",
+                        ContentHash.toKey(hash), player, size);
+                    reply.accept(new UploadStatusMessage(hash, UploadStatusMessage.State.REJECTED, 0));
+                    return;
+                }
+                Files.createDirectories(directory);
+                session = new Session(player, hash, size, part, extensionOf(message.getFileName()));
+                addPartBytes(player, session.received - existing);
+                uploads.sessions.put(hash, session);
+            }
+            session.lastActivity = now;
+            reply.accept(new UploadStatusMessage(hash, UploadStatusMessage.State.ACCEPTED, session.received));
+        } catch (IOException e) {
+            ImmersivePaintingsExposure.LOGGER.error("Failed to start upload {} from {}", ContentHash.toKey(hash), player, e);
+            reply.accept(new UploadStatusMessage(hash, UploadStatusMessage.State.REJECTED, 0));
+        }
+    }
+    
+    private void handleChunk(UUID player, UploadChunkMessage chunk, Consumer<UploadStatusMessage> reply) {
+        long hash = chunk.getContentHash();
+        PlayerUploads uploads = players.get(player);
+        Session session = uploads != null ? uploads.sessions.get(hash) : null;
+        if (session == null) {
+            // Передача закрыта по тайм-ауту или не начиналась: клиент запросит ее заново и продолжит с файла
+            reply.accept(new UploadStatusMessage(hash, UploadStatusMessage.State.RESTART, 0));
+            return;
+        }
+        
+        long now = clock.getAsLong();
+        session.lastActivity = now;
+        if (chunk.getOffset() != session.received) {
+            // Часть после отброшенной: подтверждаем фактическое смещение
+            reply.accept(new UploadStatusMessage(hash, UploadStatusMessage.State.ACCEPTED, session.received));
+            return;
+        }
+        if (!uploads.tryAcquire(chunk.getWireSize(), now)) {
+            CHUNKS_THROTTLED.increment();
+            reply.accept(new UploadStatusMessage(hash, UploadStatusMessage.State.THROTTLED, session.received));
+            return;
+        }
+        
+        long start = System.nanoTime();
+        try {
+            if (chunk.getRawLength() > session.size - session.received || !ChunkCodec.decode(chunk, chunkBuffer)) {
+                ImmersivePaintingsExposure.LOGGER.warn("Rejected malformed upload chunk {} at {} from {}",
+                    ContentHash.toKey(hash), chunk.getOffset(), player);
+                discard(uploads, session);
+                reply.accept(new UploadStatusMessage(hash, UploadStatusMessage.State.REJECTED, 0));
+                return;
+            }
+            // Начало передачи проверяет объем по одной передаче, а у игрока их может быть несколько
+            if (!fitsQuota(player, chunk.getRawLength())) {
+                ImmersivePaintingsExposure.LOGGER.warn("Rejected upload {} from {}: upload quota exceeded", ContentHash.toKey(hash), player);
+                discard(uploads, session);
+                reply.accept(new UploadStatusMessage(hash, UploadStatusMessage.State.REJECTED, 0));
+                return;
+            }
+            
+            session.write(chunkBuffer, chunk.getRawLength());
+            addPartBytes(player, chunk.getRawLength());
+            BYTES_RECEIVED.add(chunk.getWireSize());
+            if (session.received < session.size) {
+                reply.accept(new UploadStatusMessage(hash, UploadStatusMessage.State.ACCEPTED, session.received));
+                return;
+            }
+            
+            uploads.sessions.remove(hash);
+            Outcome outcome = session.complete(directory);
+            // Незавершенный файл стал готовым или удален
+            addPartBytes(player, -session.size);
+            switch (outcome) {
+                case STORED:
+                    totalBytes += session.size;
+                    storedBytes.merge(player, (long) session.size, Long::sum);
+                    saveUsage();
+                    remember(player, hash, session.target);
+                    UPLOADS_COMPLETED.increment();
+                    ImmersivePaintingsExposure.LOGGER.info("Received painting {} ({} bytes) from {}", session.target.getFileName(), session.size, player);
+                    reply.accept(new UploadStatusMessage(hash, UploadStatusMessage.State.COMPLETE, session.size));
+                    break;
+                case ALREADY_STORED:
+                    // Тот же файл уже есть (по SHA-256), например его передал другой игрок
+                    remember(player, hash, session.target);
+                    reply.accept(new UploadStatusMessage(hash, UploadStatusMessage.State.COMPLETE, session.size));
+                    break;
+                case CONFLICT:
+                    ImmersivePaintingsExposure.LOGGER.warn("Upload {} from {} conflicts with an existing file of another size, keeping the existing one",
+                        session.target.getFileName(), player);
+                    reply.accept(new UploadStatusMessage(hash, UploadStatusMessage.State.REJECTED, 0));
+                    break;
+                case HASH_MISMATCH:
+                    ImmersivePaintingsExposure.LOGGER.warn("Upload {} from {} does not match its content hash", ContentHash.toKey(hash), player);
+                    reply.accept(new UploadStatusMessage(hash, UploadStatusMessage.State.REJECTED, 0));
+                    break;
+            }
+        } catch (IOException e) {
+            ImmersivePaintingsExposure.LOGGER.error("Failed to write upload {} from {}", ContentHash.toKey(hash), player, e);
+            uploads.sessions.remove(hash);
+            session.close();
+            reply.accept(new UploadStatusMessage(hash, UploadStatusMessage.State.REJECTED, 0));
+        } finally {
+            CHUNK_WRITE.record(System.nanoTime() - start);
+        }
+    }
+    
+    private void expireIdle(long now) {
+        for (Iterator<PlayerUploads> players = this.players.values().iterator(); players.hasNext(); ) {
+            PlayerUploads uploads = players.next();
+            for (Iterator<Session> sessions = uploads.sessions.values().iterator(); sessions.hasNext(); ) {
+                Session session = sessions.next();
+                if (now - session.lastActivity > IDLE_TIMEOUT_NANOS) {
+                    session.close();
+                    sessions.remove();
+                }
+            }
+            if (uploads.sessions.isEmpty()) {
+                players.remove();
+            }
+        }
+    }
+    
+    private void discard(PlayerUploads uploads, Session session) {
+        uploads.sessions.remove(session.hash);
+        session.discard();
+        addPartBytes(session.player, -session.received);
+    }
+    
+    private boolean fitsQuota(UUID player, long bytes) {
+        long usage = storedBytes.getOrDefault(player, 0L) + partBytes.getOrDefault(player, 0L);
+        return usage + bytes <= limits.maxPlayerBytes && totalBytes + bytes <= limits.maxTotalBytes;
+    }
+    
+    private void addPartBytes(UUID player, long bytes) {
+        partBytes.merge(player, bytes, Long::sum);
+        totalBytes += bytes;
+    }
+    
+    private void remember(UUID player, long hash, Path target) {
+        verified.computeIfAbsent(player, id -> new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Path> eldest) {
+                return size() > MAX_VERIFIED_PER_PLAYER;
+            }
+        }).put(hash, target);
+    }
+    
+    /**
+     * Удаляет брошенные незавершенные и временные файлы, считает занятый объем
+     * и объем незавершенных файлов игроков, загружает объем готовых файлов игроков
+     */
+    private void scanDirectory() {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        long threshold = System.currentTimeMillis() - STALE_PART_MILLIS;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (!Files.isRegularFile(file) || name.equals(USAGE_FILE)) {
+                    continue;
+                }
+                if (name.endsWith(TEMP_SUFFIX)) {
+                    Files.deleteIfExists(file);
+                } else if (name.endsWith(PART_SUFFIX)) {
+                    if (Files.getLastModifiedTime(file).toMillis() < threshold) {
+                        Files.deleteIfExists(file);
+                    } else {
+                        addPartBytes(partOwner(name), Files.size(file));
+                    }
+                } else {
+                    totalBytes += Files.size(file);
+                }
+            }
+        } catch (IOException e) {
+            ImmersivePaintingsExposure.LOGGER.warn("Failed to scan uploads in {}", directory, e);
+        }
+        loadUsage();
+    }
+    
+    /**
+     * Игрок по имени незавершенного файла {@code <hash>-<player>.part}
+     */
+    private static UUID partOwner(String name) {
+        int dash = name.indexOf('-');
+        try {
+            return UUID.fromString(name.substring(dash + 1, name.length() - PART_SUFFIX.length()));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            // Чужой файл учитывается только в общем объеме
+            return new UUID(0L, 0L);
+        }
+    }
+    
+    private void loadUsage() {
+        Path file = directory.resolve(USAGE_FILE);
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            if (in.readInt() != USAGE_VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                storedBytes.put(new UUID(in.readLong(), in.readLong()), in.readLong());
+            }
+        } catch (NoSuchFileException e) {
+            // Еще никто ничего не передал
+        } catch (IOException e) {
+            ImmersivePaintingsExposure.LOGGER.warn("Failed to read upload usage from {}", file, e);
+        }
+    }
+    
+    private void saveUsage() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(8 + storedBytes.size() * 24);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(USAGE_VERSION);
+            out.writeInt(storedBytes.size());
+            for (Map.Entry<UUID, Long> entry : storedBytes.entrySet()) {
+                out.writeLong(entry.getKey().getMostSignificantBits());
+                out.writeLong(entry.getKey().getLeastSignificantBits());
+                out.writeLong(entry.getValue());
+            }
+            
+            // Через временный файл, чтобы не оставить обрезанную запись
+            Path temp = Files.createTempFile(directory, "usage", TEMP_SUFFIX);
+            try {
+                Files.write(temp, bytes.toByteArray());
+                try {
+                    Files.move(temp, directory.resolve(USAGE_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, directory.resolve(USAGE_FILE), StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            ImmersivePaintingsExposure.LOGGER.warn("Failed to save upload usage in {}", directory, e);
+        }
+    }
+    
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 обязателен для любой JVM
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    /**
+     * Расширение готового файла: только короткое буквенное из имени, иначе png
+     */
+    private static String extensionOf(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        String extension = dot >= 0 ? fileName.substring(dot + 1).toLowerCase(Locale.ROOT) : "";
+        return extension.matches("[a-z]{3,4}") ? extension : "png";
+    }
+    
+    /**
+     * Ограничения сервера
+     */
+    public static final class Limits {
+        private final int maxFileBytes;
+        private final long bytesPerSecond;
+        private final int maxTransfers;
+        private final long maxPlayerBytes;
+        private final long maxTotalBytes;
+        
+        /**
+         * @param maxPlayerBytes объем готовых и незавершенных файлов одного игрока
+         * @param maxTotalBytes  объем всей директории
+         */
+        public Limits(int maxFileBytes, long bytesPerSecond, int maxTransfers, long maxPlayerBytes, long maxTotalBytes) {
+            this.maxFileBytes = maxFileBytes;
+            this.bytesPerSecond = bytesPerSecond;
+            this.maxTransfers = maxTransfers;
+            this.maxPlayerBytes = maxPlayerBytes;
+            this.maxTotalBytes = maxTotalBytes;
+        }
+    }
+    
+    /**
+     * Передачи игрока и ограничение скорости (маркерная корзина на одну секунду передачи)
+     */
+    private static final class PlayerUploads {
+        private final Map<Long, Session> sessions = new LinkedHashMap<>();
+        private final long bytesPerSecond;
+        private double tokens;
+        private long lastRefill;
+        
+        private PlayerUploads(Limits limits, long now) {
+            this.bytesPerSecond = limits.bytesPerSecond;
+            this.tokens = limits.bytesPerSecond;
+            this.lastRefill = now;
+        }
+        
+        private boolean tryAcquire(int bytes, long now) {
+            // Емкость не меньше одной части, иначе при малом лимите часть не пройдет никогда
+            double capacity = Math.max(bytesPerSecond, ChunkCodec.MAX_PAYLOAD);
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * bytesPerSecond / 1e9);
+            lastRefill = now;
+            if (tokens < bytes) {
+                return false;
+            }
+            tokens -= bytes;
+            return true;
+        }
+    }
+    
+    private enum Outcome {
+        STORED,
+        ALREADY_STORED,
+        CONFLICT,
+        HASH_MISMATCH
+    }
+    
+    private static final class Session {
+        private final UUID player;
+        private final long hash;
+        private final int size;
+        private final Path part;
+        private final String extension;
+        private final ContentHash.Hasher hasher = new ContentHash.Hasher();
+        private final MessageDigest digest = sha256();
+        private FileChannel channel;
+        private int received;
+        private long lastActivity;
+        private Path target;
+        
+        private Session(UUID player, long hash, int size, Path part, String extension) throws IOException {
+            this.player = player;
+            this.hash = hash;
+            this.size = size;
+            this.part = part;
+            this.extension = extension;
+            open();
+        }
+        
+        private void open() throws IOException {
+            channel = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long existing = channel.size();
+            if (existing > size) {
+                channel.truncate(0L);
+                existing = 0L;
+            }
+            received = (int) existing;
+            
+            // Продолжение: хэши уже записанной части, дальше они дополняются каждой частью
+            if (existing > 0) {
+                byte[] buffer = new byte[ChunkCodec.CHUNK_SIZE];
+                InputStream in = Channels.newInputStream(channel.position(0L));
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    hasher.update(buffer, 0, read);
+                    digest.update(buffer, 0, read);
+                }
+            }
+        }
+        
+        private void write(byte[] data, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
+            long position = received;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            hasher.update(data, 0, length);
+            digest.update(data, 0, length);
+            received += length;
+        }
+        
+        /**
+         * Закрывает файл и проверяет заявленный хэш. При совпадении файл становится готовым
+         * {@code <sha256>.<ext>} в директории, если готового еще нет; в остальных случаях незавершенный файл удаляется.
+         */
+        private Outcome complete(Path directory) throws IOException {
+            close();
+            if (hasher.finish() != hash) {
+                Files.deleteIfExists(part);
+                return Outcome.HASH_MISMATCH;
+            }
+            target = directory.resolve(HexFormat.of().formatHex(digest.digest()) + "." + extension);
+            try {
+                // Без замены и без ATOMIC_MOVE: атомарное переименование на POSIX молча заменяет цель.
+                // Все переименования идут в потоке приемника, поэтому проверка и переименование не гоняются.
+                Files.move(part, target);
+                return Outcome.STORED;
+            } catch (FileAlreadyExistsException e) {
+                Files.deleteIfExists(part);
+                return Files.size(target) == size ? Outcome.ALREADY_STORED : Outcome.CONFLICT;
+            }
+        }
+        
+        private void discard() {
+            close();
+            try {
+                Files.deleteIfExists(part);
+            } catch (IOException e) {
+                ImmersivePaintingsExposure.LOGGER.debug("Failed to delete {}", part, e);
+            }
+        }
+        
+        private void close() {
+            if (channel == null) {
+                return;
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                ImmersivePaintingsExposure.LOGGER.debug("Failed to close {}", part, e);
+            }
+            channel = null;
+        }
+    }
+}
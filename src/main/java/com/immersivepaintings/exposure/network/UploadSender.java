@@ -0,0 +1,312 @@
+package com.immersivepaintings.exposure.network;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Передача одного файла на сервер. Не зависит от сети Forge: сообщения уходят через {@link Transport},
+ * ответы сервера передаются в {@link #onStatus}. Все методы вызываются в одном потоке (клиентском).
+ * <p>
+ * За тик отправляется не больше бюджета байт, а неподтвержденных данных не больше окна.
+ * Чтение и сжатие частей идут заранее в фоновом исполнителе, тик только отправляет готовые части
+ * и никогда их не ждет. При ограничении скорости сервером передача откатывается к подтвержденному
+ * смещению, ждет и уменьшает темп вдвое, затем постепенно его восстанавливает.
+ */
+public class UploadSender {
+    
+    // Неподтвержденных данных - на несколько тиков бюджета (подтверждение приходит через тик-два),
+    // но не меньше четырех частей. При откате повторяется немного.
+    private static final int WINDOW_TICKS = 4;
+    private static final int MIN_WINDOW_BYTES = 4 * ChunkCodec.CHUNK_SIZE;
+    private static final int THROTTLE_PAUSE_TICKS = 10;
+    // Без ответа сервера столько тиков передача запрашивается заново
+    private static final int RESPONSE_TIMEOUT_TICKS = 200;
+    private static final int MAX_RESTARTS = 3;
+    private static final double MIN_RATE_SCALE = 0.125;
+    
+    public enum State {
+        PENDING,
+        AWAITING_START,
+        SENDING,
+        PAUSED,
+        COMPLETE,
+        FAILED
+    }
+    
+    /**
+     * Отправка сообщений серверу
+     */
+    public interface Transport {
+        void send(UploadStartMessage message);
+        
+        void send(UploadChunkMessage message);
+    }
+    
+    private final Path file;
+    private final long contentHash;
+    private final int size;
+    private final String fileName;
+    private final Executor compressor;
+    private final ArrayDeque<CompletableFuture<UploadChunkMessage>> prepared = new ArrayDeque<>();
+    
+    private FileChannel channel;
+    private boolean closed;
+    private State state = State.PENDING;
+    private int ackedOffset;
+    private int sendOffset;
+    private int prepareOffset;
+    private double credit;
+    private int windowBytes = MIN_WINDOW_BYTES;
+    private double rateScale = 1.0;
+    private int pauseTicks;
+    private int ticksWithoutResponse;
+    private int restarts;
+    private long bytesSent;
+    
+    /**
+     * @param compressor исполнитель для чтения и сжатия частей (фоновый поток)
+     */
+    public UploadSender(Path file, long contentHash, int size, String fileName, Executor compressor) {
+        this.file = file;
+        this.contentHash = contentHash;
+        this.size = size;
+        this.fileName = fileName;
+        this.compressor = compressor;
+    }
+    
+    public long getContentHash() {
+        return contentHash;
+    }
+    
+    public String getFileName() {
+        return fileName;
+    }
+    
+    public int getSize() {
+        return size;
+    }
+    
+    public State getState() {
+        return state;
+    }
+    
+    public boolean isDone() {
+        return state == State.COMPLETE || state == State.FAILED;
+    }
+    
+    public int getAckedOffset() {
+        return ackedOffset;
+    }
+    
+    /**
+     * Байт отправлено по сети, включая повторы
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+    
+    /**
+     * Один тик передачи
+     *
+     * @param budgetBytes сколько сжатых байт можно отправить за тик
+     */
+    public void tick(Transport transport, int budgetBytes) {
+        switch (state) {
+            case PENDING:
+                transport.send(new UploadStartMessage(contentHash, size, fileName));
+                state = State.AWAITING_START;
+                ticksWithoutResponse = 0;
+                return;
+            case PAUSED:
+                if (--pauseTicks <= 0) {
+                    state = State.SENDING;
+                }
+                return;
+            case AWAITING_START:
+            case SENDING:
+                // Тишина считается, только пока сервер должен ответить
+                boolean awaitingResponse = state == State.AWAITING_START || sendOffset > ackedOffset;
+                if (awaitingResponse && ++ticksWithoutResponse > RESPONSE_TIMEOUT_TICKS) {
+                    restart();
+                    return;
+                }
+                break;
+            default:
+                return;
+        }
+        if (state != State.SENDING) {
+            return;
+        }
+        
+        // Неизрасходованный бюджет копится не больше чем на одну часть: часть крупнее бюджета тика
+        // уходит раз в несколько тиков, а средняя скорость остается равной бюджету
+        double budget = budgetBytes * rateScale;
+        credit = Math.min(credit + budget, budget + ChunkCodec.MAX_PAYLOAD);
+        windowBytes = Math.max(MIN_WINDOW_BYTES, budgetBytes * WINDOW_TICKS);
+        fillPrepared();
+        
+        while (!prepared.isEmpty()) {
+            CompletableFuture<UploadChunkMessage> next = prepared.peek();
+            if (!next.isDone()) {
+                break;
+            }
+            UploadChunkMessage chunk;
+            try {
+                chunk = next.join();
+            } catch (RuntimeException e) {
+                fail();
+                return;
+            }
+            if (chunk.getWireSize() > credit) {
+                break;
+            }
+            prepared.poll();
+            transport.send(chunk);
+            credit -= chunk.getWireSize();
+            bytesSent += chunk.getWireSize();
+            sendOffset = chunk.getOffset() + chunk.getRawLength();
+            fillPrepared();
+        }
+    }
+    
+    public void onStatus(UploadStatusMessage status) {
+        if (status.getContentHash() != contentHash || isDone()) {
+            return;
+        }
+        ticksWithoutResponse = 0;
+        int received = Math.min(status.getReceivedBytes(), size);
+        switch (status.getState()) {
+            case ACCEPTED:
+                if (state == State.AWAITING_START) {
+                    // Продолжение с места, где остановился сервер
+                    rewind(received);
+                    ackedOffset = received;
+                    state = State.SENDING;
+                } else {
+                    ackedOffset = Math.max(ackedOffset, received);
+                    rateScale = Math.min(1.0, rateScale + 0.05);
+                }
+                break;
+            case THROTTLED:
+                if (state == State.SENDING || state == State.PAUSED) {
+                    rewind(received);
+                    rateScale = Math.max(MIN_RATE_SCALE, rateScale * 0.5);
+                    pauseTicks = THROTTLE_PAUSE_TICKS;
+                    state = State.PAUSED;
+                }
+                break;
+            case COMPLETE:
+                ackedOffset = size;
+                state = State.COMPLETE;
+                close();
+                break;
+            case RESTART:
+                // Ответы на части, отправленные до повторного запроса, пропускаются
+                if (state == State.SENDING || state == State.PAUSED) {
+                    restart();
+                }
+                break;
+            case REJECTED:
+                fail();
+                break;
+        }
+    }
+    
+    /**
+     * Прекращает передачу (например, при выходе с сервера)
+     */
+    public void cancel() {
+        if (!isDone()) {
+            fail();
+        }
+    }
+    
+    private void restart() {
+        if (++restarts > MAX_RESTARTS) {
+            fail();
+            return;
+        }
+        prepared.forEach(future -> future.cancel(false));
+        prepared.clear();
+        state = State.PENDING;
+    }
+    
+    private void rewind(int offset) {
+        prepared.forEach(future -> future.cancel(false));
+        prepared.clear();
+        sendOffset = offset;
+        prepareOffset = offset;
+    }
+    
+    private void fail() {
+        state = State.FAILED;
+        prepared.forEach(future -> future.cancel(false));
+        prepared.clear();
+        close();
+    }
+    
+    /**
+     * Ставит в очередь сжатие частей до заполнения окна
+     */
+    private void fillPrepared() {
+        while (prepareOffset < size && prepareOffset - ackedOffset < windowBytes) {
+            int offset = prepareOffset;
+            int length = Math.min(ChunkCodec.CHUNK_SIZE, size - offset);
+            prepared.add(CompletableFuture.supplyAsync(() -> readChunk(offset, length), compressor));
+            prepareOffset += length;
+        }
+    }
+    
+    private UploadChunkMessage readChunk(int offset, int length) {
+        try {
+            byte[] raw = new byte[length];
+            ByteBuffer buffer = ByteBuffer.wrap(raw);
+            FileChannel channel = channel();
+            long position = offset;
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    throw new IOException("File is shorter than expected: " + file);
+                }
+                position += read;
+            }
+            return ChunkCodec.encode(contentHash, offset, raw, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    /**
+     * Файл открывается в потоке сжатия при первом чтении. Позиционное чтение FileChannel
+     * потокобезопасно, поэтому канал общий для всех частей.
+     */
+    private synchronized FileChannel channel() throws IOException {
+        if (closed) {
+            throw new IOException("Upload is finished: " + file);
+        }
+        if (channel == null) {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+        }
+        return channel;
+    }
+    
+    private synchronized void close() {
+        closed = true;
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // Файл только читался
+        }
+        channel = null;
+    }
+}
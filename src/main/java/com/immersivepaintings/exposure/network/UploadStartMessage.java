@@ -0,0 +1,45 @@
+package com.immersivepaintings.exposure.network;
+
+import net.minecraft.network.FriendlyByteBuf;
+
+/**
+ * Клиент -> сервер: начало или продолжение передачи изображения картины.
+ * Передача определяется хэшем содержимого, поэтому после разрыва соединения
+ * повторный запрос продолжает ее с принятого сервером смещения.
+ */
+public final class UploadStartMessage {
+    
+    static final int MAX_NAME_LENGTH = 128;
+    
+    private final long contentHash;
+    private final int size;
+    private final String fileName;
+    
+    public UploadStartMessage(long contentHash, int size, String fileName) {
+        this.contentHash = contentHash;
+        this.size = size;
+        this.fileName = fileName.length() > MAX_NAME_LENGTH ? fileName.substring(0, MAX_NAME_LENGTH) : fileName;
+    }
+    
+    public static UploadStartMessage decode(FriendlyByteBuf buffer) {
+        return new UploadStartMessage(buffer.readLong(), buffer.readVarInt(), buffer.readUtf(MAX_NAME_LENGTH));
+    }
+    
+    public void encode(FriendlyByteBuf buffer) {
+        buffer.writeLong(contentHash);
+        buffer.writeVarInt(size);
+        buffer.writeUtf(fileName, MAX_NAME_LENGTH);
+    }
+    
+    public long getContentHash() {
+        return contentHash;
+    }
+    
+    public int getSize() {
+        return size;
+    }
+    
+    public String getFileName() {
+        return fileName;
+    }
+}
@@ -0,0 +1,55 @@
+package com.immersivepaintings.exposure.network;
+
+import net.minecraft.network.FriendlyByteBuf;
+
+/**
+ * Сервер -> клиент: состояние передачи и сколько байт сервер уже записал.
+ * Отправляется в ответ на каждое сообщение клиента.
+ */
+public final class UploadStatusMessage {
+    
+    public enum State {
+        /** Данные до {@code receivedBytes} приняты, можно продолжать с этого места */
+        ACCEPTED,
+        /** Превышена скорость: часть отброшена, продолжить с {@code receivedBytes} после паузы */
+        THROTTLED,
+        /** Сервер не знает передачу (закрыта по тайм-ауту или после перезапуска): запросить ее заново */
+        RESTART,
+        /** Файл собран и проверен по хэшу (или уже был на сервере) */
+        COMPLETE,
+        /** Передача отклонена: слишком большой файл, поврежденные данные или лимит передач */
+        REJECTED
+    }
+    
+    private final long contentHash;
+    private final State state;
+    private final int receivedBytes;
+    
+    public UploadStatusMessage(long contentHash, State state, int receivedBytes) {
+        this.contentHash = contentHash;
+        this.state = state;
+        this.receivedBytes = receivedBytes;
+    }
+    
+    public static UploadStatusMessage decode(FriendlyByteBuf buffer) {
+        return new UploadStatusMessage(buffer.readLong(), buffer.readEnum(State.class), buffer.readVarInt());
+    }
+    
+    public void encode(FriendlyByteBuf buffer) {
+        buffer.writeLong(contentHash);
+        buffer.writeEnum(state);
+        buffer.writeVarInt(receivedBytes);
+    }
+    
+    public long getContentHash() {
+        return contentHash;
+    }
+    
+    public State getState() {
+        return state;
+    }
+    
+    public int getReceivedBytes() {
+        return receivedBytes;
+    }
+}
@@ -0,0 +1,63 @@
+package com.immersivepaintings.exposure.exposure;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ContentHashTest {
+    
+    @TempDir
+    Path directory;
+    
+    @Test
+    void matchesXxh64ReferenceValues() {
+        assertEquals(0xEF46DB3751D8E999L, ContentHash.hashBytes(new byte[0]));
+        assertEquals(0xD24EC4F1A98C6E5BL, ContentHash.hashBytes("a".getBytes(StandardCharsets.US_ASCII)));
+        assertEquals(0x44BC2CF5AD770999L, ContentHash.hashBytes("abc".getBytes(StandardCharsets.US_ASCII)));
+    }
+    
+    @Test
+    void fileStreamAndChunkedHashesAgree() throws IOException {
+        Random random = new Random(7);
+        // Границы полос XXH64 и буфера чтения файла
+        for (int size : new int[] {0, 5, 31, 32, 33, 100, 262_143, 262_144, 262_145, 700_001}) {
+            byte[] data = new byte[size];
+            random.nextBytes(data);
+            long expected = ContentHash.hashBytes(data);
+            
+            Path file = directory.resolve("data-" + size + ".bin");
+            Files.write(file, data);
+            assertEquals(expected, ContentHash.hashFile(file), "file of " + size + " bytes");
+            
+            ContentHash.Hasher hasher = new ContentHash.Hasher();
+            for (int offset = 0; offset < size; ) {
+                int length = Math.min(size - offset, 1 + random.nextInt(70));
+                hasher.update(data, offset, length);
+                offset += length;
+            }
+            assertEquals(expected, hasher.finish(), "chunks of " + size + " bytes");
+        }
+    }
+    
+    @Test
+    void hashingStreamCoversUnreadTail() throws IOException {
+        byte[] data = new byte[10_000];
+        new Random(11).nextBytes(data);
+        
+        try (ContentHash.HashingInputStream in = new ContentHash.HashingInputStream(new ByteArrayInputStream(data))) {
+            // Декодер читает начало, пропускает часть и останавливается до конца файла
+            in.read();
+            in.readNBytes(100);
+            in.skip(500);
+            assertEquals(ContentHash.hashBytes(data), in.finish());
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.immersivepaintings.exposure.exposure;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Разбор кадров из src/test/resources/frames: сжатый NBT, как в data/exposures мира
+ */
+class ExposureFrameReaderTest {
+    
+    @TempDir
+    Path directory;
+    
+    @Test
+    void readsSavedDataFrameSkippingUnrelatedTags() throws IOException {
+        ExposureFrameReader.Frame frame = readFixture("saved_data_4x3.dat");
+        
+        assertEquals(4, frame.getWidth());
+        assertEquals(3, frame.getHeight());
+        assertArrayEquals(expectedPixels(0, 1, 4, 5, 34, 35, 118, 119, 200, 201, 255, 128),
+            ExposureFrameReader.toPixels(frame));
+    }
+    
+    @Test
+    void readsFrameWithoutSavedDataWrapper() throws IOException {
+        ExposureFrameReader.Frame frame = readFixture("bare_2x2.dat");
+        
+        assertEquals(2, frame.getWidth());
+        assertEquals(2, frame.getHeight());
+        assertArrayEquals(expectedPixels(18, 19, 74, 75), ExposureFrameReader.toPixels(frame));
+    }
+    
+    @Test
+    void readsFrameFromFile() throws IOException {
+        Path file = directory.resolve("Steve_100001.dat");
+        try (InputStream in = fixture("saved_data_4x3.dat")) {
+            Files.copy(in, file);
+        }
+        
+        assertTrue(ExposureFrameReader.isFrameFile(file));
+        ExposureFrameReader.Frame frame = ExposureFrameReader.read(file);
+        assertEquals(12, ExposureFrameReader.toPixels(frame).length);
+    }
+    
+    @Test
+    void rejectsPixelCountNotMatchingSize() {
+        IOException error = assertThrows(IOException.class, () -> readFixture("size_mismatch.dat"));
+        assertTrue(error.getMessage().contains("8 pixels"), error.getMessage());
+    }
+    
+    @Test
+    void rejectsTruncatedFrame() {
+        assertThrows(IOException.class, () -> readFixture("truncated.dat"));
+    }
+    
+    @Test
+    void unusedPaletteIndicesAreTransparent() {
+        int[] palette = ExposureFrameReader.paletteColors();
+        assertEquals(256, palette.length);
+        // Индексы 0-3 - прозрачный цвет карты
+        for (int i = 0; i < 4; i++) {
+            assertEquals(0, palette[i] >>> 24);
+        }
+        assertFalse(ExposureFrameReader.isFrameFile(Path.of("Steve_100001.png")));
+    }
+    
+    private static ExposureFrameReader.Frame readFixture(String name) throws IOException {
+        try (InputStream in = fixture(name)) {
+            return ExposureFrameReader.read(in);
+        }
+    }
+    
+    private static InputStream fixture(String name) throws IOException {
+        InputStream in = ExposureFrameReaderTest.class.getResourceAsStream("/frames/" + name);
+        if (in == null) {
+            throw new IOException("Missing test fixture " + name);
+        }
+        return in;
+    }
+    
+    private static int[] expectedPixels(int... indices) {
+        int[] palette = ExposureFrameReader.paletteColors();
+        int[] pixels = new int[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            pixels[i] = palette[indices[i]];
+        }
+        return pixels;
+    }
+}
@@ -0,0 +1,31 @@
+package com.immersivepaintings.exposure.exposure;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PhotoFileFilterTest {
+    
+    private final Path photos = Path.of("exposures", "World");
+    private final Path frames = Path.of("saves", "World", "data", "exposures");
+    
+    @Test
+    void acceptsImagesAnywhere() {
+        assertTrue(ExposurePhotoManager.isPhotoFile(photos.resolve("Steve_1.png"), frames));
+        assertTrue(ExposurePhotoManager.isPhotoFile(photos.resolve("Steve_2.JPG"), null));
+        assertTrue(ExposurePhotoManager.isPhotoFile(frames.resolve("export.webp"), frames));
+        assertFalse(ExposurePhotoManager.isPhotoFile(photos.resolve("notes.txt"), frames));
+    }
+    
+    @Test
+    void acceptsFramesOnlyFromFramesDirectory() {
+        assertTrue(ExposurePhotoManager.isPhotoFile(frames.resolve("Steve_1.dat"), frames));
+        // Прочие данные мира и файлы .dat рядом с фотографиями - не кадры
+        assertFalse(ExposurePhotoManager.isPhotoFile(photos.resolve("Steve_1.dat"), frames));
+        assertFalse(ExposurePhotoManager.isPhotoFile(frames.getParent().resolve("raids.dat"), frames));
+        assertFalse(ExposurePhotoManager.isPhotoFile(frames.resolve("Steve_1.dat"), null));
+    }
+}
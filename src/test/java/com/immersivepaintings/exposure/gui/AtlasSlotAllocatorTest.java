@@ -0,0 +1,97 @@
+package com.immersivepaintings.exposure.gui;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AtlasSlotAllocatorTest {
+    
+    // Страница 256 с ячейками 64: сетка 4x4, 16 ячеек
+    private final AtlasSlotAllocator allocator = new AtlasSlotAllocator(256, 64);
+    
+    @Test
+    void allocatesSlotsInOrderOnFirstPage() {
+        assertEquals(16, allocator.getSlotsPerPage());
+        for (int i = 0; i < 16; i++) {
+            assertEquals(i, allocator.allocate());
+        }
+        assertEquals(1, allocator.getPageCount());
+        assertEquals(16, allocator.getUsedSlots());
+    }
+    
+    @Test
+    void slotPositionsFormAGrid() {
+        for (int i = 0; i < 5; i++) {
+            allocator.allocate();
+        }
+        assertEquals(0, allocator.getSlotX(0));
+        assertEquals(0, allocator.getSlotY(0));
+        assertEquals(192, allocator.getSlotX(3));
+        assertEquals(0, allocator.getSlotY(3));
+        assertEquals(0, allocator.getSlotX(4));
+        assertEquals(64, allocator.getSlotY(4));
+    }
+    
+    @Test
+    void freedSlotIsReusedBeforeNewOnes() {
+        for (int i = 0; i < 6; i++) {
+            allocator.allocate();
+        }
+        assertFalse(allocator.free(2));
+        assertFalse(allocator.isUsed(2));
+        assertEquals(2, allocator.allocate());
+        assertEquals(6, allocator.allocate());
+    }
+    
+    @Test
+    void growsANewPageOnlyWhenAllAreFull() {
+        Set<Integer> slots = new HashSet<>();
+        for (int i = 0; i < 17; i++) {
+            slots.add(allocator.allocate());
+        }
+        assertEquals(17, slots.size());
+        assertEquals(2, allocator.getPageCount());
+        assertTrue(slots.contains(16));
+        assertEquals(1, allocator.getPage(16));
+        assertEquals(0, allocator.getSlotX(16));
+        assertEquals(0, allocator.getSlotY(16));
+        
+        // Освобожденная ячейка первой страницы занимается раньше второй страницы
+        allocator.free(5);
+        assertEquals(5, allocator.allocate());
+        assertEquals(17, allocator.allocate());
+    }
+    
+    @Test
+    void freeReportsEmptyPage() {
+        for (int i = 0; i < 17; i++) {
+            allocator.allocate();
+        }
+        assertTrue(allocator.free(16));
+        assertEquals(0, allocator.getUsedSlots(1));
+        assertEquals(16, allocator.getUsedSlots(0));
+        // Пустая страница остается и используется снова
+        assertEquals(16, allocator.allocate());
+        assertEquals(2, allocator.getPageCount());
+    }
+    
+    @Test
+    void rejectsInvalidFrees() {
+        int slot = allocator.allocate();
+        allocator.free(slot);
+        assertThrows(IllegalStateException.class, () -> allocator.free(slot));
+        assertThrows(IllegalArgumentException.class, () -> allocator.free(64));
+    }
+    
+    @Test
+    void rejectsInvalidGeometry() {
+        assertThrows(IllegalArgumentException.class, () -> new AtlasSlotAllocator(32, 64));
+        assertThrows(IllegalArgumentException.class, () -> new AtlasSlotAllocator(256, 0));
+    }
+}
@@ -0,0 +1,106 @@
+package com.immersivepaintings.exposure.gui;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ThumbnailCacheTest {
+    
+    private final List<String> evicted = new ArrayList<>();
+    private ThumbnailCache cache;
+    
+    @BeforeEach
+    void setUp() {
+        // Области атласа кэшу не нужны - вытеснение видно по ключам
+        cache = new ThumbnailCache(300, (key, region) -> evicted.add(key));
+    }
+    
+    @Test
+    void evictsLeastRecentlyDrawnFirst() {
+        cache.beginFrame();
+        cache.put("a", null, 0, 100);
+        cache.put("b", null, 0, 100);
+        cache.put("c", null, 0, 100);
+        
+        cache.beginFrame();
+        cache.beginFrame();
+        cache.get("a");
+        cache.put("d", null, 0, 100);
+        
+        assertEquals(List.of("b"), evicted);
+        assertTrue(cache.contains("a"));
+        assertEquals(300, cache.getResidentBytes());
+    }
+    
+    @Test
+    void keepsThumbnailsDrawnInPreviousFrameWhileLoadingNewOnes() {
+        cache.beginFrame();
+        cache.put("a", null, 0, 100);
+        cache.put("b", null, 0, 100);
+        cache.put("c", null, 0, 100);
+        
+        // Новый кадр: загрузки идут до отрисовки, видимые миниатюры еще помечены прошлым кадром
+        cache.beginFrame();
+        cache.put("prefetch", null, 0, 100);
+        
+        assertTrue(evicted.isEmpty());
+        assertEquals(400, cache.getResidentBytes());
+        
+        // Через кадр без отрисовки старые миниатюры вытесняются, пока не хватит бюджета
+        cache.beginFrame();
+        cache.get("prefetch");
+        cache.put("next", null, 0, 100);
+        assertEquals(List.of("a", "b"), evicted);
+        assertEquals(300, cache.getResidentBytes());
+    }
+    
+    @Test
+    void replacingKeyReleasesPreviousThumbnail() {
+        cache.beginFrame();
+        cache.put("a", null, 1, 100);
+        cache.put("a", null, 2, 150);
+        
+        assertEquals(List.of("a"), evicted);
+        assertEquals(150, cache.getResidentBytes());
+        assertEquals(2, cache.get("a").getLastModified());
+        assertEquals(0, cache.getEvictions());
+    }
+    
+    @Test
+    void countsHitsOnGetAndMissesOnlyWhenRecorded() {
+        cache.beginFrame();
+        cache.put("a", null, 0, 100);
+        
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("missing"));
+        assertNull(cache.get("missing"));
+        assertFalse(cache.contains("missing"));
+        assertEquals(1, cache.getHits());
+        assertEquals(0, cache.getMisses());
+        
+        cache.recordMiss();
+        assertEquals(1, cache.getMisses());
+    }
+    
+    @Test
+    void shrinkingBudgetTrimsImmediately() {
+        cache.beginFrame();
+        cache.put("a", null, 0, 100);
+        cache.put("b", null, 0, 100);
+        cache.beginFrame();
+        cache.beginFrame();
+        
+        cache.setBudgetBytes(100);
+        assertEquals(List.of("a"), evicted);
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getEvictions());
+    }
+}
@@ -0,0 +1,124 @@
+package com.immersivepaintings.exposure.gui;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ThumbnailDiskCacheTest {
+    
+    private static final Path PHOTO = Paths.get("exposures", "world", "Steve_1.png");
+    private static final int MAX_SIZE = 64;
+    // Смещение длины сжатых данных в заголовке записи
+    private static final int COMPRESSED_LENGTH_OFFSET = 52;
+    
+    private Path directory;
+    private ThumbnailDiskCache cache;
+    
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("exposure-thumbnails");
+        cache = new ThumbnailDiskCache(directory);
+    }
+    
+    @AfterEach
+    void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+    
+    @Test
+    void loadsStoredThumbnail() throws IOException {
+        ThumbnailImage thumbnail = gradient(16, 12);
+        cache.store(PHOTO, 1000L, 42L, MAX_SIZE, 0x1234L, thumbnail);
+        
+        ThumbnailDiskCache.Entry entry = cache.load(PHOTO, 1000L, 42L, MAX_SIZE);
+        
+        assertNotNull(entry);
+        assertEquals(0x1234L, entry.getContentHash());
+        assertEquals(16, entry.getThumbnail().getWidth());
+        assertEquals(12, entry.getThumbnail().getHeight());
+        assertArrayEquals(thumbnail.getPixels(), entry.getThumbnail().getPixels());
+    }
+    
+    @Test
+    void staleEntryIsMissButKeptForOverwrite() throws IOException {
+        cache.store(PHOTO, 1000L, 42L, MAX_SIZE, 0x1234L, gradient(16, 12));
+        
+        assertNull(cache.load(PHOTO, 1000L, 43L, MAX_SIZE));
+        assertEquals(1, listEntries().size());
+    }
+    
+    @Test
+    void truncatedEntryIsDiscarded() throws IOException {
+        cache.store(PHOTO, 1000L, 42L, MAX_SIZE, 0x1234L, gradient(16, 12));
+        Path entry = listEntries().get(0);
+        byte[] data = Files.readAllBytes(entry);
+        Files.write(entry, Arrays.copyOf(data, data.length - 8));
+        
+        assertNull(cache.load(PHOTO, 1000L, 42L, MAX_SIZE));
+        assertTrue(listEntries().isEmpty());
+    }
+    
+    @Test
+    void entryCutInsideHeaderIsDiscarded() throws IOException {
+        cache.store(PHOTO, 1000L, 42L, MAX_SIZE, 0x1234L, gradient(16, 12));
+        Path entry = listEntries().get(0);
+        Files.write(entry, Arrays.copyOf(Files.readAllBytes(entry), COMPRESSED_LENGTH_OFFSET - 4));
+        
+        assertNull(cache.load(PHOTO, 1000L, 42L, MAX_SIZE));
+        assertTrue(listEntries().isEmpty());
+    }
+    
+    @Test
+    void invalidCompressedLengthIsDiscarded() throws IOException {
+        for (int length : new int[] {-1, Integer.MAX_VALUE}) {
+            cache.store(PHOTO, 1000L, 42L, MAX_SIZE, 0x1234L, gradient(16, 12));
+            Path entry = listEntries().get(0);
+            byte[] data = Files.readAllBytes(entry);
+            ByteBuffer.wrap(data).putInt(COMPRESSED_LENGTH_OFFSET, length);
+            Files.write(entry, data);
+            
+            assertNull(cache.load(PHOTO, 1000L, 42L, MAX_SIZE));
+            assertTrue(listEntries().isEmpty());
+        }
+    }
+    
+    private static ThumbnailImage gradient(int width, int height) {
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                pixels[y * width + x] = 0xFF000000 | (x * 16) << 8 | y * 16;
+            }
+        }
+        return new ThumbnailImage(width, height, pixels);
+    }
+    
+    private List<Path> listEntries() throws IOException {
+        List<Path> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.thumb")) {
+            stream.forEach(entries::add);
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,68 @@
+package com.immersivepaintings.exposure.image;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class PaletteQuantizerTest {
+    
+    @Test
+    void cubeMatchesExactSearchForRandomPalette() {
+        Random random = new Random(3);
+        int[] palette = new int[PaletteQuantizer.MAX_COLORS];
+        for (int i = 0; i < palette.length; i++) {
+            palette[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+        assertMatchesExact(new PaletteQuantizer(palette));
+    }
+    
+    @Test
+    void cubeMatchesExactSearchForDenseGrayscale() {
+        assertMatchesExact(PaletteQuantizer.grayscale(256));
+        assertMatchesExact(PaletteQuantizer.grayscale(64));
+    }
+    
+    @Test
+    void grayscaleKeepsEveryLevel() {
+        for (int levels : new int[] {2, 33, 64, 256}) {
+            PaletteQuantizer quantizer = PaletteQuantizer.grayscale(levels);
+            Set<Integer> produced = new HashSet<>();
+            for (int value = 0; value < 256; value++) {
+                produced.add(quantizer.nearest(0xFF000000 | (value << 16) | (value << 8) | value));
+            }
+            assertEquals(levels, produced.size());
+        }
+    }
+    
+    @Test
+    void keepsAlpha() {
+        PaletteQuantizer quantizer = PaletteQuantizer.grayscale(2);
+        assertEquals(0x80FFFFFF, quantizer.nearest(0x80F0F0F0));
+        assertEquals(0x00000000, quantizer.nearest(0x00101010));
+    }
+    
+    @Test
+    void paletteSettingSelectsQuantizer() {
+        assertNull(PaletteQuantizer.Palette.NONE.getQuantizer());
+        assertSame(PaletteQuantizer.mapColors(), PaletteQuantizer.Palette.MAP_COLORS.getQuantizer());
+        assertEquals(PaletteQuantizer.GRAYSCALE_LEVELS, PaletteQuantizer.Palette.GRAYSCALE.getQuantizer().getColorCount());
+    }
+    
+    private static void assertMatchesExact(PaletteQuantizer quantizer) {
+        // Шаг 3 не кратен ширине ячейки куба: проверяются все положения внутри ячеек
+        for (int b = 0; b < 256; b += 3) {
+            for (int g = 0; g < 256; g += 3) {
+                for (int r = 0; r < 256; r += 3) {
+                    int abgr = 0xFF000000 | (b << 16) | (g << 8) | r;
+                    assertEquals(quantizer.nearestExact(abgr), quantizer.nearest(abgr), () -> Integer.toHexString(abgr));
+                }
+            }
+        }
+    }
+}
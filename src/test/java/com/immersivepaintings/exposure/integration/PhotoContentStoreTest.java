@@ -0,0 +1,80 @@
+package com.immersivepaintings.exposure.integration;
+
+import com.immersivepaintings.exposure.exposure.ContentHash;
+import com.immersivepaintings.exposure.exposure.PhotoContentIndex;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PhotoContentStoreTest {
+    
+    private Path directory;
+    
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("exposure-content-store");
+    }
+    
+    @AfterEach
+    void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+    
+    @Test
+    void storesBytesUnderContentHashWithoutLeftovers() throws IOException {
+        byte[] data = {1, 2, 3, 4, 5};
+        Path stored = PhotoContentStore.getInstance().storeBytes(data, directory.resolve("paintings"), "png");
+        
+        assertEquals(ContentHash.toKey(ContentHash.hashBytes(data)) + ".png", stored.getFileName().toString());
+        assertArrayEquals(data, Files.readAllBytes(stored));
+        assertEquals(List.of(stored), list(stored.getParent()));
+        BasicFileAttributes attributes = Files.readAttributes(stored, BasicFileAttributes.class);
+        assertEquals(ContentHash.hashBytes(data), PhotoContentIndex.getInstance()
+            .getKnownHash(stored, attributes.size(), attributes.lastModifiedTime().toMillis()));
+    }
+    
+    @Test
+    void keepsExistingFileAndItsLinks() throws IOException {
+        byte[] data = {6, 7, 8};
+        PhotoContentStore store = PhotoContentStore.getInstance();
+        Path stored = store.storeBytes(data, directory, "png");
+        Object fileKey = Files.readAttributes(stored, BasicFileAttributes.class).fileKey();
+        
+        // Повторное сохранение того же содержимого файл не трогает
+        assertEquals(stored, store.storeBytes(data, directory, "png"));
+        assertEquals(fileKey, Files.readAttributes(stored, BasicFileAttributes.class).fileKey());
+        
+        // Обрезанный файл заменяется новым, а не перезаписывается на месте
+        Files.write(stored, new byte[] {6});
+        Path link = directory.resolve("link.png");
+        Files.createLink(link, stored);
+        store.storeBytes(data, directory, "png");
+        assertArrayEquals(data, Files.readAllBytes(stored));
+        assertArrayEquals(new byte[] {6}, Files.readAllBytes(link));
+    }
+    
+    private static List<Path> list(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            stream.forEach(files::add);
+        }
+        return files;
+    }
+}
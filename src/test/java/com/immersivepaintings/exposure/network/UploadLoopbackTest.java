@@ -0,0 +1,394 @@
+package com.immersivepaintings.exposure.network;
+
+import com.immersivepaintings.exposure.exposure.ContentHash;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Сквозная проверка передачи изображений без клиента и сервера Minecraft: {@link UploadSender}
+ * и {@link UploadReceiver} соединены в одном процессе, тики идут по модельному времени (50 мс),
+ * сообщения клиента доставляются после его тика, ответы сервера - со следующим тиком.
+ */
+class UploadLoopbackTest {
+    
+    private static final long TICK_NANOS = 50_000_000L;
+    private static final int MAX_TICKS = 20_000;
+    private static final int BUDGET = 24 * 1024;
+    private static final int SIZE = 512 * 1024;
+    
+    private Path work;
+    private Path uploads;
+    private ExecutorService compressor;
+    private long now;
+    
+    @BeforeEach
+    void setUp() throws IOException {
+        work = Files.createTempDirectory("exposure-upload-loopback");
+        uploads = work.resolve("uploads");
+        compressor = Executors.newSingleThreadExecutor();
+    }
+    
+    @AfterEach
+    void tearDown() throws IOException {
+        compressor.shutdownNow();
+        try (Stream<Path> files = Files.walk(work)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+    
+    @Test
+    void resumesAfterReconnectAndReassemblesTheSameFile() throws Exception {
+        UploadReceiver receiver = receiver(1024 * 1024);
+        for (boolean compressible : new boolean[] {false, true}) {
+            Path source = createFile(compressible ? "painting_1.png" : "painting_0.png", compressible);
+            Client client = new Client(receiver, source);
+            
+            // Разрыв посередине: ответы в пути теряются, сервер закрывает передачу игрока, клиент начинает заново
+            run(client, () -> client.sender.getAckedOffset() >= SIZE / 2);
+            int resumedAt = client.sender.getAckedOffset();
+            client.sender.cancel();
+            client.replies.clear();
+            receiver.playerLeft(client.player);
+            client.restart();
+            run(client, () -> false);
+            
+            assertEquals(UploadSender.State.COMPLETE, client.sender.getState());
+            assertTrue(resumedAt > 0);
+            // Продолжение не передает файл заново
+            assertTrue(client.wireBytes < (long) (SIZE - resumedAt) * 11 / 10 + ChunkCodec.CHUNK_SIZE);
+            assertArrayEquals(Files.readAllBytes(source), Files.readAllBytes(received(source)));
+            if (compressible) {
+                assertTrue(client.wireBytes < (SIZE - resumedAt) / 2);
+            }
+        }
+    }
+    
+    @Test
+    void repeatedUploadCompletesAtOnce() throws Exception {
+        UploadReceiver receiver = receiver(1024 * 1024);
+        Path source = createFile("painting.png", false);
+        UUID player = UUID.randomUUID();
+        run(new Client(receiver, source, player), () -> false);
+        
+        Client repeat = new Client(receiver, source, player);
+        assertTrue(run(repeat, () -> false) <= 3);
+        assertEquals(UploadSender.State.COMPLETE, repeat.sender.getState());
+        assertEquals(0L, repeat.wireBytes);
+    }
+    
+    @Test
+    void serverRateLimitThrottlesSender() throws Exception {
+        int rate = 128 * 1024;
+        UploadReceiver receiver = receiver(rate);
+        Path source = createFile("painting.png", false);
+        Client client = new Client(receiver, source);
+        
+        long ticks = run(client, () -> false);
+        
+        assertEquals(UploadSender.State.COMPLETE, client.sender.getState());
+        assertTrue(client.throttled > 0);
+        // Корзина вмещает секунду передачи, дальше скорость не выше предела
+        double seconds = ticks * TICK_NANOS / 1e9;
+        assertTrue(seconds >= (double) (SIZE - rate) / rate, () -> seconds + " s");
+        assertArrayEquals(Files.readAllBytes(source), Files.readAllBytes(received(source)));
+    }
+    
+    @Test
+    void rejectsContentThatDoesNotMatchItsHash() throws Exception {
+        UploadReceiver receiver = receiver(1024 * 1024);
+        Path source = createFile("painting.png", false);
+        long claimed = ContentHash.hashBytes(new byte[] {1, 2, 3});
+        Client client = new Client(receiver, source, claimed);
+        
+        run(client, () -> false);
+        
+        assertEquals(UploadSender.State.FAILED, client.sender.getState());
+        assertTrue(listUploads().isEmpty());
+    }
+    
+    @Test
+    void neverReplacesExistingFileOfAnotherSize() throws Exception {
+        UploadReceiver receiver = receiver(1024 * 1024);
+        Path source = createFile("painting.png", false);
+        Files.createDirectories(uploads);
+        Path existing = received(source);
+        byte[] original = {4, 5, 6};
+        Files.write(existing, original);
+        Client client = new Client(receiver, source);
+        
+        run(client, () -> false);
+        
+        assertEquals(UploadSender.State.FAILED, client.sender.getState());
+        assertArrayEquals(original, Files.readAllBytes(existing));
+        assertEquals(List.of(existing), listUploads());
+    }
+    
+    @Test
+    void fileStoredUnderClientHashDoesNotSkipUpload() throws Exception {
+        UploadReceiver receiver = receiver(1024 * 1024);
+        Path source = createFile("painting.png", false);
+        // Другое содержимое того же размера под именем по заявленному хэшу
+        Files.createDirectories(uploads);
+        Files.write(uploads.resolve(ContentHash.toKey(ContentHash.hashFile(source)) + ".png"), new byte[SIZE]);
+        Client client = new Client(receiver, source);
+        
+        run(client, () -> false);
+        
+        assertEquals(UploadSender.State.COMPLETE, client.sender.getState());
+        assertTrue(client.wireBytes > 0L);
+        assertArrayEquals(Files.readAllBytes(source), Files.readAllBytes(received(source)));
+    }
+    
+    @Test
+    void onlyOwnUploadsAreSkipped() throws Exception {
+        UploadReceiver receiver = receiver(1024 * 1024);
+        Path source = createFile("painting.png", false);
+        run(new Client(receiver, source), () -> false);
+        
+        // Другой игрок с тем же хэшем передает файл целиком, готовый файл остается один
+        Client other = new Client(receiver, source);
+        run(other, () -> false);
+        
+        assertEquals(UploadSender.State.COMPLETE, other.sender.getState());
+        assertTrue(other.wireBytes >= SIZE);
+        assertEquals(List.of(received(source)), listUploads());
+    }
+    
+    @Test
+    void playerQuotaRejectsUploadsOverIt() throws Exception {
+        UploadReceiver receiver = receiver(1024 * 1024, SIZE * 3L / 2, Long.MAX_VALUE);
+        UUID player = UUID.randomUUID();
+        Path first = createFile("painting_0.png", false);
+        Path second = createFile("painting_1.png", false);
+        
+        Client client = new Client(receiver, first, player);
+        run(client, () -> false);
+        assertEquals(UploadSender.State.COMPLETE, client.sender.getState());
+        Client over = new Client(receiver, second, player);
+        run(over, () -> false);
+        
+        assertEquals(UploadSender.State.FAILED, over.sender.getState());
+        assertEquals(List.of(received(first)), listUploads());
+        // Другой игрок в своей квоте
+        Client other = new Client(receiver, second);
+        run(other, () -> false);
+        assertEquals(UploadSender.State.COMPLETE, other.sender.getState());
+    }
+    
+    @Test
+    void playerQuotaSurvivesRestart() throws Exception {
+        UUID player = UUID.randomUUID();
+        Path first = createFile("painting_0.png", false);
+        run(new Client(receiver(1024 * 1024, SIZE * 3L / 2, Long.MAX_VALUE), first, player), () -> false);
+        
+        Client over = new Client(receiver(1024 * 1024, SIZE * 3L / 2, Long.MAX_VALUE), createFile("painting_1.png", false), player);
+        run(over, () -> false);
+        
+        assertEquals(UploadSender.State.FAILED, over.sender.getState());
+    }
+    
+    @Test
+    void totalQuotaCountsFilesOnDisk() throws Exception {
+        Path first = createFile("painting_0.png", false);
+        run(new Client(receiver(1024 * 1024, Long.MAX_VALUE, SIZE * 3L / 2), first), () -> false);
+        
+        Client over = new Client(receiver(1024 * 1024, Long.MAX_VALUE, SIZE * 3L / 2), createFile("painting_1.png", false));
+        run(over, () -> false);
+        
+        assertEquals(UploadSender.State.FAILED, over.sender.getState());
+        assertEquals(List.of(received(first)), listUploads());
+    }
+    
+    @Test
+    void messagesOverFullQueueAreDropped() throws Exception {
+        UploadReceiver receiver = new UploadReceiver(uploads, limits(1024 * 1024, Long.MAX_VALUE, Long.MAX_VALUE),
+            task -> {
+                throw new RejectedExecutionException();
+            }, () -> now);
+        List<UploadStatusMessage> replies = new ArrayList<>();
+        
+        receiver.submitStart(UUID.randomUUID(), new UploadStartMessage(1L, SIZE, "painting.png"), replies::add);
+        receiver.playerLeft(UUID.randomUUID());
+        
+        assertTrue(replies.isEmpty());
+        assertFalse(Files.exists(uploads));
+    }
+    
+    @Test
+    void sameFileFromTwoPlayersCompletesForBoth() throws Exception {
+        UploadReceiver receiver = receiver(1024 * 1024);
+        Path source = createFile("painting.png", false);
+        Client first = new Client(receiver, source);
+        Client second = new Client(receiver, source);
+        
+        for (int tick = 0; tick < MAX_TICKS && !(first.sender.isDone() && second.sender.isDone()); tick++) {
+            now += TICK_NANOS;
+            first.tick();
+            second.tick();
+        }
+        
+        assertEquals(UploadSender.State.COMPLETE, first.sender.getState());
+        assertEquals(UploadSender.State.COMPLETE, second.sender.getState());
+        assertEquals(List.of(received(source)), listUploads());
+        assertArrayEquals(Files.readAllBytes(source), Files.readAllBytes(received(source)));
+    }
+    
+    private UploadReceiver receiver(int bytesPerSecond) {
+        return receiver(bytesPerSecond, Long.MAX_VALUE, Long.MAX_VALUE);
+    }
+    
+    private UploadReceiver receiver(int bytesPerSecond, long maxPlayerBytes, long maxTotalBytes) {
+        return new UploadReceiver(uploads, limits(bytesPerSecond, maxPlayerBytes, maxTotalBytes), Runnable::run, () -> now);
+    }
+    
+    private static UploadReceiver.Limits limits(int bytesPerSecond, long maxPlayerBytes, long maxTotalBytes) {
+        return new UploadReceiver.Limits(64 * 1024 * 1024, bytesPerSecond, 2, maxPlayerBytes, maxTotalBytes);
+    }
+    
+    /**
+     * Тикает, пока передача не завершится или не выполнится условие
+     *
+     * @return число тиков
+     */
+    private long run(Client client, BooleanSupplier stop) throws Exception {
+        long ticks = 0L;
+        while (!client.sender.isDone() && !stop.getAsBoolean() && ticks < MAX_TICKS) {
+            ticks++;
+            now += TICK_NANOS;
+            client.tick();
+        }
+        return ticks;
+    }
+    
+    /**
+     * Случайный файл: несжимаемый (как PNG и JPEG) или хорошо сжимаемый
+     */
+    private Path createFile(String name, boolean compressible) throws IOException {
+        Random random = new Random(name.hashCode());
+        byte[] data = new byte[SIZE];
+        if (compressible) {
+            for (int i = 0; i < SIZE; i++) {
+                data[i] = (byte) ((i / 64) % 7 + (random.nextInt(16) == 0 ? 1 : 0));
+            }
+        } else {
+            random.nextBytes(data);
+        }
+        Path directory = Files.createDirectories(work.resolve("source"));
+        return Files.write(directory.resolve(name), data);
+    }
+    
+    /**
+     * Готовый файл называется по SHA-256 содержимого
+     */
+    private Path received(Path source) throws IOException, NoSuchAlgorithmException {
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(source));
+        return uploads.resolve(HexFormat.of().formatHex(digest) + ".png");
+    }
+    
+    private List<Path> listUploads() throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (Files.isDirectory(uploads)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(uploads, "*.png")) {
+                stream.forEach(files::add);
+            }
+        }
+        return files;
+    }
+    
+    /**
+     * Клиент одного игрока. Сервер обрабатывает сообщения сразу, по модельным часам.
+     */
+    private final class Client {
+        private final UploadReceiver receiver;
+        private final Path source;
+        private final long hash;
+        private final UUID player;
+        private final List<UploadStatusMessage> replies = new ArrayList<>();
+        // Сообщения клиента доставляются после тика
+        private final List<Runnable> outbox = new ArrayList<>();
+        private UploadSender sender;
+        private long wireBytes;
+        private int throttled;
+        
+        private final UploadSender.Transport transport = new UploadSender.Transport() {
+            @Override
+            public void send(UploadStartMessage message) {
+                outbox.add(() -> receiver.submitStart(player, message, replies::add));
+            }
+            
+            @Override
+            public void send(UploadChunkMessage message) {
+                wireBytes += message.getWireSize();
+                outbox.add(() -> receiver.submitChunk(player, message, replies::add));
+            }
+        };
+        
+        private Client(UploadReceiver receiver, Path source) throws IOException {
+            this(receiver, source, ContentHash.hashFile(source), UUID.randomUUID());
+        }
+        
+        private Client(UploadReceiver receiver, Path source, UUID player) throws IOException {
+            this(receiver, source, ContentHash.hashFile(source), player);
+        }
+        
+        private Client(UploadReceiver receiver, Path source, long hash) throws IOException {
+            this(receiver, source, hash, UUID.randomUUID());
+        }
+        
+        private Client(UploadReceiver receiver, Path source, long hash, UUID player) throws IOException {
+            this.receiver = receiver;
+            this.source = source;
+            this.hash = hash;
+            this.player = player;
+            restart();
+        }
+        
+        private void restart() throws IOException {
+            sender = new UploadSender(source, hash, (int) Files.size(source), source.getFileName().toString(), compressor);
+            wireBytes = 0L;
+        }
+        
+        private void tick() throws Exception {
+            List<UploadStatusMessage> delivered = new ArrayList<>(replies);
+            replies.clear();
+            for (UploadStatusMessage status : delivered) {
+                if (status.getState() == UploadStatusMessage.State.THROTTLED) {
+                    throttled++;
+                }
+                sender.onStatus(status);
+            }
+            
+            // В игре сжатие части успевает к следующему тику
+            compressor.submit(() -> { }).get();
+            sender.tick(transport, BUDGET);
+            outbox.forEach(Runnable::run);
+            outbox.clear();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.immersivepaintings.exposure.tools;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Разбор аргументов вида {@code --name value} для утилит
+ */
+final class Arguments {
+    
+    private final Map<String, String> values = new HashMap<>();
+    
+    private Arguments() {
+    }
+    
+    static Arguments parse(String[] args) {
+        Arguments arguments = new Arguments();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("Expected --name value, got: " + args[i]);
+            }
+            arguments.values.put(args[i].substring(2), args[++i]);
+        }
+        return arguments;
+    }
+    
+    String getString(String name, String defaultValue) {
+        return values.getOrDefault(name, defaultValue);
+    }
+    
+    String getRequired(String name) {
+        String value = values.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing required argument --" + name);
+        }
+        return value;
+    }
+    
+    int getInt(String name, int defaultValue) {
+        String value = values.get(name);
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
+    
+    long getLong(String name, long defaultValue) {
+        String value = values.get(name);
+        return value != null ? Long.parseLong(value) : defaultValue;
+    }
+    
+    String[] getList(String name, String defaultValue) {
+        return getString(name, defaultValue).split(",");
+    }
+}
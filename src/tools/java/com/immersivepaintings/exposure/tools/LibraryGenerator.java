@@ -0,0 +1,217 @@
+package com.immersivepaintings.exposure.tools;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Создает синтетическую библиотеку фотографий в формате Exposure:
+ * {@code <out>/exposures/<world>/[player]_[id].png} или {@code [player]_[id]_[suffix].png}.
+ * Кадры ({@code --formats frame}) пишутся как данные мира Exposure:
+ * {@code <out>/saves/<world>/data/exposures/[player]_[id].dat}.
+ * Содержимое каждого файла уникально, поэтому хэши содержимого не совпадают.
+ * <p>
+ * Аргументы:
+ * <pre>
+ * --out         корневая директория (обязательно)
+ * --photos      количество фотографий на мир, по умолчанию 1000
+ * --worlds      количество миров, по умолчанию 1
+ * --players     количество фотографов, по умолчанию 8
+ * --sizes       размеры через запятую, по умолчанию 320x240
+ * --formats     форматы через запятую (png, jpg, frame), по умолчанию png
+ * --seed        начальное значение генератора, по умолчанию 42
+ * --threads     потоков записи, по умолчанию число процессоров
+ * </pre>
+ */
+public final class LibraryGenerator {
+    
+    private static final String[] SUFFIXES = {"", "", "_sunset", "_castle", "_portrait", "_night"};
+    private static final String FRAME = "frame";
+    // Версия данных Minecraft 1.20.1 в файлах SavedData
+    private static final int DATA_VERSION = 3465;
+    
+    private LibraryGenerator() {
+    }
+    
+    public static void main(String[] args) throws Exception {
+        Arguments arguments = Arguments.parse(args);
+        Path root = Paths.get(arguments.getRequired("out")).resolve("exposures");
+        int photos = arguments.getInt("photos", 1000);
+        int worlds = arguments.getInt("worlds", 1);
+        int players = arguments.getInt("players", 8);
+        int[][] sizes = parseSizes(arguments.getList("sizes", "320x240"));
+        String[] formats = parseFormats(arguments.getList("formats", "png"));
+        long seed = arguments.getLong("seed", 42L);
+        int threads = arguments.getInt("threads", Runtime.getRuntime().availableProcessors());
+        
+        long start = System.nanoTime();
+        AtomicLong bytesWritten = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int world = 0; world < worlds; world++) {
+                Path directory = Files.createDirectories(root.resolve("world_" + world));
+                Path framesDirectory = root.resolveSibling("saves").resolve("world_" + world).resolve("data").resolve("exposures");
+                if (Arrays.asList(formats).contains(FRAME)) {
+                    Files.createDirectories(framesDirectory);
+                }
+                Random random = new Random(seed + world);
+                for (int i = 0; i < photos; i++) {
+                    // Имена и параметры выбираются последовательно - библиотека воспроизводима при любом числе потоков
+                    String player = "player_" + random.nextInt(players);
+                    String suffix = SUFFIXES[random.nextInt(SUFFIXES.length)];
+                    int[] size = sizes[random.nextInt(sizes.length)];
+                    String format = formats[random.nextInt(formats.length)];
+                    Path file = format.equals(FRAME)
+                        ? framesDirectory.resolve(String.format(Locale.ROOT, "%s_%d.dat", player, 100000 + i))
+                        : directory.resolve(String.format(Locale.ROOT, "%s_%d%s.%s", player, 100000 + i, suffix, format));
+                    long photoSeed = random.nextLong();
+                    long lastModified = 1_600_000_000_000L + random.nextInt(1_000_000_000);
+                    
+                    futures.add(executor.submit(() -> {
+                        bytesWritten.addAndGet(writePhoto(file, size[0], size[1], format, photoSeed, lastModified));
+                        return null;
+                    }));
+                }
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long total = (long) photos * worlds;
+        System.out.printf(Locale.ROOT, "Generated %d photos (%.1f MB) in %s in %.1f s (%.0f photos/s)%n",
+            total, bytesWritten.get() / (1024.0 * 1024.0), root, seconds, total / seconds);
+    }
+    
+    private static long writePhoto(Path file, int width, int height, String format, long seed, long lastModified) {
+        try (OutputStream out = Files.newOutputStream(file)) {
+            if (format.equals(FRAME)) {
+                writeFrame(out, width, height, seed);
+            } else if (!ImageIO.write(createImage(width, height, seed), format.equals("jpg") ? "jpeg" : format, out)) {
+                throw new IllegalStateException("No ImageIO writer for " + format);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        
+        try {
+            // Разное время изменения, чтобы сортировка по времени не совпадала с порядком имен
+            Files.setLastModifiedTime(file, FileTime.fromMillis(lastModified));
+            return Files.size(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    /**
+     * Градиент со случайным сдвигом и шумом: сжимается примерно как настоящая фотография
+     */
+    private static BufferedImage createImage(int width, int height, long seed) {
+        Random random = new Random(seed);
+        int shiftR = random.nextInt(256);
+        int shiftG = random.nextInt(256);
+        int shiftB = random.nextInt(256);
+        
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = (x * 255 / width + shiftR + random.nextInt(12)) & 0xFF;
+                int g = (y * 255 / height + shiftG + random.nextInt(12)) & 0xFF;
+                int b = ((x + y) * 127 / (width + height) + shiftB + random.nextInt(12)) & 0xFF;
+                row[x] = (r << 16) | (g << 8) | b;
+            }
+            image.setRGB(0, y, width, 1, row, 0, width);
+        }
+        return image;
+    }
+    
+    /**
+     * Кадр в формате SavedData Exposure: сжатый NBT {data: {width, height, pixels}, DataVersion}.
+     * Пиксели - индексы палитры карт (цвет * 4 + яркость), градиент по цветам с шумом яркости.
+     */
+    private static void writeFrame(OutputStream target, int width, int height, long seed) throws IOException {
+        Random random = new Random(seed);
+        int shift = random.nextInt(61);
+        byte[] pixels = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                // Цвета 1..61: 0 - прозрачный, старшие цвета есть не во всех версиях
+                int color = 1 + (shift + (x + y) * 60 / (width + height)) % 61;
+                pixels[y * width + x] = (byte) (color * 4 + random.nextInt(3));
+            }
+        }
+        
+        GZIPOutputStream compressed = new GZIPOutputStream(target);
+        DataOutputStream out = new DataOutputStream(compressed);
+        out.writeByte(10);
+        out.writeUTF("");
+        out.writeByte(10);
+        out.writeUTF("data");
+        out.writeByte(3);
+        out.writeUTF("width");
+        out.writeInt(width);
+        out.writeByte(3);
+        out.writeUTF("height");
+        out.writeInt(height);
+        out.writeByte(7);
+        out.writeUTF("pixels");
+        out.writeInt(pixels.length);
+        out.write(pixels);
+        out.writeByte(0);
+        out.writeByte(3);
+        out.writeUTF("DataVersion");
+        out.writeInt(DATA_VERSION);
+        out.writeByte(0);
+        out.flush();
+        compressed.finish();
+    }
+    
+    private static int[][] parseSizes(String[] values) {
+        int[][] sizes = new int[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            String[] parts = values[i].trim().toLowerCase(Locale.ROOT).split("x");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Size must be WIDTHxHEIGHT: " + values[i]);
+            }
+            sizes[i] = new int[]{Integer.parseInt(parts[0]), Integer.parseInt(parts[1])};
+        }
+        return sizes;
+    }
+    
+    private static String[] parseFormats(String[] values) {
+        String[] formats = new String[values.length];
+        for (int i = 0; i < values.length; i++) {
+            String format = values[i].trim().toLowerCase(Locale.ROOT);
+            if (format.equals("jpeg")) {
+                format = "jpg";
+            }
+            if (!format.equals("png") && !format.equals("jpg") && !format.equals(FRAME)) {
+                throw new IllegalArgumentException("Unsupported format (png, jpg, frame): " + values[i]);
+            }
+            formats[i] = format;
+        }
+        return formats;
+    }
+}
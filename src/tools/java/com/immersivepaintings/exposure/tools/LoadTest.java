@@ -0,0 +1,312 @@
+package com.immersivepaintings.exposure.tools;
+
+import com.immersivepaintings.exposure.exposure.ExposurePhoto;
+import com.immersivepaintings.exposure.exposure.ExposurePhotoManager;
+import com.immersivepaintings.exposure.exposure.PhotoLibraryIndex;
+import com.immersivepaintings.exposure.gui.ThumbnailLoader;
+import com.immersivepaintings.exposure.image.PaintingConverter;
+import com.immersivepaintings.exposure.image.PaintingImage;
+import com.immersivepaintings.exposure.image.PaletteQuantizer;
+import com.immersivepaintings.exposure.integration.PhotoContentStore;
+import com.immersivepaintings.exposure.metrics.PipelineMetrics;
+
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Нагрузочный прогон конвейера без клиента и GPU: индексация директории мира,
+ * получение миниатюр и применение фотографий (конвертация в картину, запись PNG и копия в хранилище по содержимому).
+ * Для каждого этапа выводит пропускную способность, пиковый объем кучи, пик прямых и отображенных
+ * буферов, пиковый RSS процесса (только Linux) и время GC, в конце - метрики {@link PipelineMetrics}.
+ * Декодеры и хэширование работают с памятью вне кучи, поэтому одного пика кучи недостаточно.
+ * <p>
+ * Дисковый кэш миниатюр без клиента не используется, поэтому каждая миниатюра декодируется.
+ * <p>
+ * Аргументы:
+ * <pre>
+ * --dir              директория мира с фотографиями (out/exposures/world_0) или кадрами (out/saves/world_0/data/exposures)
+ * --thumbnails       сколько миниатюр получить, по умолчанию все фотографии
+ * --applies          сколько фотографий применить, по умолчанию 200
+ * --max-blocks       длинная сторона картины в блоках, по умолчанию 4
+ * --pixels-per-block пикселей на блок, по умолчанию 32
+ * --palette          NONE, MAP_COLORS или GRAYSCALE, по умолчанию NONE
+ * --dither           NONE, ORDERED или FLOYD_STEINBERG, по умолчанию ORDERED
+ * --threads          потоков декодирования, по умолчанию как у ThumbnailLoader
+ * </pre>
+ */
+public final class LoadTest {
+    
+    private static final int THUMBNAIL_SIZE = 128;
+    private static final int BATCH_SIZE = 256;
+    private static final long SAMPLE_INTERVAL_MILLIS = 10L;
+    private static final Path PROC_STATUS = Paths.get("/proc/self/status");
+    private static final Path PROC_CLEAR_REFS = Paths.get("/proc/self/clear_refs");
+    
+    private LoadTest() {
+    }
+    
+    public static void main(String[] args) throws Exception {
+        Arguments arguments = Arguments.parse(args);
+        Path directory = Paths.get(arguments.getRequired("dir"));
+        if (!Files.isDirectory(directory)) {
+            throw new IllegalArgumentException("Not a directory: " + directory);
+        }
+        int threads = arguments.getInt("threads", Math.max(1, Math.min(3, Runtime.getRuntime().availableProcessors() - 1)));
+        
+        // Индексация: сканирование пачками и построение индекса поиска, как на экране вкладки
+        PhotoLibraryIndex index = new PhotoLibraryIndex();
+        List<ExposurePhoto> photos = new ArrayList<>();
+        runPhase("index", () -> {
+            int total = ExposurePhotoManager.getInstance().scanDirectory(directory, BATCH_SIZE, batch -> {
+                photos.addAll(batch);
+                index.addAll(batch);
+            }, () -> false);
+            index.query("", PhotoLibraryIndex.SortOrder.NEWEST);
+            return total;
+        });
+        if (photos.isEmpty()) {
+            System.out.println("No photos found in " + directory);
+            return;
+        }
+        
+        int thumbnails = Math.min(photos.size(), arguments.getInt("thumbnails", photos.size()));
+        ThumbnailLoader loader = new ThumbnailLoader(THUMBNAIL_SIZE, contentKey -> false);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            runPhase("thumbnails", () -> {
+                List<Future<Boolean>> futures = new ArrayList<>(thumbnails);
+                for (ExposurePhoto photo : photos.subList(0, thumbnails)) {
+                    futures.add(executor.submit(() -> {
+                        Path path = photo.getFilePath();
+                        try {
+                            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                            return !loader.loadThumbnail(path.toString(), path, attributes).isFailed();
+                        } catch (Exception e) {
+                            System.err.println("Failed to load thumbnail for " + path + ": " + e);
+                            return false;
+                        }
+                    }));
+                }
+                int loaded = 0;
+                for (Future<Boolean> future : futures) {
+                    if (future.get()) {
+                        loaded++;
+                    }
+                }
+                if (loaded < thumbnails) {
+                    System.out.printf(Locale.ROOT, "%d of %d thumbnails failed%n", thumbnails - loaded, thumbnails);
+                }
+                return loaded;
+            });
+        } finally {
+            executor.shutdown();
+            loader.cancelAll();
+        }
+        
+        int applies = Math.min(photos.size(), arguments.getInt("applies", 200));
+        int maxBlocks = arguments.getInt("max-blocks", 4);
+        int pixelsPerBlock = arguments.getInt("pixels-per-block", 32);
+        PaletteQuantizer quantizer = PaletteQuantizer.Palette.valueOf(arguments.getString("palette", "NONE")).getQuantizer();
+        PaletteQuantizer.Dither dither = PaletteQuantizer.Dither.valueOf(arguments.getString("dither", "ORDERED"));
+        Path store = Files.createTempDirectory("exposure-loadtest-paintings");
+        try {
+            // Как при применении: конвертация, палитра, PNG в хранилище картин и копия в директорию Immersive Paintings
+            Path paintings = store.resolve("paintings");
+            Path userPaintings = store.resolve("user_paintings");
+            runPhase("apply", () -> {
+                for (ExposurePhoto photo : photos.subList(0, applies)) {
+                    int[] size = PaintingConverter.fitPainting(photo.getAspectRatio(), maxBlocks, pixelsPerBlock);
+                    PaintingImage image = PaintingConverter.getInstance().convert(photo.getFilePath(), size[0], size[1], size[2]);
+                    if (quantizer != null) {
+                        image = quantizer.quantize(image, dither);
+                    }
+                    Path painting = PhotoContentStore.getInstance().storeBytes(image.encodePng(), paintings, "png");
+                    PhotoContentStore.getInstance().store(painting, userPaintings, photo.getName());
+                }
+                return applies;
+            });
+        } finally {
+            deleteRecursively(store);
+        }
+        
+        System.out.println();
+        System.out.println("Pipeline metrics:");
+        for (String line : PipelineMetrics.getInstance().summaryLines()) {
+            System.out.println("  " + line);
+        }
+    }
+    
+    /**
+     * Выполняет этап и печатает: количество, время, скорость, пики памяти и время GC за этап
+     */
+    private static void runPhase(String name, Callable<Integer> phase) throws Exception {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+        long gcBefore = totalGcMillis();
+        
+        long start = System.nanoTime();
+        int count;
+        NativeMemorySampler sampler = new NativeMemorySampler();
+        try {
+            count = phase.call();
+        } finally {
+            sampler.stop();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        
+        // Сумма пиков по областям кучи - верхняя оценка: пики областей могут приходиться на разное время
+        long peakHeap = 0L;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peakHeap += pool.getPeakUsage().getUsed();
+            }
+        }
+        
+        long peakRss = sampler.getPeakRss();
+        System.out.printf(Locale.ROOT, "%-10s %7d items in %8.1f ms  %10.0f items/s  peak heap %7.1f MB  "
+                + "direct+mapped %7.1f MB  rss %s  gc %d ms%n",
+            name, count, seconds * 1000.0, count / Math.max(seconds, 1e-9), peakHeap / (1024.0 * 1024.0),
+            sampler.getPeakBuffers() / (1024.0 * 1024.0),
+            peakRss >= 0 ? String.format(Locale.ROOT, "%7.1f MB", peakRss / (1024.0 * 1024.0)) : "n/a",
+            totalGcMillis() - gcBefore);
+    }
+    
+    private static long totalGcMillis() {
+        long total = 0L;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0L, collector.getCollectionTime());
+        }
+        return total;
+    }
+    
+    /**
+     * Строка /proc/self/status в байтах (значения там в килобайтах)
+     *
+     * @return -1, если файла или поля нет (не Linux)
+     */
+    private static long readProcStatus(String field) {
+        try {
+            for (String line : Files.readAllLines(PROC_STATUS)) {
+                if (line.startsWith(field)) {
+                    String value = line.substring(field.length()).trim();
+                    return Long.parseLong(value.substring(0, value.indexOf(' '))) * 1024L;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // Нет procfs
+        }
+        return -1L;
+    }
+    
+    /**
+     * Пики памяти вне кучи за этап. У пулов буферов нет пикового значения, поэтому они опрашиваются
+     * в фоне каждые {@link #SAMPLE_INTERVAL_MILLIS} мс. Пик RSS - наибольшее из опросов VmRSS и VmHWM;
+     * VmHWM перед этапом сбрасывается через /proc/self/clear_refs, если это разрешено.
+     */
+    private static final class NativeMemorySampler {
+        private final List<BufferPoolMXBean> pools = ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class);
+        private final boolean hwmReset;
+        private final Thread thread;
+        private volatile boolean running = true;
+        private volatile long peakBuffers;
+        private volatile long peakRss;
+        
+        private NativeMemorySampler() {
+            hwmReset = resetHighWaterMark();
+            peakBuffers = bufferUsage();
+            peakRss = readProcStatus("VmRSS:");
+            thread = new Thread(this::run, "ImmersivePaintingsExposure-MemorySampler");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        
+        private void run() {
+            while (running) {
+                sample();
+                try {
+                    Thread.sleep(SAMPLE_INTERVAL_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+        
+        private void sample() {
+            peakBuffers = Math.max(peakBuffers, bufferUsage());
+            long rss = readProcStatus("VmRSS:");
+            if (rss > peakRss) {
+                peakRss = rss;
+            }
+        }
+        
+        private void stop() throws InterruptedException {
+            running = false;
+            thread.interrupt();
+            thread.join();
+            sample();
+            if (hwmReset) {
+                peakRss = Math.max(peakRss, readProcStatus("VmHWM:"));
+            }
+        }
+        
+        /**
+         * Прямые и отображенные в память буферы ("direct" и "mapped")
+         */
+        private long bufferUsage() {
+            long used = 0L;
+            for (BufferPoolMXBean pool : pools) {
+                used += Math.max(0L, pool.getMemoryUsed());
+            }
+            return used;
+        }
+        
+        private static boolean resetHighWaterMark() {
+            try {
+                Files.writeString(PROC_CLEAR_REFS, "5");
+                return true;
+            } catch (IOException | RuntimeException e) {
+                return false;
+            }
+        }
+        
+        private long getPeakBuffers() {
+            return peakBuffers;
+        }
+        
+        /**
+         * @return -1, если RSS недоступен
+         */
+        private long getPeakRss() {
+            return peakRss;
+        }
+    }
+    
+    private static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}